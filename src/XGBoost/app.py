@@ -7,8 +7,10 @@ import requests
 import matplotlib.pyplot as plt
 from fastapi import FastAPI, Query, HTTPException, Response
 from fastapi.responses import JSONResponse, StreamingResponse
+from concurrent.futures import ThreadPoolExecutor
 from datetime import datetime
-from typing import Optional
+from typing import List, Optional
+from pydantic import BaseModel
 import time
 
 app = FastAPI(title="PV Forecast API", version="1.1")
@@ -206,7 +208,8 @@ def root():
         "message": "Welcome to PV Forecast API",
         "usage": {
             "/forecast": "hourly forecast",
-            "/daily_forecast": "daily aggregated forecast (kWh per day)"
+            "/daily_forecast": "daily aggregated forecast (kWh per day)",
+            "/forecast_batch": "hourly W/kWp forecasts for many locations in one call (POST)"
         }
     }
 
@@ -281,3 +284,56 @@ def daily_forecast(
     except Exception as e:
         logger.exception("Error in /daily_forecast")
         raise HTTPException(status_code=500, detail=str(e))
+
+
+# ============================================================
+# 8. Batched hourly forecast for many locations
+# ============================================================
+class BatchItem(BaseModel):
+    lat: float
+    lon: float
+    start: str
+    end: str
+
+
+class BatchRequest(BaseModel):
+    items: List[BatchItem]
+
+
+# Weather calls are network bound, a few run side by side
+WEATHER_WORKERS = 8
+
+
+@app.post("/forecast_batch")
+def forecast_batch(request: BatchRequest):
+    """
+    Hourly W/kWp for every item, predicted on one frame with a single model load.
+    Results come back in request order; a failing item carries an error instead of failing the batch.
+    """
+    logger.info(f"forecast_batch called with {len(request.items)} locations")
+    model, features = load_model()
+    results = [None] * len(request.items)
+
+    def weather(index_item):
+        index, item = index_item
+        try:
+            df = prepare_features(fetch_open_meteo(item.lat, item.lon, item.start, item.end))
+            df["item"] = index
+            return df
+        except Exception as e:
+            results[index] = {"error": str(e.detail if isinstance(e, HTTPException) else e)}
+            return None
+
+    with ThreadPoolExecutor(max_workers=WEATHER_WORKERS) as pool:
+        frames = [df for df in pool.map(weather, enumerate(request.items)) if df is not None]
+
+    if frames:
+        df_all = pd.concat(frames, ignore_index=True)
+        df_all["pred_W_per_kWp"] = np.maximum(model.predict(df_all[features].fillna(0)), 0)
+        df_all["time"] = df_all["time"].dt.strftime("%Y-%m-%dT%H:%M:%SZ")
+        for index, group in df_all.groupby("item"):
+            results[int(index)] = {"forecast": group[["time", "pred_W_per_kWp"]].to_dict(orient="records")}
+
+    logger.info("Batch forecast ready")
+    return JSONResponse({"results": results})
+
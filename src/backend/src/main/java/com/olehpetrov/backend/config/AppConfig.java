@@ -1,14 +1,41 @@
 package com.olehpetrov.backend.config;
 
+import com.olehpetrov.backend.filters.SeedingGateFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
 
 @Configuration
+@EnableScheduling
 public class AppConfig {
 
     @Bean
     public RestTemplate restTemplate() {
         return new RestTemplate();
     }
-}
\ No newline at end of file
+
+    // Non-blocking client for the reactive forecast endpoints
+    @Bean
+    public WebClient webClient(WebClient.Builder builder) {
+        return builder.build();
+    }
+
+    // Ahead of security, so token validation does not look up users that are still being seeded
+    @Bean
+    public FilterRegistrationBean<SeedingGateFilter> seedingGateFilter(StartupSeeding seeding,
+                                                                       MeterRegistry meterRegistry,
+                                                                       @Value("${startup.seeding.gate-timeout-ms:10000}") long timeoutMs) {
+        FilterRegistrationBean<SeedingGateFilter> registration =
+                new FilterRegistrationBean<>(new SeedingGateFilter(seeding, meterRegistry, Duration.ofMillis(timeoutMs)));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
@@ -0,0 +1,141 @@
+package com.olehpetrov.backend.config;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.WriteModel;
+import com.olehpetrov.backend.models.DailyEnergyTotal;
+import com.olehpetrov.backend.models.EnergyBucket;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
+import com.olehpetrov.backend.services.EnergySeriesService;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies the legacy one-document-per-day {@code daily_energy_totals} collection into monthly
+ * energy buckets. It runs while the app already takes writes, so it only fills slots that are
+ * still empty and a day written by live traffic keeps its newer value. The copy is idempotent,
+ * records a marker in the {@code migrations} collection when done, and leaves the legacy
+ * collection in place so it can be dropped by hand once the buckets are verified.
+ */
+@Component
+public class EnergyBucketMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(EnergyBucketMigration.class);
+
+    static final String MIGRATION_ID = "daily_energy_totals_to_energy_buckets";
+
+    private final MongoTemplate mongoTemplate;
+    private final EnergySeriesService energySeriesService;
+    private final boolean enabled;
+    private final int batchSize;
+
+    public EnergyBucketMigration(MongoTemplate mongoTemplate,
+                                 EnergySeriesService energySeriesService,
+                                 @Value("${energy.buckets.migrate-on-startup:true}") boolean enabled,
+                                 @Value("${energy.buckets.migration-batch-size:5000}") int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.energySeriesService = energySeriesService;
+        this.enabled = enabled;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            migrate();
+        } catch (RuntimeException e) {
+            // The marker is only written on success, so the next start simply tries again
+            logger.error("Energy bucket migration failed", e);
+        }
+    }
+
+    /**
+     * @return number of legacy documents copied, 0 when the migration already ran
+     */
+    public long migrate() {
+        MongoCollection<Document> migrations = mongoTemplate.getCollection("migrations");
+        if (migrations.find(Filters.eq("_id", MIGRATION_ID)).first() != null) {
+            return 0;
+        }
+
+        MongoCollection<Document> legacy = mongoTemplate.getCollection(mongoTemplate.getCollectionName(DailyEnergyTotal.class));
+        long copied = 0;
+        long skipped = 0;
+        Map<String, Map<LocalDate, Double>> pending = new HashMap<>();
+        int pendingValues = 0;
+
+        try (MongoCursor<Document> cursor = legacy.find()
+                .projection(Projections.include("panel", "date", "totalEnergy_kwh"))
+                .batchSize(batchSize)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document total = cursor.next();
+                Object panelId = ReferenceLoader.referencedId(total, "panel");
+                LocalDate day = parseDate(total.getString("date"));
+                if (panelId == null || day == null || !(total.get("totalEnergy_kwh") instanceof Number energy)) {
+                    skipped++;
+                    continue;
+                }
+
+                pending.computeIfAbsent(String.valueOf(panelId), id -> new HashMap<>()).put(day, energy.doubleValue());
+                copied++;
+                if (++pendingValues >= batchSize) {
+                    flush(pending);
+                    pendingValues = 0;
+                }
+            }
+        }
+        flush(pending);
+
+        try {
+            migrations.insertOne(new Document("_id", MIGRATION_ID)
+                    .append("completedAt", new Date())
+                    .append("copied", copied)
+                    .append("skipped", skipped));
+        } catch (MongoWriteException e) {
+            // Another instance finished the same migration concurrently
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+        logger.info("Migrated {} daily energy totals into energy buckets ({} malformed documents skipped)", copied, skipped);
+        return copied;
+    }
+
+    private void flush(Map<String, Map<LocalDate, Double>> pending) {
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        pending.forEach((panelId, values) ->
+                writes.addAll(energySeriesService.dailyFillWrites(EnergyBucket.OwnerType.PANEL, panelId, values)));
+        energySeriesService.bulkWrite(writes);
+        pending.clear();
+    }
+
+    private static LocalDate parseDate(String date) {
+        try {
+            return date == null ? null : LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
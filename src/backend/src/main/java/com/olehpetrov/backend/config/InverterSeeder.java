@@ -1,27 +1,45 @@
 package com.olehpetrov.backend.config;
 
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
 import com.olehpetrov.backend.models.Inverter;
-import com.olehpetrov.backend.repositories.InverterRepository;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
 
+/**
+ * Default inverter catalogue, upserted by name in a single bulk write. Names match
+ * case-insensitively, with the collation of the {@code name_ci} index, as they do everywhere else.
+ * Run by {@link StartupSeeding}.
+ */
 @Component
-public class InverterSeeder implements CommandLineRunner {
+public class InverterSeeder {
 
     private static final Logger logger = LoggerFactory.getLogger(InverterSeeder.class);
 
-    private final InverterRepository inverterRepository;
+    private static final Collation NAME_COLLATION = Collation.builder()
+            .locale("en")
+            .collationStrength(CollationStrength.SECONDARY)
+            .build();
 
-    public InverterSeeder(InverterRepository inverterRepository) {
-        this.inverterRepository = inverterRepository;
+    private final MongoTemplate mongoTemplate;
+
+    public InverterSeeder(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
     }
 
-    @Override
-    public void run(String... args) {
+    public void seed() {
         List<Inverter> defaultInverters = List.of(
                 createInverter("Sample Inverter 5kW 95COP", "SampleTech", 95.0, 5.0),
                 createInverter("Sample Inverter 10kW 95.5COP", "SampleTech", 95.5, 10.0),
@@ -35,12 +53,23 @@ public class InverterSeeder implements CommandLineRunner {
                 createInverter("Sample Inverter 60kW 98COP", "SampleTech", 98.0, 60.0)
         );
 
-        defaultInverters.forEach(inverter -> {
-            if (!inverterRepository.existsByNameIgnoreCase(inverter.getName())) {
-                inverterRepository.save(inverter);
-                logger.info("Seeded inverter '{}' with efficiency {}%", inverter.getName(), inverter.getEfficiency());
-            }
-        });
+        List<UpdateOneModel<Document>> upserts = defaultInverters.stream()
+                .map(inverter -> new UpdateOneModel<Document>(
+                        Filters.eq("name", inverter.getName()),
+                        Updates.combine(
+                                Updates.setOnInsert("manufacturer", inverter.getManufacturer()),
+                                Updates.setOnInsert("efficiency", inverter.getEfficiency()),
+                                Updates.setOnInsert("capacity", inverter.getCapacity())),
+                        new UpdateOptions().upsert(true).collation(NAME_COLLATION)))
+                .toList();
+        try {
+            BulkWriteResult result = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Inverter.class))
+                    .bulkWrite(upserts, new BulkWriteOptions().ordered(false));
+            logger.info("Seeded {} of {} default inverters", result.getUpserts().size(), upserts.size());
+        } catch (MongoBulkWriteException e) {
+            // Another instance seeding at the same time, its documents are just as good
+            logger.warn("Inverter seeding skipped {} of {} inverters", e.getWriteErrors().size(), upserts.size());
+        }
     }
 
     private Inverter createInverter(String name, String manufacturer, double efficiency, double capacity) {
@@ -0,0 +1,23 @@
+package com.olehpetrov.backend.config;
+
+import com.olehpetrov.backend.repositories.PrefetchingDbRefResolver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+@Configuration
+public class MongoConfig {
+
+    // Same converter Spring Boot would create, but with a resolver that can serve batch-loaded DBRefs
+    @Bean
+    public MappingMongoConverter mappingMongoConverter(MongoDatabaseFactory factory,
+                                                       MongoMappingContext context,
+                                                       MongoCustomConversions conversions) {
+        MappingMongoConverter converter = new MappingMongoConverter(new PrefetchingDbRefResolver(factory), context);
+        converter.setCustomConversions(conversions);
+        return converter;
+    }
+}
@@ -19,6 +19,7 @@ import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 import org.springframework.security.core.authority.mapping.GrantedAuthorityDefaults;
+import jakarta.servlet.DispatcherType;
 import java.util.Arrays;
 
 @Configuration
@@ -40,6 +41,8 @@ public class SecurityConfig {
                 .csrf(csrf -> csrf.disable())
                 // Configure authentication and authorization
                 .authorizeHttpRequests(authorize -> authorize
+                        // Async results (reactive forecast endpoints) are dispatched after the request was already authorized
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers("/api/auth/signup", "/api/auth/signin","/api/user/create_admin").permitAll()
                         .anyRequest().authenticated()
                 )
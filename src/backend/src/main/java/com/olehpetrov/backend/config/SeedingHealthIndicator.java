@@ -0,0 +1,33 @@
+package com.olehpetrov.backend.config;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Startup seeding progress, reported in the details only: the indicator is always UP, requests
+ * that need a stage still running are held by the seeding gate. A failed stage still counts as
+ * done, it shows up in the details.
+ */
+@Component
+public class SeedingHealthIndicator implements HealthIndicator {
+
+    private final StartupSeeding seeding;
+
+    public SeedingHealthIndicator(StartupSeeding seeding) {
+        this.seeding = seeding;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder health = Health.up().withDetail("complete", seeding.isComplete());
+        for (StartupSeeding.Stage stage : StartupSeeding.Stage.values()) {
+            health.withDetail(stage.name().toLowerCase(), seeding.isComplete(stage) ? "done" : "running");
+        }
+        Map<StartupSeeding.Stage, Throwable> failures = seeding.failures();
+        failures.forEach((stage, e) -> health.withDetail(stage.name().toLowerCase() + ".error", String.valueOf(e.getMessage())));
+        return health.build();
+    }
+}
@@ -0,0 +1,138 @@
+package com.olehpetrov.backend.config;
+
+import com.olehpetrov.backend.services.SampleDataInitializer;
+import com.olehpetrov.backend.services.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Seeds the inverter catalogue, the admin user and the demo data on a background executor as
+ * soon as the context has started, instead of blocking startup. Each stage completes on its own,
+ * so a request only waits for the stage holding the data it reads (see {@code SeedingGateFilter}).
+ * A failed stage is logged and counts as done; the application serves without that data.
+ */
+@Component
+public class StartupSeeding {
+
+    private static final Logger logger = LoggerFactory.getLogger(StartupSeeding.class);
+
+    public enum Stage { INVERTERS, USERS, SAMPLE_DATA }
+
+    private final InverterSeeder inverterSeeder;
+    private final UserService userService;
+    private final SampleDataInitializer sampleDataInitializer;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Map<Stage, CompletableFuture<Void>> stages = new EnumMap<>(Stage.class);
+    private final Map<Stage, Throwable> failures = new EnumMap<>(Stage.class);
+    private final ExecutorService executor = Executors.newFixedThreadPool(Stage.values().length, runnable -> {
+        Thread thread = new Thread(runnable, "startup-seeding");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StartupSeeding(InverterSeeder inverterSeeder,
+                          UserService userService,
+                          SampleDataInitializer sampleDataInitializer,
+                          MeterRegistry meterRegistry,
+                          @Value("${startup.seeding.enabled:true}") boolean enabled) {
+        this.inverterSeeder = inverterSeeder;
+        this.userService = userService;
+        this.sampleDataInitializer = sampleDataInitializer;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new CompletableFuture<>());
+        }
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void start() {
+        if (!enabled) {
+            stages.values().forEach(stage -> stage.complete(null));
+            return;
+        }
+        // The stages touch different documents, so they run side by side
+        run(Stage.INVERTERS, inverterSeeder::seed);
+        run(Stage.USERS, userService::createAdminUserIfNotExists);
+        run(Stage.SAMPLE_DATA, sampleDataInitializer::createSampleUserWithData);
+        CompletableFuture.allOf(stages.values().toArray(CompletableFuture[]::new))
+                .whenComplete((done, e) -> executor.shutdown());
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public boolean isComplete(Stage stage) {
+        return stages.get(stage).isDone();
+    }
+
+    public boolean isComplete() {
+        return stages.values().stream().allMatch(CompletableFuture::isDone);
+    }
+
+    public Map<Stage, Throwable> failures() {
+        synchronized (failures) {
+            return Map.copyOf(failures);
+        }
+    }
+
+    /**
+     * Blocks until the stage is done or the timeout passes.
+     *
+     * @return whether the stage is done
+     */
+    public boolean await(Stage stage, Duration timeout) throws InterruptedException {
+        try {
+            stages.get(stage).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // Stages never complete exceptionally, see run
+            return true;
+        }
+    }
+
+    private void run(Stage stage, Runnable seed) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        executor.execute(() -> {
+            String outcome = "success";
+            try {
+                seed.run();
+            } catch (RuntimeException e) {
+                outcome = "failure";
+                logger.error("Startup seeding stage {} failed", stage, e);
+                synchronized (failures) {
+                    failures.put(stage, e);
+                }
+            }
+            long nanos = sample.stop(Timer.builder("startup.seeding")
+                    .description("Time to complete a startup seeding stage")
+                    .tag("stage", stage.name().toLowerCase())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+            logger.info("Startup seeding stage {} done in {} ms", stage, TimeUnit.NANOSECONDS.toMillis(nanos));
+            stages.get(stage).complete(null);
+        });
+    }
+}
@@ -2,13 +2,19 @@ package com.olehpetrov.backend.controllers;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonSetter;
+import com.mongodb.client.result.UpdateResult;
 import com.olehpetrov.backend.models.*;
+import com.olehpetrov.backend.requests.ClusterMembershipRequest;
 import com.olehpetrov.backend.requests.LocationRequest;
+import com.olehpetrov.backend.responses.BulkUpdateResponse;
 import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.ClusterView;
 import com.olehpetrov.backend.services.ClusterService;
 import com.olehpetrov.backend.services.InverterService;
+import com.olehpetrov.backend.services.SolarPanelService;
 import com.olehpetrov.backend.services.UserService;
 import com.olehpetrov.backend.utils.JwtUtils;
+import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,6 +37,8 @@ public class ClusterController {
     @Autowired
     private ClusterService clusterService;
     @Autowired
+    private SolarPanelService panelService;
+    @Autowired
     private InverterService inverterService;
     @Autowired
     private UserService userService;
@@ -61,8 +69,8 @@ public class ClusterController {
         // Handle location unless cluster should behave as a group without location
         if (!Boolean.TRUE.equals(clusterRequest.getGroup())) {
             if (clusterRequest.getLocation() != null) {
-                Location location = handleLocation(clusterRequest.getLocation(), user);
-                cluster.setLocation(location);
+                // Clusters at the same site share one interned location
+                cluster.setLocation(locationService.intern(clusterRequest.getLocation()));
             }
         } else {
             cluster.setLocation(null);
@@ -84,34 +92,9 @@ public class ClusterController {
         return ResponseEntity.ok("Cluster added successfully.");
     }
 
-    private Location handleLocation(LocationRequest locationRequest, User user) {
-        Location location;
-
-        if (user.getLocation() != null) {
-            location = user.getLocation(); // Existing location
-            // Update the existing location fields
-            location.setLat(locationRequest.getLat());
-            location.setLon(locationRequest.getLon());
-            location.setCity(locationRequest.getCity());
-            location.setDistrict(locationRequest.getDistrict());
-            location.setCountry(locationRequest.getCountry());
-        } else {
-            // Create a new location if the user does not have one
-            location = new Location();
-            location.setLat(locationRequest.getLat());
-            location.setLon(locationRequest.getLon());
-            location.setCity(locationRequest.getCity());
-            location.setDistrict(locationRequest.getDistrict());
-            location.setCountry(locationRequest.getCountry());
-        }
-
-        // Save or update the location
-        locationService.register(location);
-        return location;
-    }
     // Get all clusters by user ID
     @GetMapping("/user")
-    public ResponseEntity<List<Cluster>> getClustersByUserId(@RequestHeader("Authorization") String token) {
+    public ResponseEntity<List<ClusterView>> getClustersByUserId(@RequestHeader("Authorization") String token) {
         String username = jwtUtils.extractUsername(token.substring(7));
         User user = userService.findByUsername(username);
 
@@ -119,14 +102,24 @@ public class ClusterController {
             return ResponseEntity.badRequest().body(null);
         }
 
-        List<Cluster> clusters = clusterService.getClustersByUserId(user.getId());
+        List<ClusterView> clusters = clusterService.getClusterViewsByUserId(user.getId());
         return ResponseEntity.ok(clusters);
     }
     @GetMapping("/all")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<Page<ClusterResponse>> getAllClusters(
+    public ResponseEntity<?> getAllClusters(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor) {
+
+        // Keyset mode: pass cursor= for the first slice, then the returned nextCursor
+        if (cursor != null) {
+            try {
+                return ResponseEntity.ok(clusterService.findAfter(cursor, size));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("{\"statusText\": \"Invalid cursor.\"}");
+            }
+        }
 
         // Fetch paginated panels from the service
         Page<Cluster> clusters = clusterService.findAll(PageRequest.of(page, size));
@@ -139,7 +132,7 @@ public class ClusterController {
     }
     // Get a single cluster by cluster ID
     @GetMapping("/{clusterId}")
-    public ResponseEntity<Cluster> getClusterById(@RequestHeader("Authorization") String token, @PathVariable String clusterId) {
+    public ResponseEntity<ClusterView> getClusterById(@RequestHeader("Authorization") String token, @PathVariable String clusterId) {
         // Extract username from token
         String username = jwtUtils.extractUsername(token.substring(7));
 
@@ -152,7 +145,7 @@ public class ClusterController {
         }
 
         // Retrieve cluster by ID
-        Cluster cluster = clusterService.getClusterById(clusterId);
+        ClusterView cluster = clusterService.getClusterViewById(clusterId);
         if (cluster == null) {
             // If cluster not found, return 404
             return ResponseEntity.status(404).body(null);
@@ -209,8 +202,7 @@ public class ClusterController {
             if (Boolean.TRUE.equals(clusterRequest.getGroup())) {
                 existingCluster.setLocation(null);
             } else if (clusterRequest.getLocation() != null) {
-                Location updatedLocation = handleLocation(clusterRequest.getLocation(), user);
-                existingCluster.setLocation(updatedLocation);
+                existingCluster.setLocation(locationService.intern(clusterRequest.getLocation()));
             }
 
             // Handle inverter update
@@ -240,7 +232,14 @@ public class ClusterController {
 
     // Delete an existing cluster
     @DeleteMapping("/{clusterId}")
-    public ResponseEntity<String> deleteCluster(@RequestHeader("Authorization") String token, @PathVariable String clusterId) {
+    public ResponseEntity<String> deleteCluster(@RequestHeader("Authorization") String token, @PathVariable String clusterId,
+                                                @RequestParam(name = "panels", defaultValue = "detach") String panelMode) {
+        // Member panels are either detached or deleted, anything else is refused before touching the cluster
+        if (!"detach".equals(panelMode) && !"delete".equals(panelMode)) {
+            return ResponseEntity.badRequest().body("Invalid panels mode, expected detach or delete.");
+        }
+        boolean deletePanels = "delete".equals(panelMode);
+
         // Extract username from token
         String username = jwtUtils.extractUsername(token.substring(7));
 
@@ -262,9 +261,10 @@ public class ClusterController {
 
         // Check if the user is an admin or the owner of the cluster
         if (user.getRole().equals(Role.ROLE_ADMIN) || existingCluster.getUserId().equals(user.getId())) {
-            // If admin or the user is the owner, delete the cluster
-            clusterService.deleteCluster(clusterId);
-            logger.info("Cluster deleted successfully for user: {}", username);
+            // If admin or the user is the owner, delete the cluster and detach (or delete) its panels
+            long panels = clusterService.deleteCluster(clusterId, deletePanels);
+            logger.info("Cluster deleted successfully for user: {} ({} panels {})", username, panels,
+                    deletePanels ? "deleted" : "detached");
             return ResponseEntity.ok("Cluster deleted successfully.");
         } else {
             // If not authorized (not the owner or admin), return forbidden response
@@ -272,6 +272,74 @@ public class ClusterController {
         }
     }
 
+    // Assign panels to the cluster, panels that belong to another cluster are moved
+    @PostMapping("/{clusterId}/panels")
+    public ResponseEntity<?> assignPanels(@RequestHeader("Authorization") String token, @PathVariable String clusterId,
+                                          @Valid @RequestBody ClusterMembershipRequest request) {
+        User user = userService.findByUsername(jwtUtils.extractUsername(token.substring(7)));
+        ResponseEntity<?> denied = checkClusterAccess(user, clusterId);
+        if (denied != null) {
+            return denied;
+        }
+
+        UpdateResult result = panelService.assignToCluster(request.getPanelIds(), clusterId, clusterService.getClusterOwnerId(clusterId));
+        return ResponseEntity.ok(new BulkUpdateResponse(request.getPanelIds().size(), result.getMatchedCount(), result.getModifiedCount()));
+    }
+
+    // Remove panels from the cluster, panels that are not members are left alone
+    @PostMapping("/{clusterId}/panels/remove")
+    public ResponseEntity<?> removePanels(@RequestHeader("Authorization") String token, @PathVariable String clusterId,
+                                          @Valid @RequestBody ClusterMembershipRequest request) {
+        User user = userService.findByUsername(jwtUtils.extractUsername(token.substring(7)));
+        ResponseEntity<?> denied = checkClusterAccess(user, clusterId);
+        if (denied != null) {
+            return denied;
+        }
+
+        UpdateResult result = panelService.removeFromCluster(request.getPanelIds(), clusterId, clusterService.getClusterOwnerId(clusterId));
+        return ResponseEntity.ok(new BulkUpdateResponse(request.getPanelIds().size(), result.getMatchedCount(), result.getModifiedCount()));
+    }
+
+    // Move member panels of this cluster to targetClusterId, both clusters must have the same owner
+    @PostMapping("/{clusterId}/panels/move")
+    public ResponseEntity<?> movePanels(@RequestHeader("Authorization") String token, @PathVariable String clusterId,
+                                        @Valid @RequestBody ClusterMembershipRequest request) {
+        User user = userService.findByUsername(jwtUtils.extractUsername(token.substring(7)));
+        if (!StringUtils.hasText(request.getTargetClusterId())) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"Target cluster ID is required.\"}");
+        }
+        ResponseEntity<?> denied = checkClusterAccess(user, clusterId);
+        if (denied == null) {
+            denied = checkClusterAccess(user, request.getTargetClusterId());
+        }
+        if (denied != null) {
+            return denied;
+        }
+
+        String ownerId = clusterService.getClusterOwnerId(clusterId);
+        if (!ownerId.equals(clusterService.getClusterOwnerId(request.getTargetClusterId()))) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"Clusters belong to different users.\"}");
+        }
+
+        UpdateResult result = panelService.moveBetweenClusters(request.getPanelIds(), clusterId, request.getTargetClusterId(), ownerId);
+        return ResponseEntity.ok(new BulkUpdateResponse(request.getPanelIds().size(), result.getMatchedCount(), result.getModifiedCount()));
+    }
+
+    // null when the user may change the cluster, otherwise the error response
+    private ResponseEntity<?> checkClusterAccess(User user, String clusterId) {
+        if (user == null) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"User not found.\"}");
+        }
+        String ownerId = clusterService.getClusterOwnerId(clusterId);
+        if (ownerId == null) {
+            return ResponseEntity.status(404).body("{\"statusText\": \"Cluster not found.\"}");
+        }
+        if (!user.getRole().equals(Role.ROLE_ADMIN) && !ownerId.equals(user.getId())) {
+            return ResponseEntity.status(403).body("{\"statusText\": \"Forbidden: You are not authorized to change this cluster.\"}");
+        }
+        return null;
+    }
+
     public static class UpdateClusterRequest {
         private String name;
         private String description;
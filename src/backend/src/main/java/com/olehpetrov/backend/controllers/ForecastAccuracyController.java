@@ -0,0 +1,49 @@
+package com.olehpetrov.backend.controllers;
+
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.services.ClusterService;
+import com.olehpetrov.backend.services.ForecastAccuracyService;
+import com.olehpetrov.backend.services.UserService;
+import com.olehpetrov.backend.utils.JwtUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+// Served in both forecast modes, so it lives apart from the servlet and reactive forecast controllers
+@RestController
+@RequestMapping("/api/forecast")
+public class ForecastAccuracyController {
+
+    @Autowired
+    private ClusterService clusterService;
+    @Autowired
+    private UserService userService;
+    @Autowired
+    private JwtUtils jwtUtils;
+    @Autowired
+    private ForecastAccuracyService accuracyService;
+
+    // MAE, MAPE and bias of the daily forecasts of a cluster, one entry per horizon (days ahead)
+    @GetMapping("/accuracy")
+    public ResponseEntity<?> getAccuracy(@RequestHeader("Authorization") String token, @RequestParam String clusterId) {
+        String username = jwtUtils.extractUsername(token.substring(7));
+        User user = userService.findByUsername(username);
+        if (user == null) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"User not found.\"}");
+        }
+
+        String ownerId = clusterService.getClusterOwnerId(clusterId);
+        if (ownerId == null) {
+            return ResponseEntity.status(404).body("{\"statusText\": \"Cluster not found.\"}");
+        }
+        if (!ownerId.equals(user.getId()) && !user.getRole().equals(Role.ROLE_ADMIN)) {
+            return ResponseEntity.status(403).body("{\"statusText\": \"Forbidden: Cluster does not belong to the user.\"}");
+        }
+        return ResponseEntity.ok(accuracyService.getAccuracy(clusterId));
+    }
+}
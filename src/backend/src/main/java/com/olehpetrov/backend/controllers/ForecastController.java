@@ -1,6 +1,10 @@
 package com.olehpetrov.backend.controllers;
 import com.olehpetrov.backend.models.*;
 import com.olehpetrov.backend.services.ClusterService;
+import com.olehpetrov.backend.services.ForecastAccuracyService;
+import com.olehpetrov.backend.services.ForecastRateLimiter;
+import com.olehpetrov.backend.services.ForecastUnavailableException;
+import com.olehpetrov.backend.services.HourlyForecastService;
 import com.olehpetrov.backend.services.InverterService;
 import com.olehpetrov.backend.services.SolarPanelService;
 import com.olehpetrov.backend.services.UserService;
@@ -8,32 +12,34 @@ import com.olehpetrov.backend.utils.JwtUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpEntity;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestClientException;
+import java.time.DateTimeException;
+import java.time.Instant;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+// Servlet implementation, replaced by ReactiveForecastController when forecast.reactive.enabled=true
 @RestController
 @RequestMapping("/api/forecast")
+@ConditionalOnProperty(name = "forecast.reactive.enabled", havingValue = "false", matchIfMissing = true)
 public class ForecastController {
 
     private static final Logger logger = LoggerFactory.getLogger(ForecastController.class);
-//    private final String url = "http://model:8000/forecast";
-    @Value("${FORECAST_URL:http://localhost:8000}") // Default value if env variable not found
-    private String forecastUrl;
+
+    static final String STALE_SINCE = "X-Forecast-Stale-Since";
     @Autowired
     private SolarPanelService panelService;
     @Autowired
@@ -47,9 +53,18 @@ public class ForecastController {
     private JwtUtils jwtUtils;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private ForecastRateLimiter rateLimiter;
+
+    @Autowired
+    private ForecastAccuracyService accuracyService;
 
-    private boolean isValidDateRange(String fromDateStr, String toDateStr) {
+    @Autowired
+    private HourlyForecastService hourlyForecastService;
+
+    @Value("${forecast.daily.zone:UTC}")
+    private String defaultDailyZone;
+
+    static boolean isValidDateRange(String fromDateStr, String toDateStr) {
         LocalDate fromDate = LocalDate.parse(fromDateStr.split(" ")[0]);
         LocalDate toDate = LocalDate.parse(toDateStr.split(" ")[0]);
         LocalDate today = LocalDate.now();
@@ -59,6 +74,64 @@ public class ForecastController {
         // Ensure `from` date is not before 2020-01-01, and the range is within the next 13 days
         return !fromDate.isBefore(minAllowedDate) &&  !toDate.isBefore(minAllowedDate) && !fromDate.isAfter(maxAllowedDate) && !toDate.isAfter(maxAllowedDate);
     }
+
+    static ResponseEntity<String> tooManyRequests(long retryAfterSeconds) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body("{\"statusText\": \"Too many forecast requests. Please try again later.\"}");
+    }
+    // Upstream failure as the response the client gets, the same for both endpoints
+    static ResponseEntity<String> upstreamError(RestClientException ex, String username) {
+        if (ex instanceof ForecastUnavailableException unavailable) {
+            logger.warn("Forecast request of user {} refused: {}", username, ex.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(unavailable.getRetryAfterSeconds()))
+                    .body("{\"statusText\": \"Forecast service is unavailable. Please try again later.\"}");
+        }
+        if (ex instanceof HttpStatusCodeException statusException) {
+            logger.error("Forecast service responded with status {} for user {}", statusException.getStatusCode(), username, ex);
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+                    .body("{\"statusText\": \"Forecast service error. Please try again later.\"}");
+        }
+        logger.error("Unable to reach forecast service for user {}", username, ex);
+        return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+                .body("{\"statusText\": \"Forecast service is unavailable. Please try again later.\"}");
+    }
+
+    // A stale series is still served, the header tells the client when it was computed
+    static ResponseEntity<String> forecastOk(HourlyForecastService.HourlySeries series, String body) {
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+        if (series.isStale()) {
+            ok.header(STALE_SINCE, series.staleSince().toString());
+        }
+        return ok.body(body);
+    }
+
+    /**
+     * Forecast energy per UTC day, as accuracy tracking keys it, whatever zone the response uses.
+     * Local days {@code start}..{@code end} in another zone cover their first and last UTC day only
+     * in part; those are left out.
+     */
+    static Map<LocalDate, Double> utcDailyKwh(List<HourlyForecastService.HourlyPoint> points, double capacityKwp,
+                                              LocalDate start, LocalDate end, ZoneId zone) {
+        Instant from = start.atStartOfDay(zone).toInstant();
+        Instant to = end.plusDays(1).atStartOfDay(zone).toInstant();
+        Map<LocalDate, Double> dailyKwh = new HashMap<>();
+        for (JSONObject total : HourlyForecastService.dailyTotals(points, capacityKwp, ZoneOffset.UTC)) {
+            LocalDate day = LocalDate.parse(total.getString("date"));
+            if (!day.atStartOfDay(ZoneOffset.UTC).toInstant().isBefore(from)
+                    && !day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().isAfter(to)) {
+                dailyKwh.put(day, total.getDouble("totalEnergy_kwh"));
+            }
+        }
+        return dailyKwh;
+    }
+
+    // Accuracy tracking writes on its own thread, the response never waits for it or fails because of it
+    private void recordClusterForecast(String clusterId, Map<LocalDate, Double> dailyKwh) {
+        accuracyService.recordForecastAsync(clusterId, LocalDate.now(ZoneOffset.UTC), dailyKwh);
+    }
+
     @PostMapping("/getForecast")
     public ResponseEntity<String> getForecast(
             @RequestHeader("Authorization") String token,
@@ -73,6 +146,11 @@ public class ForecastController {
         if (user == null) {
             return ResponseEntity.badRequest().body("{\"statusText\": \"User not found.\"}");
         }
+        long retryAfter = rateLimiter.tryAcquire(user, ForecastRateLimiter.Tier.CHEAP);
+        if (retryAfter > 0) {
+            logger.warn("Forecast rate limit exceeded for user: {}", username);
+            return tooManyRequests(retryAfter);
+        }
         if (!isValidDateRange(from, to)) {
             logger.error("Date range is out of bounds for user: {}", username);
             return ResponseEntity.badRequest().body("{\"statusText\": \"Invalid date range. 'From' date must be after 2020-01-01, and both dates within the next 13 days.\"}");
@@ -127,7 +205,7 @@ public class ForecastController {
                     .body("{\"statusText\": \"Panel or cluster power rating is zero or lower, please change values and try again.\"}");
         }
 
-        // Build GET URL for FastAPI forecast service
+        // Coordinates of the panel, or of the first panel of the cluster
         double latitude;
         double longitude;
 
@@ -141,28 +219,26 @@ public class ForecastController {
             longitude = panel.getLocation().getLon();
         }
 
-        String url = String.format(
-                "%s/forecast?lat=%.6f&lon=%.6f&start=%s&end=%s&kwp=%.3f",
-                forecastUrl, latitude, longitude, from, to, capacity_kwp
-        );
-        logger.info("Sending forecast GET request to: {}", url);
-
-        // Send the request to the forecast API
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
-
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
+        // The hourly series is shared with getTotal and between panels at the same site
+        LocalDate startDate = LocalDate.parse(from.split(" ")[0]);
+        LocalDate endDate = LocalDate.parse(to.split(" ")[0]);
+        if (!hourlyForecastService.isCached(latitude, longitude, startDate, endDate, ZoneOffset.UTC)) {
+            retryAfter = rateLimiter.tryAcquire(user, ForecastRateLimiter.Tier.EXPENSIVE);
+            if (retryAfter > 0) {
+                logger.warn("Upstream forecast quota exceeded for user: {}", username);
+                return tooManyRequests(retryAfter);
+            }
+        }
 
-        logger.info(String.valueOf(response));
-        if (response.getStatusCode().is2xxSuccessful()) {
-            logger.info("Forecast retrieved successfully for user: {}", username);
-            return ResponseEntity.ok(response.getBody());
-        } else {
-            logger.error("Failed to retrieve forecast for user: {}", username);
-            return ResponseEntity.status(response.getStatusCode()).body("{\"statusText\": \"Failed to retrieve forecast.\"}");
+        HourlyForecastService.HourlySeries series;
+        try {
+            series = hourlyForecastService.hourly(latitude, longitude, startDate, endDate, ZoneOffset.UTC);
+        } catch (RestClientException ex) {
+            return upstreamError(ex, username);
         }
+
+        logger.info("Forecast retrieved successfully for user: {}", username);
+        return forecastOk(series, HourlyForecastService.toHourlyJson(series.points(), capacity_kwp).toString());
     }
 
 
@@ -171,17 +247,27 @@ public class ForecastController {
                                            @RequestParam String panelId,
                                            @RequestParam String from,
                                            @RequestParam String to,
-                                           @RequestParam String type) {
+                                           @RequestParam String type,
+                                           @RequestParam(required = false) String timezone) {
         String username = jwtUtils.extractUsername(token.substring(7));
         User user = userService.findByUsername(username);
 
         if (user == null) {
             return ResponseEntity.badRequest().body("{\"statusText\": \"User not found.\"}");
         }
+        long retryAfter = rateLimiter.tryAcquire(user, ForecastRateLimiter.Tier.CHEAP);
+        if (retryAfter > 0) {
+            logger.warn("Forecast rate limit exceeded for user: {}", username);
+            return tooManyRequests(retryAfter);
+        }
         if (!isValidDateRange(from, to)) {
             logger.error("Date range is out of bounds for user: {}", username);
             return ResponseEntity.badRequest().body("{\"statusText\": \"Invalid date range. 'From' date must be after 2020-01-01, and both dates within the next 13 days.\"}");
         }
+        ZoneId zone = dailyZone(timezone);
+        if (zone == null) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"Invalid timezone.\"}");
+        }
 
         double capacity_kwp;
         double latitude;
@@ -228,56 +314,41 @@ public class ForecastController {
                     .body("{\"statusText\": \"Panel or cluster power rating is zero or lower, please change values and try again.\"}");
         }
 
-        String startDate = from.split(" ")[0];
-        String endDate = to.split(" ")[0];
-
-        String url = String.format(
-                "%s/daily_forecast?lat=%.6f&lon=%.6f&start=%s&end=%s&kwp=%.3f",
-                forecastUrl, latitude, longitude, startDate, endDate, capacity_kwp
-        );
-
-        logger.info("Sending daily forecast GET request to: {}", url);
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
+        LocalDate startDate = LocalDate.parse(from.split(" ")[0]);
+        LocalDate endDate = LocalDate.parse(to.split(" ")[0]);
+        if (!hourlyForecastService.isCached(latitude, longitude, startDate, endDate, zone)) {
+            retryAfter = rateLimiter.tryAcquire(user, ForecastRateLimiter.Tier.EXPENSIVE);
+            if (retryAfter > 0) {
+                logger.warn("Upstream forecast quota exceeded for user: {}", username);
+                return tooManyRequests(retryAfter);
+            }
+        }
 
-        ResponseEntity<String> response;
+        HourlyForecastService.HourlySeries series;
         try {
-            response = restTemplate.exchange(url, HttpMethod.GET, entity, String.class);
-        } catch (HttpStatusCodeException ex) {
-            logger.error("Forecast service responded with status {} for user {}", ex.getStatusCode(), username, ex);
-            return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
-                    .body("{\"statusText\": \"Forecast service error. Please try again later.\"}");
+            series = hourlyForecastService.hourly(latitude, longitude, startDate, endDate, zone);
         } catch (RestClientException ex) {
-            logger.error("Unable to reach forecast service for user {}", username, ex);
-            return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
-                    .body("{\"statusText\": \"Forecast service is unavailable. Please try again later.\"}");
+            return upstreamError(ex, username);
         }
 
-        if (response.getStatusCode().is2xxSuccessful()) {
-            JSONArray forecastData = new JSONArray(response.getBody());
-            List<JSONObject> totalsList = new ArrayList<>();
-
-            for (int i = 0; i < forecastData.length(); i++) {
-                JSONObject entry = forecastData.getJSONObject(i);
-                JSONObject total = new JSONObject();
-                total.put("date", entry.optString("date"));
-                total.put("totalEnergy_kwh", entry.optDouble("pred_kWh", 0.0));
-                totalsList.add(total);
-            }
+        List<JSONObject> totalsList = HourlyForecastService.dailyTotals(series.points(), capacity_kwp, zone);
+        // Stale totals are not the forecast of today, accuracy tracking waits for a fresh one
+        if ("cluster".equalsIgnoreCase(type) && !series.isStale()) {
+            recordClusterForecast(panelId, utcDailyKwh(series.points(), capacity_kwp, startDate, endDate, zone));
+        }
+        JSONArray totals = new JSONArray();
+        totalsList.forEach(totals::put);
 
-            totalsList.sort(Comparator.comparing(obj -> obj.optString("date")));
-            JSONArray totals = new JSONArray();
-            totalsList.forEach(totals::put);
+        logger.info("Daily energy totals for user: {}", username);
+        return forecastOk(series, totals.toString());
+    }
 
-            logger.info("Daily energy totals for user: {}", username);
-            return ResponseEntity.ok(totals.toString());
-        } else {
-            logger.error("Failed to retrieve forecast for user: {}", username);
-            return ResponseEntity.status(response.getStatusCode()).body("{\"statusText\": \"Failed to retrieve forecast.\"}");
+    // Days of getTotal are local days in this zone, the configured default when the request names none
+    private ZoneId dailyZone(String timezone) {
+        try {
+            return ZoneId.of(timezone != null && !timezone.isBlank() ? timezone : defaultDailyZone);
+        } catch (DateTimeException e) {
+            return null;
         }
     }
-
-
 }
@@ -51,9 +51,18 @@ public class InverterController {
 
     // Get all inverters
     @GetMapping("/all")
-    public ResponseEntity<Page<Inverter>> getAllInverters(
+    public ResponseEntity<?> getAllInverters(
         @RequestParam(defaultValue = "0") int page,
-        @RequestParam(defaultValue = "15") int size) {
+        @RequestParam(defaultValue = "15") int size,
+        @RequestParam(required = false) String cursor) {
+        // Keyset mode: pass cursor= for the first slice, then the returned nextCursor
+        if (cursor != null) {
+            try {
+                return ResponseEntity.ok(inverterService.findAfter(cursor, size));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("{\"statusText\": \"Invalid cursor.\"}");
+            }
+        }
         Page<Inverter> inverters = inverterService.findAll(PageRequest.of(page, size));
 
         return ResponseEntity.ok(inverters);
@@ -0,0 +1,251 @@
+package com.olehpetrov.backend.controllers;
+
+import com.mongodb.client.model.Filters;
+import com.olehpetrov.backend.models.*;
+import com.olehpetrov.backend.repositories.ReactiveReferenceLoader;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
+import com.olehpetrov.backend.services.ForecastAccuracyService;
+import com.olehpetrov.backend.services.ForecastRateLimiter;
+import com.olehpetrov.backend.services.HourlyForecastService;
+import com.olehpetrov.backend.utils.JwtUtils;
+import org.bson.Document;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-blocking forecast endpoints, enabled with {@code forecast.reactive.enabled=true} in place of
+ * {@link ForecastController}. Lookups use the reactive Mongo driver and the hourly series comes
+ * from {@link HourlyForecastService} over WebClient; Spring MVC completes the returned
+ * {@link Mono} asynchronously, so no request thread waits on the database or the model.
+ * Responses are the same as in servlet mode.
+ */
+@RestController
+@RequestMapping("/api/forecast")
+@ConditionalOnProperty(name = "forecast.reactive.enabled", havingValue = "true")
+public class ReactiveForecastController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveForecastController.class);
+
+    @Value("${forecast.daily.zone:UTC}")
+    private String defaultDailyZone;
+    @Autowired
+    private ReactiveReferenceLoader referenceLoader;
+    @Autowired
+    private JwtUtils jwtUtils;
+    @Autowired
+    private HourlyForecastService hourlyForecastService;
+    @Autowired
+    private ForecastRateLimiter rateLimiter;
+    @Autowired
+    private ForecastAccuracyService accuracyService;
+
+    // Capacity and coordinates the forecast is computed for
+    private record Target(double capacityKwp, double latitude, double longitude) {
+    }
+
+    // Ends the pipeline with a ready response, the same early returns the servlet controller makes
+    private static class Rejected extends RuntimeException {
+
+        private final ResponseEntity<String> response;
+
+        Rejected(ResponseEntity<String> response) {
+            super(null, null, false, false);
+            this.response = response;
+        }
+    }
+
+    // Resolved target and its hourly series, what both endpoints build their response from
+    private record Forecast(Target target, HourlyForecastService.HourlySeries series) {
+    }
+
+    @PostMapping("/getForecast")
+    public Mono<ResponseEntity<String>> getForecast(
+            @RequestHeader("Authorization") String token,
+            @RequestParam String panelId,
+            @RequestParam String from,
+            @RequestParam String to,
+            @RequestParam String type) {
+        String username = jwtUtils.extractUsername(token.substring(7));
+
+        return forecastFor(username, panelId, from, to, type, ZoneOffset.UTC)
+                .map(forecast -> {
+                    logger.info("Forecast retrieved successfully for user: {}", username);
+                    return ForecastController.forecastOk(forecast.series(),
+                            HourlyForecastService.toHourlyJson(forecast.series().points(), forecast.target().capacityKwp()).toString());
+                })
+                .onErrorResume(Rejected.class, rejected -> Mono.just(rejected.response));
+    }
+
+    @GetMapping("/getTotal")
+    public Mono<ResponseEntity<String>> getTotal(@RequestHeader("Authorization") String token,
+                                                 @RequestParam String panelId,
+                                                 @RequestParam String from,
+                                                 @RequestParam String to,
+                                                 @RequestParam String type,
+                                                 @RequestParam(required = false) String timezone) {
+        String username = jwtUtils.extractUsername(token.substring(7));
+        ZoneId zone;
+        try {
+            zone = ZoneId.of(timezone != null && !timezone.isBlank() ? timezone : defaultDailyZone);
+        } catch (DateTimeException e) {
+            return Mono.just(error(HttpStatus.BAD_REQUEST, "Invalid timezone."));
+        }
+
+        return forecastFor(username, panelId, from, to, type, zone)
+                .map(forecast -> {
+                    List<JSONObject> totalsList = HourlyForecastService.dailyTotals(forecast.series().points(), forecast.target().capacityKwp(), zone);
+                    if ("cluster".equalsIgnoreCase(type) && !forecast.series().isStale()) {
+                        recordClusterForecast(panelId, ForecastController.utcDailyKwh(forecast.series().points(), forecast.target().capacityKwp(),
+                                LocalDate.parse(from.split(" ")[0]), LocalDate.parse(to.split(" ")[0]), zone));
+                    }
+                    JSONArray totals = new JSONArray();
+                    totalsList.forEach(totals::put);
+
+                    logger.info("Daily energy totals for user: {}", username);
+                    return ForecastController.forecastOk(forecast.series(), totals.toString());
+                })
+                .onErrorResume(Rejected.class, rejected -> Mono.just(rejected.response));
+    }
+
+    // User lookup, rate limits, validation and target resolution shared by both endpoints, ending in the hourly series
+    private Mono<Forecast> forecastFor(String username, String id, String from, String to, String type, ZoneId zone) {
+        return findUser(username)
+                .switchIfEmpty(Mono.error(() -> new Rejected(error(HttpStatus.BAD_REQUEST, "User not found."))))
+                .flatMap(user -> {
+                    long retryAfter = rateLimiter.tryAcquire(user, ForecastRateLimiter.Tier.CHEAP);
+                    if (retryAfter > 0) {
+                        logger.warn("Forecast rate limit exceeded for user: {}", username);
+                        return Mono.error(new Rejected(ForecastController.tooManyRequests(retryAfter)));
+                    }
+                    if (!ForecastController.isValidDateRange(from, to)) {
+                        logger.error("Date range is out of bounds for user: {}", username);
+                        return Mono.error(new Rejected(error(HttpStatus.BAD_REQUEST,
+                                "Invalid date range. 'From' date must be after 2020-01-01, and both dates within the next 13 days.")));
+                    }
+                    LocalDate start = LocalDate.parse(from.split(" ")[0]);
+                    LocalDate end = LocalDate.parse(to.split(" ")[0]);
+
+                    return resolveTarget(user, id, type).flatMap(target -> {
+                        // Only a series that is not cached yet costs an upstream call
+                        if (!hourlyForecastService.isCached(target.latitude(), target.longitude(), start, end, zone)) {
+                            long upstreamRetryAfter = rateLimiter.tryAcquire(user, ForecastRateLimiter.Tier.EXPENSIVE);
+                            if (upstreamRetryAfter > 0) {
+                                logger.warn("Upstream forecast quota exceeded for user: {}", username);
+                                return Mono.error(new Rejected(ForecastController.tooManyRequests(upstreamRetryAfter)));
+                            }
+                        }
+                        return fetch(target, start, end, zone, username).map(series -> new Forecast(target, series));
+                    });
+                });
+    }
+
+    private Mono<User> findUser(String username) {
+        return referenceLoader.findOne(User.class, Filters.eq("username", username), "_id", "role")
+                .map(document -> {
+                    User user = new User();
+                    user.setId(String.valueOf(document.get("_id")));
+                    user.setRole(document.getString("role") != null ? Role.valueOf(document.getString("role")) : null);
+                    return user;
+                });
+    }
+
+    private Mono<Target> resolveTarget(User user, String id, String type) {
+        if ("cluster".equalsIgnoreCase(type)) {
+            return resolveCluster(user, id);
+        }
+        if ("panel".equalsIgnoreCase(type)) {
+            return referenceLoader.findOne(Panel.class, Filters.eq("_id", ReferenceLoader.rawId(id)), "userId", "powerRating", "efficiency", "location")
+                    .filter(panel -> user.getId().equals(panel.getString("userId")))
+                    .switchIfEmpty(Mono.error(() -> new Rejected(error(HttpStatus.FORBIDDEN, "Forbidden: Panel does not belong to the user."))))
+                    .flatMap(panel -> target(capacityKwp(panel), panel));
+        }
+        return Mono.error(new Rejected(error(HttpStatus.BAD_REQUEST, "Invalid type. Must be 'cluster' or 'panel'.")));
+    }
+
+    // Panels and the inverter chain are read concurrently, then the first panel's location
+    private Mono<Target> resolveCluster(User user, String clusterId) {
+        Object rawId = ReferenceLoader.rawId(clusterId);
+        Mono<List<Document>> panels = referenceLoader.findRaw(Panel.class, Filters.eq("cluster.$id", rawId),
+                "userId", "powerRating", "efficiency", "location").collectList();
+        Mono<Double> inverterEfficiency = referenceLoader.findOne(Cluster.class, Filters.eq("_id", rawId), "inverter")
+                .flatMap(cluster -> Mono.justOrEmpty(ReferenceLoader.referencedId(cluster, "inverter")))
+                .flatMap(inverterId -> referenceLoader.findOne(Inverter.class, Filters.eq("_id", inverterId), "efficiency"))
+                .flatMap(inverter -> Mono.justOrEmpty(inverter.get("efficiency") instanceof Number efficiency
+                        ? efficiency.doubleValue() / 100.0 : null))
+                .defaultIfEmpty(1.0);
+
+        return Mono.zip(panels, inverterEfficiency).flatMap(loaded -> {
+            List<Document> clusterPanels = loaded.getT1();
+            if (clusterPanels.isEmpty()) {
+                return Mono.error(new Rejected(error(HttpStatus.BAD_REQUEST, "No panels found for the given cluster ID.")));
+            }
+            if (clusterPanels.stream().anyMatch(panel -> !user.getId().equals(panel.getString("userId")))) {
+                return Mono.error(new Rejected(error(HttpStatus.FORBIDDEN, "Forbidden: Some panels in the cluster do not belong to the user.")));
+            }
+            double capacityKwp = clusterPanels.stream().mapToDouble(ReactiveForecastController::capacityKwp).sum() * loaded.getT2();
+            return target(capacityKwp, clusterPanels.get(0));
+        });
+    }
+
+    private Mono<Target> target(double capacityKwp, Document panel) {
+        if (capacityKwp <= 0) {
+            return Mono.error(new Rejected(error(HttpStatus.BAD_REQUEST,
+                    "Panel or cluster power rating is zero or lower, please change values and try again.")));
+        }
+        return Mono.justOrEmpty(ReferenceLoader.referencedId(panel, "location"))
+                .flatMap(locationId -> referenceLoader.findOne(Location.class, Filters.eq("_id", locationId), "lat", "lon"))
+                .switchIfEmpty(Mono.error(() -> new Rejected(error(HttpStatus.BAD_REQUEST, "Panel location is missing."))))
+                .map(location -> new Target(capacityKwp,
+                        ((Number) location.get("lat")).doubleValue(), ((Number) location.get("lon")).doubleValue()));
+    }
+
+    // Same formula as SolarPanelService.calculateTotalCapacityKwp
+    private static double capacityKwp(Document panel) {
+        double powerRating = panel.get("powerRating") instanceof Number number ? number.doubleValue() : 0;
+        double efficiency = panel.get("efficiency") instanceof Number number ? number.doubleValue() : 0;
+        return powerRating / 1000.0 * (efficiency / 100.0);
+    }
+
+    private Mono<HourlyForecastService.HourlySeries> fetch(Target target, LocalDate start, LocalDate end,
+                                                          ZoneId zone, String username) {
+        return hourlyForecastService.hourlyAsync(target.latitude(), target.longitude(), start, end, zone)
+                .onErrorMap(WebClientResponseException.class, ex -> {
+                    logger.error("Forecast service responded with status {} for user {}", ex.getStatusCode(), username, ex);
+                    return new Rejected(error(HttpStatus.BAD_GATEWAY, "Forecast service error. Please try again later."));
+                })
+                .onErrorMap(WebClientRequestException.class, ex -> {
+                    logger.error("Unable to reach forecast service for user {}", username, ex);
+                    return new Rejected(error(HttpStatus.BAD_GATEWAY, "Forecast service is unavailable. Please try again later."));
+                })
+                // Batched calls fail with the RestTemplate exceptions of the batch client
+                .onErrorMap(RestClientException.class, ex -> new Rejected(ForecastController.upstreamError(ex, username)));
+    }
+
+    // Accuracy tracking writes with the blocking driver on its own thread, never on the event loop
+    private void recordClusterForecast(String clusterId, Map<LocalDate, Double> dailyKwh) {
+        accuracyService.recordForecastAsync(clusterId, LocalDate.now(ZoneOffset.UTC), dailyKwh);
+    }
+
+    private static ResponseEntity<String> error(HttpStatus status, String statusText) {
+        return ResponseEntity.status(status).body("{\"statusText\": \"" + statusText + "\"}");
+    }
+}
@@ -3,21 +3,27 @@ package com.olehpetrov.backend.controllers;
 import com.olehpetrov.backend.models.*;
 import com.olehpetrov.backend.requests.UpdatePanelRequest;
 import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.ImportResult;
+import com.olehpetrov.backend.responses.PanelView;
 import com.olehpetrov.backend.services.ClusterService;
 import com.olehpetrov.backend.services.LocationService;
+import com.olehpetrov.backend.services.PanelImportService;
 import com.olehpetrov.backend.services.SolarPanelService;
 import com.olehpetrov.backend.services.UserService;
 import com.olehpetrov.backend.utils.JwtUtils;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 
 @RestController
@@ -35,6 +41,9 @@ public class SolarPanelController {
     @Autowired
     private ClusterService clusterService;
 
+    @Autowired
+    private PanelImportService panelImportService;
+
     @Autowired
     private UserService userService;
 
@@ -78,31 +87,9 @@ public class SolarPanelController {
 
             panel.setCluster(cluster);
         }
-        // Handle location
+        // Panels at the same site share one interned location
         if (panelRequest.getLocation() != null) {
-            Location location;
-
-            if (user.getLocation() != null) {
-                location = user.getLocation(); // Existing location
-                // Update the existing location fields
-                location.setLat(panelRequest.getLocation().getLat());
-                location.setLon(panelRequest.getLocation().getLon());
-                location.setCity(panelRequest.getLocation().getCity());
-                location.setDistrict(panelRequest.getLocation().getDistrict());
-                location.setCountry(panelRequest.getLocation().getCountry());
-            } else {
-                // Create a new location if the user does not have one
-                location = new Location();
-                location.setLat(panelRequest.getLocation().getLat());
-                location.setLon(panelRequest.getLocation().getLon());
-                location.setCity(panelRequest.getLocation().getCity());
-                location.setDistrict(panelRequest.getLocation().getDistrict());
-                location.setCountry(panelRequest.getLocation().getCountry());
-            }
-
-            // Register the location and associate it with the user
-            locationService.register(location);
-            panel.setLocation(location);
+            panel.setLocation(locationService.intern(panelRequest.getLocation()));
         }
 
         // Add the panel using the created SolarPanel object
@@ -113,16 +100,43 @@ public class SolarPanelController {
     }
 
 
+    // Bulk import: a JSON array or a CSV file (header row) of panels with their locations and cluster names
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_JSON_VALUE, "text/csv"})
+    public ResponseEntity<?> importPanels(@RequestHeader("Authorization") String token,
+                                          @RequestParam(defaultValue = "false") boolean ordered,
+                                          @RequestParam(required = false) Integer batchSize,
+                                          HttpServletRequest request) {
+        String username = jwtUtils.extractUsername(token.substring(7));
+        User user = userService.findByUsername(username);
+        if (user == null) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"User not found.\"}");
+        }
+
+        try {
+            boolean csv = request.getContentType() != null && request.getContentType().startsWith("text/csv");
+            ImportResult result = csv
+                    ? panelImportService.importCsv(user, request.getInputStream(), ordered, batchSize)
+                    : panelImportService.importJson(user, request.getInputStream(), ordered, batchSize);
+            logger.info("Imported {} panels for user {} ({} rows failed)", result.getImported(), username, result.getFailed());
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"" + e.getMessage() + "\"}");
+        } catch (IOException e) {
+            logger.error("Failed to read panel import for user {}", username, e);
+            return ResponseEntity.status(500).body("{\"statusText\": \"Failed to read the import.\"}");
+        }
+    }
+
     // Get all panels by user ID
     @GetMapping("/user")
-    public ResponseEntity<List<Panel>> getPanelsByUserId(@RequestHeader("Authorization") String token) {
+    public ResponseEntity<List<PanelView>> getPanelsByUserId(@RequestHeader("Authorization") String token) {
         String username = jwtUtils.extractUsername(token.substring(7)); // Extract username from token
         User user = userService.findByUsername(username);
         if (user == null) {
             return ResponseEntity.badRequest().body(null);
         }
 
-        List<Panel> panels = panelService.getPanelsByUserId(user.getId());
+        List<PanelView> panels = panelService.getPanelViewsByUserId(user.getId());
         if (panels.isEmpty()) {
             return ResponseEntity.ok().body(null); // Return empty if no panels found
         }
@@ -131,9 +145,19 @@ public class SolarPanelController {
     }
     @GetMapping("/all")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<Page<ClusterResponse>> getAllUsers(
+    public ResponseEntity<?> getAllUsers(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor) {
+
+        // Keyset mode: pass cursor= for the first slice, then the returned nextCursor
+        if (cursor != null) {
+            try {
+                return ResponseEntity.ok(panelService.findAfter(cursor, size));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("{\"statusText\": \"Invalid cursor.\"}");
+            }
+        }
 
         // Fetch paginated panels from the service
         Page<Panel> panels = panelService.findAll(PageRequest.of(page, size));
@@ -145,14 +169,14 @@ public class SolarPanelController {
     }
     // Get a single panel by panel ID
     @GetMapping("/{panelId}")
-    public ResponseEntity<Panel> getPanelById(@RequestHeader("Authorization") String token, @PathVariable String panelId) {
+    public ResponseEntity<PanelView> getPanelById(@RequestHeader("Authorization") String token, @PathVariable String panelId) {
         String username = jwtUtils.extractUsername(token.substring(7)); // Extract username from token
         User user = userService.findByUsername(username);
         if (user == null) {
             return ResponseEntity.badRequest().body(null);
         }
 
-        Panel panel = panelService.getPanelById(panelId);
+        PanelView panel = panelService.getPanelViewById(panelId);
 
             if (panel == null || (!panel.getUserId().equals(user.getId()) && !user.getRole().equals(Role.ROLE_ADMIN) )) {
             logger.error(String.valueOf(panel));
@@ -184,30 +208,9 @@ public class SolarPanelController {
         existingPanel.setEfficiency(panelRequest.getEfficiency());
         existingPanel.setQuantity(panelRequest.getQuantity());
 
-        // Handle location update
+        // Handle location update, shared locations are never edited in place
         if (panelRequest.getLocation() != null) {
-            Location location;
-
-            // Update existing location if available
-            if (existingPanel.getLocation() != null) {
-                location = existingPanel.getLocation();
-                location.setLat(panelRequest.getLocation().getLat());
-                location.setLon(panelRequest.getLocation().getLon());
-                location.setCity(panelRequest.getLocation().getCity());
-                location.setDistrict(panelRequest.getLocation().getDistrict());
-                location.setCountry(panelRequest.getLocation().getCountry());
-                locationService.register(location); // Assuming you have a method to update existing location
-            } else {
-                // Create a new location if the existing one is null
-                location = new Location();
-                location.setLat(panelRequest.getLocation().getLat());
-                location.setLon(panelRequest.getLocation().getLon());
-                location.setCity(panelRequest.getLocation().getCity());
-                location.setDistrict(panelRequest.getLocation().getDistrict());
-                location.setCountry(panelRequest.getLocation().getCountry());
-                locationService.register(location); // Save the new location
-                existingPanel.setLocation(location); // Associate the new location with the panel
-            }
+            existingPanel.setLocation(locationService.intern(panelRequest.getLocation()));
         }
         if (panelRequest.getClusterId() != null) {
             if (shouldRemoveCluster(panelRequest.getClusterId())) {
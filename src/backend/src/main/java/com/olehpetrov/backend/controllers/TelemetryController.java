@@ -0,0 +1,68 @@
+package com.olehpetrov.backend.controllers;
+
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.requests.TelemetryReadingRequest;
+import com.olehpetrov.backend.responses.IngestResult;
+import com.olehpetrov.backend.services.TelemetryIngestService;
+import com.olehpetrov.backend.services.UserService;
+import com.olehpetrov.backend.utils.JwtUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/telemetry")
+public class TelemetryController {
+
+    @Autowired
+    private TelemetryIngestService telemetryIngestService;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private JwtUtils jwtUtils;
+
+    // Batched readings as a JSON array
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> ingestJson(@RequestHeader("Authorization") String token,
+                                        @RequestBody List<TelemetryReadingRequest> readings) {
+        return ingest(token, readings);
+    }
+
+    // Batched readings in the compact binary format, see TelemetryIngestService.BINARY_RECORD_SIZE
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> ingestBinary(@RequestHeader("Authorization") String token, @RequestBody byte[] body) {
+        try {
+            return ingest(token, TelemetryIngestService.decodeBinary(body));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"" + e.getMessage() + "\"}");
+        }
+    }
+
+    private ResponseEntity<?> ingest(String token, List<TelemetryReadingRequest> readings) {
+        User user = userService.findByUsername(jwtUtils.extractUsername(token.substring(7)));
+        if (user == null) {
+            return ResponseEntity.badRequest().body("{\"statusText\": \"User not found.\"}");
+        }
+
+        // Would be refused as overloaded on every retry
+        if (readings.size() > telemetryIngestService.maxBatchSize()) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body("{\"statusText\": \"At most " + telemetryIngestService.maxBatchSize() + " readings per request.\"}");
+        }
+
+        IngestResult result = telemetryIngestService.ingest(user, readings);
+        if (result.isOverloaded()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body("{\"statusText\": \"Telemetry queue is full. Please retry shortly.\"}");
+        }
+        return ResponseEntity.accepted().body(result);
+    }
+}
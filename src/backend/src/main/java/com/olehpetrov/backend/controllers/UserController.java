@@ -64,13 +64,8 @@ public class UserController {
             return ResponseEntity.badRequest().body("User not found.");
         }
 
-        // Create and save the new location
-        Location location = new Location();
-        location.setLat(locationRequest.getLat());
-        location.setLon(locationRequest.getLon());
-        location.setCity(locationRequest.getCity());
-        location.setDistrict(locationRequest.getDistrict());
-        location.setCountry(locationRequest.getCountry());
+        // Look up or create the shared location for these coordinates
+        Location location = locationService.intern(locationRequest);
 
         userService.setUserLocation(user.getId(), location); // Save the location for the user
         logger.info("User location updated successfully: {}", user.getUsername());
@@ -117,9 +112,19 @@ public class UserController {
     }
     @GetMapping("/all")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<Page<ClusterResponse>> getAllUsers(
+    public ResponseEntity<?> getAllUsers(
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "100") int size) {
+            @RequestParam(defaultValue = "100") int size,
+            @RequestParam(required = false) String cursor) {
+
+        // Keyset mode: pass cursor= for the first slice, then the returned nextCursor
+        if (cursor != null) {
+            try {
+                return ResponseEntity.ok(userService.findAfter(cursor, size));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("{\"statusText\": \"Invalid cursor.\"}");
+            }
+        }
 
         // Fetch paginated panels from the service
         Page<User> users = userService.findAll(PageRequest.of(page, size));
@@ -167,19 +172,7 @@ public class UserController {
     }
 
     private void applyLocationUpdate(User user, LocationRequest locationRequest) {
-        Location location = user.getLocation();
-        if (location == null) {
-            location = new Location();
-        }
-
-        location.setLat(locationRequest.getLat());
-        location.setLon(locationRequest.getLon());
-        location.setCity(locationRequest.getCity());
-        location.setDistrict(locationRequest.getDistrict());
-        location.setCountry(locationRequest.getCountry());
-
-        location = locationService.register(location);
-        user.setLocation(location);
+        user.setLocation(locationService.intern(locationRequest));
     }
     @PreAuthorize("hasRole('ROLE_ADMIN')")
     @DeleteMapping("/{id}")
@@ -0,0 +1,113 @@
+package com.olehpetrov.backend.filters;
+
+import com.olehpetrov.backend.config.StartupSeeding;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds API requests until the startup seeding stages they read from are done, answering 503 if
+ * they take longer than the timeout, which covers all of a request's stages together. Once
+ * seeding is complete it is a pass-through. Also records how long after JVM start the first API
+ * request was answered ({@code application.first.request.time}).
+ */
+public class SeedingGateFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SeedingGateFilter.class);
+
+    private final StartupSeeding seeding;
+    private final MeterRegistry meterRegistry;
+    private final Duration timeout;
+    private final AtomicLong firstRequestMillis = new AtomicLong(-1);
+
+    public SeedingGateFilter(StartupSeeding seeding, MeterRegistry meterRegistry, Duration timeout) {
+        this.seeding = seeding;
+        this.meterRegistry = meterRegistry;
+        this.timeout = timeout;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!seeding.isComplete()) {
+            long deadline = System.nanoTime() + timeout.toNanos();
+            for (StartupSeeding.Stage stage : requiredStages(request.getRequestURI())) {
+                if (!await(stage, Duration.ofNanos(Math.max(deadline - System.nanoTime(), 0)))) {
+                    logger.warn("Request to {} rejected, startup seeding stage {} is not done yet", request.getRequestURI(), stage);
+                    response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+                    response.setHeader("Retry-After", "1");
+                    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+                    response.getWriter().write("{\"statusText\": \"Service is starting, please try again shortly.\"}");
+                    return;
+                }
+            }
+        }
+
+        filterChain.doFilter(request, response);
+        recordFirstRequest();
+    }
+
+    /**
+     * Inverter lookups need the catalogue and telemetry only existing devices. Logging in needs
+     * the admin and the demo user, who is created with the sample data; user management only the
+     * admin. The panel, cluster and forecast endpoints are called with the token of a user who
+     * already exists, but the demo user's panels and clusters come with the sample data.
+     */
+    static List<StartupSeeding.Stage> requiredStages(String uri) {
+        if (uri.startsWith("/api/inverter")) {
+            return List.of(StartupSeeding.Stage.INVERTERS);
+        }
+        if (uri.startsWith("/api/telemetry")) {
+            return List.of();
+        }
+        if (uri.startsWith("/api/auth")) {
+            return List.of(StartupSeeding.Stage.USERS, StartupSeeding.Stage.SAMPLE_DATA);
+        }
+        if (uri.startsWith("/api/user")) {
+            return List.of(StartupSeeding.Stage.USERS);
+        }
+        return List.of(StartupSeeding.Stage.SAMPLE_DATA);
+    }
+
+    private boolean await(StartupSeeding.Stage stage, Duration remaining) {
+        try {
+            return seeding.await(stage, remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void recordFirstRequest() {
+        if (firstRequestMillis.get() >= 0) {
+            return;
+        }
+        long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        if (firstRequestMillis.compareAndSet(-1, millis)) {
+            TimeGauge.builder("application.first.request.time", firstRequestMillis, TimeUnit.MILLISECONDS, AtomicLong::get)
+                    .description("Time from JVM start until the first API request was answered")
+                    .register(meterRegistry);
+            logger.info("First API request answered {} ms after JVM start", millis);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.olehpetrov.backend.models;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -11,6 +12,7 @@ public class Cluster {
     @Id
     private String id;
     private String name;
+    @Indexed
     private String userId;
     @DBRef
     private Inverter inverter;
@@ -2,11 +2,13 @@ package com.olehpetrov.backend.models;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Data
 @Document(collection = "daily_energy_totals")
+@CompoundIndex(name = "panel_date", def = "{'panel': 1, 'date': 1}")
 public class DailyEnergyTotal {
 
     @Id
@@ -0,0 +1,33 @@
+package com.olehpetrov.backend.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * One month of energy values for a panel or a cluster. Values are packed into fixed-size arrays
+ * (a slot per day and a slot per UTC hour, null when unknown), so a month of history is a single
+ * document instead of hundreds of rows.
+ */
+@Data
+@Document(collection = "energy_buckets")
+public class EnergyBucket {
+
+    public enum OwnerType { PANEL, CLUSTER }
+
+    // "<ownerType>:<ownerId>:<YYYY-MM>", keeps each series contiguous in the _id index
+    @Id
+    private String id;
+    private OwnerType ownerType;
+    private String ownerId;
+    private String month;
+    private List<Double> dailyKwh;
+    private List<Double> hourlyKwh;
+
+    public static String bucketId(OwnerType ownerType, String ownerId, YearMonth month) {
+        return ownerType.name().toLowerCase() + ":" + ownerId + ":" + month;
+    }
+}
@@ -0,0 +1,27 @@
+package com.olehpetrov.backend.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.List;
+
+// Running error sums of the daily forecasts of one cluster at one horizon, maintained with $inc
+@Data
+@Document(collection = "forecast_accuracy")
+public class ForecastAccuracy {
+
+    // "<clusterId>:<horizon>"
+    @Id
+    private String id;
+    @Indexed
+    private String clusterId;
+    private int horizon;
+    private long samples;
+    private double sumError;              // forecast - actual, for the bias
+    private double sumAbsError;
+    private long percentSamples;          // days with a positive actual, MAPE is undefined otherwise
+    private double sumAbsPercentError;
+    private List<String> applied;         // "<recordId>:<version>" of score changes $inc-ed but not yet settled on their record
+}
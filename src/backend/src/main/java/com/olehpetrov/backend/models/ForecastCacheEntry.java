@@ -0,0 +1,23 @@
+package com.olehpetrov.backend.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+// Hourly forecast chunk shared by all backend replicas; Mongo drops it once expiresAt has passed
+@Data
+@Document(collection = "forecast_cache")
+public class ForecastCacheEntry {
+
+    // "<modelVersion>:<lat>,<lon>:<from>:<to>" of the location cell and chunk (UTC days)
+    @Id
+    private String id;
+    private List<ForecastHistoryDay.Hour> hours;   // null while a replica is computing it
+
+    @Indexed(name = "expires_at_ttl", expireAfterSeconds = 0)
+    private Date expiresAt;
+}
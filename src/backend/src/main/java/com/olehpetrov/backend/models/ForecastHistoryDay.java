@@ -0,0 +1,34 @@
+package com.olehpetrov.backend.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.List;
+
+// Settled hourly forecast (W per kWp) of one site and UTC day; written once, never expires
+@Data
+@Document(collection = "forecast_history")
+@CompoundIndex(name = "site_version_date", def = "{'site': 1, 'modelVersion': 1, 'date': 1}")
+public class ForecastHistoryDay {
+
+    // "<modelVersion>:<site>:<date>"
+    @Id
+    private String id;
+    private String site;           // "<lat>,<lon>" with 6 decimals, as sent to the model service
+    private String modelVersion;
+    private String date;           // Format: "YYYY-MM-DD" (UTC)
+    private List<Hour> hours;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Hour {
+        private Instant time;
+        private double wattsPerKwp;
+    }
+}
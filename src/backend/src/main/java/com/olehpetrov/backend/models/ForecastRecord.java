@@ -0,0 +1,34 @@
+package com.olehpetrov.backend.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+// First daily forecast issued for a cluster, date and horizon; scoredActualKwh is the actual it was last scored against,
+// the error terms are its contribution to the running sums of the horizon
+@Data
+@Document(collection = "forecast_records")
+@CompoundIndex(name = "cluster_date", def = "{'clusterId': 1, 'date': 1}")
+public class ForecastRecord {
+
+    // "<clusterId>:<date>:<horizon>"
+    @Id
+    private String id;
+    private String clusterId;
+    private String date;           // Format: "YYYY-MM-DD" (UTC)
+    private int horizon;           // days between issuing the forecast and the forecast date
+    private double forecastKwh;
+    private Double scoredActualKwh;
+    private Double error;          // forecast - actual, for the bias
+    private Double absError;
+    private Double absPercentError; // unset for a day without production, MAPE is undefined then
+    private long version;          // bumped by every score change
+    private Pending pending;       // score change claimed but not yet settled
+
+    @Data
+    public static class Pending {
+        private long version;
+        private double actualKwh;
+    }
+}
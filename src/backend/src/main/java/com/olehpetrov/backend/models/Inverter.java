@@ -2,6 +2,7 @@ package com.olehpetrov.backend.models;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Data
@@ -9,6 +10,8 @@ import org.springframework.data.mongodb.core.mapping.Document;
 public class Inverter {
     @Id
     private String id;
+    // Case-insensitive lookups run with the same collation, see InverterRepository
+    @Indexed(name = "name_ci", collation = "{ 'locale': 'en', 'strength': 2 }")
     private String name;
     private String manufacturer;
     private Double efficiency;
@@ -1,7 +1,9 @@
 package com.olehpetrov.backend.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Data
@@ -16,4 +18,9 @@ public class Location {
     private String district;
     private String country;
 
+    // Canonical coordinates and names, see LocationService; legacy documents have none until compacted
+    @JsonIgnore
+    @Indexed(unique = true, sparse = true)
+    private String key;
+
 }
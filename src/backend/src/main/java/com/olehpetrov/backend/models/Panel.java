@@ -2,16 +2,20 @@ package com.olehpetrov.backend.models;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 
 @Data
 @Document(collection = "panels")
+@CompoundIndex(name = "cluster_ref", def = "{'cluster.$id': 1}")
 public class Panel {
 
     @Id
     private String id;
+    @Indexed
     private String userId;
     private int powerRating;
     private int efficiency;
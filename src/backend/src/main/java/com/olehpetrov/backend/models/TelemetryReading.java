@@ -0,0 +1,26 @@
+package com.olehpetrov.backend.models;
+
+import lombok.Data;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+// Measured production reported by an inverter, written in batches by TelemetryIngestService
+@Data
+@Document(collection = "telemetry")
+@CompoundIndex(name = "cluster_time", def = "{'clusterId': 1, 'timestamp': 1}")
+public class TelemetryReading {
+
+    @Id
+    private String id;
+    private String clusterId;
+    private String inverterId;
+    @Indexed
+    private Date timestamp;
+    private double powerW;      // instantaneous power
+    private double energyWh;    // energy produced since the previous reading
+    private Date receivedAt;
+}
@@ -2,6 +2,7 @@ package com.olehpetrov.backend.models;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.security.core.GrantedAuthority;
@@ -16,7 +17,9 @@ public class User implements UserDetails {
     @Id
     private String id;
     private Role role;
+    @Indexed(unique = true)
     private String username;
+    @Indexed
     private String email;
     private String password;
 
@@ -0,0 +1,153 @@
+package com.olehpetrov.backend.repositories;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.olehpetrov.backend.responses.CursorPage;
+import com.olehpetrov.backend.utils.KeysetCursor;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads full entities with their {@code @DBRef} graph resolved in batches: the references of a
+ * page of documents are gathered and fetched with one {@code $in} query per collection and
+ * reference level (panels -> clusters/locations -> inverters/locations), instead of one query
+ * per reference. Fetched documents are kept for the rest of the HTTP request, so later loads in
+ * the same request reuse them; services writing to a collection call {@link #evict} so those
+ * loads see the write.
+ */
+@Component
+public class DbRefBatchLoader {
+
+    private static final String CACHE_ATTRIBUTE = DbRefBatchLoader.class.getName() + ".documents";
+
+    private final MongoTemplate mongoTemplate;
+    private final QueryMapper queryMapper;
+
+    public DbRefBatchLoader(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+        this.queryMapper = new QueryMapper(mongoTemplate.getConverter());
+    }
+
+    public <T> List<T> find(Class<T> type, Bson filter) {
+        return read(type, collection(type).find(filter));
+    }
+
+    // Same paging semantics as MongoRepository.findAll(Pageable)
+    public <T> Page<T> findPage(Class<T> type, Pageable pageable) {
+        FindIterable<Document> find = collection(type).find();
+        if (pageable.getSort().isSorted()) {
+            find = find.sort(queryMapper.getMappedSort(new Query().with(pageable.getSort()).getSortObject(),
+                    mongoTemplate.getConverter().getMappingContext().getPersistentEntity(type)));
+        }
+        if (pageable.isPaged()) {
+            find = find.skip((int) pageable.getOffset()).limit(pageable.getPageSize());
+        }
+        List<T> content = read(type, find);
+        return PageableExecutionUtils.getPage(content, pageable, () -> mongoTemplate.count(new Query(), type));
+    }
+
+    /**
+     * Keyset pagination over {@code _id}: no skip and no count, so every slice costs the same
+     * no matter how deep the caller is. Pass an empty cursor for the first slice.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public <T> CursorPage<T> findAfter(Class<T> type, String cursor, int size) {
+        int limit = Math.max(size, 1);
+        List<Document> documents = collection(type).find(KeysetCursor.after(cursor))
+                .sort(Sorts.ascending("_id"))
+                .limit(limit + 1)
+                .into(new ArrayList<>());
+
+        String nextCursor = null;
+        if (documents.size() > limit) {
+            documents = documents.subList(0, limit);
+            nextCursor = KeysetCursor.encode(documents.get(limit - 1).get("_id"));
+        }
+        return new CursorPage<>(read(type, documents), nextCursor);
+    }
+
+    // Drops the documents of the type's collection kept for the current request, after a write to it
+    public void evict(Class<?> type) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null && attributes.getAttribute(CACHE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) != null) {
+            requestCache().remove(mongoTemplate.getCollectionName(type));
+        }
+    }
+
+    private <T> List<T> read(Class<T> type, FindIterable<Document> find) {
+        return read(type, find.into(new ArrayList<>()));
+    }
+
+    private <T> List<T> read(Class<T> type, List<Document> documents) {
+        Map<String, Map<Object, Document>> prefetched = requestCache();
+        prefetch(documents, prefetched);
+        return PrefetchingDbRefResolver.withPrefetched(prefetched, () -> documents.stream()
+                .map(document -> mongoTemplate.getConverter().read(type, document))
+                .toList());
+    }
+
+    private void prefetch(List<Document> documents, Map<String, Map<Object, Document>> prefetched) {
+        List<Document> level = documents;
+        while (!level.isEmpty()) {
+            Map<String, Set<Object>> missing = new HashMap<>();
+            for (Document document : level) {
+                for (Object value : document.values()) {
+                    if (value instanceof DBRef ref
+                            && !prefetched.getOrDefault(ref.getCollectionName(), Map.of()).containsKey(ref.getId())) {
+                        missing.computeIfAbsent(ref.getCollectionName(), name -> new LinkedHashSet<>()).add(ref.getId());
+                    }
+                }
+            }
+
+            List<Document> fetched = new ArrayList<>();
+            missing.forEach((collectionName, ids) -> {
+                Map<Object, Document> byId = prefetched.computeIfAbsent(collectionName, name -> new HashMap<>());
+                // Remember every requested id so dangling references are not looked up one by one later
+                ids.forEach(id -> byId.put(id, null));
+                mongoTemplate.getCollection(collectionName).find(Filters.in("_id", ids)).forEach(document -> {
+                    byId.put(document.get("_id"), document);
+                    fetched.add(document);
+                });
+            });
+            level = fetched;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Map<Object, Document>> requestCache() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return new HashMap<>();
+        }
+        Object cache = attributes.getAttribute(CACHE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (cache == null) {
+            cache = new HashMap<String, Map<Object, Document>>();
+            attributes.setAttribute(CACHE_ATTRIBUTE, cache, RequestAttributes.SCOPE_REQUEST);
+        }
+        return (Map<String, Map<Object, Document>>) cache;
+    }
+
+    private MongoCollection<Document> collection(Class<?> type) {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(type));
+    }
+}
@@ -5,11 +5,14 @@ import com.olehpetrov.backend.models.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface InverterRepository extends MongoRepository<Inverter, String> {
     Page<Inverter> findAll(Pageable pageable);
 
+    // Collation match instead of the derived case-insensitive regex so the name_ci index is used
+    @Query(value = "{ 'name': ?0 }", collation = "{ 'locale': 'en', 'strength': 2 }", exists = true)
     boolean existsByNameIgnoreCase(String name);
 }
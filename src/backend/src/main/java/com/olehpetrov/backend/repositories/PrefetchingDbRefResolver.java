@@ -0,0 +1,50 @@
+package com.olehpetrov.backend.repositories;
+
+import com.mongodb.DBRef;
+import org.bson.Document;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * DBRef resolver that answers from documents prefetched by {@link DbRefBatchLoader} and only
+ * falls back to a single-document lookup for references that were not prefetched.
+ */
+public class PrefetchingDbRefResolver extends DefaultDbRefResolver {
+
+    private static final ThreadLocal<Map<String, Map<Object, Document>>> PREFETCHED = new ThreadLocal<>();
+
+    public PrefetchingDbRefResolver(MongoDatabaseFactory mongoDbFactory) {
+        super(mongoDbFactory);
+    }
+
+    @Override
+    public Document fetch(DBRef dbRef) {
+        Map<String, Map<Object, Document>> prefetched = PREFETCHED.get();
+        if (prefetched != null) {
+            Map<Object, Document> collection = prefetched.get(dbRef.getCollectionName());
+            // A prefetched id without a document is a dangling reference, no need to ask Mongo again
+            if (collection != null && collection.containsKey(dbRef.getId())) {
+                return collection.get(dbRef.getId());
+            }
+        }
+        return super.fetch(dbRef);
+    }
+
+    // Runs the mapping work with the given documents visible to fetch(), keyed by collection and _id
+    static <T> T withPrefetched(Map<String, Map<Object, Document>> documents, Supplier<T> work) {
+        Map<String, Map<Object, Document>> previous = PREFETCHED.get();
+        PREFETCHED.set(documents);
+        try {
+            return work.get();
+        } finally {
+            if (previous == null) {
+                PREFETCHED.remove();
+            } else {
+                PREFETCHED.set(previous);
+            }
+        }
+    }
+}
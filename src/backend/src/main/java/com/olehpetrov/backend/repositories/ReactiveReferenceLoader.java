@@ -0,0 +1,44 @@
+package com.olehpetrov.backend.repositories;
+
+import com.mongodb.client.model.Projections;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link ReferenceLoader} for the reactive forecast path. Reactive
+ * mapping cannot resolve {@code @DBRef} fields, so callers read raw documents and follow the
+ * referenced ids themselves with {@link ReferenceLoader#referencedId}.
+ */
+@Component
+public class ReactiveReferenceLoader {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public ReactiveReferenceLoader(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    // Raw documents of the entity's collection, DBRef fields are left unresolved
+    public Flux<Document> findRaw(Class<?> entityType, Bson filter, String... fields) {
+        return collection(entityType).flatMapMany(collection -> find(collection, filter, fields));
+    }
+
+    public Mono<Document> findOne(Class<?> entityType, Bson filter, String... fields) {
+        return collection(entityType).flatMap(collection -> Mono.from(find(collection, filter, fields).first()));
+    }
+
+    private Mono<MongoCollection<Document>> collection(Class<?> entityType) {
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(entityType));
+    }
+
+    private static FindPublisher<Document> find(MongoCollection<Document> collection, Bson filter, String... fields) {
+        FindPublisher<Document> find = collection.find(filter);
+        return fields.length > 0 ? find.projection(Projections.include(fields)) : find;
+    }
+}
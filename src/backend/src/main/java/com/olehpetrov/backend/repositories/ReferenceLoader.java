@@ -0,0 +1,100 @@
+package com.olehpetrov.backend.repositories;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.olehpetrov.backend.responses.CursorPage;
+import com.olehpetrov.backend.utils.KeysetCursor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.bson.conversions.Bson;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reads raw documents and resolves the ids behind their {@code @DBRef} fields with one
+ * {@code $in} query per referenced collection, instead of the per-document lookups
+ * Spring Data performs when mapping entities.
+ */
+@Component
+public class ReferenceLoader {
+
+    private final MongoTemplate mongoTemplate;
+
+    public ReferenceLoader(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // Raw documents of the entity's collection, DBRef fields are left unresolved
+    public List<Document> findRaw(Class<?> entityType, Bson filter, String... fields) {
+        var find = mongoTemplate.getCollection(mongoTemplate.getCollectionName(entityType)).find(filter);
+        if (fields.length > 0) {
+            find = find.projection(Projections.include(fields));
+        }
+        return find.into(new ArrayList<>());
+    }
+
+    /**
+     * Keyset slice of raw documents in ascending {@code _id} order, restricted to the given fields.
+     * Pass an empty cursor for the first slice.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public CursorPage<Document> findRawAfter(Class<?> entityType, String cursor, int size, String... fields) {
+        int limit = Math.max(size, 1);
+        var find = mongoTemplate.getCollection(mongoTemplate.getCollectionName(entityType)).find(KeysetCursor.after(cursor));
+        if (fields.length > 0) {
+            find = find.projection(Projections.include(fields));
+        }
+        List<Document> documents = find.sort(Sorts.ascending("_id")).limit(limit + 1).into(new ArrayList<>());
+
+        String nextCursor = null;
+        if (documents.size() > limit) {
+            documents = documents.subList(0, limit);
+            nextCursor = KeysetCursor.encode(documents.get(limit - 1).get("_id"));
+        }
+        return new CursorPage<>(documents, nextCursor);
+    }
+
+    // Loads referenced documents as mapped entities, keyed by their raw _id value
+    public <T> Map<Object, T> loadAll(Class<T> type, Collection<Object> ids) {
+        Map<Object, T> entities = new HashMap<>();
+        loadRaw(type, ids).forEach((id, document) -> entities.put(id, mongoTemplate.getConverter().read(type, document)));
+        return entities;
+    }
+
+    // Loads referenced documents without mapping, optionally restricted to a few fields
+    public Map<Object, Document> loadRaw(Class<?> type, Collection<Object> ids, String... fields) {
+        Map<Object, Document> documents = new HashMap<>();
+        if (ids.isEmpty()) {
+            return documents;
+        }
+        findRaw(type, Filters.in("_id", ids), fields).forEach(document -> documents.put(document.get("_id"), document));
+        return documents;
+    }
+
+    // Spring Data stores String ids that look like ObjectIds as ObjectIds
+    public static Object rawId(String id) {
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+
+    public static Object referencedId(Document document, String field) {
+        return document.get(field) instanceof DBRef ref ? ref.getId() : null;
+    }
+
+    public static Set<Object> referencedIds(Collection<Document> documents, String field) {
+        Set<Object> ids = new LinkedHashSet<>();
+        documents.stream().map(document -> referencedId(document, field)).filter(Objects::nonNull).forEach(ids::add);
+        return ids;
+    }
+}
@@ -0,0 +1,18 @@
+package com.olehpetrov.backend.requests;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class ClusterMembershipRequest {
+    @NotEmpty
+    @Size(max = 10000)
+    private List<String> panelIds;
+    // Only used when moving panels to another cluster
+    private String targetClusterId;
+}
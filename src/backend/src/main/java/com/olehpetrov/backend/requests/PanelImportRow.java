@@ -0,0 +1,31 @@
+package com.olehpetrov.backend.requests;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+
+// One panel of a bulk import; cluster is the name of one of the user's clusters
+@Getter
+@Setter
+public class PanelImportRow {
+    @NotBlank
+    private String name;
+    @NotNull
+    @Min(1)
+    private Integer powerRating;
+    @NotNull
+    @Min(1)
+    @Max(100)
+    private Integer efficiency;
+    @NotNull
+    @Min(1)
+    private Integer quantity;
+    @NotNull
+    @Valid
+    private LocationRequest location;
+    private String cluster;
+}
@@ -0,0 +1,14 @@
+package com.olehpetrov.backend.requests;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class TelemetryReadingRequest {
+    private String clusterId;
+    private String inverterId;
+    private Long timestamp;     // epoch milliseconds
+    private Double powerW;
+    private Double energyWh;
+}
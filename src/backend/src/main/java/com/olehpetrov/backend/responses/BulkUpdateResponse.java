@@ -0,0 +1,18 @@
+package com.olehpetrov.backend.responses;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class BulkUpdateResponse {
+    private int requested;
+    private long matched;
+    private long modified;
+
+    public BulkUpdateResponse(int requested, long matched, long modified) {
+        this.requested = requested;
+        this.matched = matched;
+        this.modified = modified;
+    }
+}
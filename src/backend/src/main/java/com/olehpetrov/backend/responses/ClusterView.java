@@ -0,0 +1,18 @@
+package com.olehpetrov.backend.responses;
+
+import com.olehpetrov.backend.models.Inverter;
+import com.olehpetrov.backend.models.Location;
+import lombok.Getter;
+import lombok.Setter;
+
+// Read model for cluster list and detail endpoints
+@Setter
+@Getter
+public class ClusterView {
+    private String id;
+    private String name;
+    private String userId;
+    private String description;
+    private Inverter inverter;
+    private Location location;
+}
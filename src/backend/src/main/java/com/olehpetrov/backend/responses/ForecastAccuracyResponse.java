@@ -0,0 +1,14 @@
+package com.olehpetrov.backend.responses;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class ForecastAccuracyResponse {
+    private int horizon;
+    private long samples;
+    private Double mae;     // kWh
+    private Double mape;    // percent
+    private Double bias;    // kWh, positive when the forecast is too high
+}
@@ -0,0 +1,27 @@
+package com.olehpetrov.backend.responses;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+public class ImportResult {
+    private int imported;
+    private int failed;
+    private int locationsCreated;
+    private List<RowError> errors = new ArrayList<>();
+
+    @Getter
+    public static class RowError {
+        private final int row;
+        private final String message;
+
+        public RowError(int row, String message) {
+            this.row = row;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.olehpetrov.backend.responses;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+
+@Getter
+public class IngestResult {
+    private final int accepted;
+    private final int rejected;
+    @JsonIgnore
+    private final boolean overloaded;
+
+    public IngestResult(int accepted, int rejected, boolean overloaded) {
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.overloaded = overloaded;
+    }
+}
@@ -0,0 +1,19 @@
+package com.olehpetrov.backend.responses;
+
+import com.olehpetrov.backend.models.Location;
+import lombok.Getter;
+import lombok.Setter;
+
+// Read model for panel list and detail endpoints: the cluster is reduced to its id and name
+@Setter
+@Getter
+public class PanelView {
+    private String id;
+    private String userId;
+    private String name;
+    private int powerRating;
+    private int efficiency;
+    private int quantity;
+    private Location location;
+    private ClusterResponse cluster;
+}
@@ -0,0 +1,215 @@
+package com.olehpetrov.backend.services;
+
+import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Cluster-wide invalidation of in-memory caches. Writes publish a small event into a capped
+ * collection and every node follows that collection with a tailable cursor, evicting the keys
+ * from its local caches. Works on a standalone Mongo (no change streams needed).
+ *
+ * <p>Each node inserts a start marker and only dispatches events that follow it, so history is
+ * never replayed. If the tailer loses its position (the log wrapped around or the connection
+ * dropped) events may have been missed, so every subscribed cache is cleared before it resumes.
+ *
+ * <p>Subscribers: the user details that authenticate each request ({@link UserDetailsServiceImpl})
+ * and the cluster owners checked by the cluster endpoints ({@link ClusterService}). A topic is
+ * added together with the first cache that needs it.
+ */
+@Service
+public class CacheInvalidationBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheInvalidationBus.class);
+
+    static final String COLLECTION = "cache_invalidations";
+
+    // Beyond this a single event evicts the whole topic instead of listing the keys
+    private static final int MAX_KEYS_PER_EVENT = 1000;
+
+    public enum Topic { USER, CLUSTER }
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final long logSizeBytes;
+    private final String nodeId = new ObjectId().toHexString();
+    private final Map<Topic, List<Consumer<String>>> listeners = new EnumMap<>(Topic.class);
+
+    private volatile boolean running;
+    private Thread tailer;
+
+    public CacheInvalidationBus(MongoTemplate mongoTemplate,
+                                @Value("${cache.invalidation.enabled:true}") boolean enabled,
+                                @Value("${cache.invalidation.log-size-bytes:8388608}") long logSizeBytes) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.logSizeBytes = logSizeBytes;
+        for (Topic topic : Topic.values()) {
+            listeners.put(topic, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /**
+     * Registers a local cache. The listener receives the evicted key, or {@code null} when the
+     * whole topic has to be dropped.
+     */
+    public void subscribe(Topic topic, Consumer<String> evict) {
+        listeners.get(topic).add(evict);
+    }
+
+    public void publish(Topic topic, String key) {
+        publish(topic, key == null ? null : List.of(key));
+    }
+
+    // Evicts locally right away, other nodes follow when they read the event; null keys evict the whole topic
+    public void publish(Topic topic, Collection<String> keys) {
+        List<String> evicted = keys == null || keys.size() > MAX_KEYS_PER_EVENT ? null : List.copyOf(keys);
+        dispatch(topic, evicted);
+        if (!enabled) {
+            return;
+        }
+        try {
+            mongoTemplate.getCollection(COLLECTION).insertOne(new Document("topic", topic.name())
+                    .append("keys", evicted)
+                    .append("node", nodeId)
+                    .append("at", new Date()));
+        } catch (MongoException e) {
+            // The write itself succeeded, other nodes only serve the stale entry until it expires
+            logger.error("Failed to publish {} invalidation for {}", topic, evicted, e);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        if (!mongoTemplate.collectionExists(COLLECTION)) {
+            try {
+                mongoTemplate.createCollection(COLLECTION, CollectionOptions.empty().capped().size(logSizeBytes));
+            } catch (RuntimeException e) {
+                // Another node created it first
+                logger.debug("Invalidation log already created", e);
+            }
+        }
+        // The first marker is written before start returns, so every later write is seen by this node
+        ObjectId marker = null;
+        try {
+            marker = insertMarker();
+        } catch (MongoException e) {
+            logger.warn("Failed to write the invalidation log start marker, the tailer retries", e);
+        }
+        ObjectId firstMarker = marker;
+        running = true;
+        tailer = new Thread(() -> tail(firstMarker), "cache-invalidation-tailer");
+        tailer.setDaemon(true);
+        tailer.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (tailer != null) {
+            tailer.interrupt();
+        }
+    }
+
+    private void tail(ObjectId firstMarker) {
+        MongoCollection<Document> log = mongoTemplate.getCollection(COLLECTION);
+        ObjectId marker = firstMarker;
+        while (running) {
+            try {
+                if (marker == null) {
+                    marker = insertMarker();
+                }
+                boolean pastMarker = false;
+                try (MongoCursor<Document> cursor = log.find()
+                        .cursorType(CursorType.TailableAwait)
+                        .maxAwaitTime(1, TimeUnit.SECONDS)
+                        .noCursorTimeout(true)
+                        .iterator()) {
+                    while (running) {
+                        Document event = cursor.tryNext();
+                        if (event == null) {
+                            // Caught up without meeting the marker means the log already wrapped past it
+                            if (cursor.getServerCursor() == null || !pastMarker) {
+                                break;
+                            }
+                            continue;
+                        }
+                        if (!pastMarker) {
+                            pastMarker = marker.equals(event.get("_id"));
+                        } else if (event.getString("topic") != null && !nodeId.equals(event.getString("node"))) {
+                            dispatch(Topic.valueOf(event.getString("topic")), event.getList("keys", String.class));
+                        }
+                    }
+                }
+                if (running) {
+                    logger.warn("Invalidation log cursor closed, clearing local caches and resuming");
+                    sleepBeforeRetry();
+                }
+            } catch (MongoException | IllegalArgumentException e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("Invalidation log tailing failed, clearing local caches and resuming", e);
+                sleepBeforeRetry();
+            }
+            // Events between the lost position and the new marker are unknown
+            marker = null;
+            for (Topic topic : Topic.values()) {
+                dispatch(topic, null);
+            }
+        }
+    }
+
+    // Markers have no topic, they only tell a node where its own reading starts
+    private ObjectId insertMarker() {
+        ObjectId marker = new ObjectId();
+        mongoTemplate.getCollection(COLLECTION).insertOne(new Document("_id", marker).append("node", nodeId).append("at", new Date()));
+        return marker;
+    }
+
+    private void dispatch(Topic topic, List<String> keys) {
+        for (Consumer<String> evict : listeners.get(topic)) {
+            try {
+                if (keys == null) {
+                    evict.accept(null);
+                } else {
+                    keys.forEach(evict);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Cache eviction for {} failed", topic, e);
+            }
+        }
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,26 +1,81 @@
 package com.olehpetrov.backend.services;
 
+import com.mongodb.client.model.Filters;
 import com.olehpetrov.backend.models.Cluster;
+import com.olehpetrov.backend.models.Inverter;
+import com.olehpetrov.backend.models.Location;
 import com.olehpetrov.backend.models.Panel;
 import com.olehpetrov.backend.models.User;
 import com.olehpetrov.backend.repositories.ClusterRepository;
+import com.olehpetrov.backend.repositories.DbRefBatchLoader;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
+import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.ClusterView;
+import com.olehpetrov.backend.responses.CursorPage;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class ClusterService {
 
     @Autowired
     private ClusterRepository clusterRepository;
+    @Autowired
+    private ReferenceLoader referenceLoader;
+    @Autowired
+    private DbRefBatchLoader dbRefBatchLoader;
+    @Autowired
+    private SolarPanelService solarPanelService;
+    @Autowired
+    private CacheInvalidationBus invalidationBus;
+
+    @Value("${cluster.owner-cache.size:10000}")
+    private int ownerCacheSize;
+
+    // Owners checked by every cluster endpoint; entries go when the cluster is written on any node
+    private final Map<String, String> owners = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > ownerCacheSize;
+        }
+    });
+    // Bumped by every eviction, a lookup that raced with one does not cache what it read
+    private final AtomicLong ownerEvictions = new AtomicLong();
+
+    @PostConstruct
+    void subscribe() {
+        invalidationBus.subscribe(CacheInvalidationBus.Topic.CLUSTER, clusterId -> {
+            ownerEvictions.incrementAndGet();
+            synchronized (owners) {
+                if (clusterId == null) {
+                    owners.clear();
+                } else {
+                    owners.remove(clusterId);
+                }
+            }
+        });
+    }
 
     // Add a new cluster
     public Cluster addCluster(Cluster cluster) {
-        return clusterRepository.save(cluster);
+        Cluster saved = clusterRepository.save(cluster);
+        dbRefBatchLoader.evict(Cluster.class);
+        invalidationBus.publish(CacheInvalidationBus.Topic.CLUSTER, saved.getId());
+        return saved;
     }
 
     // Get all clusters by user ID
@@ -34,16 +89,84 @@ public class ClusterService {
         return cluster.orElse(null); // Return null if cluster not found
     }
 
+    // Read models for the cluster endpoints: three queries (clusters, locations, inverters) for any number of clusters
+    public List<ClusterView> getClusterViewsByUserId(String userId) {
+        return findClusterViews(Filters.eq("userId", userId));
+    }
+
+    public ClusterView getClusterViewById(String clusterId) {
+        List<ClusterView> views = findClusterViews(Filters.eq("_id", ReferenceLoader.rawId(clusterId)));
+        return views.isEmpty() ? null : views.get(0);
+    }
+
+    private List<ClusterView> findClusterViews(Bson filter) {
+        List<Document> clusters = referenceLoader.findRaw(Cluster.class, filter);
+        Map<Object, Location> locations =
+                referenceLoader.loadAll(Location.class, ReferenceLoader.referencedIds(clusters, "location"));
+        Map<Object, Inverter> inverters =
+                referenceLoader.loadAll(Inverter.class, ReferenceLoader.referencedIds(clusters, "inverter"));
+
+        List<ClusterView> views = new ArrayList<>(clusters.size());
+        for (Document cluster : clusters) {
+            ClusterView view = new ClusterView();
+            view.setId(String.valueOf(cluster.get("_id")));
+            view.setName(cluster.getString("name"));
+            view.setUserId(cluster.getString("userId"));
+            view.setDescription(cluster.getString("description"));
+            view.setLocation(locations.get(ReferenceLoader.referencedId(cluster, "location")));
+            view.setInverter(inverters.get(ReferenceLoader.referencedId(cluster, "inverter")));
+            views.add(view);
+        }
+        return views;
+    }
+
     // Update an existing cluster
     public Cluster updateCluster(Cluster cluster) {
-        return clusterRepository.save(cluster); // save() will update if ID exists
+        Cluster saved = clusterRepository.save(cluster); // save() will update if ID exists
+        dbRefBatchLoader.evict(Cluster.class);
+        invalidationBus.publish(CacheInvalidationBus.Topic.CLUSTER, saved.getId());
+        return saved;
     }
 
     // Delete an existing cluster by cluster ID
     public void deleteCluster(String clusterId) {
+        deleteCluster(clusterId, false);
+    }
+
+    // Member panels are detached (or deleted) first, so an interrupted delete never leaves panels pointing at a missing cluster
+    public long deleteCluster(String clusterId, boolean deletePanels) {
+        long affected = deletePanels
+                ? solarPanelService.deleteByClusterId(clusterId)
+                : solarPanelService.detachFromCluster(clusterId);
         clusterRepository.deleteById(clusterId);
+        dbRefBatchLoader.evict(Cluster.class);
+        invalidationBus.publish(CacheInvalidationBus.Topic.CLUSTER, clusterId);
+        return affected;
+    }
+
+    // Owner of the cluster without resolving its references, null if the cluster does not exist
+    public String getClusterOwnerId(String clusterId) {
+        String cached = owners.get(clusterId);
+        if (cached != null) {
+            return cached;
+        }
+        long seen = ownerEvictions.get();
+        List<Document> clusters = referenceLoader.findRaw(Cluster.class, Filters.eq("_id", ReferenceLoader.rawId(clusterId)), "userId");
+        String ownerId = clusters.isEmpty() ? null : clusters.get(0).getString("userId");
+        synchronized (owners) {
+            if (ownerId != null && ownerEvictions.get() == seen) {
+                owners.put(clusterId, ownerId);
+            }
+        }
+        return ownerId;
     }
     public Page<Cluster> findAll(Pageable pageable) {
-        return clusterRepository.findAll(pageable);
+        return dbRefBatchLoader.findPage(Cluster.class, pageable);
+    }
+
+    // Keyset listing reads only the name and id of each cluster
+    public CursorPage<ClusterResponse> findAfter(String cursor, int size) {
+        return referenceLoader.findRawAfter(Cluster.class, cursor, size, "name")
+                .map(cluster -> new ClusterResponse(cluster.getString("name"), String.valueOf(cluster.get("_id"))));
     }
 }
@@ -0,0 +1,33 @@
+package com.olehpetrov.backend.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Schedules of the background jobs that work on shared data. Every replica fires them, the
+ * {@link JobCoordinator} decides which one runs a job or which part of it.
+ */
+@Service
+public class CoordinatedJobs {
+
+    @Autowired
+    private JobCoordinator coordinator;
+    @Autowired
+    private LocationService locationService;
+    @Autowired
+    private ForecastAccuracyService accuracyService;
+
+    // One full pass over the locations is enough
+    @Scheduled(cron = "${location.compaction.cron:0 30 3 * * *}")
+    public void compactLocations() {
+        coordinator.runAsLeader("location-compaction", locationService::compactDuplicates);
+    }
+
+    // The days to (re)close are split across the live nodes
+    @Scheduled(cron = "${forecast.accuracy.close-cron:0 15 * * * *}", zone = "UTC")
+    public void closeForecastAccuracy() {
+        JobCoordinator.Shard shard = coordinator.shard();
+        accuracyService.closeRecentDays(day -> shard.owns(day.toString()));
+    }
+}
@@ -0,0 +1,158 @@
+package com.olehpetrov.backend.services;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.olehpetrov.backend.models.EnergyBucket;
+import com.olehpetrov.backend.models.EnergyBucket.OwnerType;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Reads and writes the monthly {@link EnergyBucket} documents. A range read is one query on an
+ * {@code _id} range, and a write of any number of values is one ordered bulkWrite with two
+ * operations per touched month: allocate the bucket if it is missing, then set the slots.
+ */
+@Service
+public class EnergySeriesService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    public void upsertDaily(OwnerType ownerType, String ownerId, Map<LocalDate, Double> values) {
+        bulkWrite(dailyWrites(ownerType, ownerId, values));
+    }
+
+    // Hours are UTC
+    public void upsertHourly(OwnerType ownerType, String ownerId, Map<LocalDateTime, Double> values) {
+        bulkWrite(writes(ownerType, ownerId, values, YearMonth::from,
+                hour -> "hourlyKwh." + ((hour.getDayOfMonth() - 1) * 24 + hour.getHour())));
+    }
+
+    public List<WriteModel<Document>> dailyWrites(OwnerType ownerType, String ownerId, Map<LocalDate, Double> values) {
+        return writes(ownerType, ownerId, values, YearMonth::from, day -> "dailyKwh." + (day.getDayOfMonth() - 1));
+    }
+
+    /**
+     * Like {@link #dailyWrites}, but only fills slots that are still empty: a value already in the
+     * bucket is kept. For backfills running next to live writes.
+     */
+    public List<WriteModel<Document>> dailyFillWrites(OwnerType ownerType, String ownerId, Map<LocalDate, Double> values) {
+        Map<YearMonth, List<Double>> slotsByMonth = new TreeMap<>();
+        values.forEach((day, value) -> slotsByMonth
+                .computeIfAbsent(YearMonth.from(day), month -> emptySlots(month.lengthOfMonth()))
+                .set(day.getDayOfMonth() - 1, value));
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        slotsByMonth.forEach((month, slots) -> {
+            String id = EnergyBucket.bucketId(ownerType, ownerId, month);
+            writes.add(allocation(ownerType, ownerId, month));
+            // Pipeline update: every slot keeps its value and takes the new one only when it is null
+            Document filled = new Document("$map", new Document("input", new Document("$range", List.of(0, month.lengthOfMonth())))
+                    .append("as", "day")
+                    .append("in", new Document("$ifNull", List.of(
+                            new Document("$arrayElemAt", List.of("$dailyKwh", "$$day")),
+                            new Document("$arrayElemAt", List.of(new Document("$literal", slots), "$$day"))))));
+            writes.add(new UpdateOneModel<>(Filters.eq("_id", id), List.of(new Document("$set", new Document("dailyKwh", filled)))));
+        });
+        return writes;
+    }
+
+    public void bulkWrite(List<WriteModel<Document>> writes) {
+        if (!writes.isEmpty()) {
+            // Ordered, so a bucket is always allocated before its slots are set
+            buckets().bulkWrite(writes, new BulkWriteOptions().ordered(true));
+        }
+    }
+
+    public SortedMap<LocalDate, Double> readDaily(OwnerType ownerType, String ownerId, LocalDate from, LocalDate to) {
+        SortedMap<LocalDate, Double> values = new TreeMap<>();
+        for (Document bucket : find(ownerType, ownerId, YearMonth.from(from), YearMonth.from(to), "dailyKwh")) {
+            YearMonth month = YearMonth.parse(bucket.getString("month"));
+            List<Double> daily = bucket.getList("dailyKwh", Double.class, Collections.emptyList());
+            for (int i = 0; i < daily.size(); i++) {
+                LocalDate day = month.atDay(i + 1);
+                if (daily.get(i) != null && !day.isBefore(from) && !day.isAfter(to)) {
+                    values.put(day, daily.get(i));
+                }
+            }
+        }
+        return values;
+    }
+
+    // Hours are UTC, both bounds are inclusive
+    public SortedMap<LocalDateTime, Double> readHourly(OwnerType ownerType, String ownerId, LocalDateTime from, LocalDateTime to) {
+        SortedMap<LocalDateTime, Double> values = new TreeMap<>();
+        for (Document bucket : find(ownerType, ownerId, YearMonth.from(from), YearMonth.from(to), "hourlyKwh")) {
+            LocalDateTime start = YearMonth.parse(bucket.getString("month")).atDay(1).atStartOfDay();
+            List<Double> hourly = bucket.getList("hourlyKwh", Double.class, Collections.emptyList());
+            for (int i = 0; i < hourly.size(); i++) {
+                LocalDateTime hour = start.plusHours(i);
+                if (hourly.get(i) != null && !hour.isBefore(from) && !hour.isAfter(to)) {
+                    values.put(hour, hourly.get(i));
+                }
+            }
+        }
+        return values;
+    }
+
+    private List<Document> find(OwnerType ownerType, String ownerId, YearMonth from, YearMonth to, String field) {
+        return buckets()
+                .find(Filters.and(
+                        Filters.gte("_id", EnergyBucket.bucketId(ownerType, ownerId, from)),
+                        Filters.lte("_id", EnergyBucket.bucketId(ownerType, ownerId, to))))
+                .projection(Projections.include("month", field))
+                .into(new ArrayList<>());
+    }
+
+    private <K> List<WriteModel<Document>> writes(OwnerType ownerType, String ownerId, Map<K, Double> values,
+                                                  Function<K, YearMonth> monthOf, Function<K, String> slotOf) {
+        Map<YearMonth, Document> slotsByMonth = new TreeMap<>();
+        values.forEach((key, value) ->
+                slotsByMonth.computeIfAbsent(monthOf.apply(key), month -> new Document()).append(slotOf.apply(key), value));
+
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        slotsByMonth.forEach((month, slots) -> {
+            String id = EnergyBucket.bucketId(ownerType, ownerId, month);
+            writes.add(allocation(ownerType, ownerId, month));
+            writes.add(new UpdateOneModel<>(Filters.eq("_id", id), new Document("$set", slots)));
+        });
+        return writes;
+    }
+
+    // Creates the bucket with every slot empty, unless it exists
+    private static UpdateOneModel<Document> allocation(OwnerType ownerType, String ownerId, YearMonth month) {
+        return new UpdateOneModel<>(Filters.eq("_id", EnergyBucket.bucketId(ownerType, ownerId, month)),
+                new Document("$setOnInsert", new Document("ownerType", ownerType.name())
+                        .append("ownerId", ownerId)
+                        .append("month", month.toString())
+                        .append("dailyKwh", emptySlots(month.lengthOfMonth()))
+                        .append("hourlyKwh", emptySlots(month.lengthOfMonth() * 24))),
+                new UpdateOptions().upsert(true));
+    }
+
+    private static List<Double> emptySlots(int size) {
+        return new ArrayList<>(Collections.nCopies(size, null));
+    }
+
+    private MongoCollection<Document> buckets() {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(EnergyBucket.class));
+    }
+}
@@ -0,0 +1,315 @@
+package com.olehpetrov.backend.services;
+
+import com.mongodb.DBRef;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.olehpetrov.backend.config.StartupSeeding;
+import com.olehpetrov.backend.models.Cluster;
+import com.olehpetrov.backend.models.Inverter;
+import com.olehpetrov.backend.models.Location;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.User;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates a synthetic fleet (users, clusters, panels, locations) for load and scale testing.
+ * Everything, ids included, is derived from the seed, so the same spec always produces the same
+ * database; documents are written with unordered {@code insertMany} batches. A fleet that was
+ * already generated for a seed is left alone.
+ */
+@Component
+public class FleetDataGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(FleetDataGenerator.class);
+
+    // Generated ids carry this timestamp (2020-01-01), far from any id the application creates
+    private static final int ID_TIMESTAMP = (int) Instant.parse("2020-01-01T00:00:00Z").getEpochSecond();
+    private static final double KM_PER_DEGREE = 111.32;
+    private static final int[] POWER_RATINGS = {300, 350, 400, 450, 500, 550, 600};
+
+    public record Range(int min, int max) {
+
+        // "5" or "5-40"
+        public static Range parse(String value) {
+            String[] bounds = value.trim().split("-");
+            int min = Integer.parseInt(bounds[0].trim());
+            int max = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : min;
+            if (min < 0 || max < min) {
+                throw new IllegalArgumentException("Invalid range: " + value);
+            }
+            return new Range(min, max);
+        }
+
+        int pick(SplittableRandom random) {
+            return min == max ? min : random.nextInt(min, max + 1);
+        }
+    }
+
+    public record Region(String name, double lat, double lon) {
+
+        // "Riga:56.9496:24.1052,Kyiv:50.4501:30.5234"
+        public static List<Region> parseAll(String value) {
+            List<Region> regions = new ArrayList<>();
+            for (String region : value.split(",")) {
+                String[] parts = region.trim().split(":");
+                regions.add(new Region(parts[0].trim(), Double.parseDouble(parts[1]), Double.parseDouble(parts[2])));
+            }
+            return regions;
+        }
+    }
+
+    /**
+     * @param seed          drives the random stream and makes up the generated ids; an int, so it
+     *                      fits the id in full
+     * @param inverterShare fraction of clusters that get an inverter; it is the smallest seeded
+     *                      inverter that covers the cluster's rated power
+     */
+    public record FleetSpec(int seed, int users, Range clustersPerUser, Range panelsPerCluster,
+                            List<Region> regions, double spreadKm, double inverterShare, String password) {
+    }
+
+    public record Summary(long users, long clusters, long panels, long millis) {
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final ObjectProvider<StartupSeeding> startupSeeding;
+    private final int batchSize;
+
+    @Value("${fleet.generator.enabled:false}")
+    private boolean enabled;
+    @Value("${fleet.generator.seed:42}")
+    private int seed;
+    @Value("${fleet.generator.users:1000}")
+    private int users;
+    @Value("${fleet.generator.clusters-per-user:1-9}")
+    private String clustersPerUser;
+    @Value("${fleet.generator.panels-per-cluster:5-35}")
+    private String panelsPerCluster;
+    @Value("${fleet.generator.regions:Kyiv:50.4501:30.5234,Riga:56.9496:24.1052,Stockholm:59.3293:18.0686}")
+    private String regions;
+    @Value("${fleet.generator.spread-km:30}")
+    private double spreadKm;
+    @Value("${fleet.generator.inverter-share:0.8}")
+    private double inverterShare;
+    @Value("${fleet.generator.password:fleet}")
+    private String password;
+
+    public FleetDataGenerator(MongoTemplate mongoTemplate,
+                              ObjectProvider<StartupSeeding> startupSeeding,
+                              @Value("${fleet.generator.batch-size:10000}") int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.startupSeeding = startupSeeding;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void generateOnStartup() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        // Clusters are matched against the inverter catalogue, which is seeded in the background
+        StartupSeeding seeding = startupSeeding.getIfAvailable();
+        if (seeding != null) {
+            seeding.await(StartupSeeding.Stage.INVERTERS, Duration.ofMinutes(1));
+        }
+        generate(configuredSpec());
+    }
+
+    public FleetSpec configuredSpec() {
+        return new FleetSpec(seed, users, Range.parse(clustersPerUser), Range.parse(panelsPerCluster),
+                Region.parseAll(regions), spreadKm, inverterShare, password);
+    }
+
+    /**
+     * @return what was written, all zero when this seed's fleet already exists
+     */
+    public Summary generate(FleetSpec spec) {
+        Run run = new Run(spec);
+        if (mongoTemplate.getCollection(collection(User.class)).find(Filters.eq("_id", run.id(0))).first() != null) {
+            logger.info("Fleet for seed {} already exists, skipping generation", spec.seed());
+            return new Summary(0, 0, 0, 0);
+        }
+
+        long started = System.currentTimeMillis();
+        logger.info("Generating fleet: seed {}, {} users, {} clusters per user, {} panels per cluster",
+                spec.seed(), spec.users(), spec.clustersPerUser(), spec.panelsPerCluster());
+        for (int user = 0; user < spec.users(); user++) {
+            run.user(user);
+        }
+        run.flush();
+
+        Summary summary = new Summary(run.users, run.clusters, run.panels, System.currentTimeMillis() - started);
+        logger.info("Fleet generated in {} ms: {} users, {} clusters, {} panels ({} panels/s)",
+                summary.millis(), summary.users(), summary.clusters(), summary.panels(),
+                summary.panels() * 1000 / Math.max(summary.millis(), 1));
+        return summary;
+    }
+
+    private String collection(Class<?> type) {
+        return mongoTemplate.getCollectionName(type);
+    }
+
+    // One generation: the seeded random stream, the id sequence and the pending batches
+    private class Run {
+
+        private final FleetSpec spec;
+        private final SplittableRandom random;
+        private final String passwordHash;
+        private final List<Document> inverters;
+        private final List<Document> pendingUsers = new ArrayList<>();
+        private final List<Document> pendingLocations = new ArrayList<>();
+        private final List<Document> pendingClusters = new ArrayList<>();
+        private final List<Document> pendingPanels = new ArrayList<>();
+        private int sequence;
+        private long users;
+        private long clusters;
+        private long panels;
+
+        Run(FleetSpec spec) {
+            this.spec = spec;
+            this.random = new SplittableRandom(spec.seed());
+            // One hash for every generated user, bcrypt per user would dominate the run
+            this.passwordHash = new BCryptPasswordEncoder().encode(spec.password());
+            // Smallest first, so the first one that covers a cluster is the natural pick
+            this.inverters = mongoTemplate.getCollection(collection(Inverter.class)).find()
+                    .into(new ArrayList<>()).stream()
+                    .filter(inverter -> inverter.get("capacity") instanceof Number)
+                    .sorted(Comparator.comparingDouble(inverter -> ((Number) inverter.get("capacity")).doubleValue()))
+                    .toList();
+        }
+
+        // The whole seed and the sequence number make the id, so ids are reproducible and never collide across seeds
+        ObjectId id(int sequence) {
+            return new ObjectId(ByteBuffer.allocate(12)
+                    .putInt(ID_TIMESTAMP)
+                    .putInt(spec.seed())
+                    .putInt(sequence)
+                    .array());
+        }
+
+        void user(int index) {
+            ObjectId userId = id(sequence++);
+            String username = "fleet" + spec.seed() + "-" + index;
+            add(pendingUsers, new Document("_id", userId)
+                    .append("role", Role.ROLE_USER.name())
+                    .append("username", username)
+                    .append("email", username + "@example.com")
+                    .append("password", passwordHash));
+            users++;
+
+            int clusterCount = spec.clustersPerUser().pick(random);
+            for (int cluster = 0; cluster < clusterCount; cluster++) {
+                cluster(userId.toHexString(), username, cluster);
+            }
+        }
+
+        private void cluster(String userId, String username, int index) {
+            ObjectId clusterId = id(sequence++);
+            ObjectId locationId = id(sequence++);
+            add(pendingLocations, location(locationId));
+
+            int panelCount = spec.panelsPerCluster().pick(random);
+            double ratedKw = 0;
+            for (int panel = 0; panel < panelCount; panel++) {
+                int powerRating = POWER_RATINGS[random.nextInt(POWER_RATINGS.length)];
+                int quantity = random.nextInt(1, 5);
+                ratedKw += powerRating * quantity / 1000.0;
+                add(pendingPanels, new Document("_id", id(sequence++))
+                        .append("userId", userId)
+                        .append("powerRating", powerRating)
+                        .append("efficiency", random.nextInt(17, 24))
+                        .append("name", "Panel " + (panel + 1))
+                        .append("quantity", quantity)
+                        .append("location", new DBRef(collection(Location.class), locationId))
+                        .append("cluster", new DBRef(collection(Cluster.class), clusterId)));
+                panels++;
+            }
+
+            Document cluster = new Document("_id", clusterId)
+                    .append("name", "Cluster " + (index + 1))
+                    .append("userId", userId)
+                    .append("description", "Generated cluster of " + username)
+                    .append("location", new DBRef(collection(Location.class), locationId));
+            Document inverter = random.nextDouble() < spec.inverterShare() ? inverterFor(ratedKw) : null;
+            if (inverter != null) {
+                cluster.append("inverter", new DBRef(collection(Inverter.class), inverter.get("_id")));
+            }
+            add(pendingClusters, cluster);
+            clusters++;
+        }
+
+        // A point uniformly spread over a disc of spreadKm around a random region
+        private Document location(ObjectId locationId) {
+            Region region = spec.regions().get(random.nextInt(spec.regions().size()));
+            double distance = spec.spreadKm() * Math.sqrt(random.nextDouble());
+            double bearing = random.nextDouble() * 2 * Math.PI;
+            double lat = region.lat() + distance * Math.cos(bearing) / KM_PER_DEGREE;
+            double lon = region.lon() + distance * Math.sin(bearing) / (KM_PER_DEGREE * Math.cos(Math.toRadians(region.lat())));
+
+            // The site number keeps the interning key unique even if two sites round to the same point
+            Location location = LocationService.canonical(lat, lon, region.name(),
+                    "Fleet " + spec.seed() + " site " + locationId.toHexString(), "Fleet");
+            return new Document("_id", locationId)
+                    .append("lat", location.getLat())
+                    .append("lon", location.getLon())
+                    .append("city", location.getCity())
+                    .append("district", location.getDistrict())
+                    .append("country", location.getCountry())
+                    .append("key", location.getKey());
+        }
+
+        private Document inverterFor(double ratedKw) {
+            if (inverters.isEmpty()) {
+                return null;
+            }
+            return inverters.stream()
+                    .filter(inverter -> ((Number) inverter.get("capacity")).doubleValue() >= ratedKw)
+                    .findFirst()
+                    .orElse(inverters.get(inverters.size() - 1));
+        }
+
+        private void add(List<Document> pending, Document document) {
+            pending.add(document);
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        // Referenced documents go first, so a reader never sees a panel whose cluster or location is missing
+        void flush() {
+            write(Location.class, pendingLocations);
+            write(User.class, pendingUsers);
+            write(Cluster.class, pendingClusters);
+            write(Panel.class, pendingPanels);
+        }
+
+        private void write(Class<?> type, List<Document> documents) {
+            if (documents.isEmpty()) {
+                return;
+            }
+            MongoCollection<Document> target = mongoTemplate.getCollection(collection(type));
+            target.insertMany(documents, new InsertManyOptions().ordered(false));
+            documents.clear();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.olehpetrov.backend.services;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.olehpetrov.backend.models.EnergyBucket;
+import com.olehpetrov.backend.models.ForecastAccuracy;
+import com.olehpetrov.backend.models.ForecastRecord;
+import com.olehpetrov.backend.models.TelemetryReading;
+import com.olehpetrov.backend.responses.ForecastAccuracyResponse;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Incremental forecast-vs-actual accuracy per cluster and horizon. The first daily forecast per
+ * cluster, date and horizon is recorded when it is served; when the actual for a day arrives (or
+ * changes because of late telemetry) each record is scored and only the difference to the
+ * contribution it last added is {@code $inc}-ed into the running sums, so serving MAE, MAPE and
+ * bias reads one small document per horizon. A score change is first claimed on the record under
+ * its version; the {@code $inc} is tagged with that version, so a scorer that resumes a claim left
+ * behind by a crash or a concurrent scorer never applies the same difference twice.
+ */
+@Service
+public class ForecastAccuracyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForecastAccuracyService.class);
+
+    // Forecasts reach 13 days ahead
+    private static final int MAX_HORIZON = 13;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private EnergySeriesService energySeriesService;
+
+    @Value("${forecast.accuracy.reclose-days:2}")
+    private int recloseDays;
+
+    // Recording is best effort; when the writer falls behind a forecast is skipped, a later request records it
+    private final ThreadPoolExecutor recorder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1000), runnable -> {
+                Thread thread = new Thread(runnable, "forecast-accuracy-recorder");
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    // Dates are UTC forecast dates, forecasts for past dates are not tracked
+    public void recordForecast(String clusterId, LocalDate issuedOn, Map<LocalDate, Double> dailyKwh) {
+        List<WriteModel<Document>> writes = new ArrayList<>();
+        dailyKwh.forEach((date, kwh) -> {
+            long horizon = ChronoUnit.DAYS.between(issuedOn, date);
+            if (horizon < 0 || horizon > MAX_HORIZON || kwh == null) {
+                return;
+            }
+            // Only the first forecast counts, refreshing the page must not re-weight a day
+            writes.add(new UpdateOneModel<>(
+                    Filters.eq("_id", clusterId + ":" + date + ":" + horizon),
+                    Updates.setOnInsert(new Document("clusterId", clusterId)
+                            .append("date", date.toString())
+                            .append("horizon", (int) horizon)
+                            .append("forecastKwh", kwh)
+                            .append("version", 0L)),
+                    new UpdateOptions().upsert(true)));
+        });
+        if (!writes.isEmpty()) {
+            collection(ForecastRecord.class).bulkWrite(writes);
+        }
+    }
+
+    // Same as recordForecast on a background thread, for request paths that must not wait on the write
+    public void recordForecastAsync(String clusterId, LocalDate issuedOn, Map<LocalDate, Double> dailyKwh) {
+        recorder.execute(() -> {
+            try {
+                recordForecast(clusterId, issuedOn, dailyKwh);
+            } catch (RuntimeException e) {
+                logger.warn("Failed to record forecast for accuracy tracking of cluster {}", clusterId, e);
+            }
+        });
+    }
+
+    /**
+     * Stores the measured production of a cluster for a day and scores the forecasts made for it.
+     * Safe to call again with a corrected value; the accuracy sums are adjusted, not re-added.
+     */
+    public void recordActual(String clusterId, LocalDate date, double actualKwh) {
+        energySeriesService.upsertDaily(EnergyBucket.OwnerType.CLUSTER, clusterId, Map.of(date, actualKwh));
+
+        MongoCollection<Document> records = collection(ForecastRecord.class);
+        for (Document record : records.find(Filters.and(Filters.eq("clusterId", clusterId), Filters.eq("date", date.toString())))) {
+            Document pending = record.get("pending", Document.class);
+            if (pending != null) {
+                // A score change claimed earlier was not settled, finish it before scoring again
+                settle(record, pending);
+                record = records.find(Filters.eq("_id", record.get("_id"))).first();
+                if (record == null || record.containsKey("pending")) {
+                    continue;
+                }
+            }
+            Double previous = record.get("scoredActualKwh") instanceof Number number ? number.doubleValue() : null;
+            if (previous != null && previous == actualKwh) {
+                continue;
+            }
+
+            // Claim the next version, a concurrent scorer of the same record loses here
+            long version = record.get("version") instanceof Number number ? number.longValue() : 0;
+            Document claimed = new Document("version", version + 1).append("actualKwh", actualKwh);
+            Bson claim = Filters.and(Filters.eq("_id", record.get("_id")), Filters.eq("version", version),
+                    Filters.exists("pending", false));
+            if (records.updateOne(claim, Updates.set("pending", claimed)).getModifiedCount() == 1) {
+                settle(record, claimed);
+            }
+        }
+    }
+
+    // $inc-s the difference between the record's last contribution and the claimed one, then stores the claimed one on the record
+    private void settle(Document record, Document pending) {
+        String recordId = record.getString("_id");
+        String clusterId = record.getString("clusterId");
+        int horizon = ((Number) record.get("horizon")).intValue();
+        double forecast = ((Number) record.get("forecastKwh")).doubleValue();
+        long version = ((Number) pending.get("version")).longValue();
+        double actual = ((Number) pending.get("actualKwh")).doubleValue();
+
+        double error = forecast - actual;
+        Double absPercentError = actual > 0 ? Math.abs(error) / actual : null;
+        boolean scored = record.containsKey("scoredActualKwh");
+        Double previousPercentError = record.get("absPercentError") instanceof Number number ? number.doubleValue() : null;
+
+        String token = recordId + ":" + version;
+        MongoCollection<Document> sums = collection(ForecastAccuracy.class);
+        try {
+            sums.updateOne(
+                    Filters.and(Filters.eq("_id", clusterId + ":" + horizon), Filters.ne("applied", token)),
+                    Updates.combine(
+                            Updates.setOnInsert("clusterId", clusterId),
+                            Updates.setOnInsert("horizon", horizon),
+                            Updates.inc("samples", scored ? 0 : 1),
+                            Updates.inc("sumError", error - doubleValue(record, "error")),
+                            Updates.inc("sumAbsError", Math.abs(error) - doubleValue(record, "absError")),
+                            Updates.inc("percentSamples", (absPercentError != null ? 1 : 0) - (previousPercentError != null ? 1 : 0)),
+                            Updates.inc("sumAbsPercentError", (absPercentError != null ? absPercentError : 0)
+                                    - (previousPercentError != null ? previousPercentError : 0)),
+                            Updates.addToSet("applied", token)),
+                    new UpdateOptions().upsert(true));
+        } catch (MongoWriteException e) {
+            // The sums already hold this version: the filter missed and the upsert hit the existing _id
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+
+        List<Bson> scoredFields = new ArrayList<>(List.of(
+                Updates.set("scoredActualKwh", actual),
+                Updates.set("error", error),
+                Updates.set("absError", Math.abs(error)),
+                Updates.set("version", version),
+                Updates.unset("pending")));
+        // MAPE is undefined for a day without production
+        scoredFields.add(absPercentError != null ? Updates.set("absPercentError", absPercentError) : Updates.unset("absPercentError"));
+        collection(ForecastRecord.class).updateOne(
+                Filters.and(Filters.eq("_id", recordId), Filters.eq("pending.version", version)), Updates.combine(scoredFields));
+        sums.updateOne(Filters.eq("_id", clusterId + ":" + horizon), Updates.pull("applied", token));
+    }
+
+    public List<ForecastAccuracyResponse> getAccuracy(String clusterId) {
+        List<ForecastAccuracyResponse> accuracy = new ArrayList<>();
+        collection(ForecastAccuracy.class).find(Filters.eq("clusterId", clusterId)).sort(Sorts.ascending("horizon"))
+                .forEach(sums -> {
+                    long samples = ((Number) sums.get("samples")).longValue();
+                    long percentSamples = ((Number) sums.get("percentSamples")).longValue();
+                    ForecastAccuracyResponse response = new ForecastAccuracyResponse();
+                    response.setHorizon(((Number) sums.get("horizon")).intValue());
+                    response.setSamples(samples);
+                    if (samples > 0) {
+                        response.setMae(((Number) sums.get("sumAbsError")).doubleValue() / samples);
+                        response.setBias(((Number) sums.get("sumError")).doubleValue() / samples);
+                    }
+                    if (percentSamples > 0) {
+                        response.setMape(100 * ((Number) sums.get("sumAbsPercentError")).doubleValue() / percentSamples);
+                    }
+                    accuracy.add(response);
+                });
+        return accuracy;
+    }
+
+    // Closes the last few UTC days from telemetry; re-running picks up late readings and only adjusts the sums
+    public void closeRecentDays() {
+        closeRecentDays(day -> true);
+    }
+
+    // Same for the days this node is responsible for (scheduled by CoordinatedJobs)
+    public void closeRecentDays(Predicate<LocalDate> owned) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (int daysAgo = Math.max(recloseDays, 1); daysAgo >= 1; daysAgo--) {
+            if (!owned.test(today.minusDays(daysAgo))) {
+                continue;
+            }
+            try {
+                closeDay(today.minusDays(daysAgo));
+            } catch (RuntimeException e) {
+                logger.error("Failed to close forecast accuracy for {}", today.minusDays(daysAgo), e);
+            }
+        }
+    }
+
+    public void closeDay(LocalDate date) {
+        Date start = Date.from(date.atStartOfDay().toInstant(ZoneOffset.UTC));
+        Date end = Date.from(date.plusDays(1).atStartOfDay().toInstant(ZoneOffset.UTC));
+
+        int clusters = 0;
+        for (Document total : collection(TelemetryReading.class).aggregate(List.of(
+                Aggregates.match(Filters.and(Filters.gte("timestamp", start), Filters.lt("timestamp", end))),
+                Aggregates.group("$clusterId", Accumulators.sum("energyWh", "$energyWh"))))) {
+            recordActual(total.getString("_id"), date, ((Number) total.get("energyWh")).doubleValue() / 1000.0);
+            clusters++;
+        }
+        logger.info("Closed forecast accuracy for {} ({} clusters)", date, clusters);
+    }
+
+    @PreDestroy
+    public void stop() {
+        recorder.shutdown();
+    }
+
+    private static double doubleValue(Document document, String field) {
+        return document.get(field) instanceof Number number ? number.doubleValue() : 0;
+    }
+
+    private MongoCollection<Document> collection(Class<?> type) {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(type));
+    }
+}
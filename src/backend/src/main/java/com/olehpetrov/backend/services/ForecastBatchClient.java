@@ -0,0 +1,178 @@
+package com.olehpetrov.backend.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-batching client for the model service. Hourly series requests (1 kWp) arriving within a
+ * short window are sent together to {@code /forecast_batch}, where the model predicts all of
+ * them on one frame, and the per-location results are handed back to the waiting callers. A batch
+ * is sent when it is full or when the window since its first request has passed.
+ */
+@Service
+public class ForecastBatchClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForecastBatchClient.class);
+
+    private record Item(double lat, double lon, LocalDate start, LocalDate end, CompletableFuture<JSONArray> result) {
+    }
+
+    private final RestTemplate restTemplate;
+    private final ForecastEndpoints endpoints;
+    private final long windowMillis;
+    private final int maxSize;
+    private final DistributionSummary batchSizes;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(daemon("forecast-batch-timer"));
+    private final ExecutorService senders;
+
+    private final List<Item> pending = new ArrayList<>();
+    private ScheduledFuture<?> flushTimer;
+
+    public ForecastBatchClient(RestTemplate restTemplate,
+                               MeterRegistry meterRegistry,
+                               ForecastEndpoints endpoints,
+                               @Value("${forecast.batch.window-ms:10}") long windowMillis,
+                               @Value("${forecast.batch.max-size:64}") int maxSize,
+                               @Value("${forecast.batch.max-in-flight:4}") int maxInFlight) {
+        this.restTemplate = restTemplate;
+        this.endpoints = endpoints;
+        this.windowMillis = Math.max(windowMillis, 0);
+        this.maxSize = Math.max(maxSize, 1);
+        this.senders = Executors.newFixedThreadPool(Math.max(maxInFlight, 1), daemon("forecast-batch-sender"));
+        this.batchSizes = DistributionSummary.builder("forecast.batch.size")
+                .description("Locations per batched forecast request")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues a request for the hourly series of one location at 1 kWp. The future completes with
+     * the forecast rows, or with a {@link RestClientException} when the batch or this item failed.
+     */
+    public CompletableFuture<JSONArray> submit(double lat, double lon, LocalDate start, LocalDate end) {
+        Item item = new Item(lat, lon, start, end, new CompletableFuture<>());
+        List<Item> full = null;
+        synchronized (pending) {
+            pending.add(item);
+            if (pending.size() >= maxSize) {
+                full = drain();
+            } else if (pending.size() == 1) {
+                flushTimer = timer.schedule(this::flushDue, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return item.result();
+    }
+
+    @PreDestroy
+    public void stop() {
+        timer.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    private void flushDue() {
+        List<Item> due;
+        synchronized (pending) {
+            due = drain();
+        }
+        if (!due.isEmpty()) {
+            send(due);
+        }
+    }
+
+    // Caller holds the lock
+    private List<Item> drain() {
+        if (flushTimer != null) {
+            flushTimer.cancel(false);
+            flushTimer = null;
+        }
+        List<Item> batch = new ArrayList<>(pending);
+        pending.clear();
+        return batch;
+    }
+
+    private void send(List<Item> batch) {
+        batchSizes.record(batch.size());
+        try {
+            senders.execute(() -> post(batch));
+        } catch (RuntimeException e) {
+            // Shutting down
+            batch.forEach(item -> item.result().completeExceptionally(new RestClientException("Forecast client stopped", e)));
+        }
+    }
+
+    private void post(List<Item> batch) {
+        JSONArray items = new JSONArray();
+        for (Item item : batch) {
+            items.put(new JSONObject()
+                    .put("lat", item.lat())
+                    .put("lon", item.lon())
+                    .put("start", item.start().toString())
+                    .put("end", item.end().toString()));
+        }
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+
+        JSONArray results;
+        try {
+            // Never hedged, a batch is too much work to do twice
+            String body = endpoints.execute(base -> restTemplate.postForObject(base + "/forecast_batch",
+                    new HttpEntity<>(new JSONObject().put("items", items).toString(), headers), String.class));
+            results = new JSONObject(body).getJSONArray("results");
+            if (results.length() != batch.size()) {
+                throw new RestClientException("Forecast batch returned " + results.length() + " results for " + batch.size() + " items");
+            }
+        } catch (RestClientException | JSONException e) {
+            logger.error("Forecast batch of {} locations failed", batch.size(), e);
+            RestClientException failure = e instanceof RestClientException restException
+                    ? restException : new RestClientException("Malformed forecast batch response", e);
+            batch.forEach(item -> item.result().completeExceptionally(failure));
+            return;
+        }
+
+        // Results are in request order; one location failing does not fail the others
+        for (int i = 0; i < batch.size(); i++) {
+            JSONObject result = results.optJSONObject(i);
+            JSONArray forecast = result == null ? null : result.optJSONArray("forecast");
+            if (forecast != null) {
+                batch.get(i).result().complete(forecast);
+            } else {
+                String error = result == null ? "missing result" : result.optString("error", "missing forecast");
+                batch.get(i).result().completeExceptionally(new RestClientException("Forecast failed: " + error));
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
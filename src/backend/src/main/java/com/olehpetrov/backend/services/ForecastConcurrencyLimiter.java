@@ -0,0 +1,143 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.utils.GradientLimit;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive limit on the calls in flight to the model service, learned from their round trip
+ * times by a {@link GradientLimit}, so the service is kept busy without queueing inside it. A
+ * call over the limit waits up to {@code queue-timeout-ms} in a short queue for a permit and is
+ * refused when it gets none. With {@code forecast.limit.enabled=false} every call gets a permit,
+ * but the limit is still learned and reported.
+ */
+@Service
+public class ForecastConcurrencyLimiter {
+
+    private final boolean enabled;
+    private final GradientLimit limit;
+    private final int maxQueue;
+    private final long queueTimeoutMillis;
+    private final Counter rejections;
+
+    private final Deque<CompletableFuture<Boolean>> waiting = new ArrayDeque<>();
+    private int inFlight;
+
+    public ForecastConcurrencyLimiter(MeterRegistry meterRegistry,
+                                      @Value("${forecast.limit.enabled:true}") boolean enabled,
+                                      @Value("${forecast.limit.initial:8}") int initialLimit,
+                                      @Value("${forecast.limit.min:2}") int minLimit,
+                                      @Value("${forecast.limit.max:64}") int maxLimit,
+                                      @Value("${forecast.limit.queue-size:32}") int maxQueue,
+                                      @Value("${forecast.limit.queue-timeout-ms:100}") long queueTimeoutMillis) {
+        this.enabled = enabled;
+        this.limit = new GradientLimit(initialLimit, minLimit, maxLimit);
+        this.maxQueue = Math.max(maxQueue, 0);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.rejections = Counter.builder("forecast.limit.rejections")
+                .description("Model service calls refused at the concurrency limit")
+                .register(meterRegistry);
+        Gauge.builder("forecast.limit.current", limit, GradientLimit::limit)
+                .description("Adaptive limit of model service calls in flight")
+                .register(meterRegistry);
+        Gauge.builder("forecast.limit.in-flight", this, limiter -> limiter.inFlight())
+                .description("Model service calls in flight")
+                .register(meterRegistry);
+        Gauge.builder("forecast.limit.queued", this, limiter -> limiter.queued())
+                .description("Model service calls waiting for a permit")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A permit now or after a short wait; completes with {@code false} when the limit is still
+     * reached by then. A granted permit must be handed back with one of the release methods.
+     */
+    public CompletableFuture<Boolean> acquire() {
+        CompletableFuture<Boolean> waiter;
+        synchronized (this) {
+            if (!enabled || (waiting.isEmpty() && inFlight < limit.limit())) {
+                inFlight++;
+                return CompletableFuture.completedFuture(true);
+            }
+            if (waiting.size() >= maxQueue || queueTimeoutMillis <= 0) {
+                rejections.increment();
+                return CompletableFuture.completedFuture(false);
+            }
+            waiter = new CompletableFuture<>();
+            waiting.add(waiter);
+        }
+        return waiter.completeOnTimeout(false, queueTimeoutMillis, TimeUnit.MILLISECONDS).thenApply(granted -> {
+            if (!granted) {
+                rejections.increment();
+                synchronized (this) {
+                    waiting.remove(waiter);
+                }
+            }
+            return granted;
+        });
+    }
+
+    // A permit only if one is free right away, for calls that are optional such as hedges
+    public synchronized boolean tryAcquire() {
+        if (enabled && (!waiting.isEmpty() || inFlight >= limit.limit())) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Hands a permit back after a finished call, whose time adjusts the limit.
+     *
+     * @param dropped whether the call failed because the service is overloaded or down
+     */
+    public void release(long rttNanos, boolean dropped) {
+        synchronized (this) {
+            limit.onSample(rttNanos, inFlight, dropped);
+        }
+        release();
+    }
+
+    // Hands a permit back without a sample, for calls cancelled before they finished
+    public void release() {
+        while (true) {
+            CompletableFuture<Boolean> next;
+            synchronized (this) {
+                // Over a limit that just shrank the permit is not passed on
+                if (waiting.isEmpty() || inFlight > limit.limit()) {
+                    inFlight--;
+                    return;
+                }
+                next = waiting.poll();
+            }
+            // Outside the lock, the waiter starts its call right here; false when it has just timed out
+            if (next.complete(true)) {
+                return;
+            }
+        }
+    }
+
+    public ForecastUnavailableException overloaded() {
+        return new ForecastUnavailableException("Forecast service is at its concurrency limit", 1);
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queued() {
+        return waiting.size();
+    }
+
+    public int limit() {
+        return limit.limit();
+    }
+}
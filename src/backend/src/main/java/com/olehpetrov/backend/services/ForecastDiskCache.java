@@ -0,0 +1,407 @@
+package com.olehpetrov.backend.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Optional local disk tier for hourly forecast chunks, so a restarted node starts warm instead of
+ * sending every request to the model service. Chunks are appended to segment files
+ * ({@code segment-<n>.log}) and located through an in-memory LRU index; replaced and evicted
+ * records become dead space that compaction reclaims by copying the live records of a mostly
+ * dead segment to the active one and deleting it.
+ *
+ * <p>The index is rebuilt from the segments in the background at startup, lookups miss until it
+ * is ready. Writes are queued to the same single thread, so they are never overwritten by the
+ * rebuild. Every record carries a CRC, a torn record at the end of a segment is cut off.
+ */
+@Service
+public class ForecastDiskCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForecastDiskCache.class);
+
+    private static final Pattern SEGMENT = Pattern.compile("segment-(\\d+)\\.log");
+
+    // Record header: body length and CRC32 of the body
+    private static final int HEADER_BYTES = 8;
+
+    private record Slot(int segment, long offset, int length, long expiresAt) {
+    }
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+
+    private final LinkedHashMap<String, Slot> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private final Map<Integer, FileChannel> segments = new TreeMap<>();
+    private final Map<Integer, Long> liveBytes = new HashMap<>();
+    private long totalLiveBytes;
+    private int activeSegment;
+
+    private final ExecutorService io = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "forecast-disk-cache");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean ready;
+
+    public ForecastDiskCache(@Value("${forecast.disk-cache.enabled:false}") boolean enabled,
+                             @Value("${forecast.disk-cache.dir:forecast-cache}") String directory,
+                             @Value("${forecast.disk-cache.max-bytes:268435456}") long maxBytes,
+                             @Value("${forecast.disk-cache.segment-bytes:16777216}") long segmentBytes) {
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            io.execute(this::load);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        io.shutdown();
+        try {
+            io.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (index) {
+            segments.values().forEach(ForecastDiskCache::close);
+            segments.clear();
+        }
+    }
+
+    /**
+     * Whether an unexpired chunk is stored under {@code key}; an index lookup, no disk access.
+     */
+    public boolean contains(String key, long now) {
+        if (!ready) {
+            return false;
+        }
+        synchronized (index) {
+            Slot slot = index.get(key);
+            return slot != null && slot.expiresAt() > now;
+        }
+    }
+
+    /**
+     * The chunk stored under {@code key}, or {@code null} when it is missing, expired or unreadable.
+     */
+    public List<HourlyForecastService.HourlyPoint> get(String key, long now) {
+        if (!ready) {
+            return null;
+        }
+        Slot slot;
+        FileChannel channel;
+        synchronized (index) {
+            slot = index.get(key);
+            if (slot == null) {
+                return null;
+            }
+            if (slot.expiresAt() <= now) {
+                remove(key);
+                return null;
+            }
+            channel = segments.get(slot.segment());
+        }
+
+        try {
+            ByteBuffer body = read(channel, slot.offset(), slot.length());
+            return body == null ? null : decode(body);
+        } catch (IOException e) {
+            // The segment was compacted away in the meantime
+            logger.debug("Forecast chunk {} could not be read from disk", key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the chunk in the background; it is readable once the write has run.
+     */
+    public void put(String key, List<HourlyForecastService.HourlyPoint> points, long expiresAt) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            io.execute(() -> {
+                try {
+                    append(key, encode(key, points, expiresAt));
+                    compact();
+                } catch (IOException e) {
+                    logger.warn("Failed to write forecast chunk {} to disk", key, e);
+                }
+            });
+        } catch (RuntimeException e) {
+            // Shutting down
+            logger.debug("Forecast chunk {} not written, disk cache is stopped", key);
+        }
+    }
+
+    // Waits until queued writes (and the startup rebuild) are done
+    void awaitWrites() throws Exception {
+        io.submit(() -> { }).get();
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(directory);
+            List<Integer> ids = new ArrayList<>();
+            try (var files = Files.list(directory)) {
+                files.forEach(file -> {
+                    Matcher matcher = SEGMENT.matcher(file.getFileName().toString());
+                    if (matcher.matches()) {
+                        ids.add(Integer.parseInt(matcher.group(1)));
+                    }
+                });
+            }
+            ids.sort(null);
+
+            long now = System.currentTimeMillis();
+            for (int id : ids) {
+                scan(id, now);
+            }
+            synchronized (index) {
+                activeSegment = ids.isEmpty() ? 1 : ids.get(ids.size() - 1) + 1;
+                segments.put(activeSegment, open(activeSegment));
+                evict();
+            }
+            compact();
+            ready = true;
+            logger.info("Forecast disk cache ready: {} chunks, {} bytes in {} segments", index.size(), totalLiveBytes, segments.size());
+        } catch (IOException e) {
+            logger.error("Forecast disk cache in {} could not be loaded, it stays off", directory, e);
+        }
+    }
+
+    // Indexes the records of one segment; later records of a key replace earlier ones
+    private void scan(int id, long now) throws IOException {
+        if (Files.size(segmentPath(id)) == 0) {
+            // Active segment of a run that wrote nothing
+            Files.delete(segmentPath(id));
+            return;
+        }
+        FileChannel channel = open(id);
+        long size = channel.size();
+        long offset = 0;
+        synchronized (index) {
+            segments.put(id, channel);
+            liveBytes.putIfAbsent(id, 0L);
+        }
+        while (offset + HEADER_BYTES <= size) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, offset);
+            int length = header.flip().getInt();
+            if (length <= 0 || offset + HEADER_BYTES + length > size) {
+                break;
+            }
+            ByteBuffer body = read(channel, offset, length);
+            if (body == null) {
+                break;
+            }
+            String key = readKey(body);
+            long expiresAt = body.getLong();
+            synchronized (index) {
+                if (expiresAt > now) {
+                    track(key, new Slot(id, offset, length, expiresAt));
+                } else {
+                    remove(key);
+                }
+            }
+            offset += HEADER_BYTES + length;
+        }
+        if (offset < size) {
+            logger.warn("Cutting {} bytes of a torn record off forecast cache segment {}", size - offset, id);
+            channel.truncate(offset);
+        }
+    }
+
+    private void append(String key, ByteBuffer body) throws IOException {
+        int length = body.remaining();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+        record.putInt(length).putInt((int) crc.getValue()).put(body).flip();
+        long expiresAt = body.getLong(body.getShort(0) + 2);
+
+        synchronized (index) {
+            FileChannel channel = segments.get(activeSegment);
+            if (channel == null) {
+                // Loading failed, nothing is written
+                return;
+            }
+            if (channel.size() > 0 && channel.size() + record.remaining() > segmentBytes) {
+                channel.force(false);
+                activeSegment++;
+                channel = open(activeSegment);
+                segments.put(activeSegment, channel);
+            }
+            long offset = channel.size();
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position());
+            }
+            track(key, new Slot(activeSegment, offset, length, expiresAt));
+            evict();
+        }
+    }
+
+    // Copies the live records of segments that are mostly dead space to the active one and drops them
+    private void compact() throws IOException {
+        List<Integer> sparse = new ArrayList<>();
+        synchronized (index) {
+            for (Map.Entry<Integer, FileChannel> segment : segments.entrySet()) {
+                long fileBytes = segment.getValue().size();
+                if (segment.getKey() != activeSegment && liveBytes.getOrDefault(segment.getKey(), 0L) * 2 < fileBytes) {
+                    sparse.add(segment.getKey());
+                }
+            }
+        }
+        for (int id : sparse) {
+            List<Map.Entry<String, Slot>> live = new ArrayList<>();
+            synchronized (index) {
+                index.entrySet().stream().filter(entry -> entry.getValue().segment() == id).forEach(live::add);
+            }
+            FileChannel source = segments.get(id);
+            for (Map.Entry<String, Slot> entry : live) {
+                ByteBuffer body = read(source, entry.getValue().offset(), entry.getValue().length());
+                synchronized (index) {
+                    // Skip records replaced or evicted since the listing
+                    if (body != null && entry.getValue().equals(index.get(entry.getKey()))) {
+                        remove(entry.getKey());
+                    } else {
+                        continue;
+                    }
+                }
+                append(entry.getKey(), body);
+            }
+            synchronized (index) {
+                close(segments.remove(id));
+                liveBytes.remove(id);
+            }
+            Files.deleteIfExists(segmentPath(id));
+            logger.debug("Compacted forecast cache segment {} ({} live chunks moved)", id, live.size());
+        }
+    }
+
+    // Caller holds the lock
+    private void track(String key, Slot slot) {
+        remove(key);
+        index.put(key, slot);
+        liveBytes.merge(slot.segment(), (long) HEADER_BYTES + slot.length(), Long::sum);
+        totalLiveBytes += HEADER_BYTES + slot.length();
+    }
+
+    // Caller holds the lock
+    private void remove(String key) {
+        Slot slot = index.remove(key);
+        if (slot != null) {
+            liveBytes.merge(slot.segment(), -((long) HEADER_BYTES + slot.length()), Long::sum);
+            totalLiveBytes -= HEADER_BYTES + slot.length();
+        }
+    }
+
+    // Caller holds the lock; drops least recently used chunks until the live data fits
+    private void evict() {
+        Iterator<Slot> eldest = index.values().iterator();
+        while (totalLiveBytes > maxBytes && eldest.hasNext()) {
+            Slot slot = eldest.next();
+            eldest.remove();
+            liveBytes.merge(slot.segment(), -((long) HEADER_BYTES + slot.length()), Long::sum);
+            totalLiveBytes -= HEADER_BYTES + slot.length();
+        }
+    }
+
+    // Body of the record at offset with its CRC verified, null when it does not match
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + length);
+        while (record.hasRemaining()) {
+            if (channel.read(record, offset + record.position()) < 0) {
+                return null;
+            }
+        }
+        record.flip();
+        record.getInt();
+        int expectedCrc = record.getInt();
+        ByteBuffer body = record.slice();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return (int) crc.getValue() == expectedCrc ? body : null;
+    }
+
+    // Body: key length, key (UTF-8), expiresAt, point count, then epoch millis and W/kWp per point
+    private static ByteBuffer encode(String key, List<HourlyForecastService.HourlyPoint> points, long expiresAt) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(2 + keyBytes.length + 8 + 4 + points.size() * 16);
+        body.putShort((short) keyBytes.length).put(keyBytes).putLong(expiresAt).putInt(points.size());
+        for (HourlyForecastService.HourlyPoint point : points) {
+            body.putLong(point.time().toEpochMilli()).putDouble(point.wattsPerKwp());
+        }
+        return body.flip();
+    }
+
+    private static List<HourlyForecastService.HourlyPoint> decode(ByteBuffer body) {
+        readKey(body);
+        body.getLong();
+        int count = body.getInt();
+        List<HourlyForecastService.HourlyPoint> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            points.add(new HourlyForecastService.HourlyPoint(Instant.ofEpochMilli(body.getLong()), body.getDouble()));
+        }
+        return points;
+    }
+
+    private static String readKey(ByteBuffer body) {
+        byte[] key = new byte[body.getShort()];
+        body.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    private FileChannel open(int id) throws IOException {
+        return FileChannel.open(segmentPath(id), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("segment-%08d.log", id));
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Failed to close forecast cache segment", e);
+        }
+    }
+}
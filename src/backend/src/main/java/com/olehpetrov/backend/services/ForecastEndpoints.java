@@ -0,0 +1,388 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.utils.CircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Model service replicas from the comma separated {@code FORECAST_URL}. Each call goes to the
+ * replica with the fewest requests outstanding; a replica failing {@code eject-failures} times in
+ * a row is left out for {@code eject-ms} and then gets calls again, one more failure ejects it
+ * again. With hedging on, a call still running after the {@code hedge.percentile} latency of
+ * recent calls is sent to a second replica as well; the first answer wins and the other call is
+ * cancelled. Every call, hedges included, holds a permit of the {@link ForecastConcurrencyLimiter}
+ * and counts as outstanding on its replica until it has really ended.
+ *
+ * <p>All replicas share one circuit breaker, fed one outcome per call made through here: a batch
+ * of many locations failing is one failure, not one per location. After
+ * {@code circuit.failure-threshold} failures in a row calls are refused for {@code circuit.open-ms},
+ * then one probe call goes out.
+ */
+@Service
+public class ForecastEndpoints {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForecastEndpoints.class);
+
+    // Hedging waits until the latency percentile is based on this many calls
+    static final int MIN_LATENCY_SAMPLES = 20;
+
+    // A started call: its answer, and its end, which is later for a blocking call that lost a hedge
+    private record Running<T>(CompletableFuture<T> value, CompletableFuture<?> ended) {
+    }
+
+    private static final class Endpoint {
+        final String url;
+        final AtomicInteger outstanding = new AtomicInteger();
+        int failures;
+        long ejectedUntil;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+    private final ForecastConcurrencyLimiter limiter;
+    private final int ejectFailures;
+    private final long ejectNanos;
+    private final boolean hedgeEnabled;
+    private final double hedgePercentile;
+    private final long hedgeMinDelayMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter hedges;
+    private final CircuitBreaker breaker = new CircuitBreaker();
+    private final int failureThreshold;
+    private final long openNanos;
+
+    // Ring of recent successful call latencies in nanos
+    private final long[] latencies = new long[256];
+    private int latencyNext;
+    private int latencyCount;
+
+    public ForecastEndpoints(MeterRegistry meterRegistry,
+                             ForecastConcurrencyLimiter limiter,
+                             @Value("${FORECAST_URL:http://localhost:8000}") String urls,
+                             @Value("${forecast.endpoints.eject-failures:3}") int ejectFailures,
+                             @Value("${forecast.endpoints.eject-ms:10000}") long ejectMillis,
+                             @Value("${forecast.hedge.enabled:false}") boolean hedgeEnabled,
+                             @Value("${forecast.hedge.percentile:0.95}") double hedgePercentile,
+                             @Value("${forecast.hedge.min-delay-ms:50}") long hedgeMinDelayMillis,
+                             @Value("${forecast.circuit.failure-threshold:5}") int failureThreshold,
+                             @Value("${forecast.circuit.open-ms:30000}") long openMillis) {
+        this.endpoints = Arrays.stream(urls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(url -> new Endpoint(url.endsWith("/") ? url.substring(0, url.length() - 1) : url))
+                .toList();
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("FORECAST_URL names no model service");
+        }
+        this.limiter = limiter;
+        this.ejectFailures = Math.max(ejectFailures, 1);
+        this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+        this.hedgeEnabled = hedgeEnabled && endpoints.size() > 1;
+        this.hedgePercentile = Math.min(Math.max(hedgePercentile, 0), 1);
+        this.hedgeMinDelayMillis = hedgeMinDelayMillis;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.hedges = Counter.builder("forecast.hedge.requests")
+                .description("Model service calls duplicated to a second replica")
+                .register(meterRegistry);
+        for (Endpoint endpoint : endpoints) {
+            Gauge.builder("forecast.endpoint.outstanding", endpoint.outstanding, AtomicInteger::get)
+                    .description("Model service calls in flight per replica")
+                    .tag("endpoint", endpoint.url)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Runs {@code request} against the base URL of a replica, hedged when enabled. The future
+     * completes with the first successful answer, or with the failure of the last call to fail;
+     * with a {@link ForecastUnavailableException} when the circuit is open or there is no permit.
+     * {@code request} must return a future that aborts its call when it is cancelled.
+     */
+    public <T> CompletableFuture<T> call(Function<String, CompletableFuture<T>> request) {
+        return limited(base -> {
+            CompletableFuture<T> value = request.apply(base);
+            return new Running<>(value, value);
+        });
+    }
+
+    /**
+     * Same as {@link #call} for a blocking {@code request}, run on {@code executor}. A blocking call
+     * cannot be aborted: a lost hedge runs to its end and keeps its permit and its replica slot
+     * until then, only one cancelled before it started is dropped right away.
+     */
+    public <T> CompletableFuture<T> callBlocking(Function<String, T> request, Executor executor) {
+        return limited(base -> {
+            CompletableFuture<T> value = new CompletableFuture<>();
+            CompletableFuture<Void> ended = new CompletableFuture<>();
+            AtomicBoolean started = new AtomicBoolean();
+            executor.execute(() -> {
+                if (!started.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    value.complete(request.apply(base));
+                } catch (RuntimeException e) {
+                    value.completeExceptionally(e);
+                } finally {
+                    ended.complete(null);
+                }
+            });
+            value.whenComplete((ignored, e) -> {
+                if (value.isCancelled() && started.compareAndSet(false, true)) {
+                    ended.complete(null);
+                }
+            });
+            return new Running<>(value, ended);
+        });
+    }
+
+    private <T> CompletableFuture<T> limited(Function<String, Running<T>> request) {
+        if (failureThreshold > 0 && !breaker.tryAcquire(System.nanoTime(), openNanos)) {
+            return CompletableFuture.failedFuture(circuitOpen());
+        }
+        CircuitBreaker.State before = breaker.state();
+        return limiter.acquire()
+                .thenCompose(granted -> granted
+                        ? balanced(request)
+                        : CompletableFuture.<T>failedFuture(limiter.overloaded()))
+                .whenComplete((value, e) -> recordOutcome(before, unwrap(e)));
+    }
+
+    // Holds the caller's permit
+    private <T> CompletableFuture<T> balanced(Function<String, Running<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        List<CompletableFuture<T>> attempts = new CopyOnWriteArrayList<>();
+        AtomicInteger running = new AtomicInteger();
+        // The winner cancels the other call
+        result.whenComplete((value, e) -> attempts.forEach(attempt -> attempt.cancel(true)));
+
+        Endpoint primary = pick(null);
+        attempt(primary, request, result, attempts, running);
+
+        long delay = hedgeDelayMillis();
+        if (delay >= 0) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+                if (result.isDone()) {
+                    return;
+                }
+                Endpoint second = pick(primary);
+                // A hedge is extra load, it never waits for a permit
+                if (second != null && limiter.tryAcquire()) {
+                    hedges.increment();
+                    attempt(second, request, result, attempts, running);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Blocking call to a replica for work that must not be duplicated, such as a batch; balanced,
+     * health checked and limited, but never hedged.
+     */
+    public <T> T execute(Function<String, T> request) {
+        if (failureThreshold > 0 && !breaker.tryAcquire(System.nanoTime(), openNanos)) {
+            throw circuitOpen();
+        }
+        CircuitBreaker.State before = breaker.state();
+        try {
+            T value = executeLimited(request);
+            recordOutcome(before, null);
+            return value;
+        } catch (RuntimeException e) {
+            recordOutcome(before, e);
+            throw e;
+        }
+    }
+
+    private <T> T executeLimited(Function<String, T> request) {
+        if (!limiter.acquire().join()) {
+            throw limiter.overloaded();
+        }
+        Endpoint endpoint = pick(null);
+        endpoint.outstanding.incrementAndGet();
+        long started = System.nanoTime();
+        boolean dropped = false;
+        try {
+            T value = request.apply(endpoint.url);
+            succeeded(endpoint, System.nanoTime() - started);
+            return value;
+        } catch (RuntimeException e) {
+            dropped = isReplicaFailure(e);
+            failed(endpoint, e);
+            throw e;
+        } finally {
+            endpoint.outstanding.decrementAndGet();
+            limiter.release(System.nanoTime() - started, dropped);
+        }
+    }
+
+    private <T> void attempt(Endpoint endpoint, Function<String, Running<T>> request, CompletableFuture<T> result,
+                             List<CompletableFuture<T>> attempts, AtomicInteger running) {
+        running.incrementAndGet();
+        endpoint.outstanding.incrementAndGet();
+        long started = System.nanoTime();
+        Running<T> call;
+        try {
+            call = request.apply(endpoint.url);
+        } catch (RuntimeException e) {
+            CompletableFuture<T> failure = CompletableFuture.failedFuture(e);
+            call = new Running<>(failure, failure);
+        }
+        CompletableFuture<T> attempt = call.value();
+        attempts.add(attempt);
+        attempt.whenComplete((value, e) -> {
+            Throwable cause = unwrap(e);
+            if (cause == null) {
+                succeeded(endpoint, System.nanoTime() - started);
+                result.complete(value);
+            } else if (!(cause instanceof CancellationException)) {
+                failed(endpoint, cause);
+                if (running.decrementAndGet() == 0) {
+                    result.completeExceptionally(cause);
+                }
+            }
+        });
+        // The replica and the permit are busy until the call has ended, not merely been given up on
+        call.ended().whenComplete((ignored, e) -> {
+            endpoint.outstanding.decrementAndGet();
+            // A cancelled call did not run its course, its time says nothing about the service
+            if (attempt.isCancelled()) {
+                limiter.release();
+            } else {
+                Throwable cause = attempt.isCompletedExceptionally() ? unwrap(attempt.exceptionNow()) : null;
+                limiter.release(System.nanoTime() - started, cause != null && isReplicaFailure(cause));
+            }
+        });
+        // Started after the other call already won
+        if (result.isDone()) {
+            attempt.cancel(true);
+        }
+    }
+
+    private ForecastUnavailableException circuitOpen() {
+        return new ForecastUnavailableException(TimeUnit.NANOSECONDS.toSeconds(breaker.retryAfterNanos(System.nanoTime(), openNanos)) + 1);
+    }
+
+    // One outcome per call; refused and cancelled calls never reached the service, a 4xx answer means it is up
+    private void recordOutcome(CircuitBreaker.State before, Throwable cause) {
+        if (failureThreshold <= 0) {
+            return;
+        }
+        if (cause instanceof ForecastUnavailableException || cause instanceof CancellationException) {
+            breaker.onSkipped();
+            return;
+        }
+        if (cause == null || !isReplicaFailure(cause)) {
+            breaker.onSuccess();
+        } else {
+            breaker.onFailure(System.nanoTime(), failureThreshold);
+        }
+        CircuitBreaker.State after = breaker.state();
+        if (after != before && after != CircuitBreaker.State.HALF_OPEN) {
+            logger.warn("Forecast service circuit is now {}", after);
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    // Least outstanding among the healthy replicas, ties in turn; all ejected means the one back soonest
+    private Endpoint pick(Endpoint exclude) {
+        long now = System.nanoTime();
+        int start = Math.floorMod(next.getAndIncrement(), endpoints.size());
+        Endpoint best = null;
+        Endpoint soonest = null;
+        synchronized (this) {
+            for (int i = 0; i < endpoints.size(); i++) {
+                Endpoint endpoint = endpoints.get((start + i) % endpoints.size());
+                if (endpoint == exclude) {
+                    continue;
+                }
+                if (endpoint.failures >= ejectFailures && now - endpoint.ejectedUntil < 0) {
+                    if (soonest == null || endpoint.ejectedUntil - soonest.ejectedUntil < 0) {
+                        soonest = endpoint;
+                    }
+                } else if (best == null || endpoint.outstanding.get() < best.outstanding.get()) {
+                    best = endpoint;
+                }
+            }
+        }
+        // A hedge only goes to a healthy replica
+        return best != null || exclude != null ? best : soonest;
+    }
+
+    private void succeeded(Endpoint endpoint, long latencyNanos) {
+        synchronized (this) {
+            if (endpoint.failures >= ejectFailures) {
+                logger.info("Model service {} is answering again", endpoint.url);
+            }
+            endpoint.failures = 0;
+            latencies[latencyNext] = latencyNanos;
+            latencyNext = (latencyNext + 1) % latencies.length;
+            latencyCount = Math.min(latencyCount + 1, latencies.length);
+        }
+    }
+
+    // A 4xx answer means the request was wrong, not the replica
+    private static boolean isReplicaFailure(Throwable e) {
+        return !(e instanceof HttpClientErrorException
+                || (e instanceof WebClientResponseException response && response.getStatusCode().is4xxClientError()));
+    }
+
+    private void failed(Endpoint endpoint, Throwable e) {
+        if (!isReplicaFailure(e)) {
+            return;
+        }
+        synchronized (this) {
+            endpoint.failures++;
+            if (endpoint.failures >= ejectFailures) {
+                endpoint.ejectedUntil = System.nanoTime() + ejectNanos;
+                if (endpoint.failures == ejectFailures) {
+                    logger.warn("Model service {} failed {} times in a row, ejecting it", endpoint.url, endpoint.failures, e);
+                }
+            }
+        }
+    }
+
+    // Delay before a hedge, -1 while hedging is off or there are too few samples
+    private long hedgeDelayMillis() {
+        if (!hedgeEnabled) {
+            return -1;
+        }
+        long[] recent;
+        synchronized (this) {
+            if (latencyCount < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            recent = Arrays.copyOf(latencies, latencyCount);
+        }
+        Arrays.sort(recent);
+        int index = Math.max((int) Math.ceil(hedgePercentile * recent.length) - 1, 0);
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(recent[index]), hedgeMinDelayMillis);
+    }
+}
@@ -0,0 +1,99 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.models.ForecastHistoryDay;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Persistent tier for settled forecast days. Once the weather history of a day is final the
+ * model's output for it no longer changes, so it is stored per site and UTC day and survives
+ * restarts; overlapping ranges reuse the days they have in common. Days are stored per model
+ * version, a new model starts with an empty history.
+ */
+@Service
+public class ForecastHistoryStore {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${forecast.model.version:1}")
+    private String modelVersion;
+
+    /**
+     * Hourly points of the UTC days {@code from}..{@code to}, or {@code null} unless every one of
+     * those days is stored.
+     */
+    public List<HourlyForecastService.HourlyPoint> find(double lat, double lon, LocalDate from, LocalDate to) {
+        Query query = new Query(Criteria.where("site").is(site(lat, lon))
+                .and("modelVersion").is(modelVersion)
+                .and("date").gte(from.toString()).lte(to.toString()))
+                .with(Sort.by("date"));
+        List<ForecastHistoryDay> days = mongoTemplate.find(query, ForecastHistoryDay.class);
+        if (days.size() != ChronoUnit.DAYS.between(from, to) + 1) {
+            return null;
+        }
+
+        List<HourlyForecastService.HourlyPoint> points = new ArrayList<>();
+        for (ForecastHistoryDay day : days) {
+            for (ForecastHistoryDay.Hour hour : day.getHours()) {
+                points.add(new HourlyForecastService.HourlyPoint(hour.getTime(), hour.getWattsPerKwp()));
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Stores the series of the UTC days {@code from}..{@code to}. Days without points are not
+     * stored: the upstream may not have had their data yet, so they stay misses and are fetched
+     * again.
+     */
+    public void save(double lat, double lon, LocalDate from, LocalDate to, List<HourlyForecastService.HourlyPoint> points) {
+        Map<LocalDate, List<ForecastHistoryDay.Hour>> byDay = new HashMap<>();
+        for (HourlyForecastService.HourlyPoint point : points) {
+            byDay.computeIfAbsent(point.time().atZone(ZoneOffset.UTC).toLocalDate(), day -> new ArrayList<>())
+                    .add(new ForecastHistoryDay.Hour(point.time(), point.wattsPerKwp()));
+        }
+
+        String site = site(lat, lon);
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ForecastHistoryDay.class);
+        boolean any = false;
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            List<ForecastHistoryDay.Hour> hours = byDay.get(day);
+            if (hours == null) {
+                continue;
+            }
+            ForecastHistoryDay document = new ForecastHistoryDay();
+            document.setId(modelVersion + ":" + site + ":" + day);
+            document.setSite(site);
+            document.setModelVersion(modelVersion);
+            document.setDate(day.toString());
+            document.setHours(hours);
+            // Another node may have stored the same day, the content is identical
+            bulk.replaceOne(Query.query(Criteria.where("_id").is(document.getId())), document, FindAndReplaceOptions.options().upsert());
+            any = true;
+        }
+        if (any) {
+            bulk.execute();
+        }
+    }
+
+    static String site(double lat, double lon) {
+        return String.format(Locale.ROOT, "%.6f,%.6f", lat, lon);
+    }
+}
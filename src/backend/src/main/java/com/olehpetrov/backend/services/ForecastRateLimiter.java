@@ -0,0 +1,95 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.utils.TokenBucket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Per-user token buckets for the forecast endpoints. Every request pays a CHEAP token,
+ * requests that have to go to the model service additionally pay an EXPENSIVE token.
+ */
+@Service
+public class ForecastRateLimiter {
+
+    public enum Tier { CHEAP, EXPENSIVE }
+
+    private record Limit(int capacity, long intervalNanos) {
+        static Limit of(int capacity, int perMinute) {
+            return new Limit(Math.max(capacity, 1), TimeUnit.MINUTES.toNanos(1) / Math.max(perMinute, 1));
+        }
+    }
+
+    private final Map<Tier, ConcurrentHashMap<String, TokenBucket>> buckets = new EnumMap<>(Tier.class);
+    private final Map<Tier, Map<Role, Limit>> limits = new EnumMap<>(Tier.class);
+    private final Map<Tier, Counter> throttled = new EnumMap<>(Tier.class);
+
+    // System.nanoTime, replaced in tests
+    private LongSupplier nanoClock = System::nanoTime;
+
+    public ForecastRateLimiter(MeterRegistry meterRegistry,
+                               @Value("${forecast.rate-limit.user.cheap.capacity:60}") int userCheapCapacity,
+                               @Value("${forecast.rate-limit.user.cheap.per-minute:60}") int userCheapPerMinute,
+                               @Value("${forecast.rate-limit.user.expensive.capacity:10}") int userExpensiveCapacity,
+                               @Value("${forecast.rate-limit.user.expensive.per-minute:6}") int userExpensivePerMinute,
+                               @Value("${forecast.rate-limit.admin.cheap.capacity:240}") int adminCheapCapacity,
+                               @Value("${forecast.rate-limit.admin.cheap.per-minute:240}") int adminCheapPerMinute,
+                               @Value("${forecast.rate-limit.admin.expensive.capacity:40}") int adminExpensiveCapacity,
+                               @Value("${forecast.rate-limit.admin.expensive.per-minute:30}") int adminExpensivePerMinute) {
+        limits.put(Tier.CHEAP, Map.of(
+                Role.ROLE_USER, Limit.of(userCheapCapacity, userCheapPerMinute),
+                Role.ROLE_ADMIN, Limit.of(adminCheapCapacity, adminCheapPerMinute)));
+        limits.put(Tier.EXPENSIVE, Map.of(
+                Role.ROLE_USER, Limit.of(userExpensiveCapacity, userExpensivePerMinute),
+                Role.ROLE_ADMIN, Limit.of(adminExpensiveCapacity, adminExpensivePerMinute)));
+
+        for (Tier tier : Tier.values()) {
+            ConcurrentHashMap<String, TokenBucket> tierBuckets = new ConcurrentHashMap<>();
+            buckets.put(tier, tierBuckets);
+            throttled.put(tier, Counter.builder("forecast.ratelimit.throttled")
+                    .description("Forecast requests rejected by the per-user rate limiter")
+                    .tag("tier", tier.name().toLowerCase())
+                    .register(meterRegistry));
+            meterRegistry.gaugeMapSize("forecast.ratelimit.buckets",
+                    Tags.of("tier", tier.name().toLowerCase()), tierBuckets);
+        }
+    }
+
+    /**
+     * Takes one token of the given tier for the user.
+     *
+     * @return 0 when the request may proceed, otherwise the number of seconds to put into Retry-After
+     */
+    public long tryAcquire(User user, Tier tier) {
+        Role role = user.getRole() != null ? user.getRole() : Role.ROLE_USER;
+        Limit limit = limits.get(tier).get(role);
+        long now = nanoClock.getAsLong();
+
+        TokenBucket bucket = buckets.get(tier).computeIfAbsent(user.getId(), id -> new TokenBucket(now));
+        long waitNanos = bucket.tryAcquire(now, limit.intervalNanos(), limit.capacity());
+        if (waitNanos == 0) {
+            return 0;
+        }
+
+        throttled.get(tier).increment();
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    // Full buckets hold no information, dropping them keeps the maps bounded by active users
+    @Scheduled(fixedDelayString = "${forecast.rate-limit.sweep-interval-ms:60000}")
+    public void evictIdleBuckets() {
+        long now = nanoClock.getAsLong();
+        buckets.values().forEach(tierBuckets -> tierBuckets.values().removeIf(bucket -> bucket.isFull(now)));
+    }
+}
@@ -0,0 +1,124 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.models.ForecastCacheEntry;
+import com.olehpetrov.backend.models.ForecastHistoryDay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Forecast chunk cache in Mongo, shared by every backend replica behind their in-process caches.
+ * A replica that misses claims the chunk with a placeholder before computing it; the others
+ * wait for the result instead of calling the model service for the same chunk, and compute it
+ * themselves only when the claim runs out without a result. Expiry is a TTL index. Lookups,
+ * claims, polls and writes go through the reactive driver, so no thread waits on them.
+ */
+@Service
+public class ForecastSharedCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ForecastSharedCache.class);
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    // How long a claim holds off other replicas
+    @Value("${forecast.shared-cache.fill-timeout-ms:10000}")
+    private long fillTimeoutMillis;
+
+    @Value("${forecast.shared-cache.poll-ms:100}")
+    private long pollMillis;
+
+    private Clock clock = Clock.systemUTC();
+
+    /**
+     * The chunk cached under {@code key}, computed by this replica (and shared until
+     * {@code expiresAt}) when no other replica has it or is computing it.
+     */
+    public CompletableFuture<List<HourlyForecastService.HourlyPoint>> getOrCompute(
+            String key, long expiresAt, Supplier<CompletableFuture<List<HourlyForecastService.HourlyPoint>>> compute) {
+        long waitUntil = clock.millis() + fillTimeoutMillis;
+        return find(key)
+                .flatMap(entry -> resolve(key, entry, expiresAt, waitUntil, compute))
+                .toFuture();
+    }
+
+    private Mono<List<HourlyForecastService.HourlyPoint>> resolve(
+            String key, ForecastCacheEntry entry, long expiresAt, long waitUntil,
+            Supplier<CompletableFuture<List<HourlyForecastService.HourlyPoint>>> compute) {
+        long now = clock.millis();
+        boolean live = entry.getExpiresAt() != null && entry.getExpiresAt().getTime() > now;
+        if (live && entry.getHours() != null) {
+            return Mono.just(entry.getHours().stream()
+                    .map(hour -> new HourlyForecastService.HourlyPoint(hour.getTime(), hour.getWattsPerKwp()))
+                    .toList());
+        }
+        Mono<Boolean> claimed = live ? Mono.just(false) : claim(key, now);
+        return claimed.flatMap(won -> {
+            if (won) {
+                return fill(key, expiresAt, compute, true);
+            }
+            if (clock.millis() >= waitUntil) {
+                logger.warn("Forecast chunk {} was claimed but not computed in time, computing it here", key);
+                return fill(key, expiresAt, compute, false);
+            }
+            // Another replica is computing it
+            return Mono.delay(Duration.ofMillis(pollMillis))
+                    .then(find(key))
+                    .flatMap(polled -> resolve(key, polled, expiresAt, waitUntil, compute));
+        });
+    }
+
+    // The stored entry, or an empty one (expired, no hours) when there is none
+    private Mono<ForecastCacheEntry> find(String key) {
+        return reactiveMongoTemplate.findById(key, ForecastCacheEntry.class).defaultIfEmpty(new ForecastCacheEntry());
+    }
+
+    // Takes the chunk over when it is missing or its entry (result or claim) has expired
+    private Mono<Boolean> claim(String key, long now) {
+        Query unclaimed = Query.query(Criteria.where("_id").is(key).and("expiresAt").lte(new Date(now)));
+        return reactiveMongoTemplate.upsert(unclaimed, new Update().unset("hours").set("expiresAt", new Date(now + fillTimeoutMillis)),
+                        ForecastCacheEntry.class)
+                .thenReturn(true)
+                // A live entry exists, the upsert tried to insert a second one
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.just(false));
+    }
+
+    private Mono<List<HourlyForecastService.HourlyPoint>> fill(
+            String key, long expiresAt, Supplier<CompletableFuture<List<HourlyForecastService.HourlyPoint>>> compute, boolean claimed) {
+        CompletableFuture<List<HourlyForecastService.HourlyPoint>> result = compute.get();
+        // Shared in the background, the caller does not wait for the write
+        result.whenComplete((points, e) -> {
+            Mono<?> write;
+            if (e == null && expiresAt > clock.millis()) {
+                ForecastCacheEntry entry = new ForecastCacheEntry();
+                entry.setId(key);
+                entry.setHours(points.stream().map(point -> new ForecastHistoryDay.Hour(point.time(), point.wattsPerKwp())).toList());
+                entry.setExpiresAt(new Date(expiresAt));
+                write = reactiveMongoTemplate.save(entry);
+            } else if (claimed) {
+                // Let the next replica try instead of waiting for the claim to run out
+                write = reactiveMongoTemplate.remove(Query.query(Criteria.where("_id").is(key).and("hours").exists(false)),
+                        ForecastCacheEntry.class);
+            } else {
+                return;
+            }
+            write.subscribe(done -> { }, ex -> logger.warn("Failed to share forecast chunk {}", key, ex));
+        });
+        return Mono.fromFuture(result);
+    }
+}
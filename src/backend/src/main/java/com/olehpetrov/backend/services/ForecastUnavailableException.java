@@ -0,0 +1,25 @@
+package com.olehpetrov.backend.services;
+
+import org.springframework.web.client.RestClientException;
+
+/**
+ * The model service is not called because its circuit is open or it is at its concurrency limit;
+ * there is no stale forecast to serve instead.
+ */
+public class ForecastUnavailableException extends RestClientException {
+
+    private final long retryAfterSeconds;
+
+    public ForecastUnavailableException(long retryAfterSeconds) {
+        this("Forecast service circuit is open", retryAfterSeconds);
+    }
+
+    public ForecastUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,508 @@
+package com.olehpetrov.backend.services;
+
+import jakarta.annotation.PreDestroy;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hourly forecast series per location and date range, fetched once from the model service and
+ * shared by the hourly and daily endpoints. The series is requested for 1 kWp (the model predicts
+ * W per kWp, capacity is only a multiplier), so panels and clusters at the same site share it
+ * too; capacity is applied here and daily totals are aggregated here instead of by a second
+ * model call. Concurrent requests for the same series wait for a single upstream call, and
+ * misses for different sites are batched by {@link ForecastBatchClient}.
+ *
+ * <p>A range is split at the settle horizon: days whose weather history is final are cached
+ * without expiry and persisted in {@link ForecastHistoryStore}, the days after it (recent
+ * history and the forecast) expire with the weather refresh, and both parts are stitched on read.
+ * Settled days are fetched and cached in whole calendar months, so a multi-year range becomes
+ * a few parallel calls and overlapping ranges reuse the same month blocks. With the optional
+ * {@link ForecastDiskCache} chunks also outlive a restart of this node, and volatile chunks are
+ * shared between replicas through {@link ForecastSharedCache}. Locations are snapped to a grid
+ * cell first, so nearby sites share every tier.
+ *
+ * <p>Upstream calls go through the circuit breaker of {@link ForecastEndpoints}. When a volatile
+ * chunk needs a refresh and the circuit is open, the refresh fails or it takes longer than the
+ * refresh wait, the last good series is served marked as stale while the refresh carries on in
+ * the background.
+ */
+@Service
+public class HourlyForecastService {
+
+    private static final Logger logger = LoggerFactory.getLogger(HourlyForecastService.class);
+
+    // The model service's daily endpoint doubles the hourly sum; kept so totals stay what they were
+    private static final double DAILY_ENERGY_FACTOR = 2.0;
+
+    // Model service replicas, balanced and hedged
+    @Autowired
+    private ForecastEndpoints endpoints;
+
+    // Volatile days expire at the next multiple of this since the epoch, so every node refreshes together
+    @Value("${forecast.hourly.cache-ttl-minutes:15}")
+    private long ttlMinutes;
+
+    @Value("${forecast.hourly.cache-size:2048}")
+    private int cacheSize;
+
+    // Part of every cache key, bumped with a retrained model
+    @Value("${forecast.model.version:1}")
+    private String modelVersion;
+
+    // Grid the coordinates are rounded to (0 keeps them as they are); 0.01 degrees is about 1 km
+    @Value("${forecast.cell-degrees:0.01}")
+    private double cellDegrees;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private WebClient webClient;
+
+    @Autowired
+    private ForecastBatchClient batchClient;
+
+    // Off for a model service without /forecast_batch, every series is then its own /forecast call
+    @Value("${forecast.batch.enabled:true}")
+    private boolean batchEnabled;
+
+    @Autowired
+    private ForecastHistoryStore historyStore;
+
+    @Value("${forecast.history.enabled:true}")
+    private boolean historyEnabled;
+
+    // Reanalysis data lags a few days behind, the model's output for those days still changes
+    @Value("${forecast.history.settle-days:5}")
+    private int settleDays;
+
+    // Chunks of one request loading at the same time
+    @Value("${forecast.chunk.max-parallel:4}")
+    private int maxParallel;
+
+    private Clock clock = Clock.systemUTC();
+
+    // Direct (unbatched) blocking calls, so chunks of one request are fetched side by side
+    private final ExecutorService chunkFetchers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "forecast-chunk-fetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    private ForecastDiskCache diskCache;
+
+    @Value("${forecast.disk-cache.enabled:false}")
+    private boolean diskCacheEnabled;
+
+    @Autowired
+    private ForecastSharedCache sharedCache;
+
+    // A refresh slower than this is answered with the last good series
+    @Value("${forecast.stale.refresh-wait-ms:500}")
+    private long refreshWaitMillis;
+
+    @Value("${forecast.stale.max-age-minutes:1440}")
+    private long staleMaxAgeMinutes;
+
+    @Value("${forecast.shared-cache.enabled:true}")
+    private boolean sharedCacheEnabled;
+
+    // History store and disk cache reads and writes, kept off batch sender and event loop threads
+    private final ThreadPoolExecutor storageIo = new ThreadPoolExecutor(8, 8, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "forecast-storage-io");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Storage work queued or running; past the bound a read counts as a miss and a write is skipped
+    private final AtomicInteger storagePending = new AtomicInteger();
+
+    @Value("${forecast.storage-io.max-pending:256}")
+    private int storageMaxPending = 256;
+
+    @Value("${forecast.storage-io.threads:8}")
+    void setStorageIoThreads(int threads) {
+        int size = Math.max(threads, 1);
+        // The core size may never exceed the maximum, so the order depends on the direction
+        if (size > storageIo.getMaximumPoolSize()) {
+            storageIo.setMaximumPoolSize(size);
+            storageIo.setCorePoolSize(size);
+        } else {
+            storageIo.setCorePoolSize(size);
+            storageIo.setMaximumPoolSize(size);
+        }
+    }
+
+    public record HourlyPoint(Instant time, double wattsPerKwp) {
+    }
+
+    /**
+     * Hourly points of a request; {@code staleSince} is when the oldest stale part was fetched,
+     * {@code null} when everything is current.
+     */
+    public record HourlySeries(List<HourlyPoint> points, Instant staleSince) {
+
+        public boolean isStale() {
+            return staleSince != null;
+        }
+    }
+
+    private record LastGood(List<HourlyPoint> points, long fetchedAt) {
+    }
+
+    private record Entry(CompletableFuture<List<HourlyPoint>> series, long expiresAt) {
+    }
+
+    // UTC days fetched as one cached series; settled chunks never change
+    private record Chunk(LocalDate from, LocalDate to, boolean settled) {
+    }
+
+    // Upstream call for the UTC days of one chunk at the cell's coordinates
+    @FunctionalInterface
+    private interface ChunkFetch {
+        CompletableFuture<JSONArray> fetch(double lat, double lon, LocalDate from, LocalDate to);
+    }
+
+    private final Map<String, Entry> cache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > cacheSize;
+        }
+    });
+
+    // Latest successful series per chunk, outlives the expiry of its cache entry
+    private final Map<String, LastGood> lastGood = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LastGood> eldest) {
+            return size() > cacheSize;
+        }
+    });
+
+    /**
+     * Whether the series is cached, so serving it costs no upstream call.
+     */
+    public boolean isCached(double lat, double lon, LocalDate start, LocalDate end, ZoneId zone) {
+        long now = clock.millis();
+        for (Chunk chunk : chunks(fetchStart(start, zone), fetchEnd(end, zone))) {
+            String key = key(cell(lat), cell(lon), chunk);
+            Entry entry = cache.get(key);
+            boolean inMemory = entry != null && entry.expiresAt() > now && !entry.series().isCompletedExceptionally();
+            if (!inMemory && !(diskCacheEnabled && diskCache.contains(key, now))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hourly points of the local days {@code start}..{@code end} in {@code zone}, blocking.
+     * Upstream failures without a stale series to fall back on are thrown as
+     * {@link org.springframework.web.client.RestClientException}, {@link ForecastUnavailableException}
+     * while the circuit is open.
+     */
+    public HourlySeries hourly(double lat, double lon, LocalDate start, LocalDate end, ZoneId zone) {
+        CompletableFuture<HourlySeries> series = stitched(lat, lon, start, end, zone, (cellLat, cellLon, from, to) -> {
+            if (batchEnabled) {
+                return batchClient.submit(cellLat, cellLon, from, to);
+            }
+            return endpoints.callBlocking(base -> new JSONArray(restTemplate.getForObject(url(base, cellLat, cellLon, from, to), String.class)),
+                    chunkFetchers);
+        });
+        try {
+            return within(series.join(), start, end, zone);
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * Same as {@link #hourly} without blocking. Upstream failures are WebClient exceptions, or
+     * RestClientException when the request went through the batch client.
+     */
+    public Mono<HourlySeries> hourlyAsync(double lat, double lon, LocalDate start, LocalDate end, ZoneId zone) {
+        CompletableFuture<HourlySeries> series = stitched(lat, lon, start, end, zone, (cellLat, cellLon, from, to) -> batchEnabled
+                ? batchClient.submit(cellLat, cellLon, from, to)
+                : endpoints.call(base -> webClient.get()
+                        .uri(url(base, cellLat, cellLon, from, to))
+                        .accept(MediaType.APPLICATION_JSON)
+                        .retrieve()
+                        .bodyToMono(String.class)
+                        .map(body -> new JSONArray(body))
+                        .toFuture()));
+        // Other requests may share the future, a cancelled request must not cancel it
+        return Mono.fromFuture(series, true).map(stitched -> within(stitched, start, end, zone));
+    }
+
+    // Same fields the model service returns from /forecast, for the given capacity
+    public static JSONArray toHourlyJson(List<HourlyPoint> series, double capacityKwp) {
+        JSONArray hourly = new JSONArray();
+        for (HourlyPoint point : series) {
+            double watts = point.wattsPerKwp() * capacityKwp;
+            hourly.put(new JSONObject()
+                    .put("time", point.time().toString())
+                    .put("pred_W", watts)
+                    .put("pred_kW", watts / 1000.0)
+                    .put("pred_W_per_kWp", point.wattsPerKwp()));
+        }
+        return hourly;
+    }
+
+    /**
+     * Energy per local day in {@code zone}, sorted by date. Hourly values are average power over
+     * the hour, so their sum in kW is the day's energy in kWh.
+     */
+    public static List<JSONObject> dailyTotals(List<HourlyPoint> series, double capacityKwp, ZoneId zone) {
+        Map<LocalDate, Double> kwhByDay = new TreeMap<>();
+        for (HourlyPoint point : series) {
+            kwhByDay.merge(point.time().atZone(zone).toLocalDate(), point.wattsPerKwp() * capacityKwp / 1000.0, Double::sum);
+        }
+        List<JSONObject> totals = new ArrayList<>();
+        kwhByDay.forEach((day, kwh) -> totals.add(new JSONObject()
+                .put("date", day.toString())
+                .put("totalEnergy_kwh", Math.round(kwh * DAILY_ENERGY_FACTOR * 100) / 100.0)));
+        return totals;
+    }
+
+    @PreDestroy
+    public void stop() {
+        storageIo.shutdownNow();
+        chunkFetchers.shutdownNow();
+    }
+
+    // Series of every chunk of the range, concatenated in order
+    private CompletableFuture<HourlySeries> stitched(double lat, double lon, LocalDate start, LocalDate end, ZoneId zone,
+                                                     ChunkFetch fetch) {
+        double cellLat = cell(lat);
+        double cellLon = cell(lon);
+        List<Chunk> chunks = chunks(fetchStart(start, zone), fetchEnd(end, zone));
+        int parallel = Math.max(maxParallel, 1);
+        List<CompletableFuture<HourlySeries>> series = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            String key = key(cellLat, cellLon, chunk);
+            Supplier<CompletableFuture<HourlySeries>> load = () -> series(key, chunk.settled(), () -> chunk.settled()
+                    ? settled(cellLat, cellLon, chunk, fetch)
+                    : volatileChunk(key, cellLat, cellLon, chunk, fetch));
+            // A chunk starts loading once the one parallel places before it is done
+            series.add(i < parallel ? load.get() : series.get(i - parallel).handle((points, e) -> null).thenCompose(done -> load.get()));
+        }
+        if (series.size() == 1) {
+            return series.get(0);
+        }
+        return CompletableFuture.allOf(series.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            List<HourlyPoint> points = new ArrayList<>();
+            Instant staleSince = null;
+            for (CompletableFuture<HourlySeries> chunk : series) {
+                HourlySeries part = chunk.join();
+                points.addAll(part.points());
+                if (part.isStale() && (staleSince == null || part.staleSince().isBefore(staleSince))) {
+                    staleSince = part.staleSince();
+                }
+            }
+            return new HourlySeries(points, staleSince);
+        });
+    }
+
+    // Stored days are served from the history store, the model is only asked for a range not stored yet
+    private CompletableFuture<List<HourlyPoint>> settled(double lat, double lon, Chunk chunk,
+                                                         ChunkFetch fetch) {
+        if (!historyEnabled) {
+            return fetch.fetch(lat, lon, chunk.from(), chunk.to()).thenApply(HourlyForecastService::parse);
+        }
+        return onStorageIo(() -> historyStore.find(lat, lon, chunk.from(), chunk.to()), null)
+                .thenCompose(stored -> stored != null
+                        ? CompletableFuture.completedFuture(stored)
+                        : fetch.fetch(lat, lon, chunk.from(), chunk.to()).thenCompose(rows -> {
+                            List<HourlyPoint> points = parse(rows);
+                            return onStorageIo(() -> {
+                                historyStore.save(lat, lon, chunk.from(), chunk.to(), points);
+                                return points;
+                            }, points);
+                        }));
+    }
+
+    // Volatile chunks come from the shared cache, computed by one replica
+    private CompletableFuture<List<HourlyPoint>> volatileChunk(String key, double lat, double lon, Chunk chunk,
+                                                               ChunkFetch fetch) {
+        Supplier<CompletableFuture<List<HourlyPoint>>> upstream = () -> fetch.fetch(lat, lon, chunk.from(), chunk.to()).thenApply(HourlyForecastService::parse);
+        if (!sharedCacheEnabled) {
+            return upstream.get();
+        }
+        return sharedCache.getOrCompute(key, nextRefresh(clock.millis()), upstream);
+    }
+
+    /**
+     * The UTC days {@code from}..{@code to} as cached chunks: whole calendar months up to the last
+     * settled day (the month holding it ends there), then the remaining days as one chunk. Without
+     * the history tier settled months still expire like the rest.
+     */
+    private List<Chunk> chunks(LocalDate from, LocalDate to) {
+        LocalDate lastSettled = LocalDate.now(clock.withZone(ZoneOffset.UTC)).minusDays(settleDays + 1L);
+        List<Chunk> chunks = new ArrayList<>();
+        LocalDate month = from.withDayOfMonth(1);
+        while (!month.isAfter(to) && !month.isAfter(lastSettled)) {
+            LocalDate monthEnd = month.plusMonths(1).minusDays(1);
+            chunks.add(new Chunk(month, monthEnd.isAfter(lastSettled) ? lastSettled : monthEnd, true));
+            month = month.plusMonths(1);
+        }
+        if (to.isAfter(lastSettled)) {
+            chunks.add(new Chunk(from.isAfter(lastSettled) ? from : lastSettled.plusDays(1), to, false));
+        }
+        return chunks;
+    }
+
+    private CompletableFuture<HourlySeries> series(String key, boolean settled, Supplier<CompletableFuture<List<HourlyPoint>>> fetch) {
+        long now = clock.millis();
+        Entry created;
+        synchronized (cache) {
+            Entry cached = cache.get(key);
+            if (cached != null && cached.expiresAt() > now && !cached.series().isCompletedExceptionally()) {
+                return staleWhileLoading(key, cached.series(), now);
+            }
+            created = new Entry(new CompletableFuture<>(), settled && historyEnabled ? Long.MAX_VALUE : nextRefresh(now));
+            cache.put(key, created);
+        }
+
+        CompletableFuture<List<HourlyPoint>> loaded = diskCacheEnabled ? fromDisk(key, created.expiresAt(), now, fetch) : fetch.get();
+        loaded.whenComplete((points, e) -> {
+            if (e != null) {
+                // Failures are not cached, the next request tries again
+                cache.remove(key, created);
+                created.series().completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            } else {
+                lastGood.put(key, new LastGood(points, clock.millis()));
+                created.series().complete(points);
+            }
+        });
+        return staleWhileLoading(key, created.series(), now);
+    }
+
+    // The series once loaded, or the last good one if loading fails or takes longer than the refresh wait
+    private CompletableFuture<HourlySeries> staleWhileLoading(String key, CompletableFuture<List<HourlyPoint>> series, long now) {
+        CompletableFuture<HourlySeries> current = series.thenApply(points -> new HourlySeries(points, null));
+        if (series.isDone() && !series.isCompletedExceptionally()) {
+            return current;
+        }
+        LastGood last = lastGood.get(key);
+        if (last == null || now - last.fetchedAt() >= TimeUnit.MINUTES.toMillis(staleMaxAgeMinutes)) {
+            return current;
+        }
+        HourlySeries stale = new HourlySeries(last.points(), Instant.ofEpochMilli(last.fetchedAt()));
+        // Completing this copy leaves the shared refresh running
+        return current.completeOnTimeout(stale, refreshWaitMillis, TimeUnit.MILLISECONDS).exceptionally(e -> stale);
+    }
+
+    // The chunk from the disk tier, or loaded and written there
+    private CompletableFuture<List<HourlyPoint>> fromDisk(String key, long expiresAt, long now,
+                                                          Supplier<CompletableFuture<List<HourlyPoint>>> fetch) {
+        return onStorageIo(() -> diskCache.get(key, now), null)
+                .thenCompose(stored -> stored != null ? CompletableFuture.completedFuture(stored) : fetch.get().thenApply(points -> {
+                    if (expiresAt > now) {
+                        diskCache.put(key, points, expiresAt);
+                    }
+                    return points;
+                }));
+    }
+
+    // Runs storage work on its pool, or answers busyResult right away when too much of it is pending
+    private <T> CompletableFuture<T> onStorageIo(Supplier<T> work, T busyResult) {
+        if (storagePending.incrementAndGet() > storageMaxPending) {
+            storagePending.decrementAndGet();
+            return CompletableFuture.completedFuture(busyResult);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return work.get();
+                } finally {
+                    storagePending.decrementAndGet();
+                }
+            }, storageIo);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            storagePending.decrementAndGet();
+            return CompletableFuture.completedFuture(busyResult);
+        }
+    }
+
+    private static List<HourlyPoint> parse(JSONArray rows) {
+        List<HourlyPoint> points = new ArrayList<>(rows.length());
+        for (int i = 0; i < rows.length(); i++) {
+            JSONObject row = rows.getJSONObject(i);
+            points.add(new HourlyPoint(Instant.parse(row.getString("time")), Math.max(row.optDouble("pred_W_per_kWp", 0.0), 0.0)));
+        }
+        return points;
+    }
+
+    private static HourlySeries within(HourlySeries series, LocalDate start, LocalDate end, ZoneId zone) {
+        Instant from = start.atStartOfDay(zone).toInstant();
+        Instant to = end.plusDays(1).atStartOfDay(zone).toInstant();
+        return new HourlySeries(series.points().stream().filter(point -> !point.time().isBefore(from) && point.time().isBefore(to)).toList(),
+                series.staleSince());
+    }
+
+    private long nextRefresh(long now) {
+        long period = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        return period > 0 ? (now / period + 1) * period : now;
+    }
+
+    // Cache key of a chunk in every tier; independent of the model service address
+    private String key(double lat, double lon, Chunk chunk) {
+        return String.format(Locale.ROOT, "%s:%.6f,%.6f:%s:%s", modelVersion, lat, lon, chunk.from(), chunk.to());
+    }
+
+    private double cell(double degrees) {
+        return cellDegrees > 0 ? Math.round(degrees / cellDegrees) * cellDegrees : degrees;
+    }
+
+    private static String url(String base, double lat, double lon, LocalDate from, LocalDate to) {
+        return String.format("%s/forecast?lat=%.6f&lon=%.6f&start=%s&end=%s&kwp=1", base, lat, lon, from, to);
+    }
+
+    // The model service works in UTC days; local days elsewhere can start on the previous UTC day or end on the next
+    private static LocalDate fetchStart(LocalDate start, ZoneId zone) {
+        return isUtc(zone) ? start : start.minusDays(1);
+    }
+
+    private static LocalDate fetchEnd(LocalDate end, ZoneId zone) {
+        return isUtc(zone) ? end : end.plusDays(1);
+    }
+
+    private static boolean isUtc(ZoneId zone) {
+        return zone.normalized().equals(ZoneOffset.UTC);
+    }
+}
@@ -2,7 +2,9 @@ package com.olehpetrov.backend.services;
 
 import com.olehpetrov.backend.models.Inverter;
 import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.repositories.DbRefBatchLoader;
 import com.olehpetrov.backend.repositories.InverterRepository;
+import com.olehpetrov.backend.responses.CursorPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
@@ -16,6 +18,8 @@ public class InverterService {
 
     @Autowired
     private InverterRepository inverterRepository;
+    @Autowired
+    private DbRefBatchLoader dbRefBatchLoader;
 
     // Retrieve a specific inverter by its ID
     public Inverter getInverterById(String inverterId) {
@@ -24,16 +28,23 @@ public class InverterService {
     }
     public void delete(String id) {
         inverterRepository.deleteById(id);
+        dbRefBatchLoader.evict(Inverter.class);
     }
 
     public Page<Inverter> findAll(Pageable pageable) {
         return inverterRepository.findAll(pageable);
     }
+
+    public CursorPage<Inverter> findAfter(String cursor, int size) {
+        return dbRefBatchLoader.findAfter(Inverter.class, cursor, size);
+    }
     // Add a new inverter
     public void addInverter(Inverter inverterRequest) {
         inverterRepository.save(inverterRequest);
+        dbRefBatchLoader.evict(Inverter.class);
     }
     public void updateInverter(Inverter inverterRequest) {
         inverterRepository.save(inverterRequest);
+        dbRefBatchLoader.evict(Inverter.class);
     }
 }
@@ -0,0 +1,184 @@
+package com.olehpetrov.backend.services;
+
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinates background jobs between backend replicas through Mongo. Every node heartbeats a
+ * document in {@code job_nodes}; a job that must run once takes a lease in {@code job_leases}
+ * with an atomic findAndModify and keeps it while its node heartbeats, a job that can be split
+ * takes the {@link Shard} of this node among the live ones. Both collections have TTL indexes,
+ * so entries of crashed nodes are cleaned up, but liveness is always judged by {@code expiresAt}.
+ *
+ * <p>Heartbeats run on a thread of their own, not on the shared Spring scheduler that fires the
+ * jobs: a job running longer than the lease would otherwise hold up its own lease renewal and
+ * another node would start the same job.
+ *
+ * <p>Shard assignment follows the live node list, so while nodes join or leave two of them may
+ * briefly disagree; jobs split this way have to be safe to repeat.
+ */
+@Service
+public class JobCoordinator {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobCoordinator.class);
+
+    static final String NODES = "job_nodes";
+    static final String LEASES = "job_leases";
+
+    /**
+     * Part {@code index} of {@code count} of a job's work; a node that is not registered owns nothing.
+     */
+    public record Shard(int index, int count) {
+
+        public boolean owns(String key) {
+            return count > 0 && Math.floorMod(key.hashCode(), count) == index;
+        }
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final long leaseMillis;
+    private final long heartbeatMillis;
+    private final String nodeId = new ObjectId().toHexString();
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "job-coordination-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public JobCoordinator(MongoTemplate mongoTemplate,
+                          @Value("${coordination.enabled:true}") boolean enabled,
+                          @Value("${coordination.lease-ms:15000}") long leaseMillis,
+                          @Value("${coordination.heartbeat-ms:5000}") long heartbeatMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.leaseMillis = leaseMillis;
+        this.heartbeatMillis = Math.max(heartbeatMillis, 1);
+    }
+
+    public String nodeId() {
+        return nodeId;
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            for (String collection : List.of(NODES, LEASES)) {
+                mongoTemplate.indexOps(collection).ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC).expire(0).named("expires_at_ttl"));
+            }
+        } catch (DataAccessException e) {
+            logger.error("Failed to create the job coordination TTL indexes", e);
+        }
+        heartbeat();
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Keeps this node and its leases alive
+    public void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        Date expiresAt = new Date(System.currentTimeMillis() + leaseMillis);
+        try {
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(nodeId)), Update.update("expiresAt", expiresAt), NODES);
+            mongoTemplate.updateMulti(Query.query(Criteria.where("owner").is(nodeId)), Update.update("expiresAt", expiresAt), LEASES);
+        } catch (DataAccessException e) {
+            // Leases run out unless a later heartbeat gets through, another node then takes over
+            logger.warn("Job coordination heartbeat of node {} failed", nodeId, e);
+        }
+    }
+
+    /**
+     * Whether this node runs {@code job}: takes the lease when it is free or expired, keeps it
+     * when this node already holds it.
+     */
+    public boolean isLeader(String job) {
+        if (!enabled) {
+            return true;
+        }
+        Date now = new Date();
+        Query claimable = Query.query(Criteria.where("_id").is(job)
+                .orOperator(Criteria.where("owner").is(nodeId), Criteria.where("expiresAt").lte(now)));
+        try {
+            mongoTemplate.findAndModify(claimable,
+                    new Update().set("owner", nodeId).set("expiresAt", new Date(now.getTime() + leaseMillis)),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, LEASES);
+            return true;
+        } catch (DuplicateKeyException e) {
+            // Held by a live node
+            return false;
+        } catch (DataAccessException e) {
+            logger.warn("Failed to take the lease of job {}, skipping this run", job, e);
+            return false;
+        }
+    }
+
+    /**
+     * Runs {@code task} if this node is the leader of {@code job}.
+     */
+    public boolean runAsLeader(String job, Runnable task) {
+        if (!isLeader(job)) {
+            logger.debug("Job {} runs on another node", job);
+            return false;
+        }
+        task.run();
+        return true;
+    }
+
+    /**
+     * This node's part of a job split across all live nodes, by position in the sorted node ids.
+     */
+    public Shard shard() {
+        if (!enabled) {
+            return new Shard(0, 1);
+        }
+        try {
+            List<Object> live = mongoTemplate.find(Query.query(Criteria.where("expiresAt").gt(new Date())).with(Sort.by("_id")),
+                    Document.class, NODES).stream().map(node -> node.get("_id")).toList();
+            return new Shard(live.indexOf(nodeId), live.size());
+        } catch (DataAccessException e) {
+            logger.warn("Failed to read the live job nodes, node {} takes no share this run", nodeId, e);
+            return new Shard(-1, 0);
+        }
+    }
+
+    // Hands leases over right away instead of letting them run out
+    @PreDestroy
+    public void stop() {
+        heartbeats.shutdownNow();
+        if (!enabled) {
+            return;
+        }
+        try {
+            mongoTemplate.remove(Query.query(Criteria.where("owner").is(nodeId)), LEASES);
+            mongoTemplate.remove(Query.query(Criteria.where("_id").is(nodeId)), NODES);
+        } catch (DataAccessException e) {
+            logger.warn("Failed to deregister job node {}", nodeId, e);
+        }
+    }
+}
@@ -1,19 +1,236 @@
 package com.olehpetrov.backend.services;
 
+import com.mongodb.DBRef;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.olehpetrov.backend.models.Cluster;
 import com.olehpetrov.backend.models.Location;
-import com.olehpetrov.backend.repositories.LocationRepository;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.requests.LocationRequest;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Interns locations: identical coordinates and names map to one shared, immutable document.
+ * Coordinates are rounded to about a metre and names are compared case-insensitively; the
+ * resulting key is upserted against a unique index, and recently used keys (the common
+ * cities) are served from memory. A nightly job merges duplicates created before interning.
+ */
 @Service
 public class LocationService {
 
+    private static final Logger logger = LoggerFactory.getLogger(LocationService.class);
+
+    // 5 decimals is ~1.1 m, closer sites are the same location
+    private static final int COORDINATE_SCALE = 5;
+
     @Autowired
-    private LocationRepository locationRepository;
-    // Register a user without setting an address
-    public Location register(Location location) {
-        return locationRepository.save(location);
+    private MongoTemplate mongoTemplate;
+
+    @Value("${location.intern.cache-size:1024}")
+    private int cacheSize;
+
+    // Least recently used keys are evicted; interned documents never change, so entries never go stale
+    private final Map<String, Location> hot = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+            return size() > cacheSize;
+        }
+    });
+
+    public Location intern(LocationRequest request) {
+        return intern(request.getLat(), request.getLon(), request.getCity(), request.getDistrict(), request.getCountry());
     }
 
+    /**
+     * Returns the shared location for these coordinates and names, creating it on first use.
+     * The result must not be modified; to move an entity, intern the new location instead.
+     */
+    public Location intern(double lat, double lon, String city, String district, String country) {
+        Location canonical = canonical(lat, lon, city, district, country);
+        Location cached = hot.get(canonical.getKey());
+        if (cached != null) {
+            return copy(cached);
+        }
+
+        Query query = Query.query(Criteria.where("key").is(canonical.getKey()));
+        Update update = new Update()
+                .setOnInsert("lat", canonical.getLat())
+                .setOnInsert("lon", canonical.getLon())
+                .setOnInsert("city", canonical.getCity())
+                .setOnInsert("district", canonical.getDistrict())
+                .setOnInsert("country", canonical.getCountry());
+        Location location;
+        try {
+            location = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), Location.class);
+        } catch (DuplicateKeyException e) {
+            // A concurrent request inserted the same key first, use its document
+            location = mongoTemplate.findOne(query, Location.class);
+        }
+        hot.put(canonical.getKey(), location);
+        return copy(location);
+    }
+
+    /**
+     * Interns several locations (as built by {@link #canonical}) with one bulk upsert and one read.
+     *
+     * @return the stored locations by key
+     */
+    public Map<String, Location> internAll(Collection<Location> canonical) {
+        Map<String, Location> byKey = new HashMap<>();
+        if (canonical.isEmpty()) {
+            return byKey;
+        }
+        MongoCollection<Document> locations = collection(Location.class);
+        List<UpdateOneModel<Document>> upserts = canonical.stream()
+                .map(location -> new UpdateOneModel<Document>(
+                        Filters.eq("key", location.getKey()),
+                        Updates.combine(
+                                Updates.setOnInsert("lat", location.getLat()),
+                                Updates.setOnInsert("lon", location.getLon()),
+                                Updates.setOnInsert("city", location.getCity()),
+                                Updates.setOnInsert("district", location.getDistrict()),
+                                Updates.setOnInsert("country", location.getCountry())),
+                        new UpdateOptions().upsert(true)))
+                .toList();
+        try {
+            locations.bulkWrite(upserts, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            // Keys inserted concurrently by another request are read back below like any other
+            if (e.getWriteErrors().stream().anyMatch(error -> ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY)) {
+                throw e;
+            }
+        }
+
+        Query query = Query.query(Criteria.where("key").in(canonical.stream().map(Location::getKey).toList()));
+        for (Location location : mongoTemplate.find(query, Location.class)) {
+            hot.put(location.getKey(), location);
+            byKey.put(location.getKey(), copy(location));
+        }
+        return byKey;
+    }
+
+    // Unsaved location with rounded coordinates, trimmed names and its key
+    public static Location canonical(double lat, double lon, String city, String district, String country) {
+        Location location = new Location();
+        location.setLat(canonical(lat));
+        location.setLon(canonical(lon));
+        location.setCity(trim(city));
+        location.setDistrict(trim(district));
+        location.setCountry(trim(country));
+        location.setKey(canonicalKey(lat, lon, city, district, country));
+        return location;
+    }
+
+    // Same key for the same site however the request spells it
+    public static String canonicalKey(double lat, double lon, String city, String district, String country) {
+        return String.join("|",
+                BigDecimal.valueOf(lat).setScale(COORDINATE_SCALE, RoundingMode.HALF_UP).toPlainString(),
+                BigDecimal.valueOf(lon).setScale(COORDINATE_SCALE, RoundingMode.HALF_UP).toPlainString(),
+                normalize(city), normalize(district), normalize(country));
+    }
+
+    /**
+     * Gives legacy locations their key and merges the ones that turn out to be duplicates:
+     * references in panels, clusters and users are moved to the surviving document and the
+     * duplicate is deleted. Safe to run repeatedly and on several instances; scheduled on one
+     * of them by {@link CoordinatedJobs}.
+     */
+    public void compactDuplicates() {
+        MongoCollection<Document> locations = collection(Location.class);
+        int keyed = 0;
+        int merged = 0;
+        for (Document location : locations.find(Filters.exists("key", false))) {
+            Object id = location.get("_id");
+            double lat = location.get("lat") instanceof Number number ? number.doubleValue() : 0;
+            double lon = location.get("lon") instanceof Number number ? number.doubleValue() : 0;
+            String key = canonicalKey(lat, lon,
+                    location.getString("city"), location.getString("district"), location.getString("country"));
+            try {
+                locations.updateOne(Filters.and(Filters.eq("_id", id), Filters.exists("key", false)),
+                        Updates.combine(Updates.set("key", key), Updates.set("lat", canonical(lat)), Updates.set("lon", canonical(lon))));
+                keyed++;
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                Document survivor = locations.find(Filters.eq("key", key)).projection(Projections.include("_id")).first();
+                if (survivor == null) {
+                    continue;
+                }
+                repoint(id, survivor.get("_id"));
+                locations.deleteOne(Filters.eq("_id", id));
+                // An entity loaded before the first pass may have been saved back with the old reference
+                repoint(id, survivor.get("_id"));
+                merged++;
+            }
+        }
+        logger.info("Location compaction finished: {} keyed, {} duplicates merged", keyed, merged);
+    }
+
+    private void repoint(Object from, Object to) {
+        DBRef survivor = new DBRef(mongoTemplate.getCollectionName(Location.class), to);
+        for (Class<?> owner : List.of(Panel.class, Cluster.class, User.class)) {
+            collection(owner).updateMany(Filters.eq("location.$id", from), Updates.set("location", survivor));
+        }
+    }
+
+    private static double canonical(double coordinate) {
+        return BigDecimal.valueOf(coordinate).setScale(COORDINATE_SCALE, RoundingMode.HALF_UP).doubleValue();
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+
+    // Callers get their own instance so the cached one cannot be changed by accident
+    private static Location copy(Location location) {
+        Location copy = new Location();
+        copy.setId(location.getId());
+        copy.setLat(location.getLat());
+        copy.setLon(location.getLon());
+        copy.setCity(location.getCity());
+        copy.setDistrict(location.getDistrict());
+        copy.setCountry(location.getCountry());
+        copy.setKey(location.getKey());
+        return copy;
+    }
+
+    private MongoCollection<Document> collection(Class<?> type) {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(type));
+    }
 }
@@ -0,0 +1,405 @@
+package com.olehpetrov.backend.services;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.olehpetrov.backend.models.Cluster;
+import com.olehpetrov.backend.models.Location;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
+import com.olehpetrov.backend.requests.LocationRequest;
+import com.olehpetrov.backend.requests.PanelImportRow;
+import com.olehpetrov.backend.responses.ImportResult;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk panel import. Rows are parsed and validated one at a time while the body streams in,
+ * identical locations are stored once, and panels are written with {@code bulkWrite} in batches,
+ * so memory stays bounded by the batch size and a 100k row import is a few hundred round-trips.
+ */
+@Service
+public class PanelImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PanelImportService.class);
+
+    // Keeps the response small when a whole file is rejected, the failed counter stays exact
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    private static final int MAX_BATCH_SIZE = 10000;
+    private static final List<String> REQUIRED_CSV_COLUMNS =
+            List.of("name", "powerRating", "efficiency", "quantity", "lat", "lon", "city", "district", "country");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private ReferenceLoader referenceLoader;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private Validator validator;
+
+    @Value("${panel.import.batch-size:1000}")
+    private int defaultBatchSize;
+
+    /**
+     * Imports a JSON array of {@link PanelImportRow} objects.
+     *
+     * @throws IllegalArgumentException if the body is not a JSON array
+     */
+    public ImportResult importJson(User user, InputStream body, boolean ordered, Integer batchSize) throws IOException {
+        ImportRun run = new ImportRun(user, ordered, batchSize);
+        int row = 0;
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Expected a JSON array of panels.");
+            }
+            JsonToken token;
+            while (!run.stopped && (token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                row++;
+                if (token == null) {
+                    run.reject(row, "Unexpected end of input.");
+                    break;
+                }
+                JsonNode node = parser.readValueAsTree();
+                try {
+                    run.accept(row, objectMapper.treeToValue(node, PanelImportRow.class));
+                } catch (JsonProcessingException e) {
+                    run.reject(row, "Malformed panel: " + e.getOriginalMessage());
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // Broken syntax cannot be resynchronised, everything up to here is still written
+            run.reject(Math.max(row, 1), "Malformed JSON: " + e.getOriginalMessage());
+        }
+        return run.finish();
+    }
+
+    /**
+     * Imports CSV with a header row. Columns: name, powerRating, efficiency, quantity, lat, lon,
+     * city, district, country and an optional cluster (cluster name). Quoted fields may contain
+     * commas but not line breaks.
+     *
+     * @throws IllegalArgumentException if the header is missing or lacks a required column
+     */
+    public ImportResult importCsv(User user, InputStream body, boolean ordered, Integer batchSize) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if (header == null) {
+            throw new IllegalArgumentException("CSV is empty.");
+        }
+
+        Map<String, Integer> columns = new HashMap<>();
+        List<String> names = parseCsvLine(header.replace("\uFEFF", ""));
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim(), i);
+        }
+        List<String> missing = REQUIRED_CSV_COLUMNS.stream().filter(column -> !columns.containsKey(column)).toList();
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("CSV is missing columns: " + String.join(", ", missing) + ".");
+        }
+
+        ImportRun run = new ImportRun(user, ordered, batchSize);
+        int row = 0;
+        String line;
+        while (!run.stopped && (line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            row++;
+            List<String> fields = parseCsvLine(line);
+            try {
+                run.accept(row, toRow(fields, columns));
+            } catch (NumberFormatException e) {
+                run.reject(row, e.getMessage());
+            }
+        }
+        return run.finish();
+    }
+
+    private PanelImportRow toRow(List<String> fields, Map<String, Integer> columns) {
+        PanelImportRow row = new PanelImportRow();
+        row.setName(field(fields, columns, "name"));
+        row.setPowerRating(intField(fields, columns, "powerRating"));
+        row.setEfficiency(intField(fields, columns, "efficiency"));
+        row.setQuantity(intField(fields, columns, "quantity"));
+        row.setCluster(field(fields, columns, "cluster"));
+
+        LocationRequest location = new LocationRequest();
+        location.setLat(doubleField(fields, columns, "lat"));
+        location.setLon(doubleField(fields, columns, "lon"));
+        location.setCity(field(fields, columns, "city"));
+        location.setDistrict(field(fields, columns, "district"));
+        location.setCountry(field(fields, columns, "country"));
+        row.setLocation(location);
+        return row;
+    }
+
+    private static String field(List<String> fields, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= fields.size()) {
+            return null;
+        }
+        String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Integer intField(List<String> fields, Map<String, Integer> columns, String column) {
+        String value = field(fields, columns, column);
+        try {
+            return value == null ? null : Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException(column + " must be a whole number.");
+        }
+    }
+
+    private static Double doubleField(List<String> fields, Map<String, Integer> columns, String column) {
+        String value = field(fields, columns, column);
+        try {
+            return value == null ? null : Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException(column + " must be a number.");
+        }
+    }
+
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+
+    private record PendingPanel(int row, Panel panel) {
+    }
+
+    // State of a single import: the current batch, the deduplicated locations and the result
+    private class ImportRun {
+
+        private final User user;
+        private final boolean ordered;
+        private final int batchSize;
+        private final Map<String, String> clusterIdsByName = new HashMap<>();
+        private final Map<String, Location> locationsByKey = new HashMap<>();
+        private final List<Location> newLocations = new ArrayList<>();
+        private final List<PendingPanel> pending = new ArrayList<>();
+        private final ImportResult result = new ImportResult();
+        private boolean stopped;
+
+        ImportRun(User user, boolean ordered, Integer batchSize) {
+            this.user = user;
+            this.ordered = ordered;
+            this.batchSize = Math.min(Math.max(batchSize != null ? batchSize : defaultBatchSize, 1), MAX_BATCH_SIZE);
+
+            // Cluster names are resolved against the importing user's clusters only
+            referenceLoader.findRaw(Cluster.class, Filters.eq("userId", user.getId()), "name")
+                    .forEach(cluster -> clusterIdsByName.putIfAbsent(
+                            String.valueOf(cluster.get("name")), String.valueOf(cluster.get("_id"))));
+        }
+
+        void accept(int row, PanelImportRow importRow) {
+            Set<ConstraintViolation<PanelImportRow>> violations = validator.validate(importRow);
+            if (!violations.isEmpty()) {
+                reject(row, violations.stream()
+                        .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                        .sorted()
+                        .collect(Collectors.joining("; ")));
+                return;
+            }
+
+            Panel panel = new Panel();
+            panel.setId(new ObjectId().toHexString());
+            panel.setUserId(user.getId());
+            panel.setName(importRow.getName());
+            panel.setPowerRating(importRow.getPowerRating());
+            panel.setEfficiency(importRow.getEfficiency());
+            panel.setQuantity(importRow.getQuantity());
+
+            if (importRow.getCluster() != null && !importRow.getCluster().isBlank()) {
+                String clusterId = clusterIdsByName.get(importRow.getCluster().trim());
+                if (clusterId == null) {
+                    reject(row, "Unknown cluster '" + importRow.getCluster() + "'.");
+                    return;
+                }
+                Cluster cluster = new Cluster();
+                cluster.setId(clusterId);
+                panel.setCluster(cluster);
+            }
+            panel.setLocation(location(importRow.getLocation()));
+
+            pending.add(new PendingPanel(row, panel));
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void reject(int row, String message) {
+            result.setFailed(result.getFailed() + 1);
+            if (result.getErrors().size() < MAX_REPORTED_ERRORS) {
+                result.getErrors().add(new ImportResult.RowError(row, message));
+            }
+            if (ordered && !stopped) {
+                // Ordered imports stop at the first bad row, the rows before it are still written
+                flush();
+                stopped = true;
+            }
+        }
+
+        ImportResult finish() {
+            flush();
+            return result;
+        }
+
+        // Rows that share a location share one document, ids are assigned up front so panels can reference them
+        private Location location(LocationRequest request) {
+            Location canonical = LocationService.canonical(
+                    request.getLat(), request.getLon(), request.getCity(), request.getDistrict(), request.getCountry());
+            return locationsByKey.computeIfAbsent(canonical.getKey(), k -> {
+                canonical.setId(new ObjectId().toHexString());
+                newLocations.add(canonical);
+                return canonical;
+            });
+        }
+
+        private void flush() {
+            if (pending.isEmpty() || stopped) {
+                return;
+            }
+
+            List<PendingPanel> batch = new ArrayList<>(pending);
+            pending.clear();
+
+            Set<String> failedLocations = writeLocations();
+            List<PendingPanel> writable = new ArrayList<>();
+            for (PendingPanel panel : batch) {
+                if (failedLocations.contains(panel.panel().getLocation().getId())) {
+                    reject(panel.row(), "Location could not be saved.");
+                } else if (stopped) {
+                    reject(panel.row(), "Not imported, the ordered import stopped at an earlier row.");
+                } else {
+                    writable.add(panel);
+                }
+            }
+            if (!writable.isEmpty()) {
+                writePanels(writable);
+            }
+        }
+
+        // Locations are upserted by their interning key; ones that already exist keep their id and the batch is pointed at it
+        private Set<String> writeLocations() {
+            Set<String> failed = new HashSet<>();
+            if (newLocations.isEmpty()) {
+                return failed;
+            }
+
+            MongoCollection<Document> locations = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Location.class));
+            List<UpdateOneModel<Document>> upserts = newLocations.stream()
+                    .map(location -> new UpdateOneModel<Document>(
+                            Filters.eq("key", location.getKey()),
+                            Updates.setOnInsert(toDocument(location)),
+                            new UpdateOptions().upsert(true)))
+                    .toList();
+            try {
+                BulkWriteResult written = locations.bulkWrite(upserts, new BulkWriteOptions().ordered(ordered));
+                result.setLocationsCreated(result.getLocationsCreated() + written.getUpserts().size());
+            } catch (MongoBulkWriteException e) {
+                // Duplicate keys from a concurrent import resolve below, anything still missing failed
+                logger.warn("Location bulk upsert failed for {} of {} documents", e.getWriteErrors().size(), upserts.size());
+                result.setLocationsCreated(result.getLocationsCreated() + e.getWriteResult().getUpserts().size());
+            }
+
+            Map<String, Location> byKey = new HashMap<>();
+            newLocations.forEach(location -> byKey.put(location.getKey(), location));
+            locations.find(Filters.in("key", byKey.keySet())).projection(Projections.include("_id", "key"))
+                    .forEach(stored -> byKey.remove(stored.getString("key")).setId(String.valueOf(stored.get("_id"))));
+            for (Location missing : byKey.values()) {
+                failed.add(missing.getId());
+                locationsByKey.remove(missing.getKey());
+            }
+            newLocations.clear();
+            return failed;
+        }
+
+        private void writePanels(List<PendingPanel> panels) {
+            List<InsertOneModel<Document>> inserts = panels.stream()
+                    .map(panel -> new InsertOneModel<>(toDocument(panel.panel())))
+                    .toList();
+            try {
+                mongoTemplate.getCollection(mongoTemplate.getCollectionName(Panel.class))
+                        .bulkWrite(inserts, new BulkWriteOptions().ordered(ordered));
+                result.setImported(result.getImported() + inserts.size());
+            } catch (MongoBulkWriteException e) {
+                result.setImported(result.getImported() + e.getWriteResult().getInsertedCount());
+                Map<Integer, String> errors = new HashMap<>();
+                e.getWriteErrors().forEach(error -> errors.put(error.getIndex(), error.getMessage()));
+                int firstError = errors.keySet().stream().mapToInt(Integer::intValue).min().orElse(inserts.size());
+                for (int i = 0; i < panels.size(); i++) {
+                    if (errors.containsKey(i)) {
+                        reject(panels.get(i).row(), errors.get(i));
+                    } else if (ordered && i > firstError) {
+                        reject(panels.get(i).row(), "Not imported, the ordered import stopped at row " + panels.get(firstError).row() + ".");
+                    }
+                }
+            }
+        }
+
+        private Document toDocument(Object entity) {
+            Document document = new Document();
+            mongoTemplate.getConverter().write(entity, document);
+            return document;
+        }
+    }
+}
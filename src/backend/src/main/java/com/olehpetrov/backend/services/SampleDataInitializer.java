@@ -5,64 +5,53 @@ import com.olehpetrov.backend.models.Inverter;
 import com.olehpetrov.backend.models.Location;
 import com.olehpetrov.backend.models.Panel;
 import com.olehpetrov.backend.models.Role;
-import com.olehpetrov.backend.models.User;
-import com.olehpetrov.backend.repositories.ClusterRepository;
-import com.olehpetrov.backend.repositories.InverterRepository;
-import com.olehpetrov.backend.repositories.LocationRepository;
-import com.olehpetrov.backend.repositories.UserRepository;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Demo user "test" with a cluster per city. Everything is written in bulk: one upsert per user
+ * and inverter, one for all locations and one insert each for clusters and panels.
+ */
 @Component
 public class SampleDataInitializer {
 
     private final UserService userService;
-    private final UserRepository userRepository;
-    private final ClusterService clusterService;
-    private final SolarPanelService solarPanelService;
-    private final ClusterRepository clusterRepository;
-    private final LocationRepository locationRepository;
-    private final InverterRepository inverterRepository;
+    private final LocationService locationService;
+    private final MongoTemplate mongoTemplate;
 
     public SampleDataInitializer(UserService userService,
-                                 UserRepository userRepository,
-                                 ClusterService clusterService,
-                                 SolarPanelService solarPanelService,
-                                 ClusterRepository clusterRepository,
-                                 LocationRepository locationRepository,
-                                 InverterRepository inverterRepository) {
+                                 LocationService locationService,
+                                 MongoTemplate mongoTemplate) {
         this.userService = userService;
-        this.userRepository = userRepository;
-        this.clusterService = clusterService;
-        this.solarPanelService = solarPanelService;
-        this.clusterRepository = clusterRepository;
-        this.locationRepository = locationRepository;
-        this.inverterRepository = inverterRepository;
+        this.locationService = locationService;
+        this.mongoTemplate = mongoTemplate;
     }
 
     public void createSampleUserWithData() {
-        User sampleUser = userRepository.findByUsername("test")
-                .orElseGet(() -> {
-                    User newUser = new User();
-                    newUser.setUsername("test");
-                    newUser.setPassword("test");
-                    newUser.setEmail("test@example.com");
-                    newUser.setRole(Role.ROLE_USER);
-                    return userService.register(newUser);
-                });
-
-        if (!clusterRepository.findByUserId(sampleUser.getId()).isEmpty()) {
+        String userId = userService.createIfMissing("test", "test", "test@example.com", Role.ROLE_USER);
+        if (mongoTemplate.exists(Query.query(Criteria.where("userId").is(userId)), Cluster.class)) {
             return;
         }
 
-        Inverter inverter = new Inverter();
-        inverter.setName("Solar Forecast 12kW 97.5% Inverter");
-        inverter.setManufacturer("Solar Forecast");
-        inverter.setEfficiency(97.5);
-        inverter.setCapacity(12.0);
-        inverter = inverterRepository.save(inverter);
+        Inverter inverter = mongoTemplate.findAndModify(
+                // Case-insensitive like every inverter name lookup, see the name_ci index
+                Query.query(Criteria.where("name").is("Solar Forecast 12kW 97.5% Inverter"))
+                        .collation(Collation.of("en").strength(Collation.ComparisonLevel.secondary())),
+                new Update()
+                        .setOnInsert("manufacturer", "Solar Forecast")
+                        .setOnInsert("efficiency", 97.5)
+                        .setOnInsert("capacity", 12.0),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Inverter.class);
 
         List<CitySeedData> citySeedData = new ArrayList<>();
         citySeedData.add(new CitySeedData(
@@ -115,15 +104,12 @@ public class SampleDataInitializer {
                         new PanelSeedData("Stockholm Floating Array", 820, 96, 3)
                 )));
 
-        for (CitySeedData cityData : citySeedData) {
-            Location location = new Location();
-            location.setLat(cityData.lat());
-            location.setLon(cityData.lon());
-            location.setCity(cityData.city());
-            location.setCountry(cityData.country());
-            location.setDistrict(cityData.district());
-            location = locationRepository.save(location);
+        Map<String, Location> locations = locationService.internAll(citySeedData.stream()
+                .map(city -> LocationService.canonical(city.lat(), city.lon(), city.city(), city.district(), city.country()))
+                .toList());
 
+        List<Cluster> clusters = new ArrayList<>();
+        for (CitySeedData cityData : citySeedData) {
             double totalPowerKw = cityData.panels().stream()
                     .mapToDouble(panel -> (panel.powerRating() * panel.quantity()) / 1000.0)
                     .sum();
@@ -138,23 +124,36 @@ public class SampleDataInitializer {
             Cluster cluster = new Cluster();
             cluster.setName(String.format("%s Cluster - %.1f kW %d%%", cityData.city(), totalPowerKw, Math.round(weightedEfficiency)));
             cluster.setDescription("Sample cluster in " + cityData.city());
-            cluster.setUserId(sampleUser.getId());
-            cluster.setLocation(location);
+            cluster.setUserId(userId);
+            cluster.setLocation(location(locations, cityData));
             cluster.setInverter(inverter);
-            cluster = clusterService.addCluster(cluster);
+            clusters.add(cluster);
+        }
+        // Ids are assigned by the insert, the panels below reference them
+        mongoTemplate.insert(clusters, Cluster.class);
 
+        // Freshly created documents, no cache can hold them yet, so nothing is published
+        List<Panel> panels = new ArrayList<>();
+        for (int i = 0; i < citySeedData.size(); i++) {
+            CitySeedData cityData = citySeedData.get(i);
             for (PanelSeedData panelData : cityData.panels()) {
                 Panel panel = new Panel();
                 panel.setName(panelData.panelName());
-                panel.setUserId(sampleUser.getId());
+                panel.setUserId(userId);
                 panel.setPowerRating(panelData.powerRating());
                 panel.setEfficiency(panelData.efficiency());
                 panel.setQuantity(panelData.quantity());
-                panel.setLocation(location);
-                panel.setCluster(cluster);
-                solarPanelService.addPanel(panel);
+                panel.setLocation(location(locations, cityData));
+                panel.setCluster(clusters.get(i));
+                panels.add(panel);
             }
         }
+        mongoTemplate.insert(panels, Panel.class);
+    }
+
+    private static Location location(Map<String, Location> locations, CitySeedData cityData) {
+        return locations.get(LocationService.canonicalKey(
+                cityData.lat(), cityData.lon(), cityData.city(), cityData.district(), cityData.country()));
     }
 
     private record CitySeedData(String city, double lat, double lon, String country, String district,
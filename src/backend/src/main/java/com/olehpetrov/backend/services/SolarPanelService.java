@@ -1,17 +1,34 @@
 package com.olehpetrov.backend.services;
 
+import com.mongodb.DBRef;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.UpdateResult;
 import com.olehpetrov.backend.models.Cluster;
 import com.olehpetrov.backend.models.DailyEnergyTotal;
+import com.olehpetrov.backend.models.EnergyBucket;
+import com.olehpetrov.backend.models.Location;
 import com.olehpetrov.backend.models.Panel;
-import com.olehpetrov.backend.repositories.DailyEnergyTotalRepository;
+import com.olehpetrov.backend.repositories.DbRefBatchLoader;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
 import com.olehpetrov.backend.repositories.SolarPanelRepository;
+import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.CursorPage;
+import com.olehpetrov.backend.responses.PanelView;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class SolarPanelService {
@@ -19,45 +36,158 @@ public class SolarPanelService {
     @Autowired
     private SolarPanelRepository solarPanelRepository;
     @Autowired
-    private DailyEnergyTotalRepository dailyEnergyTotalRepository;
+    private EnergySeriesService energySeriesService;
+    @Autowired
+    private ReferenceLoader referenceLoader;
+    @Autowired
+    private DbRefBatchLoader dbRefBatchLoader;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private static final String[] PANEL_VIEW_FIELDS =
+            {"userId", "name", "powerRating", "efficiency", "quantity", "location", "cluster"};
 
     // Add a new panel
     public Panel addPanel(Panel panel) {
         return solarPanelRepository.save(panel);
     }
 
-    // Get panels by userId
+    // Get panels by userId, locations and clusters are resolved in batches
     public List<Panel> getPanelsByUserId(String userId) {
-        return solarPanelRepository.findByUserId(userId);
+        return dbRefBatchLoader.find(Panel.class, Filters.eq("userId", userId));
     }
 
     // Get panel by panelId
     public Panel getPanelById(String panelId) {
         return solarPanelRepository.findById(panelId).orElse(null);
     }
+
+    // Read models for the panel endpoints: three queries (panels, locations, cluster names) for any number of panels
+    public List<PanelView> getPanelViewsByUserId(String userId) {
+        return findPanelViews(Filters.eq("userId", userId));
+    }
+
+    public PanelView getPanelViewById(String panelId) {
+        List<PanelView> views = findPanelViews(Filters.eq("_id", ReferenceLoader.rawId(panelId)));
+        return views.isEmpty() ? null : views.get(0);
+    }
+
+    private List<PanelView> findPanelViews(Bson filter) {
+        List<Document> panels = referenceLoader.findRaw(Panel.class, filter, PANEL_VIEW_FIELDS);
+        Map<Object, Location> locations =
+                referenceLoader.loadAll(Location.class, ReferenceLoader.referencedIds(panels, "location"));
+        Map<Object, Document> clusters =
+                referenceLoader.loadRaw(Cluster.class, ReferenceLoader.referencedIds(panels, "cluster"), "name");
+
+        List<PanelView> views = new ArrayList<>(panels.size());
+        for (Document panel : panels) {
+            PanelView view = new PanelView();
+            view.setId(String.valueOf(panel.get("_id")));
+            view.setUserId(panel.getString("userId"));
+            view.setName(panel.getString("name"));
+            view.setPowerRating(intValue(panel, "powerRating"));
+            view.setEfficiency(intValue(panel, "efficiency"));
+            view.setQuantity(intValue(panel, "quantity"));
+            view.setLocation(locations.get(ReferenceLoader.referencedId(panel, "location")));
+
+            Document cluster = clusters.get(ReferenceLoader.referencedId(panel, "cluster"));
+            if (cluster != null) {
+                view.setCluster(new ClusterResponse(cluster.getString("name"), String.valueOf(cluster.get("_id"))));
+            }
+            views.add(view);
+        }
+        return views;
+    }
+
+    private static int intValue(Document document, String field) {
+        return document.get(field) instanceof Number number ? number.intValue() : 0;
+    }
     // Delete a panel by ID
     public void deletePanel(String panelId) {
         solarPanelRepository.deleteById(panelId);
     }
+
+    // Cluster membership changes are one updateMany on cluster.$id, limited to the panels of the cluster owner
+    public UpdateResult assignToCluster(List<String> panelIds, String clusterId, String ownerId) {
+        return panels().updateMany(
+                Filters.and(Filters.in("_id", rawIds(panelIds)), Filters.eq("userId", ownerId)),
+                Updates.set("cluster", clusterRef(clusterId)));
+    }
+
+    public UpdateResult removeFromCluster(List<String> panelIds, String clusterId, String ownerId) {
+        return panels().updateMany(
+                Filters.and(Filters.in("_id", rawIds(panelIds)), Filters.eq("userId", ownerId),
+                        Filters.eq("cluster.$id", ReferenceLoader.rawId(clusterId))),
+                Updates.unset("cluster"));
+    }
+
+    public UpdateResult moveBetweenClusters(List<String> panelIds, String sourceClusterId, String targetClusterId, String ownerId) {
+        return panels().updateMany(
+                Filters.and(Filters.in("_id", rawIds(panelIds)), Filters.eq("userId", ownerId),
+                        Filters.eq("cluster.$id", ReferenceLoader.rawId(sourceClusterId))),
+                Updates.set("cluster", clusterRef(targetClusterId)));
+    }
+
+    // Used when a cluster is deleted: its panels either lose the reference or go with it
+    public long detachFromCluster(String clusterId) {
+        return panels().updateMany(Filters.eq("cluster.$id", ReferenceLoader.rawId(clusterId)), Updates.unset("cluster"))
+                .getModifiedCount();
+    }
+
+    public long deleteByClusterId(String clusterId) {
+        return panels().deleteMany(Filters.eq("cluster.$id", ReferenceLoader.rawId(clusterId))).getDeletedCount();
+    }
+
+    private MongoCollection<Document> panels() {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Panel.class));
+    }
+
+    private DBRef clusterRef(String clusterId) {
+        return new DBRef(mongoTemplate.getCollectionName(Cluster.class), ReferenceLoader.rawId(clusterId));
+    }
+
+    private static List<Object> rawIds(List<String> ids) {
+        return ids.stream().map(ReferenceLoader::rawId).toList();
+    }
+    // Daily totals live in monthly energy buckets, DailyEnergyTotal is kept as the value type of this API
     public DailyEnergyTotal getDailyEnergyTotalByDate(Panel panel, String date) {
-        // Logic to fetch the DailyEnergyTotal by panel and date
-        return dailyEnergyTotalRepository.findByPanelAndDate(panel, date);
+        LocalDate day = LocalDate.parse(date);
+        Double energy = energySeriesService.readDaily(EnergyBucket.OwnerType.PANEL, panel.getId(), day, day).get(day);
+        return energy == null ? null : dailyEnergyTotal(panel, day, energy);
     }
 
     public void saveDailyEnergyTotal(DailyEnergyTotal dailyEnergyTotal) {
-        // Logic to save the DailyEnergyTotal
-        dailyEnergyTotalRepository.save(dailyEnergyTotal);
+        energySeriesService.upsertDaily(EnergyBucket.OwnerType.PANEL, dailyEnergyTotal.getPanel().getId(),
+                Map.of(LocalDate.parse(dailyEnergyTotal.getDate()), dailyEnergyTotal.getTotalEnergy_kwh()));
     }
+
     public List<DailyEnergyTotal> getDailyEnergyTotalsByDateRange(Panel panel, String startDate, String endDate) {
-        return dailyEnergyTotalRepository.findByPanelAndDateBetween(panel, startDate, endDate);
+        List<DailyEnergyTotal> totals = new ArrayList<>();
+        energySeriesService.readDaily(EnergyBucket.OwnerType.PANEL, panel.getId(), LocalDate.parse(startDate), LocalDate.parse(endDate))
+                .forEach((day, energy) -> totals.add(dailyEnergyTotal(panel, day, energy)));
+        return totals;
+    }
+
+    private static DailyEnergyTotal dailyEnergyTotal(Panel panel, LocalDate day, double energy) {
+        DailyEnergyTotal total = new DailyEnergyTotal();
+        total.setPanel(panel);
+        total.setDate(day.toString());
+        total.setTotalEnergy_kwh(energy);
+        return total;
     }
     public List<Panel> getPanelsByClusterId(String clusterId) {
         ObjectId clusterObjectId = new ObjectId(clusterId); // Convert the string into an ObjectId
-        return solarPanelRepository.findByCluster(clusterObjectId);
+        return dbRefBatchLoader.find(Panel.class, Filters.eq("cluster.$id", clusterObjectId));
     }
 
     public Page<Panel> findAll(Pageable pageable) {
-        return solarPanelRepository.findAll(pageable);
+        return dbRefBatchLoader.findPage(Panel.class, pageable);
+    }
+
+    // Keyset listing reads only the name and id of each panel
+    public CursorPage<ClusterResponse> findAfter(String cursor, int size) {
+        return referenceLoader.findRawAfter(Panel.class, cursor, size, "name")
+                .map(panel -> new ClusterResponse(panel.getString("name"), String.valueOf(panel.get("_id"))));
     }
     public double calculateTotalCapacityKwp(List<Panel> panels) {
         return panels.stream()
@@ -0,0 +1,304 @@
+package com.olehpetrov.backend.services;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.olehpetrov.backend.models.Cluster;
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.TelemetryReading;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
+import com.olehpetrov.backend.requests.TelemetryReadingRequest;
+import com.olehpetrov.backend.responses.IngestResult;
+import com.olehpetrov.backend.utils.BoundedBatchQueue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inverter telemetry ingestion. Requests only validate and enqueue readings into a bounded
+ * lock-free queue; a writer thread of its own drains it and group-commits unordered insertMany
+ * batches. When the queue is full the whole request is refused so the client backs off (503).
+ *
+ * <p>Accepted readings are not dropped when the database fails: the writer retries the batch with
+ * a growing backoff, and the queue filling up in the meantime pushes back on the clients. Retries
+ * are safe because the documents keep the {@code _id} the driver gave them on the first attempt,
+ * readings written before the failure come back as duplicates and count as written.
+ */
+@Service
+public class TelemetryIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TelemetryIngestService.class);
+
+    // Binary record: 12 byte cluster ObjectId, 8 byte epoch millis, 4 byte float powerW, 4 byte float energyWh (big endian)
+    public static final int BINARY_RECORD_SIZE = 28;
+
+    // Readings stamped further ahead than this are treated as clock errors
+    private static final long MAX_CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private record Queued(Document reading, long enqueuedNanos) {
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final ReferenceLoader referenceLoader;
+    private final BoundedBatchQueue<Queued> queue;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long retryBackoffMillis;
+    private final long maxRetryBackoffMillis;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "telemetry-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean stopping;
+
+    private final Counter accepted;
+    private final Counter rejected;
+    private final Counter overloaded;
+    private final Counter written;
+    private final Counter failed;
+    private final Timer commitLag;
+
+    public TelemetryIngestService(MongoTemplate mongoTemplate,
+                                  ReferenceLoader referenceLoader,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${telemetry.queue.capacity:200000}") int capacity,
+                                  @Value("${telemetry.batch-size:5000}") int batchSize,
+                                  @Value("${telemetry.flush-interval-ms:100}") long flushIntervalMillis,
+                                  @Value("${telemetry.write.retry-backoff-ms:100}") long retryBackoffMillis,
+                                  @Value("${telemetry.write.max-retry-backoff-ms:5000}") long maxRetryBackoffMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.referenceLoader = referenceLoader;
+        this.queue = new BoundedBatchQueue<>(capacity);
+        this.batchSize = Math.max(batchSize, 1);
+        this.flushIntervalMillis = Math.max(flushIntervalMillis, 1);
+        this.retryBackoffMillis = Math.max(retryBackoffMillis, 1);
+        this.maxRetryBackoffMillis = Math.max(maxRetryBackoffMillis, this.retryBackoffMillis);
+
+        this.accepted = readings(meterRegistry, "accepted");
+        this.rejected = readings(meterRegistry, "rejected");
+        this.overloaded = readings(meterRegistry, "overloaded");
+        this.written = readings(meterRegistry, "written");
+        this.failed = readings(meterRegistry, "failed");
+        this.commitLag = Timer.builder("telemetry.commit.lag")
+                .description("Time from enqueue to commit for the oldest reading of each batch")
+                .register(meterRegistry);
+        Gauge.builder("telemetry.queue.size", queue, BoundedBatchQueue::size)
+                .description("Readings waiting to be written")
+                .register(meterRegistry);
+        Gauge.builder("telemetry.queue.lag", this, service -> service.oldestQueuedAgeSeconds())
+                .description("Age in seconds of the oldest reading waiting to be written")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    private static Counter readings(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("telemetry.readings")
+                .description("Inverter telemetry readings by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    // Most readings one request can carry; a larger batch would never fit the queue
+    public int maxBatchSize() {
+        return queue.capacity();
+    }
+
+    /**
+     * Validates the readings and enqueues the valid ones. Readings for clusters the user does not
+     * own are rejected. Nothing is enqueued when the result is overloaded.
+     */
+    public IngestResult ingest(User user, List<TelemetryReadingRequest> readings) {
+        Set<String> ownedClusters = Role.ROLE_ADMIN.equals(user.getRole()) ? null : ownedClusterIds(user);
+        long now = System.currentTimeMillis();
+        Date receivedAt = new Date(now);
+        long enqueuedNanos = System.nanoTime();
+
+        List<Queued> valid = new ArrayList<>(readings.size());
+        for (TelemetryReadingRequest reading : readings) {
+            if (isValid(reading, ownedClusters, now)) {
+                valid.add(new Queued(new Document("clusterId", reading.getClusterId())
+                        .append("inverterId", reading.getInverterId())
+                        .append("timestamp", new Date(reading.getTimestamp()))
+                        .append("powerW", reading.getPowerW())
+                        .append("energyWh", reading.getEnergyWh())
+                        .append("receivedAt", receivedAt), enqueuedNanos));
+            }
+        }
+
+        int invalid = readings.size() - valid.size();
+        rejected.increment(invalid);
+        if (!valid.isEmpty() && !queue.offerAll(valid)) {
+            overloaded.increment(valid.size());
+            return new IngestResult(0, invalid, true);
+        }
+        accepted.increment(valid.size());
+        return new IngestResult(valid.size(), invalid, false);
+    }
+
+    /**
+     * Decodes the compact binary format, {@value #BINARY_RECORD_SIZE} bytes per reading.
+     *
+     * @throws IllegalArgumentException if the body is not a whole number of records
+     */
+    public static List<TelemetryReadingRequest> decodeBinary(byte[] body) {
+        if (body.length % BINARY_RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("Binary telemetry must be a multiple of " + BINARY_RECORD_SIZE + " bytes.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        List<TelemetryReadingRequest> readings = new ArrayList<>(body.length / BINARY_RECORD_SIZE);
+        byte[] clusterId = new byte[12];
+        while (buffer.hasRemaining()) {
+            buffer.get(clusterId);
+            TelemetryReadingRequest reading = new TelemetryReadingRequest();
+            reading.setClusterId(new ObjectId(clusterId).toHexString());
+            reading.setTimestamp(buffer.getLong());
+            reading.setPowerW((double) buffer.getFloat());
+            reading.setEnergyWh((double) buffer.getFloat());
+            readings.add(reading);
+        }
+        return readings;
+    }
+
+    // Not on the shared Spring scheduler, where a long job would hold up the flush and fill the queue
+    @PostConstruct
+    public void start() {
+        writer.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Group commit: drain everything that is queued in batches, one insertMany per batch
+    public synchronized void flush() {
+        List<Queued> batch;
+        while (!(batch = queue.drain(batchSize)).isEmpty()) {
+            write(batch);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // A write that keeps failing gives up now, one in progress completes
+        stopping = true;
+        writer.shutdown();
+        try {
+            writer.awaitTermination(maxRetryBackoffMillis + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    private void write(List<Queued> batch) {
+        List<Document> pending = new ArrayList<>(batch.size());
+        batch.forEach(queued -> pending.add(queued.reading()));
+        List<Document> refused = new ArrayList<>();
+        long backoff = retryBackoffMillis;
+        while (true) {
+            try {
+                mongoTemplate.getCollection(mongoTemplate.getCollectionName(TelemetryReading.class))
+                        .insertMany(pending, new InsertManyOptions().ordered(false));
+                break;
+            } catch (MongoBulkWriteException e) {
+                pending = retryable(pending, e, refused);
+                if (pending.isEmpty()) {
+                    break;
+                }
+                logger.warn("Failed to write {} of {} telemetry readings, retrying in {} ms", pending.size(), batch.size(), backoff, e);
+            } catch (MongoException e) {
+                logger.warn("Failed to write {} telemetry readings, retrying in {} ms", pending.size(), backoff, e);
+            }
+            if (stopping || !sleep(backoff)) {
+                // Shutting down with the database still failing, these readings are lost
+                failed.increment(pending.size());
+                logger.error("Gave up on {} telemetry readings on shutdown", pending.size());
+                return;
+            }
+            backoff = Math.min(backoff * 2, maxRetryBackoffMillis);
+        }
+        written.increment(batch.size() - refused.size());
+        commitLag.record(System.nanoTime() - batch.get(0).enqueuedNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    // Documents of an unordered insert still to write: not the ones already in, nor the ones the database refuses
+    private List<Document> retryable(List<Document> attempted, MongoBulkWriteException e, List<Document> refused) {
+        if (e.getWriteConcernError() != null) {
+            // Written but not confirmed, a retry turns the written ones into duplicates
+            return attempted;
+        }
+        List<Document> retry = new ArrayList<>();
+        for (BulkWriteError error : e.getWriteErrors()) {
+            if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+                // Written by an earlier attempt
+                continue;
+            }
+            if (error.getCode() == 121) {
+                // Failed document validation, that does not change with a retry
+                failed.increment();
+                refused.add(attempted.get(error.getIndex()));
+                logger.error("Telemetry reading refused by the database: {}", error.getMessage());
+                continue;
+            }
+            retry.add(attempted.get(error.getIndex()));
+        }
+        return retry;
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private boolean isValid(TelemetryReadingRequest reading, Set<String> ownedClusters, long now) {
+        return reading != null
+                && reading.getClusterId() != null
+                && (ownedClusters == null || ownedClusters.contains(reading.getClusterId()))
+                && reading.getTimestamp() != null
+                && reading.getTimestamp() <= now + MAX_CLOCK_SKEW_MILLIS
+                && isNonNegative(reading.getPowerW())
+                && isNonNegative(reading.getEnergyWh());
+    }
+
+    private static boolean isNonNegative(Double value) {
+        return value != null && Double.isFinite(value) && value >= 0;
+    }
+
+    private Set<String> ownedClusterIds(User user) {
+        Set<String> ids = new HashSet<>();
+        referenceLoader.findRaw(Cluster.class, Filters.eq("userId", user.getId()), "_id")
+                .forEach(cluster -> ids.add(String.valueOf(cluster.get("_id"))));
+        return ids;
+    }
+
+    private double oldestQueuedAgeSeconds() {
+        Queued oldest = queue.peek();
+        return oldest == null ? 0 : (System.nanoTime() - oldest.enqueuedNanos()) / 1e9;
+    }
+}
@@ -2,25 +2,75 @@ package com.olehpetrov.backend.services;
 
 import com.olehpetrov.backend.models.User;
 import com.olehpetrov.backend.repositories.UserRepository;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class UserDetailsServiceImpl implements UserDetailsService {
 
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private CacheInvalidationBus invalidationBus;
+
+    @Value("${user.details-cache.size:10000}")
+    private int cacheSize;
+
+    // Every authenticated request loads its user; entries go when the user is written on any node
+    private final Map<String, Credentials> cache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Credentials> eldest) {
+            return size() > cacheSize;
+        }
+    });
+
+    // Bumped by every eviction, a lookup that raced with one does not cache what it read
+    private final AtomicLong evictions = new AtomicLong();
+
+    private record Credentials(String userId, String username, String password) {
+    }
+
+    @PostConstruct
+    void subscribe() {
+        // Events carry user ids, the cache is keyed by username
+        invalidationBus.subscribe(CacheInvalidationBus.Topic.USER, userId -> {
+            evictions.incrementAndGet();
+            synchronized (cache) {
+                if (userId == null) {
+                    cache.clear();
+                } else {
+                    cache.values().removeIf(credentials -> userId.equals(credentials.userId()));
+                }
+            }
+        });
+    }
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = userRepository.findByUsername(username)
-                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
-        // No changes here unless you want to return address-related information in UserDetails
-        return new org.springframework.security.core.userdetails.User(user.getUsername(), user.getPassword(), new ArrayList<>());
+        Credentials credentials = cache.get(username);
+        if (credentials == null) {
+            long seen = evictions.get();
+            User user = userRepository.findByUsername(username)
+                    .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+            credentials = new Credentials(user.getId(), user.getUsername(), user.getPassword());
+            synchronized (cache) {
+                if (evictions.get() == seen) {
+                    cache.put(username, credentials);
+                }
+            }
+        }
+        // A new instance every time, authentication erases the credentials of the one it was given
+        return new org.springframework.security.core.userdetails.User(credentials.username(), credentials.password(), new ArrayList<>());
     }
 }
@@ -3,11 +3,22 @@ package com.olehpetrov.backend.services;
 import com.olehpetrov.backend.models.Location;
 import com.olehpetrov.backend.models.Role;
 import com.olehpetrov.backend.models.User;
-import com.olehpetrov.backend.repositories.LocationRepository;
+import com.olehpetrov.backend.repositories.DbRefBatchLoader;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
 import com.olehpetrov.backend.repositories.UserRepository;
+import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.CursorPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 
@@ -18,11 +29,22 @@ import static com.olehpetrov.backend.models.Role.ROLE_ADMIN;
 @Service
 public class UserService {
 
+    private static final Logger logger = LoggerFactory.getLogger(UserService.class);
+
     @Autowired
     private UserRepository userRepository;
 
     @Autowired
-    private LocationRepository locationRepository;  // Autowire the LocationRepository
+    private DbRefBatchLoader dbRefBatchLoader;
+
+    @Autowired
+    private ReferenceLoader referenceLoader;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private CacheInvalidationBus invalidationBus;
 
     private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
 
@@ -37,7 +59,9 @@ public class UserService {
     }
 
     public User saveUser(User user) {
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        invalidationBus.publish(CacheInvalidationBus.Topic.USER, saved.getId());
+        return saved;
     }
 
     public User findByUsername(String username) {
@@ -63,38 +87,60 @@ public class UserService {
     public User setUserLocation(String userId, Location location) {
         User user = userRepository.findById(userId).orElse(null);
         if (user != null && location != null) {
-            Location savedLocation = locationRepository.save(location);
-            user.setLocation(savedLocation);  // Set the location on the user
-            return userRepository.save(user);  // Save the updated user
+            user.setLocation(location);  // Location is already interned by LocationService
+            User saved = userRepository.save(user);  // Save the updated user
+            invalidationBus.publish(CacheInvalidationBus.Topic.USER, saved.getId());
+            return saved;
         }
         return null;  // Handle null case (user not found)
     }
     public Page<User> findAll(Pageable pageable) {
-        return userRepository.findAll(pageable);
+        return dbRefBatchLoader.findPage(User.class, pageable);
+    }
+
+    // Keyset listing reads only the username and id of each user, not the password or location
+    public CursorPage<ClusterResponse> findAfter(String cursor, int size) {
+        return referenceLoader.findRawAfter(User.class, cursor, size, "username")
+                .map(user -> new ClusterResponse(user.getString("username"), String.valueOf(user.get("_id"))));
     }
     public void delete(String id) {
         userRepository.deleteById(id);
+        invalidationBus.publish(CacheInvalidationBus.Topic.USER, id);
     }
 
     public void createAdminUserIfNotExists() {
-        String adminUsername = "admin";
-
-        // Check if the user already exists
-        if (userRepository.findByUsername(adminUsername).isEmpty()) {
-            // Create a new user instance
-            User adminUser = new User();
-            adminUser.setUsername(adminUsername);
-            adminUser.setPassword(passwordEncoder.encode("admin"));
-            adminUser.setEmail("admin@example.com"); // Optional, set as needed
-
-            adminUser.setRole(ROLE_ADMIN);
+        createIfMissing("admin", "admin", "admin@example.com", ROLE_ADMIN);
+    }
 
-            // Save the user to the database
-            userRepository.save(adminUser);
+    /**
+     * Creates the user unless the username is taken, in at most two round-trips. The password is
+     * only hashed when the user is missing, and the insert is an upsert on the unique username so
+     * instances starting together cannot create it twice.
+     *
+     * @return id of the existing or created user
+     */
+    public String createIfMissing(String username, String rawPassword, String email, Role role) {
+        Query query = Query.query(Criteria.where("username").is(username));
+        query.fields().include("_id");
+        User existing = mongoTemplate.findOne(query, User.class);
+        if (existing != null) {
+            return existing.getId();
+        }
 
-            System.out.println("Admin user created successfully.");
-        } else {
-            System.out.println("Admin user already exists.");
+        Update update = new Update()
+                .setOnInsert("password", passwordEncoder.encode(rawPassword))
+                .setOnInsert("email", email)
+                .setOnInsert("role", role.name());
+        User user;
+        try {
+            user = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), User.class);
+            logger.info("User '{}' created", username);
+        } catch (DuplicateKeyException e) {
+            // Another instance created it between the lookup and the upsert
+            user = mongoTemplate.findOne(query, User.class);
+            logger.info("User '{}' already existed", username);
         }
+        return user.getId();
     }
 }
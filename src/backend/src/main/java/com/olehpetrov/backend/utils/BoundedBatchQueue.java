@@ -0,0 +1,62 @@
+package com.olehpetrov.backend.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded multi-producer queue without locks: a {@link ConcurrentLinkedQueue} plus an
+ * {@link AtomicInteger} that producers reserve capacity on with a CAS before enqueuing.
+ * Batches are accepted all-or-nothing, so a client never has to work out which half of its
+ * request made it in.
+ */
+public class BoundedBatchQueue<T> {
+
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+
+    public BoundedBatchQueue(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // false when the batch does not fit, nothing is enqueued in that case
+    public boolean offerAll(Collection<? extends T> items) {
+        int count = items.size();
+        while (true) {
+            int current = size.get();
+            if (current + count > capacity) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + count)) {
+                break;
+            }
+        }
+        queue.addAll(items);
+        return true;
+    }
+
+    public List<T> drain(int maxItems) {
+        List<T> items = new ArrayList<>(Math.min(maxItems, Math.max(size.get(), 0)));
+        T item;
+        while (items.size() < maxItems && (item = queue.poll()) != null) {
+            items.add(item);
+        }
+        size.addAndGet(-items.size());
+        return items;
+    }
+
+    public T peek() {
+        return queue.peek();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
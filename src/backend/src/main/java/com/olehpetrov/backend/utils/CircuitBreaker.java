@@ -0,0 +1,74 @@
+package com.olehpetrov.backend.utils;
+
+/**
+ * Consecutive-failure circuit breaker. After {@code failureThreshold} failures in a row the
+ * circuit opens and calls are refused until {@code openNanos} have passed; then one probe call
+ * is let through (half-open) and its outcome closes the circuit or opens it again.
+ * Like {@link TokenBucket} it takes the time and limits per call, so they can be configured
+ * without rebuilding it.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probeDue;
+
+    /**
+     * Whether a call may go out now; in the half-open state only the first caller gets through.
+     *
+     * @param nowNanos  current {@link System#nanoTime()}
+     * @param openNanos how long the circuit stays open before it is probed
+     */
+    public synchronized boolean tryAcquire(long nowNanos, long openNanos) {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (!probeDue && nowNanos - openedAt < openNanos) {
+                    return false;
+                }
+                probeDue = false;
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                // The probe is still out
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        // A call started before the circuit opened does not close it
+        if (state != State.OPEN) {
+            state = State.CLOSED;
+            failures = 0;
+        }
+    }
+
+    // A call refused before it reached the service says nothing about it; the probe goes to the next call
+    public synchronized void onSkipped() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            probeDue = true;
+        }
+    }
+
+    public synchronized void onFailure(long nowNanos, int failureThreshold) {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = nowNanos;
+        }
+    }
+
+    // Nanos until the circuit will be probed, 0 unless it is open
+    public synchronized long retryAfterNanos(long nowNanos, long openNanos) {
+        return state == State.OPEN && !probeDue ? Math.max(openedAt + openNanos - nowNanos, 0) : 0;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,65 @@
+package com.olehpetrov.backend.utils;
+
+/**
+ * Concurrency limit driven by round trip times, after the gradient algorithm of Netflix's
+ * concurrency-limits. A slow moving average of the RTT stands for the latency without queueing;
+ * while recent calls stay within {@value #TOLERANCE} times of it the limit grows by a queue
+ * allowance of sqrt(limit), once they are slower it shrinks by the ratio of the two. Dropped
+ * calls shrink it right away.
+ */
+public class GradientLimit {
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SHORT_WEIGHT = 2.0 / (10 + 1);
+    private static final double LONG_WEIGHT = 2.0 / (600 + 1);
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private double shortRtt;
+    private double longRtt;
+
+    public GradientLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+    }
+
+    /**
+     * Adjusts the limit to one finished call.
+     *
+     * @param rttNanos time the call took
+     * @param inFlight calls in flight when it finished, itself included
+     * @param dropped  whether the call failed or timed out because the service is overloaded
+     */
+    public synchronized void onSample(long rttNanos, int inFlight, boolean dropped) {
+        if (dropped) {
+            limit = Math.max(limit * BACKOFF, minLimit);
+            return;
+        }
+        if (longRtt == 0) {
+            shortRtt = rttNanos;
+            longRtt = rttNanos;
+            return;
+        }
+        shortRtt += SHORT_WEIGHT * (rttNanos - shortRtt);
+        longRtt += LONG_WEIGHT * (rttNanos - longRtt);
+        // After a slow period the baseline comes down faster than the average alone would
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+        // Too little load to tell whether a higher limit would still be fast
+        if (inFlight < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.min(Math.max(limit * (1 - SMOOTHING) + target * SMOOTHING, minLimit), maxLimit);
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+}
@@ -0,0 +1,58 @@
+package com.olehpetrov.backend.utils;
+
+import com.mongodb.client.model.Filters;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque cursor for keyset pagination over {@code _id}. The cursor carries the last returned id
+ * together with its BSON type, because collections such as inverters mix String ids (generated
+ * UUIDs) with ObjectIds and a range query only compares values of the same type.
+ */
+public final class KeysetCursor {
+
+    private static final String OBJECT_ID = "o:";
+    private static final String STRING = "s:";
+
+    private KeysetCursor() {
+    }
+
+    public static String encode(Object id) {
+        String key = id instanceof ObjectId objectId ? OBJECT_ID + objectId.toHexString() : STRING + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Filter matching the documents that follow the cursor in ascending {@code _id} order.
+     * An empty cursor starts at the beginning of the collection.
+     *
+     * @throws IllegalArgumentException if the cursor was not produced by {@link #encode(Object)}
+     */
+    public static Bson after(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return new Document();
+        }
+
+        String key;
+        try {
+            key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor.", e);
+        }
+
+        String value = key.substring(Math.min(key.length(), 2));
+        if (key.startsWith(OBJECT_ID) && ObjectId.isValid(value)) {
+            return Filters.gt("_id", new ObjectId(value));
+        }
+        if (key.startsWith(STRING)) {
+            // Strings sort before ObjectIds, so every ObjectId still lies ahead of a String cursor
+            return Filters.or(Filters.gt("_id", value), Filters.type("_id", BsonType.OBJECT_ID));
+        }
+        throw new IllegalArgumentException("Invalid cursor.");
+    }
+}
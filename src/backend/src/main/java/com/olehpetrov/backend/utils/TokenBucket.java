@@ -0,0 +1,45 @@
+package com.olehpetrov.backend.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented as a generic cell rate algorithm (GCRA).
+ * The whole bucket state is a single "theoretical arrival time", so acquiring a
+ * token is one CAS on an {@link AtomicLong} and no lock is ever taken.
+ */
+public class TokenBucket {
+
+    private final AtomicLong theoreticalArrival;
+
+    public TokenBucket(long nowNanos) {
+        this.theoreticalArrival = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Tries to take one token.
+     *
+     * @param nowNanos       current {@link System#nanoTime()}
+     * @param intervalNanos  time needed to refill a single token
+     * @param capacity       maximum burst size
+     * @return 0 when the token was granted, otherwise nanos until one becomes available
+     */
+    public long tryAcquire(long nowNanos, long intervalNanos, int capacity) {
+        long burstNanos = intervalNanos * (capacity - 1L);
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long start = Math.max(tat, nowNanos);
+            long waitNanos = start - burstNanos - nowNanos;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (theoreticalArrival.compareAndSet(tat, start + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    // A bucket that has fully refilled carries no state and can be dropped
+    public boolean isFull(long nowNanos) {
+        return theoreticalArrival.get() <= nowNanos;
+    }
+}
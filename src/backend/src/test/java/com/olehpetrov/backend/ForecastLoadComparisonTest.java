@@ -0,0 +1,176 @@
+package com.olehpetrov.backend;
+
+import com.olehpetrov.backend.config.StartupSeeding;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.utils.JwtUtils;
+import com.sun.net.httpserver.HttpServer;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Servlet vs reactive forecast endpoints under the same load: {@value #CONCURRENCY} concurrent
+ * clients against a forecast service that answers after {@value #UPSTREAM_LATENCY_MS} ms, with
+ * Tomcat limited to {@value #TOMCAT_THREADS} threads. Prints throughput and latency percentiles
+ * for both modes. Not part of the regular build, run it with {@code ./gradlew loadTest}.
+ */
+@Tag("load")
+@Testcontainers(disabledWithoutDocker = true)
+class ForecastLoadComparisonTest {
+
+    private static final int CONCURRENCY = 200;
+    private static final int WARMUP_REQUESTS = 500;
+    private static final int REQUESTS = 5000;
+    private static final int UPSTREAM_LATENCY_MS = 200;
+    private static final int TOMCAT_THREADS = 50;
+
+    @Container
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    private static HttpServer forecastService;
+
+    private record Result(String mode, double requestsPerSecond, long p50Millis, long p99Millis, int failures) {
+    }
+
+    // Stand-in for the FastAPI model: fixed latency, one hourly value
+    @BeforeAll
+    static void startForecastService() throws Exception {
+        forecastService = HttpServer.create(new InetSocketAddress(0), 1000);
+        forecastService.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        forecastService.createContext("/", exchange -> {
+            try {
+                Thread.sleep(UPSTREAM_LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = ("[{\"time\":\"" + LocalDate.now() + "T12:00:00Z\",\"pred_W_per_kWp\":500.0}]").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        forecastService.start();
+    }
+
+    @AfterAll
+    static void stopForecastService() {
+        forecastService.stop(0);
+    }
+
+    @Test
+    void compareServletAndReactiveForecastEndpoints() throws Exception {
+        List<Result> results = List.of(run(false), run(true));
+
+        System.out.printf("%n%-10s %12s %10s %10s %10s%n", "mode", "req/s", "p50 ms", "p99 ms", "failures");
+        results.forEach(result -> System.out.printf("%-10s %12.1f %10d %10d %10d%n",
+                result.mode(), result.requestsPerSecond(), result.p50Millis(), result.p99Millis(), result.failures()));
+
+        results.forEach(result -> assertEquals(0, result.failures(), result.mode() + " mode had failed requests"));
+    }
+
+    private Result run(boolean reactive) throws Exception {
+        // Command line arguments, so they win over application.properties
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(BackendApplication.class).run(
+                "--server.port=0",
+                "--spring.data.mongodb.uri=" + mongo.getReplicaSetUrl("forecast_load"),
+                "--FORECAST_URL=http://localhost:" + forecastService.getAddress().getPort(),
+                "--forecast.reactive.enabled=" + reactive,
+                // Every request goes upstream on its own, otherwise this measures the hourly series cache and batching
+                "--forecast.hourly.cache-ttl-minutes=0",
+                "--forecast.batch.enabled=false",
+                "--forecast.history.enabled=false",
+                // Measures the request paths, not how many calls the limiter lets through
+                "--forecast.limit.enabled=false",
+                "--server.tomcat.threads.max=" + TOMCAT_THREADS,
+                "--forecast.rate-limit.user.cheap.capacity=1000000",
+                "--forecast.rate-limit.user.cheap.per-minute=1000000",
+                "--forecast.rate-limit.user.expensive.capacity=1000000",
+                "--forecast.rate-limit.user.expensive.per-minute=1000000",
+                "--logging.level.com.olehpetrov.backend=WARN")) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            // The sample user and its panels are seeded in the background on startup
+            context.getBean(StartupSeeding.class).await(StartupSeeding.Stage.SAMPLE_DATA, Duration.ofMinutes(1));
+            String token = context.getBean(JwtUtils.class).generateToken("test");
+            MongoTemplate mongoTemplate = context.getBean(MongoTemplate.class);
+            Document panel = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Panel.class)).find().first();
+            LocalDate today = LocalDate.now();
+            URI uri = URI.create("http://localhost:" + port + "/api/forecast/getTotal?type=panel&panelId=" + panel.get("_id")
+                    + "&from=" + today + "%2000:00:00&to=" + today.plusDays(1) + "%2000:00:00");
+            HttpRequest request = HttpRequest.newBuilder(uri).header("Authorization", "Bearer " + token).GET().build();
+
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                HttpClient http = HttpClient.newBuilder().executor(clients).build();
+                load(http, request, WARMUP_REQUESTS);
+
+                List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+                long started = System.nanoTime();
+                int failures = load(http, request, REQUESTS, latencies);
+                double seconds = (System.nanoTime() - started) / 1e9;
+
+                List<Long> sorted = new ArrayList<>(latencies);
+                Collections.sort(sorted);
+                return new Result(reactive ? "reactive" : "servlet", REQUESTS / seconds,
+                        percentile(sorted, 0.50), percentile(sorted, 0.99), failures);
+            }
+        }
+    }
+
+    private static int load(HttpClient http, HttpRequest request, int requests) throws InterruptedException {
+        return load(http, request, requests, Collections.synchronizedList(new ArrayList<>()));
+    }
+
+    // Keeps CONCURRENCY requests in flight until all are done, returns the number of non-200 responses
+    private static int load(HttpClient http, HttpRequest request, int requests, List<Long> latencies) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        AtomicInteger failures = new AtomicInteger();
+        List<CompletableFuture<?>> pending = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            long sent = System.nanoTime();
+            pending.add(http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        latencies.add((System.nanoTime() - sent) / 1_000_000);
+                        if (error != null || response.statusCode() != 200) {
+                            failures.incrementAndGet();
+                        }
+                        inFlight.release();
+                    }));
+        }
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+        return failures.get();
+    }
+
+    private static long percentile(List<Long> sorted, double fraction) {
+        return sorted.isEmpty() ? 0 : sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(fraction * sorted.size()) - 1));
+    }
+}
@@ -1,12 +1,17 @@
 package com.olehpetrov.backend.controllers;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.result.UpdateResult;
 import com.olehpetrov.backend.models.Cluster;
 import com.olehpetrov.backend.models.Role;
 import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.ClusterView;
+import com.olehpetrov.backend.responses.CursorPage;
 import com.olehpetrov.backend.services.ClusterService;
 import com.olehpetrov.backend.services.InverterService;
 import com.olehpetrov.backend.services.LocationService;
+import com.olehpetrov.backend.services.SolarPanelService;
 import com.olehpetrov.backend.services.UserDetailsServiceImpl;
 import com.olehpetrov.backend.services.UserService;
 import com.olehpetrov.backend.utils.JwtUtils;
@@ -25,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -49,6 +55,9 @@ class ClusterControllerTest {
     @MockBean
     private ClusterService clusterService;
 
+    @MockBean
+    private SolarPanelService panelService;
+
     @MockBean
     private InverterService inverterService;
 
@@ -124,14 +133,14 @@ class ClusterControllerTest {
     @Test
     void getClustersByUserReturnsUserClusters() throws Exception {
         User user = buildUser();
-        Cluster cluster = new Cluster();
+        ClusterView cluster = new ClusterView();
         cluster.setId("cluster-id");
         cluster.setUserId("user-id");
         cluster.setName("Cluster");
 
         when(jwtUtils.extractUsername("token")).thenReturn("user");
         when(userService.findByUsername("user")).thenReturn(user);
-        when(clusterService.getClustersByUserId("user-id")).thenReturn(List.of(cluster));
+        when(clusterService.getClusterViewsByUserId("user-id")).thenReturn(List.of(cluster));
 
         mockMvc.perform(get("/api/cluster/user")
                         .header("Authorization", "Bearer token"))
@@ -154,17 +163,38 @@ class ClusterControllerTest {
                 .andExpect(jsonPath("$.content[0].name").value("Cluster"));
     }
 
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void getAllClustersWithCursorReturnsSliceAndNextCursor() throws Exception {
+        when(clusterService.findAfter("", 10)).thenReturn(new CursorPage<>(List.of(new ClusterResponse("Cluster", "cluster-id")), "next"));
+
+        mockMvc.perform(get("/api/cluster/all").param("cursor", ""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].name").value("Cluster"))
+                .andExpect(jsonPath("$.content[0].id").value("cluster-id"))
+                .andExpect(jsonPath("$.nextCursor").value("next"));
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void getAllClustersWithInvalidCursorReturnsBadRequest() throws Exception {
+        when(clusterService.findAfter("garbage", 10)).thenThrow(new IllegalArgumentException("Invalid cursor."));
+
+        mockMvc.perform(get("/api/cluster/all").param("cursor", "garbage"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getClusterByIdReturnsClusterForOwner() throws Exception {
         User user = buildUser();
-        Cluster cluster = new Cluster();
+        ClusterView cluster = new ClusterView();
         cluster.setId("cluster-id");
         cluster.setUserId("user-id");
         cluster.setName("Cluster");
 
         when(jwtUtils.extractUsername("token")).thenReturn("user");
         when(userService.findByUsername("user")).thenReturn(user);
-        when(clusterService.getClusterById("cluster-id")).thenReturn(cluster);
+        when(clusterService.getClusterViewById("cluster-id")).thenReturn(cluster);
 
         mockMvc.perform(get("/api/cluster/cluster-id")
                         .header("Authorization", "Bearer token"))
@@ -175,13 +205,13 @@ class ClusterControllerTest {
     @Test
     void getClusterByIdReturnsForbiddenForDifferentOwner() throws Exception {
         User user = buildUser();
-        Cluster cluster = new Cluster();
+        ClusterView cluster = new ClusterView();
         cluster.setId("cluster-id");
         cluster.setUserId("other-user");
 
         when(jwtUtils.extractUsername("token")).thenReturn("user");
         when(userService.findByUsername("user")).thenReturn(user);
-        when(clusterService.getClusterById("cluster-id")).thenReturn(cluster);
+        when(clusterService.getClusterViewById("cluster-id")).thenReturn(cluster);
 
         mockMvc.perform(get("/api/cluster/cluster-id")
                         .header("Authorization", "Bearer token"))
@@ -224,5 +254,70 @@ class ClusterControllerTest {
                         .header("Authorization", "Bearer token"))
                 .andExpect(status().isOk());
     }
-}
 
+    @Test
+    void deleteClusterRejectsUnknownPanelsMode() throws Exception {
+        mockMvc.perform(delete("/api/cluster/cluster-id")
+                        .header("Authorization", "Bearer token")
+                        .param("panels", "remove"))
+                .andExpect(status().isBadRequest());
+
+        verify(clusterService, never()).deleteCluster(anyString(), anyBoolean());
+    }
+
+    @Test
+    void deleteClusterDeletesMemberPanelsWhenRequested() throws Exception {
+        User user = buildUser();
+        Cluster cluster = new Cluster();
+        cluster.setId("cluster-id");
+        cluster.setUserId("user-id");
+
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+        when(clusterService.getClusterById("cluster-id")).thenReturn(cluster);
+
+        mockMvc.perform(delete("/api/cluster/cluster-id")
+                        .param("panels", "delete")
+                        .header("Authorization", "Bearer token"))
+                .andExpect(status().isOk());
+
+        verify(clusterService).deleteCluster("cluster-id", true);
+    }
+
+    @Test
+    void assignPanelsUpdatesAllPanelsInOneCall() throws Exception {
+        User user = buildUser();
+        List<String> panelIds = List.of("panel-1", "panel-2", "panel-3");
+
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+        when(clusterService.getClusterOwnerId("cluster-id")).thenReturn("user-id");
+        when(panelService.assignToCluster(panelIds, "cluster-id", "user-id"))
+                .thenReturn(UpdateResult.acknowledged(3, 2L, null));
+
+        mockMvc.perform(post("/api/cluster/cluster-id/panels")
+                        .header("Authorization", "Bearer token")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("panelIds", panelIds))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.matched").value(3))
+                .andExpect(jsonPath("$.modified").value(2));
+    }
+
+    @Test
+    void assignPanelsReturnsForbiddenForDifferentOwner() throws Exception {
+        User user = buildUser();
+
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+        when(clusterService.getClusterOwnerId("cluster-id")).thenReturn("other-user");
+
+        mockMvc.perform(post("/api/cluster/cluster-id/panels")
+                        .header("Authorization", "Bearer token")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(Map.of("panelIds", List.of("panel-1")))))
+                .andExpect(status().isForbidden());
+
+        verify(panelService, never()).assignToCluster(any(), anyString(), anyString());
+    }
+}
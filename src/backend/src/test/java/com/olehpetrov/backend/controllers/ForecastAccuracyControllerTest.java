@@ -0,0 +1,96 @@
+package com.olehpetrov.backend.controllers;
+
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.responses.ForecastAccuracyResponse;
+import com.olehpetrov.backend.services.ClusterService;
+import com.olehpetrov.backend.services.ForecastAccuracyService;
+import com.olehpetrov.backend.services.UserDetailsServiceImpl;
+import com.olehpetrov.backend.services.UserService;
+import com.olehpetrov.backend.utils.JwtUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(ForecastAccuracyController.class)
+@AutoConfigureMockMvc(addFilters = false)
+class ForecastAccuracyControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ClusterService clusterService;
+
+    @MockBean
+    private UserService userService;
+
+    @MockBean
+    private JwtUtils jwtUtils;
+
+    @MockBean
+    private UserDetailsServiceImpl userDetailsService;
+
+    @MockBean
+    private ForecastAccuracyService accuracyService;
+
+    private User buildUser() {
+        User user = new User();
+        user.setId("user-id");
+        user.setUsername("user");
+        user.setRole(Role.ROLE_USER);
+        return user;
+    }
+
+    @Test
+    void getAccuracyReturnsPerHorizonMetricsForOwner() throws Exception {
+        User user = buildUser();
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+        when(clusterService.getClusterOwnerId("cluster-id")).thenReturn(user.getId());
+
+        ForecastAccuracyResponse nextDay = new ForecastAccuracyResponse();
+        nextDay.setHorizon(1);
+        nextDay.setSamples(30);
+        nextDay.setMae(1.5);
+        nextDay.setMape(12.0);
+        nextDay.setBias(-0.25);
+        when(accuracyService.getAccuracy("cluster-id")).thenReturn(List.of(nextDay));
+
+        mockMvc.perform(get("/api/forecast/accuracy")
+                        .header("Authorization", "Bearer token")
+                        .param("clusterId", "cluster-id"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].horizon").value(1))
+                .andExpect(jsonPath("$[0].mae").value(1.5))
+                .andExpect(jsonPath("$[0].bias").value(-0.25));
+    }
+
+    @Test
+    void getAccuracyReturnsForbiddenForDifferentOwner() throws Exception {
+        User user = buildUser();
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+        when(clusterService.getClusterOwnerId("cluster-id")).thenReturn("other-user");
+
+        mockMvc.perform(get("/api/forecast/accuracy")
+                        .header("Authorization", "Bearer token")
+                        .param("clusterId", "cluster-id"))
+                .andExpect(status().isForbidden());
+
+        verify(accuracyService, never()).getAccuracy(anyString());
+    }
+}
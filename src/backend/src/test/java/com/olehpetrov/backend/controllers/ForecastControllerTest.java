@@ -7,6 +7,10 @@ import com.olehpetrov.backend.models.Panel;
 import com.olehpetrov.backend.models.Role;
 import com.olehpetrov.backend.models.User;
 import com.olehpetrov.backend.services.ClusterService;
+import com.olehpetrov.backend.services.ForecastAccuracyService;
+import com.olehpetrov.backend.services.ForecastRateLimiter;
+import com.olehpetrov.backend.services.ForecastUnavailableException;
+import com.olehpetrov.backend.services.HourlyForecastService;
 import com.olehpetrov.backend.services.InverterService;
 import com.olehpetrov.backend.services.SolarPanelService;
 import com.olehpetrov.backend.services.UserDetailsServiceImpl;
@@ -17,21 +21,29 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.test.web.servlet.MockMvc;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.client.ResourceAccessException;
 
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.util.List;
+import java.util.Map;
 
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(ForecastController.class)
@@ -57,11 +69,17 @@ class ForecastControllerTest {
     private JwtUtils jwtUtils;
 
     @MockBean
-    private RestTemplate restTemplate;
+    private HourlyForecastService hourlyForecastService;
 
     @MockBean
     private UserDetailsServiceImpl userDetailsService;
 
+    @MockBean
+    private ForecastRateLimiter rateLimiter;
+
+    @MockBean
+    private ForecastAccuracyService accuracyService;
+
     private User buildUser() {
         User user = new User();
         user.setId("user-id");
@@ -91,12 +109,13 @@ class ForecastControllerTest {
         when(jwtUtils.extractUsername("token")).thenReturn("user");
         when(userService.findByUsername("user")).thenReturn(user);
         when(panelService.getPanelById("panel-id")).thenReturn(panel);
-        when(restTemplate.exchange(eq("http://localhost:8000/forecast"), eq(HttpMethod.POST), any(HttpEntity.class), eq(String.class)))
-                .thenReturn(ResponseEntity.ok("[{\"datetime\":\"2024-01-01T00:00:00\",\"power_kw\":1.5}]"));
 
         LocalDate today = LocalDate.now();
         String from = today.toString() + " 00:00:00";
         String to = today.plusDays(1).toString() + " 00:00:00";
+        String noon = today + "T12:00:00Z";
+        when(hourlyForecastService.hourly(50.0, 30.0, today, today.plusDays(1), ZoneOffset.UTC))
+                .thenReturn(new HourlyForecastService.HourlySeries(List.of(new HourlyForecastService.HourlyPoint(Instant.parse(noon), 1500.0)), null));
 
         mockMvc.perform(post("/api/forecast/getForecast")
                         .header("Authorization", "Bearer token")
@@ -105,7 +124,8 @@ class ForecastControllerTest {
                         .param("to", to)
                         .param("type", "panel"))
                 .andExpect(status().isOk())
-                .andExpect(content().json("[{\"datetime\":\"2024-01-01T00:00:00\",\"power_kw\":1.5}]"));
+                .andExpect(content().json("[{\"time\":\"" + noon + "\",\"pred_W_per_kWp\":1500.0}]"))
+                .andExpect(jsonPath("$[0].pred_kW", closeTo(0.12, 1e-9)));
     }
 
     @Test
@@ -139,19 +159,10 @@ class ForecastControllerTest {
         LocalDate today = LocalDate.now();
         LocalDate tomorrow = today.plusDays(1);
 
-        double capacity = panel.getPowerRating() / 1000.0 * (panel.getEfficiency() / 100.0);
-        String expectedUrl = String.format(
-                "http://localhost:8000/daily_forecast?lat=%.6f&lon=%.6f&start=%s&end=%s&kwp=%.3f",
-                panel.getLocation().getLat(),
-                panel.getLocation().getLon(),
-                today,
-                tomorrow,
-                capacity
-        );
-
-        String forecastResponse = "[{\"date\":\"" + today + "\",\"pred_kWh\":5.0}]";
-        when(restTemplate.exchange(eq(expectedUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
-                .thenReturn(ResponseEntity.ok(forecastResponse));
+        // 0.08 kWp, two hours at 500 W/kWp: 0.08 kWh, doubled like the model service's daily endpoint
+        when(hourlyForecastService.hourly(50.0, 30.0, today, tomorrow, ZoneOffset.UTC)).thenReturn(new HourlyForecastService.HourlySeries(List.of(
+                new HourlyForecastService.HourlyPoint(Instant.parse(today + "T10:00:00Z"), 500.0),
+                new HourlyForecastService.HourlyPoint(Instant.parse(today + "T11:00:00Z"), 500.0)), null));
 
         mockMvc.perform(get("/api/forecast/getTotal")
                         .header("Authorization", "Bearer token")
@@ -160,7 +171,7 @@ class ForecastControllerTest {
                         .param("to", tomorrow + " 00:00:00")
                         .param("type", "panel"))
                 .andExpect(status().isOk())
-                .andExpect(content().json("[{\"date\":\"" + today + "\",\"totalEnergy_kwh\":5.0}]"));
+                .andExpect(content().json("[{\"date\":\"" + today + "\",\"totalEnergy_kwh\":0.16}]"));
     }
 
     @Test
@@ -188,19 +199,9 @@ class ForecastControllerTest {
         LocalDate today = LocalDate.now();
         LocalDate tomorrow = today.plusDays(1);
 
-        double expectedCapacity = 10.0 * (inverter.getEfficiency() / 100.0);
-        String expectedUrl = String.format(
-                "http://localhost:8000/daily_forecast?lat=%.6f&lon=%.6f&start=%s&end=%s&kwp=%.3f",
-                panel.getLocation().getLat(),
-                panel.getLocation().getLon(),
-                today,
-                tomorrow,
-                expectedCapacity
-        );
-
-        String forecastResponse = "[{\"date\":\"" + today + "\",\"pred_kWh\":8.0}]";
-        when(restTemplate.exchange(eq(expectedUrl), eq(HttpMethod.GET), any(HttpEntity.class), eq(String.class)))
-                .thenReturn(ResponseEntity.ok(forecastResponse));
+        // 9 kWp after the inverter, one hour at 400 W/kWp: 3.6 kWh, doubled
+        when(hourlyForecastService.hourly(50.0, 30.0, today, tomorrow, ZoneOffset.UTC)).thenReturn(new HourlyForecastService.HourlySeries(List.of(
+                new HourlyForecastService.HourlyPoint(Instant.parse(today + "T12:00:00Z"), 400.0)), null));
 
         mockMvc.perform(get("/api/forecast/getTotal")
                         .header("Authorization", "Bearer token")
@@ -209,7 +210,147 @@ class ForecastControllerTest {
                         .param("to", tomorrow + " 00:00:00")
                         .param("type", "cluster"))
                 .andExpect(status().isOk())
-                .andExpect(content().json("[{\"date\":\"" + today + "\",\"totalEnergy_kwh\":8.0}]"));
+                .andExpect(content().json("[{\"date\":\"" + today + "\",\"totalEnergy_kwh\":7.2}]"));
+        verify(accuracyService).recordForecastAsync("cluster-id", LocalDate.now(ZoneOffset.UTC), Map.of(today, 7.2));
     }
-}
 
+    @Test
+    void getForecastReturnsTooManyRequestsWhenUserIsThrottled() throws Exception {
+        User user = buildUser();
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+        when(rateLimiter.tryAcquire(user, ForecastRateLimiter.Tier.CHEAP)).thenReturn(7L);
+
+        LocalDate today = LocalDate.now();
+
+        mockMvc.perform(post("/api/forecast/getForecast")
+                        .header("Authorization", "Bearer token")
+                        .param("panelId", "panel-id")
+                        .param("from", today + " 00:00:00")
+                        .param("to", today.plusDays(1) + " 00:00:00")
+                        .param("type", "panel"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "7"));
+
+        verify(panelService, never()).getPanelById(anyString());
+    }
+
+    @Test
+    void getTotalGroupsHoursByLocalDayOfTheRequestedZone() throws Exception {
+        User user = buildUser();
+        Panel panel = buildPanel();
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+        when(panelService.getPanelById("panel-id")).thenReturn(panel);
+
+        LocalDate today = LocalDate.now();
+        LocalDate tomorrow = today.plusDays(1);
+        ZoneId riga = ZoneId.of("Europe/Riga");
+        // 22:30 UTC on today is already tomorrow in Riga
+        when(hourlyForecastService.hourly(50.0, 30.0, today, tomorrow, riga)).thenReturn(new HourlyForecastService.HourlySeries(List.of(
+                new HourlyForecastService.HourlyPoint(Instant.parse(today + "T09:00:00Z"), 500.0),
+                new HourlyForecastService.HourlyPoint(Instant.parse(today + "T22:30:00Z"), 500.0)), null));
+
+        mockMvc.perform(get("/api/forecast/getTotal")
+                        .header("Authorization", "Bearer token")
+                        .param("panelId", "panel-id")
+                        .param("from", today + " 00:00:00")
+                        .param("to", tomorrow + " 00:00:00")
+                        .param("type", "panel")
+                        .param("timezone", "Europe/Riga"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"date\":\"" + today + "\",\"totalEnergy_kwh\":0.08},"
+                        + "{\"date\":\"" + tomorrow + "\",\"totalEnergy_kwh\":0.08}]", true));
+    }
+
+    @Test
+    void accuracyTrackingKeysTotalsByUtcDayWhateverTheResponseZone() {
+        LocalDate day = LocalDate.of(2024, 6, 10);
+        ZoneId riga = ZoneId.of("Europe/Riga");
+        // Riga days 10..11 June run from 21:00 UTC on the 9th to 21:00 UTC on the 11th
+        List<HourlyForecastService.HourlyPoint> points = List.of(
+                new HourlyForecastService.HourlyPoint(Instant.parse("2024-06-09T22:00:00Z"), 100.0),
+                new HourlyForecastService.HourlyPoint(Instant.parse("2024-06-10T10:00:00Z"), 500.0),
+                new HourlyForecastService.HourlyPoint(Instant.parse("2024-06-10T22:00:00Z"), 500.0),
+                new HourlyForecastService.HourlyPoint(Instant.parse("2024-06-11T10:00:00Z"), 100.0));
+
+        // Only 10 June is a whole UTC day of the range, with both of its hours
+        assertEquals(Map.of(day, 4.0), ForecastController.utcDailyKwh(points, 2.0, day, day.plusDays(1), riga));
+        assertEquals(Map.of(day, 4.0, day.plusDays(1), 0.4, day.minusDays(1), 0.4),
+                ForecastController.utcDailyKwh(points, 2.0, day.minusDays(1), day.plusDays(1), ZoneOffset.UTC));
+    }
+
+    @Test
+    void getTotalRejectsUnknownTimezone() throws Exception {
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(buildUser());
+        LocalDate today = LocalDate.now();
+
+        mockMvc.perform(get("/api/forecast/getTotal")
+                        .header("Authorization", "Bearer token")
+                        .param("panelId", "panel-id")
+                        .param("from", today + " 00:00:00")
+                        .param("to", today.plusDays(1) + " 00:00:00")
+                        .param("type", "panel")
+                        .param("timezone", "Mars/Olympus"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void getForecastReturnsBadGatewayWhenForecastServiceIsDown() throws Exception {
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(buildUser());
+        when(panelService.getPanelById("panel-id")).thenReturn(buildPanel());
+        when(hourlyForecastService.hourly(anyDouble(), anyDouble(), any(), any(), any()))
+                .thenThrow(new ResourceAccessException("Connection refused"));
+        LocalDate today = LocalDate.now();
+
+        mockMvc.perform(post("/api/forecast/getForecast")
+                        .header("Authorization", "Bearer token")
+                        .param("panelId", "panel-id")
+                        .param("from", today + " 00:00:00")
+                        .param("to", today.plusDays(1) + " 00:00:00")
+                        .param("type", "panel"))
+                .andExpect(status().isBadGateway());
+    }
+
+    @Test
+    void getForecastReturnsServiceUnavailableWhileCircuitIsOpen() throws Exception {
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(buildUser());
+        when(panelService.getPanelById("panel-id")).thenReturn(buildPanel());
+        when(hourlyForecastService.hourly(anyDouble(), anyDouble(), any(), any(), any()))
+                .thenThrow(new ForecastUnavailableException(12));
+        LocalDate today = LocalDate.now();
+
+        mockMvc.perform(post("/api/forecast/getForecast")
+                        .header("Authorization", "Bearer token")
+                        .param("panelId", "panel-id")
+                        .param("from", today + " 00:00:00")
+                        .param("to", today.plusDays(1) + " 00:00:00")
+                        .param("type", "panel"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "12"));
+    }
+
+    @Test
+    void getForecastMarksStaleSeries() throws Exception {
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(buildUser());
+        when(panelService.getPanelById("panel-id")).thenReturn(buildPanel());
+        LocalDate today = LocalDate.now();
+        Instant fetchedAt = Instant.parse(today + "T06:00:00Z");
+        when(hourlyForecastService.hourly(anyDouble(), anyDouble(), any(), any(), any()))
+                .thenReturn(new HourlyForecastService.HourlySeries(List.of(
+                        new HourlyForecastService.HourlyPoint(Instant.parse(today + "T12:00:00Z"), 500.0)), fetchedAt));
+
+        mockMvc.perform(post("/api/forecast/getForecast")
+                        .header("Authorization", "Bearer token")
+                        .param("panelId", "panel-id")
+                        .param("from", today + " 00:00:00")
+                        .param("to", today.plusDays(1) + " 00:00:00")
+                        .param("type", "panel"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Forecast-Stale-Since", fetchedAt.toString()));
+    }
+}
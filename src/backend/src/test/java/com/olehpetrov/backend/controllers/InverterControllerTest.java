@@ -5,6 +5,7 @@ import com.olehpetrov.backend.models.Inverter;
 import com.olehpetrov.backend.models.Role;
 import com.olehpetrov.backend.models.User;
 import com.olehpetrov.backend.repositories.InverterRepository;
+import com.olehpetrov.backend.responses.CursorPage;
 import com.olehpetrov.backend.services.InverterService;
 import com.olehpetrov.backend.services.UserDetailsServiceImpl;
 import com.olehpetrov.backend.services.UserService;
@@ -91,6 +92,28 @@ class InverterControllerTest {
                 .andExpect(jsonPath("$.content[0].name").value("Inverter"));
     }
 
+    @Test
+    void getAllInvertersWithCursorReturnsSliceAndNextCursor() throws Exception {
+        Inverter inverter = new Inverter();
+        inverter.setId("inv-1");
+        inverter.setName("Inverter");
+
+        when(inverterService.findAfter("", 15)).thenReturn(new CursorPage<>(List.of(inverter), "next"));
+
+        mockMvc.perform(get("/api/inverter/all").param("cursor", ""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].name").value("Inverter"))
+                .andExpect(jsonPath("$.nextCursor").value("next"));
+    }
+
+    @Test
+    void getAllInvertersWithInvalidCursorReturnsBadRequest() throws Exception {
+        when(inverterService.findAfter("garbage", 15)).thenThrow(new IllegalArgumentException("Invalid cursor."));
+
+        mockMvc.perform(get("/api/inverter/all").param("cursor", "garbage"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @WithMockUser(roles = "ADMIN")
     void addInverterReturnsOkForAdmin() throws Exception {
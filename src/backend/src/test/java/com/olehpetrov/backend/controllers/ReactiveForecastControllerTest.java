@@ -0,0 +1,127 @@
+package com.olehpetrov.backend.controllers;
+
+import com.mongodb.DBRef;
+import com.olehpetrov.backend.models.Location;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.repositories.ReactiveReferenceLoader;
+import com.olehpetrov.backend.services.ForecastAccuracyService;
+import com.olehpetrov.backend.services.ForecastRateLimiter;
+import com.olehpetrov.backend.services.HourlyForecastService;
+import com.olehpetrov.backend.services.UserDetailsServiceImpl;
+import com.olehpetrov.backend.utils.JwtUtils;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(controllers = ReactiveForecastController.class, properties = "forecast.reactive.enabled=true")
+@AutoConfigureMockMvc(addFilters = false)
+class ReactiveForecastControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private ReactiveReferenceLoader referenceLoader;
+
+    @MockBean
+    private JwtUtils jwtUtils;
+
+    @MockBean
+    private UserDetailsServiceImpl userDetailsService;
+
+    @MockBean
+    private ForecastRateLimiter rateLimiter;
+
+    @MockBean
+    private ForecastAccuracyService accuracyService;
+
+    @MockBean
+    private HourlyForecastService hourlyForecastService;
+
+    @BeforeEach
+    void stubLookups() {
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(referenceLoader.findOne(eq(User.class), any(), any(String[].class)))
+                .thenReturn(Mono.just(new Document("_id", "user-id").append("role", "ROLE_USER")));
+        when(referenceLoader.findOne(eq(Location.class), any(), any(String[].class)))
+                .thenReturn(Mono.just(new Document("lat", 50.0).append("lon", 30.0)));
+    }
+
+    private static Document panel(String userId) {
+        return new Document("_id", "panel-id")
+                .append("userId", userId)
+                .append("powerRating", 400)
+                .append("efficiency", 20)
+                .append("location", new DBRef("location", "location-id"));
+    }
+
+    @Test
+    void getTotalReturnsDailyForecastForPanel() throws Exception {
+        when(referenceLoader.findOne(eq(Panel.class), any(), any(String[].class))).thenReturn(Mono.just(panel("user-id")));
+        LocalDate today = LocalDate.now();
+        LocalDate tomorrow = today.plusDays(1);
+        // 0.08 kWp at 500 W/kWp: 0.04 kWh per hour, doubled like the model service's daily endpoint
+        when(hourlyForecastService.hourlyAsync(50.0, 30.0, today, tomorrow, ZoneOffset.UTC)).thenReturn(Mono.just(new HourlyForecastService.HourlySeries(List.of(
+                new HourlyForecastService.HourlyPoint(Instant.parse(tomorrow + "T12:00:00Z"), 500.0),
+                new HourlyForecastService.HourlyPoint(Instant.parse(today + "T11:00:00Z"), 500.0),
+                new HourlyForecastService.HourlyPoint(Instant.parse(today + "T12:00:00Z"), 500.0)), null)));
+
+        MvcResult result = mockMvc.perform(get("/api/forecast/getTotal")
+                        .header("Authorization", "Bearer token")
+                        .param("panelId", "panel-id")
+                        .param("from", today + " 00:00:00")
+                        .param("to", tomorrow + " 00:00:00")
+                        .param("type", "panel"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().json("[{\"date\":\"" + today + "\",\"totalEnergy_kwh\":0.16},"
+                        + "{\"date\":\"" + tomorrow + "\",\"totalEnergy_kwh\":0.08}]", true));
+    }
+
+    @Test
+    void getTotalReturnsForbiddenForPanelOfAnotherUser() throws Exception {
+        when(referenceLoader.findOne(eq(Panel.class), any(), any(String[].class))).thenReturn(Mono.just(panel("other-user")));
+        LocalDate today = LocalDate.now();
+
+        MvcResult result = mockMvc.perform(get("/api/forecast/getTotal")
+                        .header("Authorization", "Bearer token")
+                        .param("panelId", "panel-id")
+                        .param("from", today + " 00:00:00")
+                        .param("to", today.plusDays(1) + " 00:00:00")
+                        .param("type", "panel"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isForbidden());
+        verify(hourlyForecastService, never()).hourlyAsync(anyDouble(), anyDouble(), any(), any(), any());
+    }
+}
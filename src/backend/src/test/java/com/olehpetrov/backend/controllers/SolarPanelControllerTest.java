@@ -4,8 +4,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.olehpetrov.backend.models.Panel;
 import com.olehpetrov.backend.models.Role;
 import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.CursorPage;
+import com.olehpetrov.backend.responses.ImportResult;
+import com.olehpetrov.backend.responses.PanelView;
 import com.olehpetrov.backend.services.ClusterService;
 import com.olehpetrov.backend.services.LocationService;
+import com.olehpetrov.backend.services.PanelImportService;
 import com.olehpetrov.backend.services.SolarPanelService;
 import com.olehpetrov.backend.services.UserDetailsServiceImpl;
 import com.olehpetrov.backend.services.UserService;
@@ -25,6 +30,8 @@ import java.util.List;
 import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -52,6 +59,9 @@ class SolarPanelControllerTest {
     @MockBean
     private ClusterService clusterService;
 
+    @MockBean
+    private PanelImportService panelImportService;
+
     @MockBean
     private UserService userService;
 
@@ -69,6 +79,31 @@ class SolarPanelControllerTest {
         return user;
     }
 
+    @Test
+    void importPanelsReturnsPerRowResult() throws Exception {
+        User user = buildUser();
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+
+        ImportResult result = new ImportResult();
+        result.setImported(1);
+        result.setFailed(1);
+        result.getErrors().add(new ImportResult.RowError(2, "powerRating must be a whole number."));
+        when(panelImportService.importCsv(eq(user), any(), eq(false), isNull())).thenReturn(result);
+
+        String csv = "name,powerRating,efficiency,quantity,lat,lon,city,district,country\n"
+                + "Roof,400,20,10,54.68,25.27,Vilnius,Vilnius,Lithuania\n"
+                + "Shed,abc,20,2,54.68,25.27,Vilnius,Vilnius,Lithuania\n";
+
+        mockMvc.perform(post("/api/panel/import")
+                        .header("Authorization", "Bearer token")
+                        .contentType("text/csv")
+                        .content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(1))
+                .andExpect(jsonPath("$.errors[0].row").value(2));
+    }
+
     @Test
     void addPanelReturnsOkForValidRequest() throws Exception {
         User user = buildUser();
@@ -100,18 +135,20 @@ class SolarPanelControllerTest {
     @Test
     void getPanelsByUserReturnsPanels() throws Exception {
         User user = buildUser();
-        Panel panel = new Panel();
+        PanelView panel = new PanelView();
         panel.setId("panel-id");
         panel.setUserId("user-id");
+        panel.setCluster(new ClusterResponse("Cluster", "cluster-id"));
 
         when(jwtUtils.extractUsername("token")).thenReturn("user");
         when(userService.findByUsername("user")).thenReturn(user);
-        when(panelService.getPanelsByUserId("user-id")).thenReturn(List.of(panel));
+        when(panelService.getPanelViewsByUserId("user-id")).thenReturn(List.of(panel));
 
         mockMvc.perform(get("/api/panel/user")
                         .header("Authorization", "Bearer token"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$[0].id").value("panel-id"));
+                .andExpect(jsonPath("$[0].id").value("panel-id"))
+                .andExpect(jsonPath("$[0].cluster.name").value("Cluster"));
     }
 
     @Test
@@ -129,16 +166,37 @@ class SolarPanelControllerTest {
                 .andExpect(jsonPath("$.content[0].name").value("Panel"));
     }
 
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void getAllPanelsWithCursorReturnsSliceAndNextCursor() throws Exception {
+        when(panelService.findAfter("", 10)).thenReturn(new CursorPage<>(List.of(new ClusterResponse("Panel", "panel-id")), "next"));
+
+        mockMvc.perform(get("/api/panel/all").param("cursor", ""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].name").value("Panel"))
+                .andExpect(jsonPath("$.content[0].id").value("panel-id"))
+                .andExpect(jsonPath("$.nextCursor").value("next"));
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void getAllPanelsWithInvalidCursorReturnsBadRequest() throws Exception {
+        when(panelService.findAfter("garbage", 10)).thenThrow(new IllegalArgumentException("Invalid cursor."));
+
+        mockMvc.perform(get("/api/panel/all").param("cursor", "garbage"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void getPanelByIdReturnsPanelForOwner() throws Exception {
         User user = buildUser();
-        Panel panel = new Panel();
+        PanelView panel = new PanelView();
         panel.setId("panel-id");
         panel.setUserId("user-id");
 
         when(jwtUtils.extractUsername("token")).thenReturn("user");
         when(userService.findByUsername("user")).thenReturn(user);
-        when(panelService.getPanelById("panel-id")).thenReturn(panel);
+        when(panelService.getPanelViewById("panel-id")).thenReturn(panel);
 
         mockMvc.perform(get("/api/panel/panel-id")
                         .header("Authorization", "Bearer token"))
@@ -0,0 +1,145 @@
+package com.olehpetrov.backend.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.responses.IngestResult;
+import com.olehpetrov.backend.services.TelemetryIngestService;
+import com.olehpetrov.backend.services.UserDetailsServiceImpl;
+import com.olehpetrov.backend.services.UserService;
+import com.olehpetrov.backend.utils.JwtUtils;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(TelemetryController.class)
+@AutoConfigureMockMvc(addFilters = false)
+class TelemetryControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @MockBean
+    private TelemetryIngestService telemetryIngestService;
+
+    @MockBean
+    private UserService userService;
+
+    @MockBean
+    private JwtUtils jwtUtils;
+
+    @MockBean
+    private UserDetailsServiceImpl userDetailsService;
+
+    private User buildUser() {
+        User user = new User();
+        user.setId("user-id");
+        user.setUsername("user");
+        user.setRole(Role.ROLE_USER);
+        when(jwtUtils.extractUsername("token")).thenReturn("user");
+        when(userService.findByUsername("user")).thenReturn(user);
+        when(telemetryIngestService.maxBatchSize()).thenReturn(1000);
+        return user;
+    }
+
+    @Test
+    void ingestJsonReturnsAccepted() throws Exception {
+        User user = buildUser();
+        when(telemetryIngestService.ingest(eq(user), anyList())).thenReturn(new IngestResult(1, 0, false));
+
+        List<Map<String, Object>> readings = List.of(Map.of(
+                "clusterId", "cluster-id", "timestamp", 1718000000000L, "powerW", 3200.0, "energyWh", 53.3));
+
+        mockMvc.perform(post("/api/telemetry")
+                        .header("Authorization", "Bearer token")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(readings)))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.accepted").value(1));
+    }
+
+    @Test
+    void ingestReturnsServiceUnavailableWhenQueueIsFull() throws Exception {
+        User user = buildUser();
+        when(telemetryIngestService.ingest(eq(user), anyList())).thenReturn(new IngestResult(0, 0, true));
+
+        mockMvc.perform(post("/api/telemetry")
+                        .header("Authorization", "Bearer token")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"clusterId\": \"cluster-id\", \"timestamp\": 1718000000000, \"powerW\": 1, \"energyWh\": 1}]"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+    }
+
+    @Test
+    void ingestRejectsBatchThatCanNeverFitTheQueue() throws Exception {
+        buildUser();
+        when(telemetryIngestService.maxBatchSize()).thenReturn(1);
+        String reading = "{\"clusterId\": \"cluster-id\", \"timestamp\": 1718000000000, \"powerW\": 1, \"energyWh\": 1}";
+
+        mockMvc.perform(post("/api/telemetry")
+                        .header("Authorization", "Bearer token")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[" + reading + "," + reading + "]"))
+                .andExpect(status().isPayloadTooLarge());
+        verify(telemetryIngestService, never()).ingest(any(), anyList());
+    }
+
+    @Test
+    void ingestBinaryDecodesRecords() throws Exception {
+        User user = buildUser();
+        ObjectId clusterId = new ObjectId();
+        ByteBuffer body = ByteBuffer.allocate(TelemetryIngestService.BINARY_RECORD_SIZE)
+                .put(clusterId.toByteArray())
+                .putLong(1718000000000L)
+                .putFloat(3200f)
+                .putFloat(53.5f);
+
+        when(telemetryIngestService.ingest(eq(user), argThat(readings -> readings.size() == 1
+                && readings.get(0).getClusterId().equals(clusterId.toHexString())
+                && readings.get(0).getEnergyWh() == 53.5)))
+                .thenReturn(new IngestResult(1, 0, false));
+
+        mockMvc.perform(post("/api/telemetry")
+                        .header("Authorization", "Bearer token")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(body.array()))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.accepted").value(1));
+    }
+
+    @Test
+    void ingestBinaryRejectsTruncatedBody() throws Exception {
+        buildUser();
+
+        mockMvc.perform(post("/api/telemetry")
+                        .header("Authorization", "Bearer token")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(new byte[TelemetryIngestService.BINARY_RECORD_SIZE - 1]))
+                .andExpect(status().isBadRequest());
+    }
+}
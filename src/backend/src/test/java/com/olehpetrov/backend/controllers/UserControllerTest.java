@@ -4,6 +4,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.olehpetrov.backend.models.Location;
 import com.olehpetrov.backend.models.Role;
 import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.requests.LocationRequest;
+import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.CursorPage;
 import com.olehpetrov.backend.services.LocationService;
 import com.olehpetrov.backend.services.UserDetailsServiceImpl;
 import com.olehpetrov.backend.services.UserService;
@@ -81,7 +84,7 @@ class UserControllerTest {
         when(jwtUtils.extractUsername("token")).thenReturn("user");
         when(userService.findByUsername("user")).thenReturn(user);
         when(userService.existsByEmail("new@example.com")).thenReturn(false);
-        when(locationService.register(any(Location.class))).thenReturn(location);
+        when(locationService.intern(any(LocationRequest.class))).thenReturn(location);
         when(userService.register(any(User.class))).thenReturn(user);
 
         Map<String, Object> request = Map.of(
@@ -111,7 +114,7 @@ class UserControllerTest {
 
         when(userService.getById("user-id")).thenReturn(user);
         when(userService.existsByEmail("admin@example.com")).thenReturn(false);
-        when(locationService.register(any(Location.class))).thenReturn(location);
+        when(locationService.intern(any(LocationRequest.class))).thenReturn(location);
         when(userService.register(any(User.class))).thenReturn(user);
 
         Map<String, Object> request = Map.of(
@@ -142,6 +145,7 @@ class UserControllerTest {
 
         when(jwtUtils.extractUsername("token")).thenReturn("user");
         when(userService.findByUsername("user")).thenReturn(user);
+        when(locationService.intern(any(LocationRequest.class))).thenReturn(location);
         when(userService.setUserLocation(anyString(), any(Location.class))).thenReturn(user);
 
         Map<String, Object> request = Map.of(
@@ -211,6 +215,27 @@ class UserControllerTest {
                 .andExpect(jsonPath("$.content[0].name").value("user"));
     }
 
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void getAllUsersWithCursorReturnsSliceAndNextCursor() throws Exception {
+        when(userService.findAfter("", 100)).thenReturn(new CursorPage<>(List.of(new ClusterResponse("user", "user-id")), "next"));
+
+        mockMvc.perform(get("/api/user/all").param("cursor", ""))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].name").value("user"))
+                .andExpect(jsonPath("$.content[0].id").value("user-id"))
+                .andExpect(jsonPath("$.nextCursor").value("next"));
+    }
+
+    @Test
+    @WithMockUser(roles = "ADMIN")
+    void getAllUsersWithInvalidCursorReturnsBadRequest() throws Exception {
+        when(userService.findAfter("garbage", 100)).thenThrow(new IllegalArgumentException("Invalid cursor."));
+
+        mockMvc.perform(get("/api/user/all").param("cursor", "garbage"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @WithMockUser(roles = "ADMIN")
     void deleteUserReturnsOk() throws Exception {
@@ -0,0 +1,103 @@
+package com.olehpetrov.backend.filters;
+
+import com.olehpetrov.backend.config.StartupSeeding;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SeedingGateFilterTest {
+
+    private final StartupSeeding seeding = mock(StartupSeeding.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SeedingGateFilter filter = new SeedingGateFilter(seeding, meterRegistry, Duration.ofMillis(50));
+
+    @Test
+    void passesThroughOnceSeedingIsComplete() throws Exception {
+        when(seeding.isComplete()).thenReturn(true);
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/panel/list"), new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        verify(seeding, never()).await(any(), any());
+        assertNotNull(meterRegistry.find("application.first.request.time").timeGauge());
+    }
+
+    @Test
+    void inverterRequestsOnlyWaitForTheCatalogue() throws Exception {
+        when(seeding.await(eq(StartupSeeding.Stage.INVERTERS), any())).thenReturn(true);
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/inverter/all"), new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        verify(seeding, never()).await(eq(StartupSeeding.Stage.SAMPLE_DATA), any());
+    }
+
+    @Test
+    void rejectsWithServiceUnavailableWhenSeedingTakesTooLong() throws Exception {
+        when(seeding.await(eq(StartupSeeding.Stage.USERS), any())).thenReturn(false);
+        MockFilterChain chain = new MockFilterChain();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/auth/login"), response, chain);
+
+        assertNull(chain.getRequest());
+        assertEquals(503, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+        assertNull(meterRegistry.find("application.first.request.time").timeGauge());
+    }
+
+    @Test
+    void nonApiRequestsAreNotHeld() throws Exception {
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/actuator/health/readiness"), new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        verify(seeding, never()).isComplete();
+    }
+
+    @Test
+    void stagesShareOneDeadline() throws Exception {
+        when(seeding.await(eq(StartupSeeding.Stage.USERS), any())).thenAnswer(invocation -> {
+            Thread.sleep(40);
+            return true;
+        });
+        when(seeding.await(eq(StartupSeeding.Stage.SAMPLE_DATA), any())).thenReturn(false);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("POST", "/api/auth/login"), response, new MockFilterChain());
+
+        // The second stage only gets what the first one left of the 50 ms
+        ArgumentCaptor<Duration> remaining = ArgumentCaptor.forClass(Duration.class);
+        verify(seeding).await(eq(StartupSeeding.Stage.SAMPLE_DATA), remaining.capture());
+        assertTrue(remaining.getValue().toMillis() <= 10, remaining.getValue().toString());
+        assertEquals(503, response.getStatus());
+    }
+
+    @Test
+    void requestsOnlyWaitForTheStagesTheyRead() {
+        assertEquals(List.of(StartupSeeding.Stage.USERS, StartupSeeding.Stage.SAMPLE_DATA), SeedingGateFilter.requiredStages("/api/auth/login"));
+        assertEquals(List.of(StartupSeeding.Stage.USERS), SeedingGateFilter.requiredStages("/api/user/all"));
+        assertEquals(List.of(StartupSeeding.Stage.SAMPLE_DATA), SeedingGateFilter.requiredStages("/api/panel/list"));
+        assertEquals(List.of(), SeedingGateFilter.requiredStages("/api/telemetry/readings"));
+    }
+}
@@ -0,0 +1,58 @@
+package com.olehpetrov.backend.repositories;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import org.bson.BsonDocument;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records every command the Mongo driver sends, so integration tests can count round-trips
+ * and replay queries through {@code explain}.
+ */
+public class MongoCommandRecorder implements CommandListener {
+
+    // getMore only continues an open cursor, so it is not counted as a query
+    private static final Set<String> QUERY_COMMANDS = Set.of("find", "aggregate", "count", "distinct");
+
+    private final List<BsonDocument> commands = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        commands.add(event.getCommand().clone());
+    }
+
+    public void clear() {
+        commands.clear();
+    }
+
+    public List<BsonDocument> commands() {
+        return List.copyOf(commands);
+    }
+
+    // Commands that query documents, without driver housekeeping such as hello or endSessions
+    public List<BsonDocument> queries() {
+        return commands.stream()
+                .filter(command -> QUERY_COMMANDS.contains(command.getFirstKey()))
+                .toList();
+    }
+
+    @TestConfiguration
+    public static class Config {
+
+        @Bean
+        public MongoCommandRecorder mongoCommandRecorder() {
+            return new MongoCommandRecorder();
+        }
+
+        @Bean
+        public MongoClientSettingsBuilderCustomizer mongoCommandRecorderCustomizer(MongoCommandRecorder recorder) {
+            return builder -> builder.addCommandListener(recorder);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.olehpetrov.backend.repositories;
+
+import com.olehpetrov.backend.config.MongoIndexInitializer;
+import com.olehpetrov.backend.models.Cluster;
+import com.olehpetrov.backend.models.DailyEnergyTotal;
+import com.olehpetrov.backend.models.Inverter;
+import com.olehpetrov.backend.models.Location;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.User;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Replays every repository query through explain and fails on any collection scan
+@DataMongoTest
+@Testcontainers(disabledWithoutDocker = true)
+@Import({MongoIndexInitializer.class, MongoCommandRecorder.Config.class})
+class RepositoryIndexUsageTest {
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MongoCommandRecorder recorder;
+
+    @Autowired
+    private SolarPanelRepository solarPanelRepository;
+
+    @Autowired
+    private ClusterRepository clusterRepository;
+
+    @Autowired
+    private DailyEnergyTotalRepository dailyEnergyTotalRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private InverterRepository inverterRepository;
+
+    @Autowired
+    private LocationRepository locationRepository;
+
+    private Panel panel;
+    private Cluster cluster;
+
+    @BeforeEach
+    void seed() {
+        Location location = new Location();
+        location.setLat(54.6872);
+        location.setLon(25.2797);
+        location.setCity("Vilnius");
+        location = locationRepository.save(location);
+
+        Inverter inverter = new Inverter();
+        inverter.setName("Sample Inverter 5kW");
+        inverter.setEfficiency(95.0);
+        inverter = inverterRepository.save(inverter);
+
+        cluster = new Cluster();
+        cluster.setName("cluster");
+        cluster.setUserId("user-id");
+        cluster.setInverter(inverter);
+        cluster.setLocation(location);
+        cluster = clusterRepository.save(cluster);
+
+        panel = new Panel();
+        panel.setName("panel");
+        panel.setUserId("user-id");
+        panel.setLocation(location);
+        panel.setCluster(cluster);
+        panel = solarPanelRepository.save(panel);
+
+        DailyEnergyTotal total = new DailyEnergyTotal();
+        total.setPanel(panel);
+        total.setDate("2024-01-15");
+        total.setTotalEnergy_kwh(4.2);
+        dailyEnergyTotalRepository.save(total);
+
+        User user = new User();
+        user.setUsername("user-" + new ObjectId());
+        user.setEmail(user.getUsername() + "@example.com");
+        user.setRole(Role.ROLE_USER);
+        userRepository.save(user);
+    }
+
+    @Test
+    void repositoryQueriesAreServedByIndexes() {
+        recorder.clear();
+
+        solarPanelRepository.findByUserId("user-id");
+        solarPanelRepository.findByCluster(new ObjectId(cluster.getId()));
+        clusterRepository.findByUserId("user-id");
+        dailyEnergyTotalRepository.findByPanelAndDate(panel, "2024-01-15");
+        dailyEnergyTotalRepository.findByPanelAndDateBetween(panel, "2024-01-01", "2024-01-31");
+        userRepository.findByUsername("user");
+        userRepository.findByEmail("user@example.com");
+        userRepository.existsByUsername("user");
+        userRepository.existsByEmail("user@example.com");
+        assertTrue(inverterRepository.existsByNameIgnoreCase("SAMPLE INVERTER 5KW"));
+
+        List<BsonDocument> queries = recorder.queries();
+        assertFalse(queries.isEmpty());
+
+        for (BsonDocument query : queries) {
+            Document plan = explain(query);
+            assertFalse(winningPlans(plan).stream().anyMatch(this::containsCollectionScan),
+                    () -> "COLLSCAN for " + query.toJson() + "\n" + plan.toJson());
+        }
+    }
+
+    private Document explain(BsonDocument command) {
+        BsonDocument query = new BsonDocument();
+        command.forEach((key, value) -> {
+            if (!key.startsWith("$") && !key.equals("lsid") && !key.equals("txnNumber")) {
+                query.put(key, value);
+            }
+        });
+        return mongoTemplate.getDb().runCommand(new BsonDocument("explain", query)
+                .append("verbosity", new BsonString("queryPlanner")));
+    }
+
+    // find explains carry queryPlanner at the top, aggregate explains nest it inside the $cursor stage
+    private List<Object> winningPlans(Object node) {
+        List<Object> plans = new ArrayList<>();
+        if (node instanceof Map<?, ?> map) {
+            map.forEach((key, value) -> {
+                if ("winningPlan".equals(key)) {
+                    plans.add(value);
+                } else {
+                    plans.addAll(winningPlans(value));
+                }
+            });
+        } else if (node instanceof List<?> list) {
+            list.forEach(item -> plans.addAll(winningPlans(item)));
+        }
+        return plans;
+    }
+
+    private boolean containsCollectionScan(Object node) {
+        if (node instanceof Map<?, ?> map) {
+            return "COLLSCAN".equals(map.get("stage")) || map.values().stream().anyMatch(this::containsCollectionScan);
+        }
+        if (node instanceof List<?> list) {
+            return list.stream().anyMatch(this::containsCollectionScan);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+package com.olehpetrov.backend.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two bus instances on one standalone Mongo stand in for two backend replicas
+@DataMongoTest
+@Testcontainers(disabledWithoutDocker = true)
+class CacheInvalidationBusTest {
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private CacheInvalidationBus nodeA;
+    private CacheInvalidationBus nodeB;
+
+    @BeforeEach
+    void startNodes() {
+        mongoTemplate.dropCollection(CacheInvalidationBus.COLLECTION);
+        nodeA = new CacheInvalidationBus(mongoTemplate, true, 1024 * 1024);
+        nodeB = new CacheInvalidationBus(mongoTemplate, true, 1024 * 1024);
+        nodeA.start();
+        nodeB.start();
+    }
+
+    @AfterEach
+    void stopNodes() {
+        nodeA.stop();
+        nodeB.stop();
+    }
+
+    @Test
+    void writesOnOneNodeEvictOnTheOther() throws Exception {
+        List<String> evictedOnA = Collections.synchronizedList(new ArrayList<>());
+        List<String> evictedOnB = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch received = new CountDownLatch(3);
+        nodeA.subscribe(CacheInvalidationBus.Topic.CLUSTER, evictedOnA::add);
+        nodeB.subscribe(CacheInvalidationBus.Topic.CLUSTER, key -> {
+            evictedOnB.add(key);
+            received.countDown();
+        });
+
+        nodeA.publish(CacheInvalidationBus.Topic.CLUSTER, "cluster-1");
+        nodeA.publish(CacheInvalidationBus.Topic.CLUSTER, List.of("cluster-2", "cluster-3"));
+
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of("cluster-1", "cluster-2", "cluster-3"), evictedOnB);
+        // The publishing node evicts synchronously and ignores its own events in the log
+        assertEquals(List.of("cluster-1", "cluster-2", "cluster-3"), evictedOnA);
+    }
+
+    @Test
+    void nullKeyDropsTheWholeTopic() throws Exception {
+        CountDownLatch dropped = new CountDownLatch(1);
+        nodeB.subscribe(CacheInvalidationBus.Topic.USER, key -> {
+            if (key == null) {
+                dropped.countDown();
+            }
+        });
+
+        nodeA.publish(CacheInvalidationBus.Topic.USER, (String) null);
+
+        assertTrue(dropped.await(10, TimeUnit.SECONDS));
+    }
+}
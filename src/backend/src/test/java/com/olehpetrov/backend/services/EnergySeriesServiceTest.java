@@ -0,0 +1,145 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.config.EnergyBucketMigration;
+import com.olehpetrov.backend.models.DailyEnergyTotal;
+import com.olehpetrov.backend.models.EnergyBucket;
+import com.olehpetrov.backend.models.EnergyBucket.OwnerType;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.repositories.DailyEnergyTotalRepository;
+import com.olehpetrov.backend.repositories.SolarPanelRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataMongoTest
+@Testcontainers(disabledWithoutDocker = true)
+@Import({EnergySeriesService.class, EnergyBucketMigration.class})
+@TestPropertySource(properties = "energy.buckets.migrate-on-startup=false")
+class EnergySeriesServiceTest {
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private EnergySeriesService energySeriesService;
+
+    @Autowired
+    private EnergyBucketMigration migration;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private SolarPanelRepository solarPanelRepository;
+
+    @Autowired
+    private DailyEnergyTotalRepository dailyEnergyTotalRepository;
+
+    @BeforeEach
+    void clean() {
+        mongoTemplate.dropCollection(EnergyBucket.class);
+        mongoTemplate.dropCollection("migrations");
+        dailyEnergyTotalRepository.deleteAll();
+    }
+
+    @Test
+    void dailyValuesAcrossMonthsAreStoredInOneBucketPerMonth() {
+        energySeriesService.upsertDaily(OwnerType.PANEL, "panel-1", Map.of(
+                LocalDate.of(2024, 1, 30), 3.5,
+                LocalDate.of(2024, 1, 31), 4.0,
+                LocalDate.of(2024, 2, 1), 4.5));
+        // Overwrites a slot and fills another one in an existing bucket
+        energySeriesService.upsertDaily(OwnerType.PANEL, "panel-1", Map.of(
+                LocalDate.of(2024, 1, 31), 4.25,
+                LocalDate.of(2024, 2, 2), 5.0));
+
+        SortedMap<LocalDate, Double> values = energySeriesService.readDaily(
+                OwnerType.PANEL, "panel-1", LocalDate.of(2024, 1, 31), LocalDate.of(2024, 2, 29));
+
+        assertEquals(2, mongoTemplate.getCollection("energy_buckets").countDocuments());
+        assertEquals(Map.of(
+                LocalDate.of(2024, 1, 31), 4.25,
+                LocalDate.of(2024, 2, 1), 4.5,
+                LocalDate.of(2024, 2, 2), 5.0), values);
+    }
+
+    @Test
+    void hourlyValuesShareTheMonthlyBucket() {
+        energySeriesService.upsertDaily(OwnerType.CLUSTER, "cluster-1", Map.of(LocalDate.of(2024, 3, 10), 12.0));
+        energySeriesService.upsertHourly(OwnerType.CLUSTER, "cluster-1", Map.of(
+                LocalDateTime.of(2024, 3, 10, 11, 0), 1.5,
+                LocalDateTime.of(2024, 3, 10, 12, 0), 1.75));
+
+        SortedMap<LocalDateTime, Double> hourly = energySeriesService.readHourly(OwnerType.CLUSTER, "cluster-1",
+                LocalDateTime.of(2024, 3, 10, 0, 0), LocalDateTime.of(2024, 3, 10, 23, 0));
+
+        assertEquals(1, mongoTemplate.getCollection("energy_buckets").countDocuments());
+        assertEquals(Map.of(
+                LocalDateTime.of(2024, 3, 10, 11, 0), 1.5,
+                LocalDateTime.of(2024, 3, 10, 12, 0), 1.75), hourly);
+    }
+
+    @Test
+    void migrationCopiesLegacyDailyTotalsOnce() {
+        Panel panel = new Panel();
+        panel.setName("panel");
+        panel = solarPanelRepository.save(panel);
+
+        for (int day = 1; day <= 3; day++) {
+            DailyEnergyTotal total = new DailyEnergyTotal();
+            total.setPanel(panel);
+            total.setDate(LocalDate.of(2024, 5, day).toString());
+            total.setTotalEnergy_kwh(day);
+            dailyEnergyTotalRepository.save(total);
+        }
+
+        assertEquals(3, migration.migrate());
+        assertEquals(0, migration.migrate());
+
+        SortedMap<LocalDate, Double> values = energySeriesService.readDaily(
+                OwnerType.PANEL, panel.getId(), LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 31));
+        assertEquals(Map.of(
+                LocalDate.of(2024, 5, 1), 1.0,
+                LocalDate.of(2024, 5, 2), 2.0,
+                LocalDate.of(2024, 5, 3), 3.0), values);
+    }
+
+    @Test
+    void migrationKeepsDaysAlreadyWrittenByLiveTraffic() {
+        Panel panel = new Panel();
+        panel.setName("panel");
+        panel = solarPanelRepository.save(panel);
+        for (int day = 1; day <= 2; day++) {
+            DailyEnergyTotal total = new DailyEnergyTotal();
+            total.setPanel(panel);
+            total.setDate(LocalDate.of(2024, 5, day).toString());
+            total.setTotalEnergy_kwh(day);
+            dailyEnergyTotalRepository.save(total);
+        }
+        // Written through the new API before the migration reached this panel
+        energySeriesService.upsertDaily(OwnerType.PANEL, panel.getId(), Map.of(LocalDate.of(2024, 5, 2), 7.5));
+
+        migration.migrate();
+
+        assertEquals(Map.of(
+                LocalDate.of(2024, 5, 1), 1.0,
+                LocalDate.of(2024, 5, 2), 7.5), energySeriesService.readDaily(
+                OwnerType.PANEL, panel.getId(), LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 31)));
+    }
+}
@@ -0,0 +1,133 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.models.Cluster;
+import com.olehpetrov.backend.models.Inverter;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.repositories.ClusterRepository;
+import com.olehpetrov.backend.repositories.InverterRepository;
+import com.olehpetrov.backend.repositories.LocationRepository;
+import com.olehpetrov.backend.repositories.SolarPanelRepository;
+import com.olehpetrov.backend.repositories.UserRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataMongoTest(properties = "fleet.generator.batch-size=50")
+@Testcontainers(disabledWithoutDocker = true)
+@Import(FleetDataGenerator.class)
+class FleetDataGeneratorTest {
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private FleetDataGenerator generator;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ClusterRepository clusterRepository;
+
+    @Autowired
+    private SolarPanelRepository solarPanelRepository;
+
+    @Autowired
+    private LocationRepository locationRepository;
+
+    @Autowired
+    private InverterRepository inverterRepository;
+
+    @BeforeEach
+    void clean() {
+        solarPanelRepository.deleteAll();
+        clusterRepository.deleteAll();
+        userRepository.deleteAll();
+        locationRepository.deleteAll();
+        inverterRepository.deleteAll();
+
+        for (double capacity : new double[]{5.0, 20.0, 100.0}) {
+            Inverter inverter = new Inverter();
+            inverter.setName("Inverter " + capacity);
+            inverter.setEfficiency(97.0);
+            inverter.setCapacity(capacity);
+            inverterRepository.save(inverter);
+        }
+    }
+
+    @Test
+    void writesTheRequestedFleet() {
+        FleetDataGenerator.Summary summary = generator.generate(spec(7));
+
+        assertEquals(20, summary.users());
+        assertEquals(20, userRepository.count());
+        assertEquals(summary.clusters(), clusterRepository.count());
+        assertEquals(summary.clusters(), locationRepository.count());
+        assertEquals(summary.panels(), solarPanelRepository.count());
+        assertTrue(summary.clusters() >= 20 && summary.clusters() <= 60);
+
+        // References resolve through the regular repositories
+        Panel panel = solarPanelRepository.findAll().get(0);
+        assertNotNull(panel.getCluster());
+        assertNotNull(panel.getLocation());
+        Cluster cluster = clusterRepository.findAll().stream().filter(c -> c.getInverter() != null).findFirst().orElseThrow();
+        assertNotNull(cluster.getInverter().getCapacity());
+    }
+
+    @Test
+    void sameSeedProducesTheSameFleet() {
+        generator.generate(spec(7));
+        List<Document> first = panels();
+
+        solarPanelRepository.deleteAll();
+        clusterRepository.deleteAll();
+        userRepository.deleteAll();
+        locationRepository.deleteAll();
+        generator.generate(spec(7));
+
+        assertEquals(first, panels());
+    }
+
+    @Test
+    void existingFleetIsNotWrittenTwice() {
+        FleetDataGenerator.Summary first = generator.generate(spec(7));
+        FleetDataGenerator.Summary second = generator.generate(spec(7));
+        FleetDataGenerator.Summary other = generator.generate(spec(8));
+
+        assertEquals(0, second.panels());
+        assertTrue(other.panels() > 0);
+        assertEquals(first.panels() + other.panels(), solarPanelRepository.count());
+    }
+
+    private FleetDataGenerator.FleetSpec spec(int seed) {
+        return new FleetDataGenerator.FleetSpec(seed, 20,
+                FleetDataGenerator.Range.parse("1-3"),
+                FleetDataGenerator.Range.parse("2-10"),
+                FleetDataGenerator.Region.parseAll("Riga:56.9496:24.1052,Kyiv:50.4501:30.5234"),
+                25, 0.8, "fleet");
+    }
+
+    private List<Document> panels() {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Panel.class)).find()
+                .sort(new Document("_id", 1)).into(new ArrayList<>());
+    }
+}
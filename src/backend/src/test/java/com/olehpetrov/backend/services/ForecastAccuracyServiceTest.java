@@ -0,0 +1,127 @@
+package com.olehpetrov.backend.services;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import com.olehpetrov.backend.models.ForecastAccuracy;
+import com.olehpetrov.backend.models.ForecastRecord;
+import com.olehpetrov.backend.responses.ForecastAccuracyResponse;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataMongoTest
+@Testcontainers(disabledWithoutDocker = true)
+@Import({ForecastAccuracyService.class, EnergySeriesService.class})
+class ForecastAccuracyServiceTest {
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private ForecastAccuracyService accuracyService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final LocalDate issuedOn = LocalDate.of(2024, 6, 1);
+
+    @BeforeEach
+    void clean() {
+        mongoTemplate.getDb().drop();
+    }
+
+    @Test
+    void accuracyIsAccumulatedPerHorizon() {
+        accuracyService.recordForecast("cluster-1", issuedOn, Map.of(issuedOn.plusDays(1), 10.0, issuedOn.plusDays(2), 12.0));
+        // A later forecast for the same date and horizon does not replace the first one
+        accuracyService.recordForecast("cluster-1", issuedOn, Map.of(issuedOn.plusDays(1), 50.0));
+
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 8.0);
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(2), 15.0);
+
+        List<ForecastAccuracyResponse> accuracy = accuracyService.getAccuracy("cluster-1");
+        assertEquals(2, accuracy.size());
+        assertEquals(1, accuracy.get(0).getHorizon());
+        assertEquals(2.0, accuracy.get(0).getMae(), 1e-9);
+        assertEquals(2.0, accuracy.get(0).getBias(), 1e-9);
+        assertEquals(25.0, accuracy.get(0).getMape(), 1e-9);
+        assertEquals(-3.0, accuracy.get(1).getBias(), 1e-9);
+    }
+
+    @Test
+    void correctedActualsReplaceTheirPreviousContribution() {
+        accuracyService.recordForecast("cluster-1", issuedOn, Map.of(issuedOn.plusDays(1), 10.0));
+
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 4.0);
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 9.0);
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 9.0);
+
+        ForecastAccuracyResponse accuracy = accuracyService.getAccuracy("cluster-1").get(0);
+        assertEquals(1, accuracy.getSamples());
+        assertEquals(1.0, accuracy.getMae(), 1e-9);
+        assertEquals(1.0, accuracy.getBias(), 1e-9);
+        assertEquals(100.0 / 9.0, accuracy.getMape(), 1e-9);
+    }
+
+    @Test
+    void dayWithoutProductionCountsForMaeButNotMape() {
+        accuracyService.recordForecast("cluster-1", issuedOn, Map.of(issuedOn.plusDays(1), 2.0, issuedOn.plusDays(2), 10.0));
+        accuracyService.recordForecast("cluster-1", issuedOn.plusDays(1), Map.of(issuedOn.plusDays(2), 12.0));
+
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 0.0);
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(2), 5.0);
+        // Late telemetry turns the empty day into one with production
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 1.0);
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 0.0);
+
+        List<ForecastAccuracyResponse> accuracy = accuracyService.getAccuracy("cluster-1");
+        ForecastAccuracyResponse dayAhead = accuracy.get(0);
+        assertEquals(2, dayAhead.getSamples());
+        assertEquals((2.0 + 7.0) / 2, dayAhead.getMae(), 1e-9);
+        assertEquals(140.0, dayAhead.getMape(), 1e-9);
+        assertEquals(2, accuracy.get(1).getHorizon());
+        assertEquals(5.0, accuracy.get(1).getBias(), 1e-9);
+    }
+
+    @Test
+    void claimLeftBehindIsSettledOnceByTheNextScorer() {
+        accuracyService.recordForecast("cluster-1", issuedOn, Map.of(issuedOn.plusDays(1), 10.0));
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 8.0);
+        String recordId = "cluster-1:" + issuedOn.plusDays(1) + ":1";
+
+        // A scorer claimed 9.0 and stopped before touching the sums
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(ForecastRecord.class)).updateOne(Filters.eq("_id", recordId),
+                Updates.set("pending", new Document("version", 2L).append("actualKwh", 9.0)));
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 9.0);
+        assertEquals(1.0, accuracyService.getAccuracy("cluster-1").get(0).getMae(), 1e-9);
+
+        // Another one claimed 5.0 and stopped after the $inc: the difference is not applied a second time
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(ForecastRecord.class)).updateOne(Filters.eq("_id", recordId),
+                Updates.set("pending", new Document("version", 3L).append("actualKwh", 5.0)));
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(ForecastAccuracy.class)).updateOne(Filters.eq("_id", "cluster-1:1"),
+                Updates.combine(Updates.inc("sumAbsError", 4.0), Updates.inc("sumError", 4.0), Updates.addToSet("applied", recordId + ":3")));
+        accuracyService.recordActual("cluster-1", issuedOn.plusDays(1), 5.0);
+
+        ForecastAccuracyResponse accuracy = accuracyService.getAccuracy("cluster-1").get(0);
+        assertEquals(1, accuracy.getSamples());
+        assertEquals(5.0, accuracy.getMae(), 1e-9);
+        assertEquals(5.0, accuracy.getBias(), 1e-9);
+        assertEquals(0, mongoTemplate.getCollection(mongoTemplate.getCollectionName(ForecastAccuracy.class))
+                .find(Filters.eq("_id", "cluster-1:1")).first().getList("applied", String.class).size());
+    }
+}
@@ -0,0 +1,144 @@
+package com.olehpetrov.backend.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONArray;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.content;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class ForecastBatchClientTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 6, 1);
+
+    private final RestTemplate restTemplate = new RestTemplate();
+    private final MockRestServiceServer forecastService = MockRestServiceServer.bindTo(restTemplate).build();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ForecastBatchClient client;
+
+    @AfterEach
+    void tearDown() {
+        client.stop();
+    }
+
+    private ForecastEndpoints endpoints() {
+        return endpoints(5);
+    }
+
+    private ForecastEndpoints endpoints(int failureThreshold) {
+        return new ForecastEndpoints(meterRegistry, new ForecastConcurrencyLimiter(meterRegistry, false, 8, 2, 64, 32, 100), "http://model:8000", 3, 10_000, false, 0.95, 50, failureThreshold, 60_000);
+    }
+
+    private static String forecast(String value) {
+        return "{\"forecast\":[{\"time\":\"" + DAY + "T12:00:00Z\",\"pred_W_per_kWp\":" + value + "}]}";
+    }
+
+    private static double value(CompletableFuture<JSONArray> result) throws Exception {
+        return result.get(5, TimeUnit.SECONDS).getJSONObject(0).getDouble("pred_W_per_kWp");
+    }
+
+    @Test
+    void requestsWithinTheWindowShareOneCall() throws Exception {
+        client = new ForecastBatchClient(restTemplate, meterRegistry, endpoints(), 200, 64, 1);
+        forecastService.expect(ExpectedCount.once(), requestTo("http://model:8000/forecast_batch"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(content().json("{\"items\":[{\"lat\":50.0,\"lon\":30.0,\"start\":\"2024-06-01\",\"end\":\"2024-06-02\"},"
+                        + "{\"lat\":56.9,\"lon\":24.1,\"start\":\"2024-06-01\",\"end\":\"2024-06-02\"}]}"))
+                .andRespond(withSuccess("{\"results\":[" + forecast("500") + "," + forecast("300") + "]}", MediaType.APPLICATION_JSON));
+
+        CompletableFuture<JSONArray> kyiv = client.submit(50.0, 30.0, DAY, DAY.plusDays(1));
+        CompletableFuture<JSONArray> riga = client.submit(56.9, 24.1, DAY, DAY.plusDays(1));
+
+        assertEquals(500.0, value(kyiv));
+        assertEquals(300.0, value(riga));
+        forecastService.verify();
+        assertEquals(1, meterRegistry.summary("forecast.batch.size").count());
+        assertEquals(2.0, meterRegistry.summary("forecast.batch.size").totalAmount());
+    }
+
+    @Test
+    void fullBatchIsSentWithoutWaitingForTheWindow() throws Exception {
+        client = new ForecastBatchClient(restTemplate, meterRegistry, endpoints(), 60_000, 2, 1);
+        forecastService.expect(ExpectedCount.once(), requestTo("http://model:8000/forecast_batch"))
+                .andRespond(withSuccess("{\"results\":[" + forecast("1") + "," + forecast("2") + "]}", MediaType.APPLICATION_JSON));
+
+        CompletableFuture<JSONArray> first = client.submit(50.0, 30.0, DAY, DAY);
+        CompletableFuture<JSONArray> second = client.submit(51.0, 31.0, DAY, DAY);
+
+        assertEquals(1.0, value(first));
+        assertEquals(2.0, value(second));
+        forecastService.verify();
+    }
+
+    @Test
+    void failedItemDoesNotFailTheRestOfTheBatch() throws Exception {
+        client = new ForecastBatchClient(restTemplate, meterRegistry, endpoints(), 60_000, 2, 1);
+        forecastService.expect(ExpectedCount.once(), requestTo("http://model:8000/forecast_batch"))
+                .andRespond(withSuccess("{\"results\":[{\"error\":\"No weather data\"}," + forecast("7") + "]}", MediaType.APPLICATION_JSON));
+
+        CompletableFuture<JSONArray> failed = client.submit(50.0, 30.0, DAY, DAY);
+        CompletableFuture<JSONArray> ok = client.submit(51.0, 31.0, DAY, DAY);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RestClientException.class, e.getCause());
+        assertEquals(7.0, value(ok));
+    }
+
+    @Test
+    void upstreamErrorFailsEveryItem() {
+        client = new ForecastBatchClient(restTemplate, meterRegistry, endpoints(), 60_000, 2, 1);
+        forecastService.expect(ExpectedCount.once(), requestTo("http://model:8000/forecast_batch"))
+                .andRespond(withServerError());
+
+        CompletableFuture<JSONArray> first = client.submit(50.0, 30.0, DAY, DAY);
+        CompletableFuture<JSONArray> second = client.submit(51.0, 31.0, DAY, DAY);
+
+        for (CompletableFuture<JSONArray> result : List.of(first, second)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(RestClientException.class, e.getCause());
+        }
+    }
+
+    @Test
+    void failedBatchCountsAsOneCircuitFailure() throws Exception {
+        client = new ForecastBatchClient(restTemplate, meterRegistry, endpoints(2), 60_000, 3, 1);
+        forecastService.expect(ExpectedCount.once(), requestTo("http://model:8000/forecast_batch"))
+                .andRespond(withServerError());
+        forecastService.expect(ExpectedCount.once(), requestTo("http://model:8000/forecast_batch"))
+                .andRespond(withSuccess("{\"results\":[" + forecast("1") + "," + forecast("2") + "," + forecast("3") + "]}", MediaType.APPLICATION_JSON));
+
+        List<CompletableFuture<JSONArray>> failed = List.of(client.submit(50.0, 30.0, DAY, DAY),
+                client.submit(51.0, 31.0, DAY, DAY), client.submit(52.0, 32.0, DAY, DAY));
+        for (CompletableFuture<JSONArray> result : failed) {
+            assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        }
+
+        // Three failed items, one failed call: the circuit is still closed
+        CompletableFuture<JSONArray> first = client.submit(50.0, 30.0, DAY, DAY);
+        CompletableFuture<JSONArray> second = client.submit(51.0, 31.0, DAY, DAY);
+        CompletableFuture<JSONArray> third = client.submit(52.0, 32.0, DAY, DAY);
+        assertEquals(1.0, value(first));
+        assertEquals(2.0, value(second));
+        assertEquals(3.0, value(third));
+        forecastService.verify();
+    }
+}
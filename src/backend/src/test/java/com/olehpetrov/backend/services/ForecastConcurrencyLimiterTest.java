@@ -0,0 +1,72 @@
+package com.olehpetrov.backend.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ForecastConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    // Fills every free permit and finishes the calls with the given round trip time
+    private static void saturate(ForecastConcurrencyLimiter limiter, long rttMillis, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            int taken = 0;
+            while (limiter.tryAcquire()) {
+                taken++;
+            }
+            for (int i = 0; i < taken; i++) {
+                limiter.release(TimeUnit.MILLISECONDS.toNanos(rttMillis), false);
+            }
+        }
+    }
+
+    @Test
+    void callsOverTheLimitWaitBrieflyOrAreRefused() throws Exception {
+        ForecastConcurrencyLimiter limiter = new ForecastConcurrencyLimiter(meterRegistry, true, 2, 2, 4, 1, 50);
+        assertTrue(limiter.acquire().join());
+        assertTrue(limiter.acquire().join());
+
+        CompletableFuture<Boolean> queued = limiter.acquire();
+        assertFalse(queued.isDone());
+        // The queue holds one call
+        assertFalse(limiter.acquire().join());
+
+        // A finished call hands its permit to the waiting one
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+        assertTrue(queued.get(1, TimeUnit.SECONDS));
+        assertEquals(2.0, meterRegistry.get("forecast.limit.in-flight").gauge().value());
+
+        // Nobody finishes within the queue timeout
+        assertFalse(limiter.acquire().get(1, TimeUnit.SECONDS));
+        assertEquals(2.0, meterRegistry.get("forecast.limit.rejections").counter().count());
+        assertEquals(0.0, meterRegistry.get("forecast.limit.queued").gauge().value());
+    }
+
+    @Test
+    void limitGrowsWhileLatencyHoldsAndShrinksWhenItRises() {
+        ForecastConcurrencyLimiter limiter = new ForecastConcurrencyLimiter(meterRegistry, true, 4, 2, 64, 0, 0);
+
+        saturate(limiter, 10, 100);
+        int grown = limiter.limit();
+        assertTrue(grown > 4, "limit " + grown);
+        assertEquals(grown, meterRegistry.get("forecast.limit.current").gauge().value());
+
+        // The service queues: every call now takes ten times as long
+        saturate(limiter, 100, 3);
+        int slowed = limiter.limit();
+        assertTrue(slowed < grown, "limit " + slowed + " after " + grown);
+
+        // Failed calls back off right away
+        assertTrue(limiter.tryAcquire());
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(100), true);
+        assertTrue(limiter.limit() < slowed || limiter.limit() == 2);
+        assertEquals(0, limiter.inFlight());
+    }
+}
@@ -0,0 +1,105 @@
+package com.olehpetrov.backend.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ForecastDiskCacheTest {
+
+    // Expired records are dropped when the index is rebuilt, so the expiries are real times
+    private static final long NOW = System.currentTimeMillis();
+    private static final long LATER = NOW + 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    private ForecastDiskCache open(long maxBytes, long segmentBytes) throws Exception {
+        ForecastDiskCache cache = new ForecastDiskCache(true, directory.toString(), maxBytes, segmentBytes);
+        cache.start();
+        cache.awaitWrites();
+        return cache;
+    }
+
+    private static List<HourlyForecastService.HourlyPoint> chunk(double... values) {
+        return IntStream.range(0, values.length)
+                .mapToObj(i -> new HourlyForecastService.HourlyPoint(Instant.parse("2024-06-01T00:00:00Z").plusSeconds(3600L * i), values[i]))
+                .toList();
+    }
+
+    private static long segmentFiles(Path directory) throws Exception {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void chunksSurviveARestart() throws Exception {
+        ForecastDiskCache cache = open(1 << 20, 1 << 20);
+        cache.put("june", chunk(100, 200), Long.MAX_VALUE);
+        cache.put("today", chunk(300), LATER);
+        cache.put("june", chunk(150, 250), Long.MAX_VALUE);
+        cache.awaitWrites();
+        cache.stop();
+
+        ForecastDiskCache restarted = open(1 << 20, 1 << 20);
+        assertEquals(chunk(150, 250), restarted.get("june", NOW));
+        assertTrue(restarted.contains("today", NOW));
+        // Expired chunks are misses
+        assertFalse(restarted.contains("today", LATER));
+        assertNull(restarted.get("today", LATER));
+        assertNull(restarted.get("missing", NOW));
+        restarted.stop();
+    }
+
+    @Test
+    void leastRecentlyUsedChunksAreEvictedAndTheirSegmentsCompacted() throws Exception {
+        // Each chunk is a little over 100 bytes, every segment holds one
+        ForecastDiskCache cache = open(250, 64);
+        cache.put("a", chunk(1, 2, 3, 4), Long.MAX_VALUE);
+        cache.put("b", chunk(1, 2, 3, 4), Long.MAX_VALUE);
+        cache.awaitWrites();
+        assertEquals(chunk(1, 2, 3, 4), cache.get("a", NOW));
+        cache.put("c", chunk(1, 2, 3, 4), Long.MAX_VALUE);
+        cache.awaitWrites();
+
+        assertNull(cache.get("b", NOW));
+        assertEquals(chunk(1, 2, 3, 4), cache.get("a", NOW));
+        assertEquals(chunk(1, 2, 3, 4), cache.get("c", NOW));
+        // The segment of the evicted chunk is gone
+        assertEquals(2, segmentFiles(directory));
+        cache.stop();
+    }
+
+    @Test
+    void tornRecordAtTheEndIsCutOff() throws Exception {
+        ForecastDiskCache cache = open(1 << 20, 1 << 20);
+        cache.put("june", chunk(100, 200), Long.MAX_VALUE);
+        cache.awaitWrites();
+        cache.stop();
+
+        Path segment;
+        try (var files = Files.list(directory)) {
+            segment = files.sorted().findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 1, 0, 42}));
+        }
+
+        ForecastDiskCache restarted = open(1 << 20, 1 << 20);
+        assertEquals(chunk(100, 200), restarted.get("june", NOW));
+        restarted.stop();
+    }
+}
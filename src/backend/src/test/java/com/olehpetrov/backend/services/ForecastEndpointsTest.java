@@ -0,0 +1,154 @@
+package com.olehpetrov.backend.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ForecastEndpointsTest {
+
+    private static final String A = "http://model-a:8000";
+    private static final String B = "http://model-b:8000";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ForecastConcurrencyLimiter unlimited = new ForecastConcurrencyLimiter(meterRegistry, false, 8, 2, 64, 32, 100);
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // Keeps blocking, as a socket read would
+            }
+        }
+    }
+
+    private static void awaitInFlight(ForecastConcurrencyLimiter limiter, int inFlight) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.inFlight() > inFlight && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void callsGoToTheReplicaWithFewestOutstanding() {
+        ForecastEndpoints endpoints = new ForecastEndpoints(meterRegistry, unlimited, A + ", " + B + "/", 3, 10_000, false, 0.95, 50, 5, 30_000);
+        List<String> used = new ArrayList<>();
+        CompletableFuture<String> slow = new CompletableFuture<>();
+
+        endpoints.call(base -> {
+            used.add(base);
+            return slow;
+        });
+        endpoints.call(base -> {
+            used.add(base);
+            return CompletableFuture.completedFuture(base);
+        });
+        endpoints.call(base -> {
+            used.add(base);
+            return CompletableFuture.completedFuture(base);
+        });
+
+        // The slow call keeps its replica busy, the other two go elsewhere
+        assertNotEquals(used.get(0), used.get(1));
+        assertEquals(used.get(1), used.get(2));
+        assertTrue(List.of(A, B).containsAll(used));
+        assertEquals(1.0, meterRegistry.get("forecast.endpoint.outstanding").tag("endpoint", used.get(0)).gauge().value());
+    }
+
+    @Test
+    void failingReplicaIsEjected() {
+        ForecastEndpoints endpoints = new ForecastEndpoints(meterRegistry, unlimited, A + "," + B, 2, 60_000, false, 0.95, 50, 5, 30_000);
+        List<String> used = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            endpoints.call(base -> {
+                used.add(base);
+                return A.equals(base)
+                        ? CompletableFuture.failedFuture(new HttpServerErrorException(HttpStatus.INTERNAL_SERVER_ERROR))
+                        : CompletableFuture.completedFuture(base);
+            });
+        }
+
+        assertEquals(2, used.stream().filter(A::equals).count());
+        assertEquals(B, used.get(used.size() - 1));
+    }
+
+    @Test
+    void slowCallIsHedgedAndTheLoserCancelled() throws Exception {
+        ForecastEndpoints endpoints = new ForecastEndpoints(meterRegistry, unlimited, A + "," + B, 3, 10_000, true, 0.5, 20, 5, 30_000);
+        for (int i = 0; i < ForecastEndpoints.MIN_LATENCY_SAMPLES; i++) {
+            endpoints.call(CompletableFuture::completedFuture);
+        }
+        List<String> used = new ArrayList<>();
+        CompletableFuture<String> stuck = new CompletableFuture<>();
+
+        // The first replica never answers, the hedge to the second one does
+        String answer = endpoints.call(base -> {
+            synchronized (used) {
+                used.add(base);
+                return used.size() == 1 ? stuck : CompletableFuture.completedFuture(base);
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, used.size());
+        assertNotEquals(used.get(0), answer);
+        assertTrue(stuck.isCancelled());
+        assertEquals(1.0, meterRegistry.counter("forecast.hedge.requests").count());
+    }
+
+    @Test
+    void lostBlockingHedgeKeepsItsPermitUntilItReturns() throws Exception {
+        ForecastConcurrencyLimiter limiter = new ForecastConcurrencyLimiter(meterRegistry, true, 8, 2, 64, 32, 100);
+        ForecastEndpoints endpoints = new ForecastEndpoints(meterRegistry, limiter, A + "," + B, 3, 10_000, true, 0.5, 20, 5, 30_000);
+        for (int i = 0; i < ForecastEndpoints.MIN_LATENCY_SAMPLES; i++) {
+            endpoints.call(CompletableFuture::completedFuture);
+        }
+        ExecutorService executor = Executors.newCachedThreadPool();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> used = new ArrayList<>();
+
+        try {
+            // The first replica blocks like a socket read that ignores interrupts
+            String answer = endpoints.callBlocking(base -> {
+                boolean first;
+                synchronized (used) {
+                    used.add(base);
+                    first = used.size() == 1;
+                }
+                if (first) {
+                    awaitUninterruptibly(release);
+                }
+                return base;
+            }, executor).get(5, TimeUnit.SECONDS);
+
+            assertEquals(used.get(1), answer);
+            // The winner hands its permit back right after answering, the loser keeps its own
+            awaitInFlight(limiter, 1);
+            assertEquals(1, limiter.inFlight());
+            assertEquals(1.0, meterRegistry.get("forecast.endpoint.outstanding").tag("endpoint", used.get(0)).gauge().value());
+
+            release.countDown();
+            awaitInFlight(limiter, 0);
+            assertEquals(0, limiter.inFlight());
+            assertEquals(0.0, meterRegistry.get("forecast.endpoint.outstanding").tag("endpoint", used.get(0)).gauge().value());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
+
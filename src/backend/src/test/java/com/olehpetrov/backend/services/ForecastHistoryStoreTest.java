@@ -0,0 +1,85 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.models.ForecastHistoryDay;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@DataMongoTest
+@Testcontainers(disabledWithoutDocker = true)
+@Import(ForecastHistoryStore.class)
+class ForecastHistoryStoreTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 6, 1);
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private ForecastHistoryStore historyStore;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void clean() {
+        mongoTemplate.dropCollection(ForecastHistoryDay.class);
+    }
+
+    private static HourlyForecastService.HourlyPoint point(LocalDate day, String time, double value) {
+        return new HourlyForecastService.HourlyPoint(Instant.parse(day + "T" + time + "Z"), value);
+    }
+
+    @Test
+    void overlappingRangesReuseStoredDays() {
+        List<HourlyForecastService.HourlyPoint> june = List.of(point(DAY, "11:00:00", 500), point(DAY, "12:00:00", 600),
+                point(DAY.plusDays(2), "12:00:00", 300));
+        historyStore.save(50.0, 30.0, DAY, DAY.plusDays(2), june);
+
+        assertEquals(june.subList(0, 2), historyStore.find(50.0, 30.0, DAY, DAY));
+        assertEquals(june.subList(2, 3), historyStore.find(50.0, 30.0, DAY.plusDays(2), DAY.plusDays(2)));
+        assertEquals(2, mongoTemplate.count(new Query(), ForecastHistoryDay.class));
+
+        // Saving the same days again replaces them
+        historyStore.save(50.0, 30.0, DAY, DAY, june.subList(0, 2));
+        assertEquals(2, mongoTemplate.count(new Query(), ForecastHistoryDay.class));
+    }
+
+    @Test
+    void dayWithoutPointsIsNotStored() {
+        historyStore.save(50.0, 30.0, DAY, DAY.plusDays(1), List.of(point(DAY, "12:00:00", 500)));
+
+        // The empty day stays a miss, so it is fetched again
+        assertNull(historyStore.find(50.0, 30.0, DAY.plusDays(1), DAY.plusDays(1)));
+        assertNull(historyStore.find(50.0, 30.0, DAY, DAY.plusDays(1)));
+        assertEquals(1, mongoTemplate.count(new Query(), ForecastHistoryDay.class));
+
+        // A range without any points writes nothing
+        historyStore.save(50.0, 30.0, DAY.plusDays(1), DAY.plusDays(1), List.of());
+        assertEquals(1, mongoTemplate.count(new Query(), ForecastHistoryDay.class));
+    }
+
+    @Test
+    void partiallyStoredRangeIsAMiss() {
+        historyStore.save(50.0, 30.0, DAY, DAY, List.of(point(DAY, "12:00:00", 500)));
+
+        assertNull(historyStore.find(50.0, 30.0, DAY, DAY.plusDays(1)));
+        assertNull(historyStore.find(51.0, 30.0, DAY, DAY));
+    }
+}
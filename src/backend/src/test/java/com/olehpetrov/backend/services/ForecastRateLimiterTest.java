@@ -0,0 +1,93 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ForecastRateLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private ForecastRateLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        // Users: 2 cheap tokens refilled at 60 a minute, 1 expensive token at 6 a minute; admins get twice as much
+        limiter = new ForecastRateLimiter(meterRegistry, 2, 60, 1, 6, 4, 120, 2, 12);
+        ReflectionTestUtils.setField(limiter, "nanoClock", (LongSupplier) now::get);
+    }
+
+    private static User user(String id, Role role) {
+        User user = new User();
+        user.setId(id);
+        user.setRole(role);
+        return user;
+    }
+
+    private double buckets(String tier) {
+        return meterRegistry.get("forecast.ratelimit.buckets").tag("tier", tier).gauge().value();
+    }
+
+    @Test
+    void retryAfterIsRoundedUpToWholeSeconds() {
+        User user = user("user-1", Role.ROLE_USER);
+
+        assertEquals(0, limiter.tryAcquire(user, ForecastRateLimiter.Tier.EXPENSIVE));
+        // The next expensive token is ten seconds away
+        assertEquals(10, limiter.tryAcquire(user, ForecastRateLimiter.Tier.EXPENSIVE));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(9_500));
+        assertEquals(1, limiter.tryAcquire(user, ForecastRateLimiter.Tier.EXPENSIVE));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(0, limiter.tryAcquire(user, ForecastRateLimiter.Tier.EXPENSIVE));
+        assertEquals(2.0, meterRegistry.get("forecast.ratelimit.throttled").tag("tier", "expensive").counter().count());
+    }
+
+    @Test
+    void limitsDependOnTheRoleAndUsersHaveTheirOwnBuckets() {
+        User user = user("user-1", Role.ROLE_USER);
+        User admin = user("admin-1", Role.ROLE_ADMIN);
+
+        assertEquals(0, limiter.tryAcquire(user, ForecastRateLimiter.Tier.CHEAP));
+        assertEquals(0, limiter.tryAcquire(user, ForecastRateLimiter.Tier.CHEAP));
+        assertEquals(1, limiter.tryAcquire(user, ForecastRateLimiter.Tier.CHEAP));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(0, limiter.tryAcquire(admin, ForecastRateLimiter.Tier.CHEAP));
+        }
+        assertEquals(1, limiter.tryAcquire(admin, ForecastRateLimiter.Tier.CHEAP));
+    }
+
+    @Test
+    void evictIdleBucketsDropsOnlyRefilledBuckets() {
+        User idle = user("user-1", Role.ROLE_USER);
+        User busy = user("user-2", Role.ROLE_USER);
+        limiter.tryAcquire(idle, ForecastRateLimiter.Tier.CHEAP);
+        limiter.tryAcquire(busy, ForecastRateLimiter.Tier.CHEAP);
+        limiter.tryAcquire(busy, ForecastRateLimiter.Tier.EXPENSIVE);
+        assertEquals(2.0, buckets("cheap"));
+
+        // The cheap tokens are back after a second, the expensive one takes ten
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        limiter.tryAcquire(busy, ForecastRateLimiter.Tier.CHEAP);
+        limiter.evictIdleBuckets();
+        assertEquals(1.0, buckets("cheap"));
+        assertEquals(1.0, buckets("expensive"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        limiter.evictIdleBuckets();
+        assertEquals(0.0, buckets("cheap"));
+        assertEquals(0.0, buckets("expensive"));
+
+        // An evicted user starts again with a full burst
+        assertEquals(0, limiter.tryAcquire(idle, ForecastRateLimiter.Tier.CHEAP));
+        assertEquals(0, limiter.tryAcquire(idle, ForecastRateLimiter.Tier.CHEAP));
+    }
+}
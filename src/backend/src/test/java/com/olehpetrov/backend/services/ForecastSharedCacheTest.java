@@ -0,0 +1,104 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.models.ForecastCacheEntry;
+import com.olehpetrov.backend.models.ForecastHistoryDay;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataMongoTest
+@Testcontainers(disabledWithoutDocker = true)
+@Import(ForecastSharedCache.class)
+@TestPropertySource(properties = {"forecast.shared-cache.fill-timeout-ms=2000", "forecast.shared-cache.poll-ms=20"})
+class ForecastSharedCacheTest {
+
+    private static final String KEY = "1:50.000000,30.000000:2024-06-01:2024-06-02";
+    private static final List<HourlyForecastService.HourlyPoint> SERIES =
+            List.of(new HourlyForecastService.HourlyPoint(Instant.parse("2024-06-01T12:00:00Z"), 500.0));
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private ForecastSharedCache sharedCache;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private final AtomicInteger computed = new AtomicInteger();
+
+    @BeforeEach
+    void clean() {
+        mongoTemplate.dropCollection(ForecastCacheEntry.class);
+    }
+
+    private CompletableFuture<List<HourlyForecastService.HourlyPoint>> compute() {
+        computed.incrementAndGet();
+        return CompletableFuture.completedFuture(SERIES);
+    }
+
+    private static long inAnHour() {
+        return System.currentTimeMillis() + 3_600_000;
+    }
+
+    @Test
+    void chunkIsComputedOnceAndThenShared() throws Exception {
+        assertEquals(SERIES, sharedCache.getOrCompute(KEY, inAnHour(), this::compute).get(5, TimeUnit.SECONDS));
+        // The write is in the background
+        for (int i = 0; i < 50 && mongoTemplate.findById(KEY, ForecastCacheEntry.class).getHours() == null; i++) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(SERIES, sharedCache.getOrCompute(KEY, inAnHour(), this::compute).get(5, TimeUnit.SECONDS));
+        assertEquals(1, computed.get());
+    }
+
+    @Test
+    void claimedChunkIsAwaitedInsteadOfComputed() throws Exception {
+        // Another replica claimed the chunk and publishes it a moment later
+        ForecastCacheEntry claim = new ForecastCacheEntry();
+        claim.setId(KEY);
+        claim.setExpiresAt(new Date(System.currentTimeMillis() + 2000));
+        mongoTemplate.insert(claim);
+
+        CompletableFuture<List<HourlyForecastService.HourlyPoint>> waiting = sharedCache.getOrCompute(KEY, inAnHour(), this::compute);
+        Thread.sleep(100);
+        ForecastCacheEntry published = new ForecastCacheEntry();
+        published.setId(KEY);
+        published.setHours(List.of(new ForecastHistoryDay.Hour(SERIES.get(0).time(), 500.0)));
+        published.setExpiresAt(new Date(inAnHour()));
+        mongoTemplate.save(published);
+
+        assertEquals(SERIES, waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(0, computed.get());
+    }
+
+    @Test
+    void expiredClaimIsTakenOver() throws Exception {
+        ForecastCacheEntry stale = new ForecastCacheEntry();
+        stale.setId(KEY);
+        stale.setExpiresAt(new Date(System.currentTimeMillis() - 1000));
+        mongoTemplate.insert(stale);
+
+        assertEquals(SERIES, sharedCache.getOrCompute(KEY, inAnHour(), this::compute).get(5, TimeUnit.SECONDS));
+        assertEquals(1, computed.get());
+    }
+}
@@ -0,0 +1,224 @@
+package com.olehpetrov.backend.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.ExpectedCount;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class HourlyForecastServiceTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 6, 1);
+
+    private HourlyForecastService service;
+    private MockRestServiceServer forecastService;
+
+    @BeforeEach
+    void setUp() {
+        RestTemplate restTemplate = new RestTemplate();
+        forecastService = MockRestServiceServer.bindTo(restTemplate).build();
+        service = new HourlyForecastService();
+        ReflectionTestUtils.setField(service, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(service, "endpoints", endpoints());
+        ReflectionTestUtils.setField(service, "ttlMinutes", 15L);
+        ReflectionTestUtils.setField(service, "cacheSize", 16);
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(Instant.parse("2024-05-31T10:00:00Z"), ZoneOffset.UTC));
+    }
+
+    private static ForecastEndpoints endpoints() {
+        return endpoints(5, 30_000);
+    }
+
+    private static ForecastEndpoints endpoints(int failureThreshold, long openMillis) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new ForecastEndpoints(meterRegistry, new ForecastConcurrencyLimiter(meterRegistry, false, 8, 2, 64, 32, 100),
+                "http://model:8000", 3, 10_000, false, 0.95, 50, failureThreshold, openMillis);
+    }
+
+    private static String url(LocalDate start, LocalDate end) {
+        return "http://model:8000/forecast?lat=50.000000&lon=30.000000&start=" + start + "&end=" + end + "&kwp=1";
+    }
+
+    private static String hourly(String... timesAndValues) {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < timesAndValues.length; i += 2) {
+            body.append(i > 0 ? "," : "").append("{\"time\":\"").append(timesAndValues[i])
+                    .append("\",\"pred_W_per_kWp\":").append(timesAndValues[i + 1]).append("}");
+        }
+        return body.append("]").toString();
+    }
+
+    @Test
+    void hourlyAndDailyViewsShareOneUpstreamCall() {
+        forecastService.expect(ExpectedCount.once(), requestTo(url(DAY, DAY.plusDays(1))))
+                .andRespond(withSuccess(hourly(DAY + "T11:00:00Z", "500", DAY + "T12:00:00Z", "300",
+                        DAY.plusDays(1) + "T12:00:00Z", "400"), MediaType.APPLICATION_JSON));
+
+        List<HourlyForecastService.HourlyPoint> chart = service.hourly(50.0, 30.0, DAY, DAY.plusDays(1), ZoneOffset.UTC).points();
+        assertTrue(service.isCached(50.0, 30.0, DAY, DAY.plusDays(1), ZoneOffset.UTC));
+        List<HourlyForecastService.HourlyPoint> bars = service.hourly(50.0, 30.0, DAY, DAY.plusDays(1), ZoneOffset.UTC).points();
+
+        forecastService.verify();
+        assertEquals(chart, bars);
+        // 2 kWp: (1.0 + 0.6) kWh and 0.8 kWh, doubled
+        assertEquals(List.of(3.2, 1.6), HourlyForecastService.dailyTotals(bars, 2.0, ZoneOffset.UTC).stream()
+                .map(total -> total.getDouble("totalEnergy_kwh")).toList());
+        assertEquals(1000.0, HourlyForecastService.toHourlyJson(chart, 2.0).getJSONObject(0).getDouble("pred_W"));
+    }
+
+    @Test
+    void localDaysOutsideUtcFetchTheNeighbouringUtcDays() {
+        ZoneId riga = ZoneId.of("Europe/Riga");
+        // Riga is UTC+3 in June: 21:30 UTC the day before is 00:30 local, 21:30 UTC on the day is already the next day
+        forecastService.expect(ExpectedCount.once(), requestTo(url(DAY.minusDays(1), DAY.plusDays(1))))
+                .andRespond(withSuccess(hourly(DAY.minusDays(1) + "T20:30:00Z", "100", DAY.minusDays(1) + "T21:30:00Z", "200",
+                        DAY + "T10:00:00Z", "300", DAY + "T21:30:00Z", "400"), MediaType.APPLICATION_JSON));
+
+        List<HourlyForecastService.HourlyPoint> series = service.hourly(50.0, 30.0, DAY, DAY, riga).points();
+
+        forecastService.verify();
+        assertEquals(List.of(Instant.parse(DAY.minusDays(1) + "T21:30:00Z"), Instant.parse(DAY + "T10:00:00Z")),
+                series.stream().map(HourlyForecastService.HourlyPoint::time).toList());
+        assertEquals(DAY.toString(), HourlyForecastService.dailyTotals(series, 1.0, riga).get(0).getString("date"));
+    }
+
+    @Test
+    void failedCallsAreNotCached() {
+        forecastService.expect(ExpectedCount.once(), requestTo(url(DAY, DAY))).andRespond(withServerError());
+        forecastService.expect(ExpectedCount.once(), requestTo(url(DAY, DAY)))
+                .andRespond(withSuccess(hourly(DAY + "T12:00:00Z", "500"), MediaType.APPLICATION_JSON));
+
+        assertThrows(HttpServerErrorException.class, () -> service.hourly(50.0, 30.0, DAY, DAY, ZoneOffset.UTC));
+        assertFalse(service.isCached(50.0, 30.0, DAY, DAY, ZoneOffset.UTC));
+        assertEquals(1, service.hourly(50.0, 30.0, DAY, DAY, ZoneOffset.UTC).points().size());
+        forecastService.verify();
+    }
+
+    @Test
+    void failedRefreshServesTheLastGoodSeriesAndOpensTheCircuit() {
+        ReflectionTestUtils.setField(service, "endpoints", endpoints(1, 60_000));
+        ReflectionTestUtils.setField(service, "refreshWaitMillis", 1000L);
+        ReflectionTestUtils.setField(service, "staleMaxAgeMinutes", 1440L);
+        forecastService.expect(ExpectedCount.once(), requestTo(url(DAY, DAY)))
+                .andRespond(withSuccess(hourly(DAY + "T12:00:00Z", "500"), MediaType.APPLICATION_JSON));
+        forecastService.expect(ExpectedCount.once(), requestTo(url(DAY, DAY))).andRespond(withServerError());
+
+        HourlyForecastService.HourlySeries fresh = service.hourly(50.0, 30.0, DAY, DAY, ZoneOffset.UTC);
+        assertFalse(fresh.isStale());
+
+        // The cached entry has expired and its refresh fails
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(Instant.parse("2024-05-31T11:00:00Z"), ZoneOffset.UTC));
+        HourlyForecastService.HourlySeries stale = service.hourly(50.0, 30.0, DAY, DAY, ZoneOffset.UTC);
+        assertEquals(fresh.points(), stale.points());
+        assertEquals(Instant.parse("2024-05-31T10:00:00Z"), stale.staleSince());
+
+        // The circuit is open now: no upstream call, stale data where there is some, a refusal where there is none
+        assertTrue(service.hourly(50.0, 30.0, DAY, DAY, ZoneOffset.UTC).isStale());
+        assertThrows(ForecastUnavailableException.class, () -> service.hourly(50.0, 30.0, DAY.plusDays(3), DAY.plusDays(3), ZoneOffset.UTC));
+        forecastService.verify();
+    }
+
+    @Test
+    void settledDaysOutliveTheRefreshAndComeFromTheHistoryStore() {
+        RestTemplate restTemplate = new RestTemplate();
+        forecastService = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+        ForecastHistoryStore historyStore = mock(ForecastHistoryStore.class);
+        ReflectionTestUtils.setField(service, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(service, "historyStore", historyStore);
+        ReflectionTestUtils.setField(service, "historyEnabled", true);
+        ReflectionTestUtils.setField(service, "settleDays", 0);
+        // Today is DAY + 2: DAY and DAY + 1 are settled, DAY + 2 and DAY + 3 still change
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(Instant.parse(DAY.plusDays(2) + "T10:00:00Z"), ZoneOffset.UTC));
+
+        forecastService.expect(ExpectedCount.once(), requestTo(url(DAY, DAY.plusDays(1))))
+                .andRespond(withSuccess(hourly(DAY + "T12:00:00Z", "100", DAY.plusDays(1) + "T12:00:00Z", "200"), MediaType.APPLICATION_JSON));
+        forecastService.expect(ExpectedCount.twice(), requestTo(url(DAY.plusDays(2), DAY.plusDays(3))))
+                .andRespond(withSuccess(hourly(DAY.plusDays(2) + "T12:00:00Z", "300"), MediaType.APPLICATION_JSON));
+
+        List<HourlyForecastService.HourlyPoint> first = service.hourly(50.0, 30.0, DAY, DAY.plusDays(3), ZoneOffset.UTC).points();
+        assertEquals(List.of(100.0, 200.0, 300.0), first.stream().map(HourlyForecastService.HourlyPoint::wattsPerKwp).toList());
+        verify(historyStore, timeout(1000)).save(eq(50.0), eq(30.0), eq(DAY), eq(DAY.plusDays(1)), anyList());
+
+        // An hour later only the volatile part is fetched again
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(Instant.parse(DAY.plusDays(2) + "T11:00:00Z"), ZoneOffset.UTC));
+        assertFalse(service.isCached(50.0, 30.0, DAY, DAY.plusDays(3), ZoneOffset.UTC));
+        assertEquals(first, service.hourly(50.0, 30.0, DAY, DAY.plusDays(3), ZoneOffset.UTC).points());
+        forecastService.verify();
+
+        // After a restart the settled part is read from the store
+        HourlyForecastService restarted = new HourlyForecastService();
+        RestTemplate restartedTemplate = new RestTemplate();
+        MockRestServiceServer restartedService = MockRestServiceServer.bindTo(restartedTemplate).build();
+        ReflectionTestUtils.setField(restarted, "restTemplate", restartedTemplate);
+        ReflectionTestUtils.setField(restarted, "endpoints", endpoints());
+        ReflectionTestUtils.setField(restarted, "ttlMinutes", 15L);
+        ReflectionTestUtils.setField(restarted, "cacheSize", 16);
+        ReflectionTestUtils.setField(restarted, "historyStore", historyStore);
+        ReflectionTestUtils.setField(restarted, "historyEnabled", true);
+        ReflectionTestUtils.setField(restarted, "settleDays", 0);
+        ReflectionTestUtils.setField(restarted, "clock", Clock.fixed(Instant.parse(DAY.plusDays(2) + "T11:00:00Z"), ZoneOffset.UTC));
+        when(historyStore.find(50.0, 30.0, DAY, DAY.plusDays(1))).thenReturn(first.subList(0, 2));
+        restartedService.expect(ExpectedCount.once(), requestTo(url(DAY.plusDays(2), DAY.plusDays(3))))
+                .andRespond(withSuccess(hourly(DAY.plusDays(2) + "T12:00:00Z", "300"), MediaType.APPLICATION_JSON));
+
+        assertEquals(first, restarted.hourly(50.0, 30.0, DAY, DAY.plusDays(3), ZoneOffset.UTC).points());
+        restartedService.verify();
+    }
+
+    @Test
+    void settledRangesAreFetchedAndReusedInMonthBlocks() {
+        RestTemplate restTemplate = new RestTemplate();
+        forecastService = MockRestServiceServer.bindTo(restTemplate).ignoreExpectOrder(true).build();
+        ReflectionTestUtils.setField(service, "restTemplate", restTemplate);
+        ReflectionTestUtils.setField(service, "maxParallel", 2);
+        // Today is 2024-06-20, the last settled day is 06-19
+        ReflectionTestUtils.setField(service, "clock", Clock.fixed(Instant.parse("2024-06-20T10:00:00Z"), ZoneOffset.UTC));
+
+        LocalDate march = LocalDate.of(2024, 3, 1);
+        String[] months = {url(march, LocalDate.of(2024, 3, 31)), url(LocalDate.of(2024, 4, 1), LocalDate.of(2024, 4, 30)),
+                url(LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 31)), url(DAY, LocalDate.of(2024, 6, 19))};
+        for (int i = 0; i < months.length; i++) {
+            forecastService.expect(ExpectedCount.once(), requestTo(months[i]))
+                    .andRespond(withSuccess(hourly(march.plusMonths(i) + "T12:00:00Z", String.valueOf(i + 1),
+                            march.plusMonths(i).plusDays(18) + "T12:00:00Z", String.valueOf(i + 10)), MediaType.APPLICATION_JSON));
+        }
+        forecastService.expect(ExpectedCount.once(), requestTo(url(LocalDate.of(2024, 6, 20), LocalDate.of(2024, 6, 25))))
+                .andRespond(withSuccess(hourly("2024-06-21T12:00:00Z", "99"), MediaType.APPLICATION_JSON));
+
+        // Merged in order and cut to the requested days
+        List<HourlyForecastService.HourlyPoint> series = service.hourly(50.0, 30.0, LocalDate.of(2024, 3, 15), LocalDate.of(2024, 6, 25), ZoneOffset.UTC).points();
+        assertEquals(List.of(10.0, 2.0, 11.0, 3.0, 12.0, 4.0, 13.0, 99.0),
+                series.stream().map(HourlyForecastService.HourlyPoint::wattsPerKwp).toList());
+
+        // An overlapping range is served from the same month blocks
+        assertTrue(service.isCached(50.0, 30.0, LocalDate.of(2024, 4, 10), LocalDate.of(2024, 5, 5), ZoneOffset.UTC));
+        assertEquals(List.of(11.0, 3.0), service.hourly(50.0, 30.0, LocalDate.of(2024, 4, 10), LocalDate.of(2024, 5, 5), ZoneOffset.UTC).points()
+                .stream().map(HourlyForecastService.HourlyPoint::wattsPerKwp).toList());
+        forecastService.verify();
+    }
+}
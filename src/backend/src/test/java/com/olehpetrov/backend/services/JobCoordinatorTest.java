@@ -0,0 +1,113 @@
+package com.olehpetrov.backend.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataMongoTest
+@Testcontainers(disabledWithoutDocker = true)
+class JobCoordinatorTest {
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void clean() {
+        mongoTemplate.dropCollection(JobCoordinator.NODES);
+        mongoTemplate.dropCollection(JobCoordinator.LEASES);
+    }
+
+    // Nodes only heartbeat on start and when told to, unless the interval is short
+    private JobCoordinator node(long leaseMillis) {
+        return node(leaseMillis, 600_000);
+    }
+
+    private JobCoordinator node(long leaseMillis, long heartbeatMillis) {
+        JobCoordinator node = new JobCoordinator(mongoTemplate, true, leaseMillis, heartbeatMillis);
+        node.start();
+        return node;
+    }
+
+    @Test
+    void onlyOneNodeLeadsAJobUntilItLeaves() {
+        JobCoordinator first = node(60_000);
+        JobCoordinator second = node(60_000);
+        AtomicInteger runs = new AtomicInteger();
+
+        assertTrue(first.runAsLeader("compaction", runs::incrementAndGet));
+        assertFalse(second.runAsLeader("compaction", runs::incrementAndGet));
+        // The leader keeps its lease, other jobs are independent
+        assertTrue(first.isLeader("compaction"));
+        assertTrue(second.isLeader("rollup"));
+        assertEquals(1, runs.get());
+
+        first.stop();
+        assertTrue(second.isLeader("compaction"));
+    }
+
+    @Test
+    void leaseOfANodeThatStoppedHeartbeatingIsTakenOver() throws Exception {
+        JobCoordinator crashed = node(200);
+        JobCoordinator survivor = node(200);
+        assertTrue(crashed.isLeader("compaction"));
+        survivor.heartbeat();
+        assertFalse(survivor.isLeader("compaction"));
+
+        Thread.sleep(300);
+        assertTrue(survivor.isLeader("compaction"));
+        assertFalse(crashed.isLeader("compaction"));
+    }
+
+    @Test
+    void jobRunningLongerThanTheLeaseKeepsIt() {
+        JobCoordinator leader = node(300, 50);
+        JobCoordinator other = node(300, 50);
+        AtomicInteger runs = new AtomicInteger();
+
+        assertTrue(leader.runAsLeader("compaction", () -> {
+            try {
+                Thread.sleep(900);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // Heartbeats went on while the job was busy
+            assertFalse(other.runAsLeader("compaction", runs::incrementAndGet));
+        }));
+        assertEquals(0, runs.get());
+        leader.stop();
+        other.stop();
+    }
+
+    @Test
+    void liveNodesSplitTheWorkWithoutOverlap() {
+        JobCoordinator first = node(60_000);
+        JobCoordinator second = node(60_000);
+        JobCoordinator.Shard firstShard = first.shard();
+        JobCoordinator.Shard secondShard = second.shard();
+
+        assertEquals(2, firstShard.count());
+        IntStream.range(0, 100).mapToObj(i -> "2024-06-" + i).forEach(day ->
+                assertTrue(firstShard.owns(day) ^ secondShard.owns(day), day));
+
+        // A node that left no longer counts
+        second.stop();
+        assertEquals(new JobCoordinator.Shard(0, 1), first.shard());
+    }
+}
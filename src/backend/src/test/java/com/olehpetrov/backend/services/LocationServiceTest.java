@@ -0,0 +1,84 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.config.MongoIndexInitializer;
+import com.olehpetrov.backend.models.Location;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.repositories.LocationRepository;
+import com.olehpetrov.backend.repositories.SolarPanelRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+@DataMongoTest
+@Testcontainers(disabledWithoutDocker = true)
+@Import({LocationService.class, MongoIndexInitializer.class})
+class LocationServiceTest {
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private LocationService locationService;
+
+    @Autowired
+    private LocationRepository locationRepository;
+
+    @Autowired
+    private SolarPanelRepository solarPanelRepository;
+
+    @BeforeEach
+    void clean() {
+        solarPanelRepository.deleteAll();
+        locationRepository.deleteAll();
+    }
+
+    @Test
+    void sameSiteIsStoredOnce() {
+        Location first = locationService.intern(56.9496, 24.1052, "Riga", "Riga", "Latvia");
+        Location second = locationService.intern(56.949600001, 24.1052, " riga ", "RIGA", "latvia");
+        Location other = locationService.intern(56.9496, 24.1053, "Riga", "Riga", "Latvia");
+
+        assertEquals(first.getId(), second.getId());
+        assertNotEquals(first.getId(), other.getId());
+        assertEquals(2, locationRepository.count());
+    }
+
+    @Test
+    void compactionMergesLegacyDuplicates() {
+        Location legacy = locationRepository.saveAll(List.of(legacy(), legacy())).get(1);
+        Panel panel = new Panel();
+        panel.setName("Panel");
+        panel.setUserId("user-id");
+        panel.setLocation(legacy);
+        panel = solarPanelRepository.save(panel);
+
+        locationService.compactDuplicates();
+
+        List<Location> locations = locationRepository.findAll();
+        assertEquals(1, locations.size());
+        assertEquals(locations.get(0).getId(), solarPanelRepository.findById(panel.getId()).orElseThrow().getLocation().getId());
+        assertEquals(locations.get(0).getId(), locationService.intern(56.9496, 24.1052, "Riga", "Riga", "Latvia").getId());
+    }
+
+    private static Location legacy() {
+        Location location = new Location();
+        location.setLat(56.9496);
+        location.setLon(24.1052);
+        location.setCity("Riga");
+        location.setDistrict("Riga");
+        location.setCountry("Latvia");
+        return location;
+    }
+}
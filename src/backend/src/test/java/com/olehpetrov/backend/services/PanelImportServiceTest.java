@@ -0,0 +1,181 @@
+package com.olehpetrov.backend.services;
+
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.olehpetrov.backend.models.Cluster;
+import com.olehpetrov.backend.models.Location;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
+import com.olehpetrov.backend.responses.ImportResult;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataMongoTest(properties = "panel.import.batch-size=2")
+@Testcontainers(disabledWithoutDocker = true)
+@Import({PanelImportService.class, ReferenceLoader.class})
+@ImportAutoConfiguration({JacksonAutoConfiguration.class, ValidationAutoConfiguration.class})
+class PanelImportServiceTest {
+
+    private static final String CSV_HEADER = "name,powerRating,efficiency,quantity,lat,lon,city,district,country,cluster\n";
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private PanelImportService importService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate.getDb().drop();
+        user = new User();
+        user.setId("user-1");
+
+        Cluster roof = new Cluster();
+        roof.setName("Roof");
+        roof.setUserId("user-1");
+        mongoTemplate.save(roof);
+        Cluster barn = new Cluster();
+        barn.setName("Barn");
+        barn.setUserId("user-2");
+        mongoTemplate.save(barn);
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String jsonRow(String name, int efficiency, String cluster) {
+        return "{\"name\":\"" + name + "\",\"powerRating\":400,\"efficiency\":" + efficiency + ",\"quantity\":2,"
+                + (cluster != null ? "\"cluster\":\"" + cluster + "\"," : "")
+                + "\"location\":{\"lat\":50.45,\"lon\":30.52,\"city\":\"Kyiv\",\"district\":\"Pechersk\",\"country\":\"Ukraine\"}}";
+    }
+
+    private static List<Integer> errorRows(ImportResult result) {
+        return result.getErrors().stream().map(ImportResult.RowError::getRow).toList();
+    }
+
+    @Test
+    void csvRowsAreWrittenInBatchesAndSharedLocationsStoredOnce() throws Exception {
+        // An existing site is reused, not created again
+        mongoTemplate.save(LocationService.canonical(49.84, 24.03, "Lviv", "Halych", "Ukraine"));
+        String csv = CSV_HEADER
+                + "A,400,20,2,50.45,30.52,Kyiv,Pechersk,Ukraine,Roof\n"
+                + "\n"
+                + "B,400,20,2,50.45,30.52, Kyiv ,Pechersk,Ukraine,\n"
+                + "C,400,20,2,49.84,24.03,Lviv,Halych,Ukraine,\n"
+                + "\"D, east\",400,20,2,46.48,30.72,Odesa,Prymorskyi,Ukraine,\n"
+                + "E,400,20,2,50.45,30.52,Kyiv,Pechersk,Ukraine,Roof\n";
+
+        ImportResult result = importService.importCsv(user, body(csv), false, null);
+
+        assertEquals(5, result.getImported());
+        assertEquals(0, result.getFailed());
+        assertEquals(2, result.getLocationsCreated());
+        assertEquals(3, mongoTemplate.count(new Query(), Location.class));
+        // Rows of the first and the third batch point at the same location
+        List<Document> panels = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Panel.class)).find().into(new ArrayList<>());
+        assertEquals(5, panels.size());
+        Object kyiv = panels.stream().filter(panel -> "A".equals(panel.getString("name"))).findFirst().orElseThrow().get("location");
+        assertEquals(kyiv, panels.stream().filter(panel -> "E".equals(panel.getString("name"))).findFirst().orElseThrow().get("location"));
+        assertTrue(panels.stream().anyMatch(panel -> "D, east".equals(panel.getString("name"))));
+    }
+
+    @Test
+    void csvHeaderMustNameEveryRequiredColumn() {
+        IllegalArgumentException missing = assertThrows(IllegalArgumentException.class,
+                () -> importService.importCsv(user, body("name,powerRating,efficiency,quantity,lat,lon\n"), false, null));
+        assertEquals("CSV is missing columns: city, district, country.", missing.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> importService.importCsv(user, body(""), false, null));
+    }
+
+    @Test
+    void csvFieldsMayBeQuoted() {
+        assertEquals(List.of("a", "b, c", "say \"hi\"", ""), PanelImportService.parseCsvLine("a,\"b, c\",\"say \"\"hi\"\"\","));
+    }
+
+    @Test
+    void badRowsAreReportedAndAnUnorderedImportGoesOn() throws Exception {
+        String json = "[" + jsonRow("A", 20, null) + "," + jsonRow("B", 150, null) + "," + jsonRow("C", 20, "Barn") + ","
+                + jsonRow("D", 20, "Roof") + "]";
+
+        ImportResult result = importService.importJson(user, body(json), false, null);
+
+        assertEquals(2, result.getImported());
+        assertEquals(2, result.getFailed());
+        assertEquals(List.of(2, 3), errorRows(result));
+        assertEquals("efficiency must be less than or equal to 100", result.getErrors().get(0).getMessage());
+        // Another user's cluster is as unknown as a missing one
+        assertEquals("Unknown cluster 'Barn'.", result.getErrors().get(1).getMessage());
+    }
+
+    @Test
+    void orderedImportStopsAtTheFirstBadRowAndKeepsTheRowsBeforeIt() throws Exception {
+        String json = "[" + jsonRow("A", 20, null) + "," + jsonRow("B", 150, null) + "," + jsonRow("C", 20, null) + "]";
+
+        ImportResult result = importService.importJson(user, body(json), true, 10);
+
+        assertEquals(1, result.getImported());
+        assertEquals(1, result.getFailed());
+        assertEquals(List.of(2), errorRows(result));
+        assertEquals(1, mongoTemplate.getCollection(mongoTemplate.getCollectionName(Panel.class)).countDocuments());
+    }
+
+    @Test
+    void malformedJsonMidStreamKeepsTheRowsBeforeIt() throws Exception {
+        String json = "[" + jsonRow("A", 20, null) + "," + jsonRow("B", 20, null) + ",{\"name\" \"C\"}," + jsonRow("D", 20, null) + "]";
+
+        ImportResult result = importService.importJson(user, body(json), false, null);
+
+        assertEquals(2, result.getImported());
+        assertEquals(List.of(3), errorRows(result));
+        assertTrue(result.getErrors().get(0).getMessage().startsWith("Malformed JSON: "));
+        assertThrows(IllegalArgumentException.class, () -> importService.importJson(user, body(jsonRow("A", 20, null)), false, null));
+    }
+
+    @Test
+    void databaseErrorsAreMappedBackToTheirRows() throws Exception {
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(Panel.class)).createIndex(Indexes.ascending("name"), new IndexOptions().unique(true));
+        String json = "[" + jsonRow("A", 20, null) + "," + jsonRow("A", 20, null) + "," + jsonRow("B", 20, null) + "]";
+
+        ImportResult unordered = importService.importJson(user, body(json), false, 10);
+        assertEquals(2, unordered.getImported());
+        assertEquals(List.of(2), errorRows(unordered));
+        assertTrue(unordered.getErrors().get(0).getMessage().contains("duplicate key"));
+
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(Panel.class)).deleteMany(new Document());
+        ImportResult ordered = importService.importJson(user, body(json), true, 10);
+        assertEquals(1, ordered.getImported());
+        assertEquals(List.of(2, 3), errorRows(ordered));
+        assertEquals("Not imported, the ordered import stopped at row 2.", ordered.getErrors().get(1).getMessage());
+    }
+}
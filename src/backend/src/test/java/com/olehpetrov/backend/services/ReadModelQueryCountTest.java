@@ -0,0 +1,234 @@
+package com.olehpetrov.backend.services;
+
+import com.olehpetrov.backend.config.MongoConfig;
+import com.olehpetrov.backend.models.Cluster;
+import com.olehpetrov.backend.models.Inverter;
+import com.olehpetrov.backend.models.Location;
+import com.olehpetrov.backend.models.Panel;
+import com.olehpetrov.backend.repositories.ClusterRepository;
+import com.olehpetrov.backend.repositories.DbRefBatchLoader;
+import com.olehpetrov.backend.repositories.InverterRepository;
+import com.olehpetrov.backend.repositories.LocationRepository;
+import com.olehpetrov.backend.repositories.MongoCommandRecorder;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
+import com.olehpetrov.backend.repositories.SolarPanelRepository;
+import com.olehpetrov.backend.responses.ClusterResponse;
+import com.olehpetrov.backend.responses.ClusterView;
+import com.olehpetrov.backend.responses.CursorPage;
+import com.olehpetrov.backend.responses.PanelView;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.testcontainers.containers.MongoDBContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Read models must use a fixed number of queries no matter how many panels a user owns
+// The invalidation tailer would add its own queries to the recorded ones
+@DataMongoTest(properties = "cache.invalidation.enabled=false")
+@Testcontainers(disabledWithoutDocker = true)
+@Import({MongoConfig.class, SolarPanelService.class, ClusterService.class, EnergySeriesService.class, ReferenceLoader.class, DbRefBatchLoader.class,
+        CacheInvalidationBus.class, MongoCommandRecorder.Config.class})
+class ReadModelQueryCountTest {
+
+    private static final int PANEL_COUNT = 500;
+
+    @Container
+    @ServiceConnection
+    static MongoDBContainer mongo = new MongoDBContainer("mongo:4.4");
+
+    @Autowired
+    private MongoCommandRecorder recorder;
+
+    @Autowired
+    private SolarPanelService panelService;
+
+    @Autowired
+    private ClusterService clusterService;
+
+    @Autowired
+    private SolarPanelRepository solarPanelRepository;
+
+    @Autowired
+    private ClusterRepository clusterRepository;
+
+    @Autowired
+    private LocationRepository locationRepository;
+
+    @Autowired
+    private InverterRepository inverterRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void seed() {
+        solarPanelRepository.deleteAll();
+        clusterRepository.deleteAll();
+
+        Inverter inverter = new Inverter();
+        inverter.setName("Inverter");
+        inverter.setEfficiency(97.0);
+        inverter = inverterRepository.save(inverter);
+
+        List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < PANEL_COUNT; i++) {
+            Location location = new Location();
+            location.setLat(50 + i / 1000.0);
+            location.setLon(25 + i / 1000.0);
+            location.setCity("City " + i);
+            locations.add(location);
+        }
+        locations = locationRepository.saveAll(locations);
+
+        List<Cluster> clusters = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Cluster cluster = new Cluster();
+            cluster.setName("Cluster " + i);
+            cluster.setUserId("user-id");
+            cluster.setInverter(inverter);
+            cluster.setLocation(locations.get(i));
+            clusters.add(cluster);
+        }
+        clusters = clusterRepository.saveAll(clusters);
+
+        List<Panel> panels = new ArrayList<>();
+        for (int i = 0; i < PANEL_COUNT; i++) {
+            Panel panel = new Panel();
+            panel.setName("Panel " + i);
+            panel.setUserId("user-id");
+            panel.setPowerRating(400);
+            panel.setEfficiency(20);
+            panel.setQuantity(1);
+            panel.setLocation(locations.get(i));
+            panel.setCluster(clusters.get(i % clusters.size()));
+            panels.add(panel);
+        }
+        solarPanelRepository.saveAll(panels);
+    }
+
+    @Test
+    void panelListUsesFixedNumberOfQueries() {
+        recorder.clear();
+
+        List<PanelView> views = panelService.getPanelViewsByUserId("user-id");
+
+        assertEquals(PANEL_COUNT, views.size());
+        assertNotNull(views.get(0).getLocation());
+        assertNotNull(views.get(0).getCluster().getName());
+        assertEquals(3, recorder.queries().size());
+    }
+
+    @Test
+    void entityPanelListResolvesReferencesInBatches() {
+        recorder.clear();
+
+        List<Panel> panels = panelService.getPanelsByUserId("user-id");
+
+        assertEquals(PANEL_COUNT, panels.size());
+        assertNotNull(panels.get(0).getLocation().getCity());
+        assertNotNull(panels.get(0).getCluster().getInverter().getName());
+        // panels, then clusters and locations, then inverters (cluster locations are already loaded)
+        assertEquals(4, recorder.queries().size());
+    }
+
+    @Test
+    void clusterWrittenInTheSameRequestIsNotServedFromTheRequestCache() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+        try {
+            Cluster cluster = panelService.getPanelsByUserId("user-id").get(0).getCluster();
+            cluster.setName("Renamed");
+            clusterService.updateCluster(cluster);
+
+            List<Panel> panels = panelService.getPanelsByUserId("user-id");
+            assertEquals("Renamed", panels.stream()
+                    .filter(panel -> panel.getCluster().getId().equals(cluster.getId()))
+                    .findFirst().orElseThrow().getCluster().getName());
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+    }
+
+    @Test
+    void clusterOwnerIsCachedUntilTheClusterIsWritten() {
+        Cluster cluster = clusterRepository.findAll().get(0);
+        recorder.clear();
+
+        assertEquals("user-id", clusterService.getClusterOwnerId(cluster.getId()));
+        assertEquals("user-id", clusterService.getClusterOwnerId(cluster.getId()));
+        assertEquals(1, recorder.queries().size());
+
+        cluster.setUserId("other-user");
+        clusterService.updateCluster(cluster);
+        assertEquals("other-user", clusterService.getClusterOwnerId(cluster.getId()));
+    }
+
+    @Test
+    void clusterListUsesFixedNumberOfQueries() {
+        recorder.clear();
+
+        List<ClusterView> views = clusterService.getClusterViewsByUserId("user-id");
+
+        assertEquals(5, views.size());
+        assertNotNull(views.get(0).getInverter());
+        assertNotNull(views.get(0).getLocation());
+        assertEquals(3, recorder.queries().size());
+    }
+
+    @Test
+    void keysetPanelListingReadsOneProjectedQueryPerSlice() {
+        recorder.clear();
+
+        Set<String> seen = new HashSet<>();
+        CursorPage<ClusterResponse> slice = panelService.findAfter("", 200);
+        int slices = 1;
+        slice.getContent().forEach(panel -> seen.add(panel.getId()));
+        while (slice.getNextCursor() != null) {
+            slice = panelService.findAfter(slice.getNextCursor(), 200);
+            slice.getContent().forEach(panel -> seen.add(panel.getId()));
+            slices++;
+        }
+
+        assertEquals(PANEL_COUNT, seen.size());
+        assertTrue(slice.getContent().get(0).getName().startsWith("Panel "));
+        // No references are resolved, and only name and id come back
+        assertEquals(slices, recorder.queries().size());
+        assertEquals(Set.of("name"), recorder.queries().get(0).getDocument("projection").keySet());
+    }
+
+    @Test
+    void keysetClusterListingWalksMixedStringAndObjectIds() {
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(Cluster.class))
+                .insertOne(new Document("_id", "imported-cluster").append("name", "Imported").append("userId", "user-id"));
+
+        List<String> ids = new ArrayList<>();
+        String cursor = "";
+        do {
+            CursorPage<ClusterResponse> slice = clusterService.findAfter(cursor, 2);
+            slice.getContent().forEach(cluster -> ids.add(cluster.getId()));
+            cursor = slice.getNextCursor();
+        } while (cursor != null);
+
+        // Strings sort before ObjectIds, every cluster shows up exactly once
+        assertEquals(6, ids.size());
+        assertEquals(6, new HashSet<>(ids).size());
+        assertEquals("imported-cluster", ids.get(0));
+    }
+}
@@ -0,0 +1,121 @@
+package com.olehpetrov.backend.services;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.InsertManyOptions;
+import com.olehpetrov.backend.models.Role;
+import com.olehpetrov.backend.models.TelemetryReading;
+import com.olehpetrov.backend.models.User;
+import com.olehpetrov.backend.repositories.ReferenceLoader;
+import com.olehpetrov.backend.requests.TelemetryReadingRequest;
+import com.olehpetrov.backend.responses.IngestResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TelemetryIngestServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final MongoCollection<Document> collection = mock(MongoCollection.class);
+    private TelemetryIngestService service;
+    private User admin;
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.getCollectionName(TelemetryReading.class)).thenReturn("telemetry_readings");
+        when(mongoTemplate.getCollection("telemetry_readings")).thenReturn(collection);
+        // Capacity 10, batches of 4; the writer thread is not started, flush() is called directly
+        service = new TelemetryIngestService(mongoTemplate, mock(ReferenceLoader.class), meterRegistry, 10, 4, 100, 1, 5);
+        admin = new User();
+        admin.setId("admin-id");
+        admin.setRole(Role.ROLE_ADMIN);
+    }
+
+    private static List<TelemetryReadingRequest> readings(int count) {
+        List<TelemetryReadingRequest> readings = new ArrayList<>();
+        IntStream.range(0, count).forEach(i -> {
+            TelemetryReadingRequest reading = new TelemetryReadingRequest();
+            reading.setClusterId("cluster-id");
+            reading.setTimestamp(1718000000000L + i);
+            reading.setPowerW(1000.0);
+            reading.setEnergyWh(10.0);
+            readings.add(reading);
+        });
+        return readings;
+    }
+
+    private double readingsCounted(String outcome) {
+        return meterRegistry.get("telemetry.readings").tag("outcome", outcome).counter().count();
+    }
+
+    @Test
+    void requestIsRefusedWholeWhenTheQueueIsFull() {
+        assertEquals(8, service.ingest(admin, readings(8)).getAccepted());
+
+        IngestResult overloaded = service.ingest(admin, readings(3));
+        assertTrue(overloaded.isOverloaded());
+        assertEquals(0, overloaded.getAccepted());
+        assertFalse(service.ingest(admin, readings(2)).isOverloaded());
+        assertEquals(3.0, readingsCounted("overloaded"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flushDrainsTheQueueInBatches() {
+        service.ingest(admin, readings(10));
+
+        service.flush();
+
+        ArgumentCaptor<List<Document>> batches = ArgumentCaptor.forClass(List.class);
+        verify(collection, times(3)).insertMany(batches.capture(), any(InsertManyOptions.class));
+        assertEquals(List.of(4, 4, 2), batches.getAllValues().stream().map(List::size).toList());
+        assertEquals(10.0, readingsCounted("written"));
+        // The queue has room again
+        assertFalse(service.ingest(admin, readings(10)).isOverloaded());
+    }
+
+    @Test
+    void failedWriteIsRetriedInsteadOfDropped() {
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class)))
+                .thenThrow(new MongoException("not primary"))
+                .thenThrow(new MongoException("not primary"))
+                .thenReturn(null);
+        service.ingest(admin, readings(3));
+
+        service.flush();
+
+        verify(collection, times(3)).insertMany(anyList(), any(InsertManyOptions.class));
+        assertEquals(3.0, readingsCounted("written"));
+        assertEquals(0.0, readingsCounted("failed"));
+    }
+
+    @Test
+    void writeStillFailingOnShutdownIsCountedAsFailed() {
+        when(collection.insertMany(anyList(), any(InsertManyOptions.class))).thenThrow(new MongoException("down"));
+        service.ingest(admin, readings(3));
+
+        service.shutdown();
+
+        assertEquals(3.0, readingsCounted("failed"));
+        assertEquals(0.0, readingsCounted("written"));
+    }
+}
@@ -0,0 +1,59 @@
+package com.olehpetrov.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedBatchQueueTest {
+
+    @Test
+    void batchThatDoesNotFitIsRefusedWhole() {
+        BoundedBatchQueue<Integer> queue = new BoundedBatchQueue<>(5);
+
+        assertTrue(queue.offerAll(List.of(1, 2, 3)));
+        assertFalse(queue.offerAll(List.of(4, 5, 6)));
+        assertEquals(3, queue.size());
+        assertTrue(queue.offerAll(List.of(4, 5)));
+        assertEquals(5, queue.size());
+        assertFalse(queue.offerAll(List.of(6)));
+    }
+
+    @Test
+    void drainTakesAtMostTheBatchInOrderAndFreesCapacity() {
+        BoundedBatchQueue<Integer> queue = new BoundedBatchQueue<>(5);
+        queue.offerAll(List.of(1, 2, 3, 4, 5));
+
+        assertEquals(List.of(1, 2), queue.drain(2));
+        assertEquals(3, queue.size());
+        assertEquals(3, queue.peek());
+        assertTrue(queue.offerAll(List.of(6, 7)));
+        assertEquals(List.of(3, 4, 5, 6, 7), queue.drain(10));
+        assertEquals(List.of(), queue.drain(10));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    void concurrentProducersNeverOverfillIt() throws Exception {
+        BoundedBatchQueue<Integer> queue = new BoundedBatchQueue<>(1000);
+        Thread[] producers = new Thread[8];
+        for (int i = 0; i < producers.length; i++) {
+            producers[i] = new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    queue.offerAll(List.of(j, j, j));
+                }
+            });
+            producers[i].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        // 333 batches of 3 fit, the rest were refused
+        assertEquals(999, queue.size());
+        assertEquals(999, queue.drain(2000).size());
+    }
+}
@@ -0,0 +1,59 @@
+package com.olehpetrov.backend.utils;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.Filters;
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeysetCursorTest {
+
+    private static BsonDocument render(Bson filter) {
+        return filter.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+
+    private static String raw(String key) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void emptyCursorStartsAtTheBeginning() {
+        assertTrue(render(KeysetCursor.after("")).isEmpty());
+        assertTrue(render(KeysetCursor.after(null)).isEmpty());
+    }
+
+    @Test
+    void objectIdCursorContinuesAfterThatObjectId() {
+        ObjectId id = new ObjectId();
+
+        assertEquals(render(Filters.gt("_id", id)), render(KeysetCursor.after(KeysetCursor.encode(id))));
+    }
+
+    @Test
+    void stringCursorAlsoMatchesEveryObjectId() {
+        // A String id that looks like an ObjectId keeps its type
+        String id = new ObjectId().toHexString();
+
+        assertEquals(render(Filters.or(Filters.gt("_id", id), Filters.type("_id", BsonType.OBJECT_ID))),
+                render(KeysetCursor.after(KeysetCursor.encode(id))));
+        assertEquals(render(Filters.or(Filters.gt("_id", "0b1c-uuid"), Filters.type("_id", BsonType.OBJECT_ID))),
+                render(KeysetCursor.after(KeysetCursor.encode("0b1c-uuid"))));
+    }
+
+    @Test
+    void malformedCursorsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.after("not base64!"));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.after(raw("x:42")));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.after(raw("o:not-an-object-id")));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursor.after(raw("o")));
+    }
+}
@@ -0,0 +1,64 @@
+package com.olehpetrov.backend.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+    // One token per second, bursts of three
+    private static final long INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final int CAPACITY = 3;
+
+    private final long start = 1_000_000_000_000L;
+
+    @Test
+    void fullBucketAllowsABurstOfItsCapacity() {
+        TokenBucket bucket = new TokenBucket(start);
+
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(0, bucket.tryAcquire(start, INTERVAL, CAPACITY));
+        }
+        // Empty now: the next token is one interval away
+        assertEquals(INTERVAL, bucket.tryAcquire(start, INTERVAL, CAPACITY));
+    }
+
+    @Test
+    void tokensRefillOneIntervalAtATime() {
+        TokenBucket bucket = new TokenBucket(start);
+        for (int i = 0; i < CAPACITY; i++) {
+            bucket.tryAcquire(start, INTERVAL, CAPACITY);
+        }
+
+        long later = start + INTERVAL / 4;
+        assertEquals(INTERVAL - INTERVAL / 4, bucket.tryAcquire(later, INTERVAL, CAPACITY));
+        assertEquals(0, bucket.tryAcquire(start + INTERVAL, INTERVAL, CAPACITY));
+        assertEquals(INTERVAL, bucket.tryAcquire(start + INTERVAL, INTERVAL, CAPACITY));
+    }
+
+    @Test
+    void idleTimeNeverBuildsMoreThanOneBurst() {
+        TokenBucket bucket = new TokenBucket(start);
+
+        long muchLater = start + 100 * INTERVAL;
+        for (int i = 0; i < CAPACITY; i++) {
+            assertEquals(0, bucket.tryAcquire(muchLater, INTERVAL, CAPACITY));
+        }
+        assertTrue(bucket.tryAcquire(muchLater, INTERVAL, CAPACITY) > 0);
+    }
+
+    @Test
+    void bucketIsFullOnceEveryTokenIsBack() {
+        TokenBucket bucket = new TokenBucket(start);
+        assertTrue(bucket.isFull(start));
+
+        bucket.tryAcquire(start, INTERVAL, CAPACITY);
+        bucket.tryAcquire(start, INTERVAL, CAPACITY);
+        assertFalse(bucket.isFull(start + INTERVAL));
+        assertTrue(bucket.isFull(start + 2 * INTERVAL));
+    }
+}